@@ -0,0 +1,659 @@
+/**
+ * Copyright (C) 2005-2009 Alfresco Software Limited.
+ *
+ * This file is part of the Spring Surf Extension project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.extensions.surf.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded cache using a W-TinyLFU admission and eviction policy.
+ * <p>
+ * New entries enter a small LRU admission window. Entries leaving the window are only admitted
+ * to the main segmented LRU (probation and protected segments) if they have been requested more
+ * frequently than the entry they would evict, as estimated by a count-min frequency sketch. This
+ * keeps frequently used entries resident while a long tail of one-off keys churns through the
+ * window only.
+ * <p>
+ * Reads are lock free. Access ordering is updated on a best effort basis - if the policy lock is
+ * held by another thread the access is simply not recorded. Writes are serialised by the policy lock.
+ * <p>
+ * The cache may be bounded by number of entries or by the total weight of its entries as computed
+ * by a {@link Weigher}. Entries may optionally expire a fixed time after they were written. Hit, miss
+ * and eviction counters are maintained for monitoring.
+ */
+public class TinyLfuCache<K, V>
+{
+    /**
+     * Computes the weight of a cache entry, e.g. its approximate size in bytes.
+     */
+    public interface Weigher<K, V>
+    {
+        /**
+         * @param key   entry key
+         * @param value entry value
+         *
+         * @return the weight of the entry - must be zero or greater
+         */
+        int weigh(K key, V value);
+    }
+
+    private static final int WINDOW = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+
+    private final ConcurrentHashMap<K, Node<K, V>> data;
+    private final ReentrantLock policyLock = new ReentrantLock();
+    private final Weigher<? super K, ? super V> weigher;
+    private final long expireAfterWriteNanos;
+    private final FrequencySketch sketch;
+
+    private final long maximumWeight;
+    private final long windowMaximum;
+    private final long protectedMaximum;
+    private final AccessOrderQueue<K, V> window = new AccessOrderQueue<K, V>();
+    private final AccessOrderQueue<K, V> probation = new AccessOrderQueue<K, V>();
+    private final AccessOrderQueue<K, V> protectedQueue = new AccessOrderQueue<K, V>();
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    /**
+     * Constructs a cache bounded by number of entries that never expires entries
+     *
+     * @param maximumSize   maximum number of entries
+     */
+    public TinyLfuCache(long maximumSize)
+    {
+        this(maximumSize, null, 0L);
+    }
+
+    /**
+     * Constructs a cache bounded by the total weight of its entries
+     *
+     * @param maximumWeight             maximum total weight of the entries (or number of entries if no weigher is given)
+     * @param weigher                   entry weigher - may be null to give each entry a weight of 1
+     * @param expireAfterWriteMillis    time after which an entry expires once written, zero or less to never expire
+     */
+    public TinyLfuCache(long maximumWeight, Weigher<? super K, ? super V> weigher, long expireAfterWriteMillis)
+    {
+        if (maximumWeight <= 0)
+        {
+            throw new IllegalArgumentException("Maximum cache weight must be greater than zero: " + maximumWeight);
+        }
+        this.maximumWeight = maximumWeight;
+        this.weigher = weigher;
+        this.expireAfterWriteNanos = expireAfterWriteMillis > 0 ? expireAfterWriteMillis * 1000000L : 0L;
+        this.windowMaximum = Math.max(1L, maximumWeight / 100L);
+        this.protectedMaximum = (long)((maximumWeight - this.windowMaximum) * 0.8d);
+        int initialCapacity = (int)Math.min(maximumWeight, 1024L);
+        this.data = new ConcurrentHashMap<K, Node<K, V>>(initialCapacity);
+        this.sketch = new FrequencySketch(initialCapacity);
+    }
+
+    /**
+     * Gets a cached value
+     *
+     * @param key   key
+     *
+     * @return the value or null if not present or expired
+     */
+    public V get(K key)
+    {
+        Node<K, V> node = data.get(key);
+        if (node == null)
+        {
+            missCount.incrementAndGet();
+            return null;
+        }
+        if (node.isExpired(System.nanoTime()))
+        {
+            missCount.incrementAndGet();
+            remove(key, node);
+            return null;
+        }
+        hitCount.incrementAndGet();
+
+        // record the access only if the policy is not busy - the cache remains correct without it
+        if (policyLock.tryLock())
+        {
+            try
+            {
+                onAccess(node);
+            }
+            finally
+            {
+                policyLock.unlock();
+            }
+        }
+        return node.value;
+    }
+
+    /**
+     * Adds or replaces a value using the default expiry of the cache
+     *
+     * @param key   key
+     * @param value value
+     */
+    public void put(K key, V value)
+    {
+        put(key, value, -1L);
+    }
+
+    /**
+     * Adds or replaces a value
+     *
+     * @param key                       key
+     * @param value                     value
+     * @param expireAfterWriteMillis    time after which the entry expires, zero to never expire, negative for the cache default
+     */
+    public void put(K key, V value, long expireAfterWriteMillis)
+    {
+        if (key == null || value == null)
+        {
+            throw new IllegalArgumentException("Cache key and value must not be null");
+        }
+        int weight = (weigher == null ? 1 : weigher.weigh(key, value));
+        if (weight > maximumWeight)
+        {
+            // the entry can never fit - ensure a stale value is not left behind
+            remove(key);
+            return;
+        }
+        long expiresAt = 0L;
+        if (expireAfterWriteMillis > 0)
+        {
+            expiresAt = System.nanoTime() + expireAfterWriteMillis * 1000000L;
+        }
+        else if (expireAfterWriteMillis < 0 && expireAfterWriteNanos != 0)
+        {
+            expiresAt = System.nanoTime() + expireAfterWriteNanos;
+        }
+
+        policyLock.lock();
+        try
+        {
+            Node<K, V> node = data.get(key);
+            if (node != null)
+            {
+                queueFor(node).weight += (weight - node.weight);
+                node.value = value;
+                node.weight = weight;
+                node.expiresAt = expiresAt;
+                onAccess(node);
+            }
+            else
+            {
+                sketch.increment(key.hashCode());
+                node = new Node<K, V>(key, value, weight, expiresAt);
+                data.put(key, node);
+                node.queue = WINDOW;
+                window.addFirst(node);
+                sketch.ensureCapacity(data.size());
+            }
+            evict();
+        }
+        finally
+        {
+            policyLock.unlock();
+        }
+    }
+
+    /**
+     * Removes a value
+     *
+     * @param key   key
+     *
+     * @return the removed value or null if not present
+     */
+    public V remove(K key)
+    {
+        policyLock.lock();
+        try
+        {
+            Node<K, V> node = data.remove(key);
+            if (node == null)
+            {
+                return null;
+            }
+            unlink(node);
+            return node.value;
+        }
+        finally
+        {
+            policyLock.unlock();
+        }
+    }
+
+    /**
+     * Removes all values
+     */
+    public void clear()
+    {
+        policyLock.lock();
+        try
+        {
+            data.clear();
+            window.clear();
+            probation.clear();
+            protectedQueue.clear();
+            sketch.clear();
+        }
+        finally
+        {
+            policyLock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of entries in the cache
+     */
+    public int size()
+    {
+        return data.size();
+    }
+
+    /**
+     * @return the total weight of the entries in the cache
+     */
+    public long getWeightedSize()
+    {
+        policyLock.lock();
+        try
+        {
+            return window.weight + probation.weight + protectedQueue.weight;
+        }
+        finally
+        {
+            policyLock.unlock();
+        }
+    }
+
+    /**
+     * @return the maximum total weight (or number of entries) of the cache
+     */
+    public long getMaximumWeight()
+    {
+        return maximumWeight;
+    }
+
+    /**
+     * @return the number of lookups that returned a cached value
+     */
+    public long getHitCount()
+    {
+        return hitCount.get();
+    }
+
+    /**
+     * @return the number of lookups that did not return a cached value
+     */
+    public long getMissCount()
+    {
+        return missCount.get();
+    }
+
+    /**
+     * @return the number of entries evicted or refused admission due to the size bound
+     */
+    public long getEvictionCount()
+    {
+        return evictionCount.get();
+    }
+
+    /**
+     * @return the ratio of lookups that returned a cached value, 1.0 if there have been no lookups
+     */
+    public double getHitRatio()
+    {
+        long hits = hitCount.get();
+        long total = hits + missCount.get();
+        return total == 0 ? 1.0d : (double)hits / total;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "TinyLfuCache[size=" + size() + ", maximumWeight=" + maximumWeight + ", hits=" + getHitCount() +
+               ", misses=" + getMissCount() + ", evictions=" + getEvictionCount() + "]";
+    }
+
+    /**
+     * Removes the given node if it is still mapped to the key
+     */
+    private void remove(K key, Node<K, V> node)
+    {
+        policyLock.lock();
+        try
+        {
+            if (data.remove(key, node))
+            {
+                unlink(node);
+            }
+        }
+        finally
+        {
+            policyLock.unlock();
+        }
+    }
+
+    /**
+     * Records an access to a node - must be called with the policy lock held
+     */
+    private void onAccess(Node<K, V> node)
+    {
+        if (node.queue < 0)
+        {
+            // node was removed concurrently
+            return;
+        }
+        sketch.increment(node.key.hashCode());
+        switch (node.queue)
+        {
+            case WINDOW:
+                window.moveToFirst(node);
+                break;
+            case PROBATION:
+                // promote to the protected segment, demoting its least recently used entries as required
+                probation.remove(node);
+                node.queue = PROTECTED;
+                protectedQueue.addFirst(node);
+                while (protectedQueue.weight > protectedMaximum && protectedQueue.last != node)
+                {
+                    Node<K, V> demoted = protectedQueue.removeLast();
+                    demoted.queue = PROBATION;
+                    probation.addFirst(demoted);
+                }
+                break;
+            case PROTECTED:
+                protectedQueue.moveToFirst(node);
+                break;
+        }
+    }
+
+    /**
+     * Evicts entries until the cache is within its bounds - must be called with the policy lock held
+     */
+    private void evict()
+    {
+        // entries overflowing the window become candidates for admission to the main space
+        List<Node<K, V>> candidates = null;
+        while (window.weight > windowMaximum && window.last != null)
+        {
+            Node<K, V> candidate = window.removeLast();
+            candidate.queue = PROBATION;
+            probation.addFirst(candidate);
+            if (candidates == null)
+            {
+                candidates = new ArrayList<Node<K, V>>(2);
+            }
+            candidates.add(candidate);
+        }
+
+        long mainMaximum = maximumWeight - windowMaximum;
+        if (candidates != null)
+        {
+            for (Node<K, V> candidate : candidates)
+            {
+                while (candidate.queue >= 0 && probation.weight + protectedQueue.weight > mainMaximum)
+                {
+                    Node<K, V> victim = probation.last;
+                    if (victim == candidate)
+                    {
+                        victim = victim.prev;
+                    }
+                    if (victim == null)
+                    {
+                        victim = protectedQueue.last;
+                    }
+                    if (victim == null || sketch.frequency(candidate.key.hashCode()) <= sketch.frequency(victim.key.hashCode()))
+                    {
+                        evictNode(candidate);
+                    }
+                    else
+                    {
+                        evictNode(victim);
+                    }
+                }
+            }
+        }
+
+        // evict from the main space in LRU order for any remaining excess, e.g. due to weight changes
+        while (window.weight + probation.weight + protectedQueue.weight > maximumWeight)
+        {
+            Node<K, V> victim = probation.last != null ? probation.last : (protectedQueue.last != null ? protectedQueue.last : window.last);
+            evictNode(victim);
+        }
+    }
+
+    private void evictNode(Node<K, V> node)
+    {
+        data.remove(node.key, node);
+        unlink(node);
+        evictionCount.incrementAndGet();
+    }
+
+    private void unlink(Node<K, V> node)
+    {
+        if (node.queue >= 0)
+        {
+            queueFor(node).remove(node);
+            node.queue = -1;
+        }
+    }
+
+    private AccessOrderQueue<K, V> queueFor(Node<K, V> node)
+    {
+        switch (node.queue)
+        {
+            case WINDOW:
+                return window;
+            case PROBATION:
+                return probation;
+            default:
+                return protectedQueue;
+        }
+    }
+
+
+    /**
+     * Cache entry - also a link of the access order queue of its segment
+     */
+    private static final class Node<K, V>
+    {
+        final K key;
+        volatile V value;
+        volatile long expiresAt;
+        int weight;
+        int queue;
+        Node<K, V> prev;
+        Node<K, V> next;
+
+        Node(K key, V value, int weight, long expiresAt)
+        {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired(long now)
+        {
+            long expires = expiresAt;
+            return expires != 0L && now - expires >= 0L;
+        }
+    }
+
+    /**
+     * Doubly linked queue of nodes from most (first) to least (last) recently used
+     */
+    private static final class AccessOrderQueue<K, V>
+    {
+        Node<K, V> first;
+        Node<K, V> last;
+        long weight;
+
+        void addFirst(Node<K, V> node)
+        {
+            node.prev = null;
+            node.next = first;
+            if (first == null)
+            {
+                last = node;
+            }
+            else
+            {
+                first.prev = node;
+            }
+            first = node;
+            weight += node.weight;
+        }
+
+        void remove(Node<K, V> node)
+        {
+            if (node.prev == null)
+            {
+                first = node.next;
+            }
+            else
+            {
+                node.prev.next = node.next;
+            }
+            if (node.next == null)
+            {
+                last = node.prev;
+            }
+            else
+            {
+                node.next.prev = node.prev;
+            }
+            node.prev = null;
+            node.next = null;
+            weight -= node.weight;
+        }
+
+        Node<K, V> removeLast()
+        {
+            Node<K, V> node = last;
+            remove(node);
+            return node;
+        }
+
+        void moveToFirst(Node<K, V> node)
+        {
+            if (first != node)
+            {
+                remove(node);
+                addFirst(node);
+            }
+        }
+
+        void clear()
+        {
+            first = null;
+            last = null;
+            weight = 0L;
+        }
+    }
+
+    /**
+     * Count-min sketch estimating the access frequency of keys by their hash code. Counters
+     * saturate at 15 and are periodically halved so that the estimates favour recent history.
+     */
+    private static final class FrequencySketch
+    {
+        private static final int MAXIMUM_CAPACITY = 1 << 22;
+        private static final int[] SEEDS = { 0x97cb3127, 0x1b873593, 0x85ebca6b, 0xc2b2ae35 };
+
+        private byte[] table;
+        private int additions;
+        private int sampleSize;
+
+        FrequencySketch(int capacity)
+        {
+            resize(capacity);
+        }
+
+        void ensureCapacity(int size)
+        {
+            if (size > (table.length >>> 1) && table.length < MAXIMUM_CAPACITY)
+            {
+                resize(table.length << 1);
+            }
+        }
+
+        int frequency(int hash)
+        {
+            int frequency = Integer.MAX_VALUE;
+            for (int i = 0; i < SEEDS.length; i++)
+            {
+                frequency = Math.min(frequency, table[indexOf(hash, i)]);
+            }
+            return frequency;
+        }
+
+        void increment(int hash)
+        {
+            boolean added = false;
+            for (int i = 0; i < SEEDS.length; i++)
+            {
+                int index = indexOf(hash, i);
+                if (table[index] < 15)
+                {
+                    table[index]++;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= sampleSize)
+            {
+                // age the counters so that historic popularity decays
+                for (int i = 0; i < table.length; i++)
+                {
+                    table[i] = (byte)(table[i] >>> 1);
+                }
+                additions >>>= 1;
+            }
+        }
+
+        void clear()
+        {
+            Arrays.fill(table, (byte)0);
+            additions = 0;
+        }
+
+        private int indexOf(int hash, int i)
+        {
+            int h = (hash ^ SEEDS[i]) * 0x9e3779b9;
+            h ^= (h >>> 16);
+            return h & (table.length - 1);
+        }
+
+        private void resize(int capacity)
+        {
+            int length = Integer.highestOneBit(Math.max(16, Math.min(capacity, MAXIMUM_CAPACITY)) - 1) << 1;
+            table = new byte[length];
+            sampleSize = 10 * length;
+            additions = 0;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/**
+ * Copyright (C) 2005-2009 Alfresco Software Limited.
+ *
+ * This file is part of the Spring Surf Extension project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.extensions.surf.util;
+
+import junit.framework.TestCase;
+
+/**
+ * TinyLfuCache unit tests
+ */
+public class TinyLfuCacheTest extends TestCase
+{
+    public void testGetPutRemove()
+    {
+        TinyLfuCache<String, String> cache = new TinyLfuCache<String, String>(10);
+        assertNull(cache.get("a"));
+        cache.put("a", "1");
+        assertEquals("1", cache.get("a"));
+        cache.put("a", "2");
+        assertEquals("2", cache.get("a"));
+        assertEquals(1, cache.size());
+        assertEquals("2", cache.remove("a"));
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.size());
+
+        assertEquals(2, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+    }
+
+    public void testBounded()
+    {
+        TinyLfuCache<Integer, Integer> cache = new TinyLfuCache<Integer, Integer>(100);
+        for (int i = 0; i < 10000; i++)
+        {
+            cache.put(i, i);
+            assertTrue(cache.size() <= 100);
+        }
+        assertEquals(10000 - cache.size(), cache.getEvictionCount());
+    }
+
+    public void testFrequentEntriesSurviveLongTail()
+    {
+        TinyLfuCache<String, String> cache = new TinyLfuCache<String, String>(100);
+
+        // establish a working set of popular keys
+        for (int round = 0; round < 5; round++)
+        {
+            for (int i = 0; i < 50; i++)
+            {
+                String key = "hot" + i;
+                if (cache.get(key) == null)
+                {
+                    cache.put(key, key);
+                }
+            }
+        }
+
+        // a long tail of one-off keys must not flush the working set
+        for (int i = 0; i < 10000; i++)
+        {
+            String key = "cold" + i;
+            if (cache.get(key) == null)
+            {
+                cache.put(key, key);
+            }
+        }
+
+        int resident = 0;
+        for (int i = 0; i < 50; i++)
+        {
+            if (cache.get("hot" + i) != null)
+            {
+                resident++;
+            }
+        }
+        assertTrue("Only " + resident + " popular entries remained", resident >= 45);
+    }
+
+    public void testWeighted()
+    {
+        TinyLfuCache.Weigher<String, String> weigher = new TinyLfuCache.Weigher<String, String>()
+        {
+            public int weigh(String key, String value)
+            {
+                return value.length();
+            }
+        };
+        TinyLfuCache<String, String> cache = new TinyLfuCache<String, String>(100, weigher, 0L);
+        cache.put("big", new String(new char[101]));
+        assertNull(cache.get("big"));
+        for (int i = 0; i < 100; i++)
+        {
+            cache.put("k" + i, "0123456789");
+            assertTrue(cache.getWeightedSize() <= 100);
+        }
+    }
+
+    public void testExpiry() throws Exception
+    {
+        TinyLfuCache<String, String> cache = new TinyLfuCache<String, String>(10, null, 50L);
+        cache.put("a", "1");
+        cache.put("b", "2", 0L);
+        assertEquals("1", cache.get("a"));
+        Thread.sleep(100L);
+        assertNull(cache.get("a"));
+        assertEquals("2", cache.get("b"));
+    }
+}
@@ -367,6 +367,13 @@ public class RemoteConfigElement extends ConfigElementAdapter implements RemoteC
         private static final String AUTHENTICATOR_ID = "authenticator-id";
         private static final String UNAUTHENTICATED_MODE = "unauthenticated-mode";
         private static final String RECONNECT_TIMEOUT = "reconnect-timeout";
+        private static final String CIRCUIT_BREAKER = "circuit-breaker";
+        private static final String FAILURE_WINDOW_SIZE = "failure-window-size";
+        private static final String MINIMUM_CALLS = "minimum-calls";
+        private static final String FAILURE_RATE_THRESHOLD = "failure-rate-threshold";
+        private static final String SLOW_CALL_THRESHOLD = "slow-call-threshold";
+        private static final String SLOW_CALL_RATE_THRESHOLD = "slow-call-rate-threshold";
+        private static final String HALF_OPEN_CALLS = "half-open-calls";
 
         /**
          * Instantiates a new remote connector descriptor.
@@ -376,6 +383,17 @@ public class RemoteConfigElement extends ConfigElementAdapter implements RemoteC
         ConnectorDescriptor(Element el)
         {
             super(el);
+            
+            // the circuit breaker settings are nested in its element
+            Element circuitBreaker = el.element(CIRCUIT_BREAKER);
+            if (circuitBreaker != null)
+            {
+                List elements = circuitBreaker.elements();
+                for (int i = 0; i < elements.size(); i++)
+                {
+                    put((Element) elements.get(i));
+                }
+            }
         }
 
         public String getImplementationClass() 
@@ -407,6 +425,44 @@ public class RemoteConfigElement extends ConfigElementAdapter implements RemoteC
         {
             return getStringProperty(RECONNECT_TIMEOUT);
         }
+        
+        /**
+         * @return true if the connector configures a circuit breaker for its endpoints
+         */
+        public boolean isCircuitBreakerEnabled()
+        {
+            return get(CIRCUIT_BREAKER) != null;
+        }
+        
+        public String getFailureWindowSize()
+        {
+            return getStringProperty(FAILURE_WINDOW_SIZE);
+        }
+        
+        public String getMinimumCalls()
+        {
+            return getStringProperty(MINIMUM_CALLS);
+        }
+        
+        public String getFailureRateThreshold()
+        {
+            return getStringProperty(FAILURE_RATE_THRESHOLD);
+        }
+        
+        public String getSlowCallThreshold()
+        {
+            return getStringProperty(SLOW_CALL_THRESHOLD);
+        }
+        
+        public String getSlowCallRateThreshold()
+        {
+            return getStringProperty(SLOW_CALL_RATE_THRESHOLD);
+        }
+        
+        public String getHalfOpenCalls()
+        {
+            return getStringProperty(HALF_OPEN_CALLS);
+        }
     }
 
     /**
@@ -459,6 +515,10 @@ public class RemoteConfigElement extends ConfigElementAdapter implements RemoteC
         private static final String BASIC_AUTH = "basic-auth";
         private static final String EXTERNAL_AUTH = "external-auth";
         private static final String PARENT_ID = "parent-id";
+        private static final String MAX_CONNECTIONS_PER_ROUTE = "max-connections-per-route";
+        private static final String CONNECTION_IDLE_TIMEOUT = "connection-idle-timeout";
+        private static final String CONNECTION_TTL = "connection-ttl";
+        private static final String CONNECTION_VALIDATE_AFTER_INACTIVITY = "connection-validate-after-inactivity";
 
         /**
          * Instantiates a new remote endpoint descriptor.
@@ -535,6 +595,26 @@ public class RemoteConfigElement extends ConfigElementAdapter implements RemoteC
         {
             return getStringProperty(PARENT_ID);
         }
+        
+        public String getMaxConnectionsPerRoute()
+        {
+            return getStringProperty(MAX_CONNECTIONS_PER_ROUTE);
+        }
+        
+        public String getConnectionIdleTimeout()
+        {
+            return getStringProperty(CONNECTION_IDLE_TIMEOUT);
+        }
+        
+        public String getConnectionTimeToLive()
+        {
+            return getStringProperty(CONNECTION_TTL);
+        }
+        
+        public String getConnectionValidateAfterInactivity()
+        {
+            return getStringProperty(CONNECTION_VALIDATE_AFTER_INACTIVITY);
+        }
     }
 
     /**
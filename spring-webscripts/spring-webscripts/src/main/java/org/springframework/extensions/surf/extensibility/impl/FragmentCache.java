@@ -0,0 +1,245 @@
+/**
+ * Copyright (C) 2005-2009 Alfresco Software Limited.
+ *
+ * This file is part of the Spring Surf Extension project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.extensions.surf.extensibility.impl;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.extensions.surf.util.TinyLfuCache;
+
+/**
+ * <p>Holds the rendered output of FreeMarker template fragments for the {@link FragmentCacheDirective}.</p>
+ * <p>The store is bounded by the total number of characters held and each entry expires after the time to live
+ * it was stored with. Hits, misses and render times are recorded for each named fragment so that the benefit of
+ * caching each fragment can be reported.</p>
+ */
+public class FragmentCache
+{
+    /**
+     * <p>The default maximum number of characters of rendered output to hold.</p>
+     */
+    public static final long DEFAULT_MAXIMUM_WEIGHT = 4L * 1024L * 1024L;
+
+    /**
+     * <p>The default time to live of a fragment, in seconds.</p>
+     */
+    public static final long DEFAULT_TIME_TO_LIVE = 300L;
+
+    private static final TinyLfuCache.Weigher<String, Entry> WEIGHER = new TinyLfuCache.Weigher<String, Entry>()
+    {
+        public int weigh(String key, Entry value)
+        {
+            return key.length() + value.content.length();
+        }
+    };
+
+    private final TinyLfuCache<String, Entry> cache;
+
+    private final long timeToLive;
+
+    private final ConcurrentMap<String, Statistics> statistics = new ConcurrentHashMap<String, Statistics>();
+
+    public FragmentCache()
+    {
+        this(DEFAULT_MAXIMUM_WEIGHT, DEFAULT_TIME_TO_LIVE);
+    }
+
+    /**
+     * @param maximumWeight The maximum number of characters of rendered output to hold, zero to disable caching.
+     * @param timeToLive The time to live, in seconds, of fragments that do not declare their own.
+     */
+    public FragmentCache(long maximumWeight, long timeToLive)
+    {
+        this.cache = maximumWeight > 0L ? new TinyLfuCache<String, Entry>(maximumWeight, WEIGHER, 0L) : null;
+        this.timeToLive = timeToLive;
+    }
+
+    /**
+     * @return <code>true</code> if fragments are being cached.
+     */
+    public boolean isEnabled()
+    {
+        return this.cache != null;
+    }
+
+    /**
+     * @return The time to live, in seconds, of fragments that do not declare their own.
+     */
+    public long getTimeToLive()
+    {
+        return this.timeToLive;
+    }
+
+    /**
+     * <p>Retrieves the cached output of a fragment, recording a hit or a miss against it.</p>
+     *
+     * @param fragment The name of the fragment.
+     * @param key The cache key of this rendering of the fragment.
+     * @return The cached output, or <code>null</code> if the fragment must be rendered.
+     */
+    public String get(String fragment, String key)
+    {
+        Statistics stats = getStatistics(fragment);
+        Entry entry = this.cache == null ? null : this.cache.get(key);
+        if (entry == null)
+        {
+            stats.misses.incrementAndGet();
+            return null;
+        }
+        stats.hits.incrementAndGet();
+        stats.savedTime.addAndGet(entry.renderTime);
+        return entry.content;
+    }
+
+    /**
+     * <p>Stores the rendered output of a fragment.</p>
+     *
+     * @param fragment The name of the fragment.
+     * @param key The cache key of this rendering of the fragment.
+     * @param content The rendered output.
+     * @param renderTime The time taken to render the output, in nanoseconds.
+     * @param timeToLive The time to live of the output, in seconds.
+     */
+    public void put(String fragment, String key, String content, long renderTime, long timeToLive)
+    {
+        getStatistics(fragment).renderTime.addAndGet(renderTime);
+        if (this.cache != null && timeToLive > 0L)
+        {
+            this.cache.put(key, new Entry(content, renderTime), timeToLive * 1000L);
+        }
+    }
+
+    /**
+     * <p>Removes all cached output, leaving the statistics in place.</p>
+     */
+    public void clear()
+    {
+        if (this.cache != null)
+        {
+            this.cache.clear();
+        }
+    }
+
+    /**
+     * @return The number of renderings of fragments currently held.
+     */
+    public int size()
+    {
+        return this.cache == null ? 0 : this.cache.size();
+    }
+
+    /**
+     * @return The number of renderings evicted to keep within the maximum weight.
+     */
+    public long getEvictionCount()
+    {
+        return this.cache == null ? 0L : this.cache.getEvictionCount();
+    }
+
+    /**
+     * @return The statistics of each fragment rendered so far, keyed by fragment name.
+     */
+    public Map<String, Statistics> getStatistics()
+    {
+        return Collections.unmodifiableMap(this.statistics);
+    }
+
+    private Statistics getStatistics(String fragment)
+    {
+        Statistics stats = this.statistics.get(fragment);
+        if (stats == null)
+        {
+            stats = new Statistics();
+            Statistics existing = this.statistics.putIfAbsent(fragment, stats);
+            if (existing != null)
+            {
+                stats = existing;
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * <p>A rendering of a fragment.</p>
+     */
+    private static final class Entry
+    {
+        private final String content;
+        private final long renderTime;
+
+        private Entry(String content, long renderTime)
+        {
+            this.content = content;
+            this.renderTime = renderTime;
+        }
+    }
+
+    /**
+     * <p>The hit rate of a fragment and the render time saved by caching it.</p>
+     */
+    public static final class Statistics
+    {
+        private final AtomicLong hits = new AtomicLong();
+        private final AtomicLong misses = new AtomicLong();
+        private final AtomicLong renderTime = new AtomicLong();
+        private final AtomicLong savedTime = new AtomicLong();
+
+        public long getHitCount()
+        {
+            return this.hits.get();
+        }
+
+        public long getMissCount()
+        {
+            return this.misses.get();
+        }
+
+        public double getHitRatio()
+        {
+            long hits = this.hits.get();
+            long total = hits + this.misses.get();
+            return total == 0L ? 0.0d : (double)hits / total;
+        }
+
+        /**
+         * @return The total time spent rendering the fragment, in milliseconds.
+         */
+        public long getRenderTime()
+        {
+            return this.renderTime.get() / 1000000L;
+        }
+
+        /**
+         * @return The render time saved by serving the fragment from the cache, in milliseconds.
+         */
+        public long getSavedTime()
+        {
+            return this.savedTime.get() / 1000000L;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "hits=" + getHitCount() + ", misses=" + getMissCount() + ", hitRatio=" + getHitRatio() +
+                   ", renderTime=" + getRenderTime() + "ms, savedTime=" + getSavedTime() + "ms";
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/**
+ * Copyright (C) 2005-2009 Alfresco Software Limited.
+ *
+ * This file is part of the Spring Surf Extension project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.extensions.surf.extensibility.impl;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import freemarker.core.Environment;
+import freemarker.template.TemplateBooleanModel;
+import freemarker.template.TemplateDateModel;
+import freemarker.template.TemplateDirectiveBody;
+import freemarker.template.TemplateException;
+import freemarker.template.TemplateModel;
+import freemarker.template.TemplateModelException;
+import freemarker.template.TemplateNumberModel;
+import freemarker.template.TemplateScalarModel;
+import freemarker.template.TemplateSequenceModel;
+
+/**
+ * <p>Caches the rendered output of its body in a {@link FragmentCache} so that fragments that render identically
+ * for many requests (menus, footers, header widgets, etc) are only rendered once per time to live. The directive
+ * has the following attributes:
+ * <ul>
+ * <li>id: The name of the fragment, unique within the template (required)</li>
+ * <li>key: A value, or sequence of values, on which the output of the body depends (e.g. the user or locale)</li>
+ * <li>ttl: The number of seconds to hold the output for (the cache default is used if not provided)</li>
+ * </ul>
+ * For example: <code>&lt;@cachedFragment id="footer" key=[locale, user.id] ttl=600&gt;...&lt;/@cachedFragment&gt;</code></p>
+ * <p>Only the output written by the body is cached - the body should not contain extensibility directives (such
+ * as <code>markup</code>) or rely on side effects such as assigning variables.</p>
+ */
+public class FragmentCacheDirective extends AbstractFreeMarkerDirective
+{
+    private static final Log logger = LogFactory.getLog(FragmentCacheDirective.class);
+
+    public static final String ID = "id";
+    public static final String KEY = "key";
+    public static final String TTL = "ttl";
+
+    private static final char SEPARATOR = '\u0000';
+
+    private final FragmentCache cache;
+
+    public FragmentCacheDirective(String directiveName, FragmentCache cache)
+    {
+        super(directiveName);
+        this.cache = cache;
+    }
+
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    public void execute(Environment env,
+                        Map params,
+                        TemplateModel[] loopVars,
+                        TemplateDirectiveBody body) throws TemplateException, IOException
+    {
+        String id = getStringProperty(params, ID, true);
+        long ttl = getTimeToLive(params);
+        if (body == null)
+        {
+            return;
+        }
+
+        // fragment ids are unique within the template containing the directive - which may be included by others
+        String fragment = env.getCurrentTemplate().getName() + '#' + id;
+        StringBuilder key = new StringBuilder(fragment);
+        appendKey(key, (TemplateModel)params.get(KEY));
+
+        String content = this.cache.get(fragment, key.toString());
+        if (content == null)
+        {
+            long start = System.nanoTime();
+            StringWriter writer = new StringWriter(1024);
+            body.render(writer);
+            content = writer.toString();
+            this.cache.put(fragment, key.toString(), content, System.nanoTime() - start, ttl);
+            if (logger.isDebugEnabled())
+                logger.debug("Rendered fragment " + fragment + ": " + this.cache.getStatistics().get(fragment));
+        }
+        env.getOut().write(content);
+    }
+
+    /**
+     * <p>Retrieves the time to live of the fragment from the "ttl" parameter, or the cache default if not provided.</p>
+     */
+    private long getTimeToLive(Map<String, Object> params) throws TemplateModelException
+    {
+        TemplateModel value = (TemplateModel)params.get(TTL);
+        if (value == null)
+        {
+            return this.cache.getTimeToLive();
+        }
+        try
+        {
+            if (value instanceof TemplateNumberModel)
+            {
+                return ((TemplateNumberModel)value).getAsNumber().longValue();
+            }
+            else if (value instanceof TemplateScalarModel)
+            {
+                return Long.parseLong(((TemplateScalarModel)value).getAsString().trim());
+            }
+        }
+        catch (NumberFormatException e)
+        {
+            // fall through to the exception below
+        }
+        throw new TemplateModelException("The \"" + TTL + "\" parameter to the \"" + getDirectiveName() + "\" directive must be a number of seconds.");
+    }
+
+    /**
+     * <p>Appends the string form of a key expression to the cache key.</p>
+     */
+    private void appendKey(StringBuilder key, TemplateModel value) throws TemplateModelException
+    {
+        key.append(SEPARATOR);
+        if (value == null)
+        {
+            return;
+        }
+        if (value instanceof TemplateScalarModel)
+        {
+            key.append(((TemplateScalarModel)value).getAsString());
+        }
+        else if (value instanceof TemplateNumberModel)
+        {
+            key.append(((TemplateNumberModel)value).getAsNumber());
+        }
+        else if (value instanceof TemplateBooleanModel)
+        {
+            key.append(((TemplateBooleanModel)value).getAsBoolean());
+        }
+        else if (value instanceof TemplateDateModel)
+        {
+            key.append(((TemplateDateModel)value).getAsDate().getTime());
+        }
+        else if (value instanceof TemplateSequenceModel)
+        {
+            TemplateSequenceModel sequence = (TemplateSequenceModel)value;
+            for (int i = 0; i < sequence.size(); i++)
+            {
+                appendKey(key, sequence.get(i));
+            }
+        }
+        else
+        {
+            throw new TemplateModelException("The \"" + KEY + "\" parameter to the \"" + getDirectiveName() + "\" directive must be a value or a sequence of values.");
+        }
+    }
+}
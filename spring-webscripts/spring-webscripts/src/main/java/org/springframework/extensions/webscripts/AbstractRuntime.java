@@ -207,7 +207,55 @@ public abstract class AbstractRuntime implements Runtime
                     logger.debug("Invoking Web Script " + description.getId() + " (format " + format + ", style: " + desc.getFormatStyle() + ", default: " + desc.getDefaultFormat() + ")");
                 }
 
-                executeScript(scriptReq, scriptRes, auth);
+                // evaluate conditional GET validators before execution - only for Web Scripts that require no
+                // authentication, as the container has not yet authenticated the request at this point
+                WebScriptResponse res = scriptRes;
+                ConditionalGet.ETagResponse eTagRes = null;
+                Description.RequiredCache requiredCache = description.getRequiredCache();
+                if (requiredCache != null && "GET".equalsIgnoreCase(method))
+                {
+                    if (requiredCache.getValidator() && script instanceof AbstractWebScript &&
+                        description.getRequiredAuthentication() == RequiredAuthentication.none)
+                    {
+                        Cache validators = ((AbstractWebScript)script).executeValidatorScript(scriptReq, scriptRes);
+                        if (validators != null)
+                        {
+                            if (ConditionalGet.isNotModified(scriptReq, validators.getETag(), validators.getLastModified()))
+                            {
+                                if (debug) logger.debug("Web Script " + description.getId() + " not modified");
+                                ConditionalGet.sendNotModified(scriptRes, validators);
+                                return;
+                            }
+                            scriptRes.setCache(validators);
+                        }
+                    }
+                    if (requiredCache.getAutoETag())
+                    {
+                        eTagRes = new ConditionalGet.ETagResponse(scriptReq, scriptRes);
+                        res = eTagRes;
+                    }
+                }
+                
+                ResponseCache responseCache = getResponseCache();
+                if (responseCache != null && responseCache.isCachable(method, description))
+                {
+                    String key = responseCache.getKey(scriptReq);
+                    if (!responseCache.replay(key, scriptReq, res))
+                    {
+                        ResponseCache.RecordingResponse recordingRes = responseCache.record(res);
+                        executeScript(scriptReq, recordingRes, auth);
+                        responseCache.store(key, scriptReq, recordingRes);
+                    }
+                }
+                else
+                {
+                    executeScript(scriptReq, res, auth);
+                }
+                
+                if (eTagRes != null)
+                {
+                    eTagRes.complete();
+                }
             }
             finally
             {
@@ -238,6 +286,15 @@ public abstract class AbstractRuntime implements Runtime
         }
         finally
         {
+            try
+            {
+                completeResponse();
+            }
+            catch (IOException e)
+            {
+                if (debug)
+                    logger.debug("Failed to complete response for script url (" + method + ") " + scriptUrl, e);
+            }
             if (debug)
             {
                 long endRuntime = System.nanoTime();
@@ -423,6 +480,20 @@ public abstract class AbstractRuntime implements Runtime
         container.executeScript(scriptReq, scriptRes, auth);
     }
 
+    /**
+     * Get the server-side response cache of the container, if enabled
+     * 
+     * @return  response cache, or null
+     */
+    protected ResponseCache getResponseCache()
+    {
+        if (container instanceof AbstractRuntimeContainer)
+        {
+            return ((AbstractRuntimeContainer)container).getResponseCache();
+        }
+        return null;
+    }
+
     /**
      * Get code specific Status Template path
      * 
@@ -515,6 +586,15 @@ public abstract class AbstractRuntime implements Runtime
      * @return  web script response
      */
     protected abstract WebScriptResponse createResponse();
+
+    /**
+     * Complete the Web Script response once the Web Script (or error response) has been rendered
+     * 
+     * @throws IOException
+     */
+    protected void completeResponse() throws IOException
+    {
+    }
     
     /**
      * Create a Web Script Authenticator
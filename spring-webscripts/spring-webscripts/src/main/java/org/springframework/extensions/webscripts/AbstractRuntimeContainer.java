@@ -60,6 +60,7 @@ public abstract class AbstractRuntimeContainer
     private ConfigService configService;
     private Map<String, Object> scriptObjects;
     private Map<String, Object> templateObjects;
+    private ResponseCache responseCache;
 
     /**
      * @param name String
@@ -141,6 +142,22 @@ public abstract class AbstractRuntimeContainer
         this.templateObjects = templateObjects;
     }
     
+    /**
+     * @param responseCache  server-side cache of public GET responses, null (the default) to disable
+     */
+    public void setResponseCache(ResponseCache responseCache)
+    {
+        this.responseCache = responseCache;
+    }
+    
+    /**
+     * @return  server-side cache of public GET responses, or null if not enabled
+     */
+    public ResponseCache getResponseCache()
+    {
+        return this.responseCache;
+    }
+    
     /**
      * @param allowCallbacks    try to enable callback methods, such as json_callback
      */
@@ -258,6 +275,10 @@ public abstract class AbstractRuntimeContainer
             templateProcessorRegistry.reset();
             getRegistry().reset();
             configService.reset();
+            if (responseCache != null)
+            {
+                responseCache.clear();
+            }
         }
         finally
         {
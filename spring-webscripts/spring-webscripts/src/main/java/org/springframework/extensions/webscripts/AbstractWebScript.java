@@ -99,6 +99,7 @@ public abstract class AbstractWebScript implements WebScript
     
     // The entry we use to 'remember' nulls in the cache
     final private static ScriptDetails NULLSENTINEL = new ScriptDetails(null, null);
+    final private static String VALIDATOR_KEY = "<VALIDATOR>";
     
     // MessageMessage helper - thread safe single instance
     private MessageMethod messageMethod = null;
@@ -696,6 +697,64 @@ public abstract class AbstractWebScript implements WebScript
         return script != NULLSENTINEL ? script : null;
 	}
 
+    /**
+     * Execute the validator script (&lt;id&gt;.validator.js) of this Web Script, if it has one
+     * 
+     * The validator script is given the args, headers and url of the request and a cache object on which
+     * to set the ETag and/or Last-Modified of the response - it should be cheap, as it is executed for every
+     * request, before the Web Script itself.
+     * 
+     * Note: This method caches the script lookup
+     * 
+     * @param req  web script request
+     * @param res  web script response
+     * 
+     * @return  cache holding the validators computed by the script, or null if there is no validator script
+     */
+    public Cache executeValidatorScript(WebScriptRequest req, WebScriptResponse res)
+    {
+        ScriptDetails script;
+        this.scriptLock.readLock().lock();
+        try
+        {
+            script = this.scripts.get(VALIDATOR_KEY);
+        }
+        finally
+        {
+            this.scriptLock.readLock().unlock();
+        }
+        if (script == null)
+        {
+            String validScriptPath = getContainer().getScriptProcessorRegistry().findValidScriptPath(basePath + ".validator");
+            if (validScriptPath != null)
+            {
+                ScriptProcessor scriptProcessor = getContainer().getScriptProcessorRegistry().getScriptProcessor(validScriptPath);
+                ScriptContent scriptContent = scriptProcessor.findScript(validScriptPath);
+                script = scriptContent != null ? new ScriptDetails(scriptContent, null) : null;
+            }
+            this.scriptLock.writeLock().lock();
+            try
+            {
+                this.scripts.put(VALIDATOR_KEY, script != null ? script : NULLSENTINEL);
+            }
+            finally
+            {
+                this.scriptLock.writeLock().unlock();
+            }
+        }
+        if (script == null || script == NULLSENTINEL)
+        {
+            return null;
+        }
+        
+        Cache cache = new Cache(getDescription().getRequiredCache());
+        Map<String, Object> model = new HashMap<String, Object>(4, 1.0f);
+        model.put("cache", cache);
+        ScriptProcessor scriptProcessor = container.getScriptProcessorRegistry().getScriptProcessor(script.getContent());
+        scriptProcessor.executeScript(script.getContent(), createScriptParameters(req, res, null, model));
+        return cache;
+    }
+
 	/**
      * Create a model for script usage
      *  
@@ -36,6 +36,8 @@ public class Cache implements Description.RequiredCache
     private Date lastModified = null;
     private String eTag = null;
     private Long maxAge = null;
+    private boolean validator = false;
+    private boolean autoETag = false;
 
     
     /**
@@ -55,6 +57,8 @@ public class Cache implements Description.RequiredCache
         neverCache = requiredCache.getNeverCache();
         isPublic = requiredCache.getIsPublic();
         mustRevalidate = requiredCache.getMustRevalidate();
+        validator = requiredCache.getValidator();
+        autoETag = requiredCache.getAutoETag();
     }
     
     /* (non-Javadoc)
@@ -153,4 +157,36 @@ public class Cache implements Description.RequiredCache
         this.mustRevalidate = mustRevalidate;
     }
     
+    /* (non-Javadoc)
+     * @see org.springframework.extensions.webscripts.Description.RequiredCache#getValidator()
+     */
+    public boolean getValidator()
+    {
+        return validator;
+    }
+    
+    /**
+     * @param validator boolean
+     */
+    public void setValidator(boolean validator)
+    {
+        this.validator = validator;
+    }
+    
+    /* (non-Javadoc)
+     * @see org.springframework.extensions.webscripts.Description.RequiredCache#getAutoETag()
+     */
+    public boolean getAutoETag()
+    {
+        return autoETag;
+    }
+    
+    /**
+     * @param autoETag boolean
+     */
+    public void setAutoETag(boolean autoETag)
+    {
+        this.autoETag = autoETag;
+    }
+    
 }
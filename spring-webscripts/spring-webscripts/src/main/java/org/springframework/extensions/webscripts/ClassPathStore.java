@@ -799,7 +799,7 @@ public class ClassPathStore extends AbstractStore implements ApplicationContextA
      *
      * @author davidc
      */
-    private static class ClassPathScriptLocation implements ScriptContent
+    private static class ClassPathScriptLocation implements TimestampedScriptContent
     {
         private String basePath;
         private String path;
@@ -889,6 +889,21 @@ public class ClassPathStore extends AbstractStore implements ApplicationContextA
             return true;
         }
 
+        /* (non-Javadoc)
+         * @see org.springframework.extensions.webscripts.TimestampedScriptContent#getLastModified()
+         */
+        public long getLastModified()
+        {
+            try
+            {
+                return this.location.lastModified();
+            }
+            catch (IOException e)
+            {
+                return -1L;
+            }
+        }
+
         @Override
         public String toString()
         {
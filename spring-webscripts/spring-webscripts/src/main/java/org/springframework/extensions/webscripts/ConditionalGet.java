@@ -0,0 +1,338 @@
+/**
+ * Copyright (C) 2005-2009 Alfresco Software Limited.
+ *
+ * This file is part of the Spring Surf Extension project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.extensions.webscripts;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.StringTokenizer;
+import java.util.TimeZone;
+
+import jakarta.servlet.http.HttpServletResponse;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+
+/**
+ * Support for conditional GET requests (If-None-Match / If-Modified-Since) to Web Scripts.
+ *
+ * A Web Script may compute its validators before execution with a validator script, declared by
+ * &lt;cache&gt;&lt;validator&gt;true&lt;/validator&gt;&lt;/cache&gt; in its description, in which case the
+ * runtime answers 304 without executing the Web Script when the request validators match. Alternatively,
+ * &lt;cache&gt;&lt;autoetag&gt;true&lt;/autoetag&gt;&lt;/cache&gt; buffers the rendered response and derives a
+ * (weak) ETag from its content, answering 304 instead of sending the body when it matches.
+ */
+public final class ConditionalGet
+{
+    // Logger
+    private static final Log logger = LogFactory.getLog(ConditionalGet.class);
+
+    public static final String HEADER_ETAG = "ETag";
+    public static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    public static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+
+    private static final String WEAK_PREFIX = "W/";
+
+    private ConditionalGet()
+    {
+    }
+
+    /**
+     * Determine whether the client's copy of a response is still current
+     *
+     * @param req  Web Script request
+     * @param eTag  ETag of the current response (unquoted), or null
+     * @param lastModified  last modified date of the current response, or null
+     * @return  true if the response need not be sent
+     */
+    public static boolean isNotModified(WebScriptRequest req, String eTag, Date lastModified)
+    {
+        // If-None-Match takes precedence over If-Modified-Since
+        String ifNoneMatch = req.getHeader(HEADER_IF_NONE_MATCH);
+        if (ifNoneMatch != null)
+        {
+            if (eTag == null)
+            {
+                return false;
+            }
+            String opaqueTag = getOpaqueTag(eTag);
+            StringTokenizer tokens = new StringTokenizer(ifNoneMatch, ",");
+            while (tokens.hasMoreTokens())
+            {
+                String token = tokens.nextToken().trim();
+                if (token.equals("*") || getOpaqueTag(token).equals(opaqueTag))
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        String ifModifiedSince = req.getHeader(HEADER_IF_MODIFIED_SINCE);
+        if (ifModifiedSince != null && lastModified != null)
+        {
+            try
+            {
+                Date since = getHTTPDateFormat().parse(ifModifiedSince);
+                // HTTP dates have a resolution of one second
+                return lastModified.getTime() / 1000L <= since.getTime() / 1000L;
+            }
+            catch (ParseException e)
+            {
+                // ignore invalid dates as required by the specification
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Send a 304 Not Modified response
+     *
+     * @param res  Web Script response
+     * @param cache  cache controls and validators of the response
+     */
+    public static void sendNotModified(WebScriptResponse res, Cache cache)
+    {
+        res.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        res.setCache(cache);
+    }
+
+    /**
+     * Strip the weakness indicator and quotes from an entity tag
+     */
+    private static String getOpaqueTag(String tag)
+    {
+        if (tag.startsWith(WEAK_PREFIX))
+        {
+            tag = tag.substring(WEAK_PREFIX.length());
+        }
+        if (tag.length() >= 2 && tag.charAt(0) == '"' && tag.charAt(tag.length() - 1) == '"')
+        {
+            tag = tag.substring(1, tag.length() - 1);
+        }
+        return tag;
+    }
+
+    private static SimpleDateFormat getHTTPDateFormat()
+    {
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return format;
+    }
+
+
+    /**
+     * Web Script response that buffers the rendered response so that an ETag may be derived from its content
+     * before it is sent. The ETag is not applied if the Web Script provides its own.
+     */
+    public static class ETagResponse implements WrappingWebScriptResponse
+    {
+        private final WebScriptRequest req;
+        private final WebScriptResponse res;
+        private int status = HttpServletResponse.SC_OK;
+        private boolean eTagSet = false;
+        private StringWriter writer;
+        private ByteArrayOutputStream outputStream;
+
+        /**
+         * @param req  Web Script request, holding the client's validators
+         * @param res  Web Script response to send the buffered response to
+         */
+        public ETagResponse(WebScriptRequest req, WebScriptResponse res)
+        {
+            this.req = req;
+            this.res = res;
+        }
+
+        /**
+         * Send the buffered response - or 304 Not Modified if the client's copy is current
+         */
+        public void complete() throws IOException
+        {
+            byte[] bytes = null;
+            if (writer != null)
+            {
+                bytes = writer.toString().getBytes(StandardCharsets.UTF_8);
+            }
+            else if (outputStream != null)
+            {
+                bytes = outputStream.toByteArray();
+            }
+
+            if (status == HttpServletResponse.SC_OK && !eTagSet && bytes != null)
+            {
+                String eTag = getDigest(bytes);
+                res.setHeader(HEADER_ETAG, WEAK_PREFIX + '"' + eTag + '"');
+                if (isNotModified(req, eTag, null))
+                {
+                    if (logger.isDebugEnabled())
+                        logger.debug("Response ETag " + eTag + " matches, sending 304 for " + req.getURL());
+                    res.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                    return;
+                }
+            }
+
+            if (writer != null)
+            {
+                Writer out = res.getWriter();
+                out.write(writer.toString());
+                out.flush();
+            }
+            else if (outputStream != null)
+            {
+                OutputStream out = res.getOutputStream();
+                out.write(bytes);
+                out.flush();
+            }
+        }
+
+        private static String getDigest(byte[] bytes)
+        {
+            MessageDigest digest;
+            try
+            {
+                digest = MessageDigest.getInstance("SHA-256");
+            }
+            catch (NoSuchAlgorithmException e)
+            {
+                throw new IllegalStateException("Unable to compute ETag", e);
+            }
+            byte[] hash = digest.digest(bytes);
+            StringBuilder eTag = new StringBuilder(32);
+            for (int i = 0; i < 16; i++)
+            {
+                eTag.append(Character.forDigit((hash[i] >> 4) & 0xf, 16)).append(Character.forDigit(hash[i] & 0xf, 16));
+            }
+            return eTag.toString();
+        }
+
+        /* (non-Javadoc)
+         * @see org.springframework.extensions.webscripts.WrappingWebScriptResponse#getNext()
+         */
+        public WebScriptResponse getNext()
+        {
+            return res;
+        }
+
+        public void setStatus(int status)
+        {
+            this.status = status;
+            res.setStatus(status);
+        }
+
+        public void setHeader(String name, String value)
+        {
+            eTagSet |= HEADER_ETAG.equalsIgnoreCase(name);
+            res.setHeader(name, value);
+        }
+
+        public void addHeader(String name, String value)
+        {
+            eTagSet |= HEADER_ETAG.equalsIgnoreCase(name);
+            res.addHeader(name, value);
+        }
+
+        public void setContentType(String contentType)
+        {
+            res.setContentType(contentType);
+        }
+
+        public void setContentEncoding(String contentEncoding)
+        {
+            res.setContentEncoding(contentEncoding);
+        }
+
+        public void setCache(Cache cache)
+        {
+            eTagSet |= cache.getETag() != null;
+            res.setCache(cache);
+        }
+
+        public Writer getWriter() throws IOException
+        {
+            if (writer == null)
+            {
+                writer = new StringWriter(4096);
+            }
+            return writer;
+        }
+
+        public OutputStream getOutputStream() throws IOException
+        {
+            if (outputStream == null)
+            {
+                outputStream = new ByteArrayOutputStream(4096);
+            }
+            return outputStream;
+        }
+
+        public void reset()
+        {
+            res.reset();
+            status = HttpServletResponse.SC_OK;
+            eTagSet = false;
+            writer = null;
+            outputStream = null;
+        }
+
+        public void reset(String preserveHeadersPattern)
+        {
+            res.reset(preserveHeadersPattern);
+            status = HttpServletResponse.SC_OK;
+            eTagSet = false;
+            writer = null;
+            outputStream = null;
+        }
+
+        public String encodeScriptUrl(String url)
+        {
+            return res.encodeScriptUrl(url);
+        }
+
+        public String encodeResourceUrl(String url)
+        {
+            return res.encodeResourceUrl(url);
+        }
+
+        public String getEncodeScriptUrlFunction(String name)
+        {
+            return res.getEncodeScriptUrlFunction(name);
+        }
+
+        public String getEncodeResourceUrlFunction(String name)
+        {
+            return res.getEncodeResourceUrlFunction(name);
+        }
+
+        public Runtime getRuntime()
+        {
+            return res.getRuntime();
+        }
+    }
+}
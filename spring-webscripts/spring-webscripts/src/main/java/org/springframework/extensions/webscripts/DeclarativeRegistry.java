@@ -18,17 +18,32 @@
 
 package org.springframework.extensions.webscripts;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -37,7 +52,11 @@ import org.springframework.beans.BeansException;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.extensions.surf.util.TinyLfuCache;
 import org.springframework.extensions.webscripts.Description.Lifecycle;
+import org.springframework.extensions.webscripts.processor.JSScriptProcessor;
 
 
 /**
@@ -46,7 +65,7 @@ import org.springframework.extensions.webscripts.Description.Lifecycle;
  * @author davidc
  */
 public class DeclarativeRegistry
-    implements Registry, ApplicationContextAware, InitializingBean
+    implements Registry, ApplicationContextAware, ApplicationListener<ContextRefreshedEvent>, InitializingBean
 {
     /** Filename extension for webscript descriptor paths */
     public static final String WEBSCRIPT_DESC_XML = ".desc.xml";
@@ -66,46 +85,39 @@ public class DeclarativeRegistry
     // web script container
     private Container container;
     
-    // map of web scripts by id
-    // NOTE: The map is sorted by id (ascending order)
-    private Map<String, WebScript> webscriptsById = new TreeMap<String, WebScript>();
+    // uri index for mapping a URI to a Web Script
+    // NOTE: each reset() builds a new index obtained from UriIndex.newInstance()
+    private UriIndex uriIndex;
     
-    // map of web script packages by path
-    private Map<String, PathImpl> packageByPath = new TreeMap<String, PathImpl>();
-
-    // map of web script uris by path
-    private Map<String, PathImpl> uriByPath = new TreeMap<String, PathImpl>();
-
-    // map of web script families by path
-    private Map<String, PathImpl> familyByPath = new TreeMap<String, PathImpl>();
+    // size of the cache of URIs to WebScript match objects
+    private static final int DEFAULT_URI_INDEX_CACHE_SIZE = 16384;
+    private int uriIndexCacheSize = DEFAULT_URI_INDEX_CACHE_SIZE;
+    private static final Match SENTINEL_MATCH = new Match(null, Collections.<String, String>emptyMap(), null);
     
-    // map of web script families by lifecycle
-    private Map<String, PathImpl> lifecycleByPath = new TreeMap<String, PathImpl>();
+    // the registered web scripts - a reset() builds a new state and then publishes it as a whole,
+    // so lookups never block on a reset and always see either the previous or the new registry
+    private volatile RegistryState state = new RegistryState(null, DEFAULT_URI_INDEX_CACHE_SIZE);
     
-    // uri index for mapping a URI to a Web Script
-    private UriIndex uriIndex;
+    // serialises reset() operations
+    private final ReentrantLock resetLock = new ReentrantLock();
     
-    // map of invalid web script definitions (error by path)
-    private Map<String, String> failedWebScriptsByPath = new TreeMap<String, String>();
-
-    // map of package description documents by path
-    private Map<String, PackageDescriptionDocument> packageDocumentByPath = new TreeMap<String, PackageDescriptionDocument>();
-
-    // map of schema description documents by id
-    private Map<String, SchemaDescriptionDocument> schemaDocumentById = new TreeMap<String, SchemaDescriptionDocument>();
-
-    // map of invalid package description documents (error by path)
-    private Map<String, String> failedPackageDescriptionsByPath = new TreeMap<String, String>();
-
-    // map of invalid schema description documents (error by path)
-    private Map<String, String> failedSchemaDescriptionsByPath = new TreeMap<String, String>();
+    // true to only re-register the web scripts whose description documents changed on reset()
+    private boolean incrementalReset = false;
     
-    // cache of URIs to WebScript match objects
-    private Map<String, Match> uriIndexCache = new ConcurrentHashMap<String, Match>(1024);
-    private static final Match SENTINEL_MATCH = new Match(null, Collections.<String, String>emptyMap(), null);
+    // maximum number of threads reading and parsing description documents on reset()
+    private int parallelism = 1;
     
-    // lock around the WebScripts index during a reset() operation
-    private final ReadWriteLock indexResetLock = new ReentrantReadWriteLock();
+    // file the parsed description documents are saved to, and restored from on reset() while the stores are unchanged
+    private String snapshotFile;
+    
+    // number of threads compiling the scripts and templates of the registered web scripts after reset(), 0 for none
+    private int warmUpThreads = 0;
+    
+    // number of the slowest scripts and templates to report after warm up
+    private static final int WARM_UP_REPORT_SIZE = 10;
+    
+    // true if a reset() took place before any script or template processor was registered
+    private volatile boolean warmUpPending = false;
     
     //
     // Initialisation
@@ -125,6 +137,60 @@ public class DeclarativeRegistry
     public void setUriIndex(UriIndex uriIndex)
     {
         this.uriIndex = uriIndex;
+        this.state = new RegistryState(uriIndex, uriIndexCacheSize);
+    }
+    
+    /**
+     * @param uriIndexCacheSize maximum number of URI to Web Script matches to cache
+     */
+    public void setUriIndexCacheSize(int uriIndexCacheSize)
+    {
+        this.uriIndexCacheSize = uriIndexCacheSize;
+        this.state = new RegistryState(uriIndex, uriIndexCacheSize);
+    }
+    
+    /**
+     * @param incrementalReset true to record the last modified timestamps of the description documents and of the
+     *                         resources of each web script on reset() and only create again the web scripts
+     *                         whose documents changed since
+     */
+    public void setIncrementalReset(boolean incrementalReset)
+    {
+        this.incrementalReset = incrementalReset;
+    }
+    
+    /**
+     * @param parallelism  maximum number of threads used to read and parse description documents on reset(),
+     *                     or 1 (the default) to read and parse them on the thread performing the reset
+     */
+    public void setParallelism(int parallelism)
+    {
+        this.parallelism = parallelism;
+    }
+    
+    /**
+     * Sets the file the parsed description documents are saved to after a full reset, and restored from
+     * by later resets (including that of the next start up) while the stores and class path are unchanged.
+     * 
+     * Only applies to search paths consisting of class path stores. The file must not be on the class path.
+     * 
+     * @param snapshotFile  snapshot file path, or null to always locate and parse the description documents
+     */
+    public void setSnapshotFile(String snapshotFile)
+    {
+        this.snapshotFile = (snapshotFile != null && snapshotFile.length() != 0 ? snapshotFile : null);
+    }
+    
+    /**
+     * Sets the number of threads that compile the execute scripts and parse the templates of the registered
+     * web scripts once a reset() has registered them, so the first requests do not pay for compilation. The
+     * reset() does not complete until the warm up has.
+     * 
+     * @param warmUpThreads  number of threads, or 0 (the default) to compile scripts and templates on first use
+     */
+    public void setWarmUpThreads(int warmUpThreads)
+    {
+        this.warmUpThreads = warmUpThreads;
     }
     
     /**
@@ -151,6 +217,18 @@ public class DeclarativeRegistry
     {
         this.applicationContext = applicationContext;
     }
+    
+    /* (non-Javadoc)
+     * @see org.springframework.context.ApplicationListener#onApplicationEvent(org.springframework.context.ApplicationEvent)
+     */
+    public void onApplicationEvent(ContextRefreshedEvent event)
+    {
+        // processors register themselves on refresh - possibly after the container has reset this registry
+        if (warmUpPending && applicationContext != null && applicationContext.equals(event.getApplicationContext()))
+        {
+            warmUp();
+        }
+    }
 
     /**
      * Gets the Application Context
@@ -180,458 +258,1134 @@ public class DeclarativeRegistry
      */
     public void reset()
     {
-        initWebScripts();
+        if (incrementalReset)
+        {
+            refresh();
+        }
+        else
+        {
+            initWebScripts();
+        }
         if (logger.isInfoEnabled()) {
-            logger.info("Registered " + webscriptsById.size() + " Web Scripts (+" + failedWebScriptsByPath.size() + " failed), " + uriIndex.getSize() + " URLs");
-            logger.info("Registered " + packageDocumentByPath.size() + " Package Description Documents (+" + failedPackageDescriptionsByPath.size() + " failed) ");
-            logger.info("Registered " + schemaDocumentById.size() + " Schema Description Documents (+" + failedSchemaDescriptionsByPath.size() + " failed) ");
+            RegistryState state = this.state;
+            logger.info("Registered " + state.webscriptsById.size() + " Web Scripts (+" + state.failedWebScriptsByPath.size() + " failed), " + state.uriIndex.getSize() + " URLs");
+            logger.info("Registered " + state.packageDocumentByPath.size() + " Package Description Documents (+" + state.failedPackageDescriptionsByPath.size() + " failed) ");
+            logger.info("Registered " + state.schemaDocumentById.size() + " Schema Description Documents (+" + state.failedSchemaDescriptionsByPath.size() + " failed) ");
         }    
+        if (warmUpThreads > 0)
+        {
+            warmUp();
+        }
     }
-
+    
     /**
-     * Initialise Web Scripts
-     *
-     * Note: Each invocation of this method resets the list of the services
+     * @return  true if any script or template processor is registered with the container
      */
-    private void initWebScripts()
+    private boolean hasProcessors()
     {
-        if (logger.isDebugEnabled())
-            logger.debug("Initialising Web Scripts (Container: " + container.getName() + ", URI index: " + uriIndex.getClass().getName() + ")");
+        return container.getScriptProcessorRegistry().getRegisteredExtensions().length != 0 ||
+               container.getTemplateProcessorRegistry().getRegisteredExtensions().length != 0;
+    }
+    
+    /**
+     * Compile the execute scripts and parse the templates of the registered web scripts
+     * 
+     * The execute script and the default and negotiated format templates of each registered web script are
+     * resolved as its requests resolve them, and compiled on a pool of {@link #setWarmUpThreads(int) warm up
+     * threads}. Scripts are compiled into the cache of a {@link JSScriptProcessor}; templates are loaded - and
+     * so parsed and cached, by FreeMarker - via {@link TemplateProcessor#hasTemplate(String)}. Failures are
+     * logged and otherwise ignored - they are reported again on first use.
+     * 
+     * On start up the container may reset the registry before the processors have registered themselves, in
+     * which case the warm up is deferred until the application context has been refreshed.
+     */
+    private void warmUp()
+    {
+        if (!hasProcessors())
+        {
+            if (logger.isDebugEnabled())
+                logger.debug("Deferring warm up of Web Script scripts and templates until processors are registered");
+            warmUpPending = true;
+            return;
+        }
+        warmUpPending = false;
         
-        this.indexResetLock.writeLock().lock();
-        try
+        long startTime = System.nanoTime();
+        List<WarmUpTask> tasks = new ArrayList<WarmUpTask>();
+        for (WebScript script : this.state.webscriptsById.values())
         {
-            // clear currently registered services
-            uriIndex.clear();
-            uriIndexCache.clear();
-            webscriptsById.clear();
-            failedWebScriptsByPath.clear();
-            packageByPath.clear();
-            packageByPath.put("/", new PathImpl("/"));
-            uriByPath.clear();
-            uriByPath.put("/", new PathImpl("/"));
-            familyByPath.clear();
-            familyByPath.put("/", new PathImpl("/"));
-            lifecycleByPath.clear();
-            lifecycleByPath.put("/", new PathImpl("/"));
-            failedPackageDescriptionsByPath.clear();
-            failedSchemaDescriptionsByPath.clear();
-            packageDocumentByPath.clear();
-            schemaDocumentById.clear();
-    
-            for (Store apiStore : searchPath.getStores())
+            if (script instanceof AbstractWebScript)
             {
-                // Process package description documents.
-                if (logger.isDebugEnabled())
-                    logger.debug("Locating package descriptions within " + apiStore.getBasePath());
-    
-                String[] packageDescPaths;
-                try
-                {
-                    packageDescPaths = apiStore.getDocumentPaths("/", true, PackageDescriptionDocument.DESC_NAME_PATTERN);
-                }
-                catch (IOException e)
-                {
-                    throw new WebScriptException("Failed to search for package descriptions in store " + apiStore, e);
-                }
-                for (String packageDescPath : packageDescPaths)
-                {
-                    try
-                    {
-                        // build package description
-                        PackageDescriptionDocument packageDesc = null;
-                        InputStream packageDescIS = null;
-                        try
-                        {
-                            packageDescIS = apiStore.getDocument(packageDescPath);
-                            packageDesc = createPackageDescription(apiStore, packageDescPath, packageDescIS);
-    
-                            String packageDescId = packageDesc.getId();
-                            // register the package description document
-                            if ( !packageDocumentByPath.containsKey(packageDescId) ) 
-                            {
-                                packageDocumentByPath.put(packageDescId, packageDesc);
-                            }
-                        }
-                        catch(IOException e)
-                        {
-                            throw new WebScriptException("Failed to read package description document " + apiStore.getBasePath() + packageDescPath, e);
-                        }
-                        finally
-                        {
-                            try
-                            {
-                                if (packageDescIS != null) packageDescIS.close();
-                            }
-                            catch(IOException e)
-                            {
-                                // NOTE: ignore close exception
-                            }
-                        }
-                    }                
-                    catch(WebScriptException e)
-                    {
-                        // record package description document failure
-                        String path = apiStore.getBasePath() + "/" + packageDescPath;
-                        Throwable c = e;
-                        String cause = c.getMessage();
-                        while (c.getCause() != null && !c.getCause().equals(c))                    
-                        {
-                            c = c.getCause();
-                            cause += " ; " + c.getMessage(); 
-                        }
-                        failedPackageDescriptionsByPath.put(path, cause);
-                    }
-    
-                }
-    
-                // Process schema description documents.
-    
-                if (logger.isDebugEnabled())
-                    logger.debug("Locating schema descriptions within " + apiStore.getBasePath());
-    
-                String[] schemaDescPaths;
-                try
-                {
-                    schemaDescPaths = apiStore.getDocumentPaths("/", true, SchemaDescriptionDocument.DESC_NAME_PATTERN);
-                }
-                catch (IOException e)
+                tasks.add(new WarmUpTask(container, script, null));
+            }
+            if (script instanceof DeclarativeWebScript)
+            {
+                Description desc = script.getDescription();
+                Set<String> formats = new TreeSet<String>();
+                if (desc.getDefaultFormat() != null)
                 {
-                    throw new WebScriptException("Failed to search for schema descriptions in store " + apiStore, e);
+                    formats.add(desc.getDefaultFormat());
                 }
-                for (String schemaDescPath : schemaDescPaths)
+                if (desc.getNegotiatedFormats() != null)
                 {
-                    try
-                    {
-                        // build schema description
-                        SchemaDescriptionDocument schemaDesc = null;
-                        InputStream schemaDescIS = null;
-                        try
-                        {
-                            schemaDescIS = apiStore.getDocument(schemaDescPath);
-                            schemaDesc = createSchemaDescription(apiStore, schemaDescPath, schemaDescIS);
-    
-                            String schemaDescId = schemaDesc.getId();
-                            // register the schema description document
-                            if ( !schemaDocumentById.containsKey(schemaDescId) ) 
-                            {
-                                schemaDocumentById.put(schemaDescId, schemaDesc);
-                            }
-                        }
-                        catch(IOException e)
-                        {
-                            throw new WebScriptException("Failed to read Web Script description document " + apiStore.getBasePath() + schemaDescPath, e);
-                        }
-                        finally
-                        {
-                            try
-                            {
-                                if (schemaDescIS != null) schemaDescIS.close();
-                            }
-                            catch(IOException e)
-                            {
-                                // NOTE: ignore close exception
-                            }
-                        }
-                    }                
-                    catch(WebScriptException e)
+                    for (NegotiatedFormat format : desc.getNegotiatedFormats())
                     {
-                        // record web script definition failure
-                        String path = apiStore.getBasePath() + "/" + schemaDescPath;
-                        Throwable c = e;
-                        String cause = c.getMessage();
-                        while (c.getCause() != null && !c.getCause().equals(c))                    
-                        {
-                            c = c.getCause();
-                            cause += " ; " + c.getMessage(); 
-                        }
-                        failedSchemaDescriptionsByPath.put(path, cause);
+                        formats.add(format.getFormat());
                     }
-    
-                }
-     
-                // register services
-                if (logger.isDebugEnabled())
-                    logger.debug("Locating Web Scripts within " + apiStore.getBasePath());
-                
-                String[] serviceDescPaths;
-                try
-                {
-                    serviceDescPaths = apiStore.getDescriptionDocumentPaths();
                 }
-                catch (IOException e)
+                for (String format : formats)
                 {
-                    throw new WebScriptException("Failed to search for web scripts in store " + apiStore, e);
-                }
-                for (String serviceDescPath : serviceDescPaths)
-                {
-                    try
-                    {
-                        // build service description
-                        DescriptionImpl serviceDesc = null;
-                        InputStream serviceDescIS = null;
-                        try
-                        {
-                            serviceDescIS = apiStore.getDocument(serviceDescPath);
-                            serviceDesc = createDescription(apiStore, serviceDescPath, serviceDescIS);
-                        }
-                        catch(IOException e)
-                        {
-                            throw new WebScriptException("Failed to read Web Script description document " + apiStore.getBasePath() + serviceDescPath, e);
-                        }
-                        finally
-                        {
-                            try
-                            {
-                                if (serviceDescIS != null) serviceDescIS.close();
-                            }
-                            catch(IOException e)
-                            {
-                                // NOTE: ignore close exception
-                            }
-                        }
-                        
-                        // determine if service description has been registered
-                        String id = serviceDesc.getId();
-                        if (webscriptsById.containsKey(id))
-                        {
-                            // move to next service
-                            if (logger.isDebugEnabled())
-                            {
-                                WebScript existingService = webscriptsById.get(id);
-                                Description existingDesc = existingService.getDescription();
-                                String msg = "Web Script description document " + serviceDesc.getStorePath() + "/" + serviceDesc.getDescPath();
-                                msg += " overridden by " + existingDesc.getStorePath() + "/" + existingDesc.getDescPath();
-                                logger.debug(msg);
-                            }
-                            continue;
-                        }
-                        
-                        //
-                        // construct service implementation
-                        //
-                        
-                        // establish kind of service implementation
-                        ApplicationContext applicationContext = getApplicationContext();
-                        String kind = serviceDesc.getKind();
-                        String serviceImplName = null;
-                        String descImplName = null;
-                        if (kind == null)
-                        {
-                            // rely on default mapping of webscript id to service implementation
-                            // NOTE: always fallback to vanilla Declarative Web Script
-                            String beanName = "webscript." + id.replace('/', '.');
-                            serviceImplName = (applicationContext.containsBean(beanName) ? beanName : defaultWebScript);
-                            descImplName = "webscriptdesc." + id.replace('/', '.');
-                        }
-                        else
-                        {
-                            // rely on explicitly defined web script kind
-                            if (!applicationContext.containsBean("webscript." + kind))
-                            {
-                                throw new WebScriptException("Web Script kind '" + kind + "' is unknown");
-                            }
-                            serviceImplName = "webscript." + kind;
-                            descImplName = "webscriptdesc." + kind;
-                        }
-                        
-                        // extract service specific description extensions
-                        if (applicationContext.containsBean(descImplName) && applicationContext.isTypeMatch(descImplName, DescriptionExtension.class))
-                        {
-                            DescriptionExtension descriptionExtensions = (DescriptionExtension)applicationContext.getBean(descImplName);
-                            serviceDescIS = null;
-                            try
-                            {
-                                serviceDescIS = apiStore.getDocument(serviceDescPath);
-                                Map<String, Serializable> extensions = descriptionExtensions.parseExtensions(serviceDescPath, serviceDescIS);
-                                serviceDesc.setExtensions(extensions);
-                                
-                                if (logger.isDebugEnabled())
-                                    logger.debug("Extracted " + (extensions == null ? "0" : extensions.size()) + " description extension(s) for Web Script " + id + " (" + extensions + ")");
-                            }
-                            catch(IOException e)
-                            {
-                                throw new WebScriptException("Failed to parse extensions from Web Script description document " + apiStore.getBasePath() + serviceDescPath, e);
-                            }
-                            finally
-                            {
-                                try
-                                {
-                                    if (serviceDescIS != null) serviceDescIS.close();
-                                }
-                                catch(IOException e)
-                                {
-                                    // NOTE: ignore close exception
-                                }
-                            }
-                        }
-                        
-                        // retrieve service implementation
-                        WebScript serviceImpl = (WebScript)applicationContext.getBean(serviceImplName);
-                        serviceImpl.init(container, serviceDesc);
-                        
-                        if (logger.isDebugEnabled())
-                            logger.debug("Found Web Script " + id +  " (desc: " + serviceDescPath + ", impl: " + serviceImplName + ", auth: " + 
-                                         serviceDesc.getRequiredAuthentication() + ", trx: " + serviceDesc.getRequiredTransaction() + ", format style: " + 
-                                         serviceDesc.getFormatStyle() + ", default format: " + serviceDesc.getDefaultFormat() + ")");
-                        
-                        // register service and its urls
-                        webscriptsById.put(id, serviceImpl);
-                        for (String uriTemplate : serviceDesc.getURIs())
-                        {
-                            uriIndex.registerUri(serviceImpl, uriTemplate);
-                            if (logger.isDebugEnabled())
-                                logger.debug("Registered Web Script URL '" + serviceImpl.getDescription().getMethod() + ":" + uriTemplate + "'");
-                        }
-        
-                        // build path indexes to web script
-                        Path scriptPath = registerPackage(serviceImpl);
-                        serviceDesc.setPackage(scriptPath);
-                        registerURIs(serviceImpl);
-                        registerFamily(serviceImpl);
-                        registerLifecycle(serviceImpl);
-                    }
-                    catch(WebScriptException e)
-                    {
-                        // record web script definition failure
-                        String path = apiStore.getBasePath() + "/" + serviceDescPath;
-                        Throwable c = e;
-                        String cause = c.getMessage();
-                        while (c.getCause() != null && !c.getCause().equals(c))                    
-                        {
-                            c = c.getCause();
-                            cause += " ; " + c.getMessage(); 
-                        }
-                        failedWebScriptsByPath.put(path, cause);
-                    }
+                    tasks.add(new WarmUpTask(container, script, format));
                 }
             }
         }
+        
+        ExecutorService pool = createWarmUpPool();
+        try
+        {
+            pool.invokeAll(tasks);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            logger.warn("Interrupted warm up of Web Script scripts and templates");
+            return;
+        }
         finally
         {
-            this.indexResetLock.writeLock().unlock();
+            pool.shutdownNow();
         }
-        if (logger.isWarnEnabled())
+        
+        // report the slowest documents
+        if (logger.isInfoEnabled())
         {
-            for (Map.Entry<String, String> failedWebScript : failedWebScriptsByPath.entrySet())
+            int found = 0;
+            int failed = 0;
+            for (WarmUpTask task : tasks)
             {
-                String msg = "Unable to register script " + failedWebScript.getKey() + " due to error: " + failedWebScript.getValue();
-                logger.warn(msg);
+                if (task.found)
+                {
+                    found++;
+                }
+                if (task.failure != null)
+                {
+                    failed++;
+                }
             }
-            for (Map.Entry<String, String> failedPackageDesription : failedPackageDescriptionsByPath.entrySet())
+            logger.info("Warmed up " + found + " Web Script scripts and templates (" + failed + " failed) using " + warmUpThreads +
+                    " threads in " + (System.nanoTime() - startTime)/1000000f + "ms");
+            
+            List<WarmUpTask> slowest = new ArrayList<WarmUpTask>(tasks);
+            Collections.sort(slowest);
+            StringBuilder report = new StringBuilder("Slowest Web Script scripts and templates to warm up:");
+            for (int i = 0; i < slowest.size() && i < WARM_UP_REPORT_SIZE; i++)
             {
-                String msg = "Unable to register package description document " + failedPackageDesription.getKey() + " due to error: " + failedPackageDesription.getValue();
-                logger.warn(msg);
+                WarmUpTask task = slowest.get(i);
+                report.append("\n   ").append(task.time/1000000f).append("ms ").append(task.path);
             }
-            for (Map.Entry<String, String> failedSchemaDescription : failedSchemaDescriptionsByPath.entrySet())
+            logger.info(report);
+        }
+        if (logger.isDebugEnabled())
+        {
+            for (WarmUpTask task : tasks)
             {
-                String msg = "Unable to register schema description document " + failedSchemaDescription.getKey() + " due to error: " + failedSchemaDescription.getValue();
-                logger.warn(msg);
+                if (task.failure != null)
+                    logger.debug("Failed to warm up " + task.path + ": " + task.failure);
             }
         }
     }
-
+    
     /**
-     * Register a Web Script Package
+     * Create the pool used to compile scripts and templates after reset
      * 
-     * @param script WebScript
+     * @return  the pool
      */
-    private Path registerPackage(WebScript script)
+    private ExecutorService createWarmUpPool()
     {
-        Description desc = script.getDescription();
-        PathImpl path = packageByPath.get("/");
-        String[] parts = desc.getScriptPath().split("/");
-        for (String part : parts)
+        // stores may resolve documents via the context class loader so the workers inherit that of the caller
+        final ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        final String threadPrefix = "WebScriptWarmUp-" + container.getName() + "-";
+        ThreadFactory threadFactory = new ThreadFactory()
         {
-            PathImpl subpath = packageByPath.get(PathImpl.concatPath(path.getPath(), part));
-            if (subpath == null)
+            private final AtomicInteger count = new AtomicInteger();
+            
+            public Thread newThread(Runnable runnable)
             {
-                subpath = path.createChildPath(part);
-                packageByPath.put(subpath.getPath(), subpath);
-            }      
-            path = subpath;
-        }
-        path.addScript(script);
-        return path;
+                Thread thread = new Thread(runnable, threadPrefix + count.getAndIncrement());
+                thread.setDaemon(true);
+                thread.setContextClassLoader(classLoader);
+                return thread;
+            }
+        };
+        return Executors.newFixedThreadPool(warmUpThreads, threadFactory);
     }
 
     /**
-     * Register a Web Script Family
+     * Refresh the registered Web Scripts from the description documents, scripts, templates and resources
+     * that have been added, changed or removed since the last reset or refresh.
      * 
-     * @param script WebScript
+     * Changes are detected by comparing the document paths of each store and their last modified
+     * timestamps with those recorded by the previous reset. Web Scripts whose description document and
+     * resources are unchanged are kept, along with their URLs in the index. Web Scripts whose resources
+     * only have changed are created again from their description without it being read or parsed. A full
+     * reset is performed instead if the stores of the search path, or any package or schema description
+     * document, have changed, if the URLs of the added or changed Web Scripts conflict, or if the previous
+     * reset did not record timestamps (incremental reset is disabled).
+     * 
+     * Nothing is done if no document has changed.
      */
-    private void registerFamily(WebScript script)
+    public void refresh()
     {
-        Description desc = script.getDescription();
-        Set<String> familys = desc.getFamilys();
-        for(String family : familys)
+        RegistryState previous = this.state;
+        if (!incrementalReset || previous.storeScans == null)
         {
-        	if (family != null && family.length() > 0)
-        	{
-        		PathImpl path = familyByPath.get("/");
-            	String[] parts = family.split("/");
-            	for (String part : parts)
-            	{
-                	PathImpl subpath = familyByPath.get(PathImpl.concatPath(path.getPath(), part));
-                	if (subpath == null)
-                	{
-                    	subpath = path.createChildPath(part);
-                    	familyByPath.put(subpath.getPath(), subpath);
-                	}      
-                	path = subpath;
-            	}
-            	path.addScript(script);
-        	}
+            initWebScripts();
+            return;
+        }
+        
+        this.resetLock.lock();
+        try
+        {
+            previous = this.state;
+            List<StoreScan> scans = scanStores(true);
+            
+            boolean fullReset = (previous.storeScans == null || scans.size() != previous.storeScans.size());
+            boolean changed = fullReset;
+            for (int i = 0; !fullReset && i < scans.size(); i++)
+            {
+                StoreScan scan = scans.get(i);
+                StoreScan previousScan = previous.storeScans.get(i);
+                if (scan.store != previousScan.store ||
+                    !scan.isUnchanged(previousScan, scan.packageDescPaths, previousScan.packageDescPaths) ||
+                    !scan.isUnchanged(previousScan, scan.schemaDescPaths, previousScan.schemaDescPaths))
+                {
+                    fullReset = true;
+                }
+                changed |= !scan.isUnchanged(previousScan);
+            }
+            changed |= fullReset;
+            
+            if (!changed)
+            {
+                if (logger.isDebugEnabled())
+                    logger.debug("Web Script description documents are unchanged (Container: " + container.getName() + ")");
+                return;
+            }
+            if (fullReset)
+            {
+                if (logger.isDebugEnabled())
+                    logger.debug("Stores, package or schema description documents have changed - resetting all Web Scripts");
+                this.state = buildState(scans, null);
+            }
+            else
+            {
+                if (logger.isDebugEnabled())
+                    logger.debug("Refreshing changed Web Scripts (Container: " + container.getName() + ")");
+                RegistryState state = buildState(scans, previous);
+                if (state == null)
+                {
+                    if (logger.isDebugEnabled())
+                        logger.debug("Added or changed Web Script URLs conflict - resetting all Web Scripts");
+                    for (StoreScan scan : scans)
+                    {
+                        scan.webscriptsByDescPath.clear();
+                    }
+                    state = buildState(scans, null);
+                }
+                this.state = state;
+            }
+        }
+        finally
+        {
+            this.resetLock.unlock();
+        }
+        logFailures();
+    }
+
+    /**
+     * Initialise Web Scripts
+     *
+     * Note: Each invocation of this method resets the list of the services
+     */
+    private void initWebScripts()
+    {
+        if (logger.isDebugEnabled())
+            logger.debug("Initialising Web Scripts (Container: " + container.getName() + ", URI index: " + uriIndex.getClass().getName() + ")");
+        
+        this.resetLock.lock();
+        try
+        {
+            // restore the parsed description documents from the snapshot if the stores are unchanged
+            Collection<Store> stores = searchPath.getStores();
+            String fingerprint = null;
+            List<StoreScan> scans = null;
+            if (snapshotFile != null && RegistrySnapshot.isSupported(stores))
+            {
+                fingerprint = RegistrySnapshot.getFingerprint(stores, applicationContext.getClassLoader());
+                scans = restoreSnapshot(stores, fingerprint);
+            }
+            boolean restored = (scans != null);
+            if (!restored)
+            {
+                scans = scanStores(incrementalReset);
+                if (fingerprint != null)
+                {
+                    for (StoreScan scan : scans)
+                    {
+                        scan.documents = new RegistrySnapshot.StoreDocuments(scan.store.getBasePath());
+                    }
+                }
+            }
+            
+            // build the new registry state aside from the one currently serving requests and then publish it
+            this.state = buildState(scans, null);
+            
+            if (fingerprint != null && !restored)
+            {
+                saveSnapshot(scans, fingerprint);
+            }
+        }
+        finally
+        {
+            this.resetLock.unlock();
+        }
+        logFailures();
+    }
+    
+    /**
+     * Restore the description documents of each store in the search path from the snapshot file
+     * 
+     * @param stores  stores of the search path
+     * @param fingerprint  current fingerprint of the stores
+     * @return  the documents of each store, in search path order, or null if there is no valid snapshot
+     */
+    private List<StoreScan> restoreSnapshot(Collection<Store> stores, String fingerprint)
+    {
+        File file = new File(snapshotFile);
+        if (!file.exists())
+        {
+            return null;
+        }
+        
+        RegistrySnapshot snapshot = null;
+        try
+        {
+            snapshot = RegistrySnapshot.read(file, stores, fingerprint);
+        }
+        catch (IOException e)
+        {
+            if (logger.isWarnEnabled())
+                logger.warn("Unable to read Web Script registry snapshot " + file + " - locating description documents instead: " + e.getMessage());
+            return null;
+        }
+        catch (RuntimeException e)
+        {
+            if (logger.isWarnEnabled())
+                logger.warn("Unable to read Web Script registry snapshot " + file + " - locating description documents instead: " + e.getMessage());
+            return null;
+        }
+        if (snapshot == null)
+        {
+            if (logger.isDebugEnabled())
+                logger.debug("Web Script registry snapshot " + file + " is out of date - locating description documents");
+            return null;
+        }
+        
+        List<StoreScan> scans = new ArrayList<StoreScan>(stores.size());
+        int i = 0;
+        for (Store apiStore : stores)
+        {
+            RegistrySnapshot.StoreDocuments documents = snapshot.getStores().get(i++);
+            StoreScan scan = new StoreScan(apiStore);
+            scan.packageDescPaths = documents.packageDescPaths;
+            scan.schemaDescPaths = documents.schemaDescPaths;
+            scan.serviceDescPaths = documents.serviceDescPaths;
+            scan.documents = documents;
+            scan.restored = true;
+            if (incrementalReset)
+            {
+                scan.recordTimestamps();
+            }
+            scans.add(scan);
+        }
+        
+        if (logger.isInfoEnabled())
+            logger.info("Restored Web Script description documents from registry snapshot " + file);
+        return scans;
+    }
+    
+    /**
+     * Save the description documents parsed from each store to the snapshot file
+     * 
+     * @param scans  documents of each store, in search path order
+     * @param fingerprint  fingerprint of the stores when the documents were located
+     */
+    private void saveSnapshot(List<StoreScan> scans, String fingerprint)
+    {
+        List<RegistrySnapshot.StoreDocuments> documents = new ArrayList<RegistrySnapshot.StoreDocuments>(scans.size());
+        for (StoreScan scan : scans)
+        {
+            scan.documents.packageDescPaths = scan.packageDescPaths;
+            scan.documents.schemaDescPaths = scan.schemaDescPaths;
+            scan.documents.serviceDescPaths = scan.serviceDescPaths;
+            documents.add(scan.documents);
+            scan.documents = null;
+        }
+        
+        File file = new File(snapshotFile);
+        try
+        {
+            new RegistrySnapshot(fingerprint, documents).write(file);
+            if (logger.isDebugEnabled())
+                logger.debug("Saved Web Script registry snapshot " + file);
+        }
+        catch (IOException e)
+        {
+            if (logger.isWarnEnabled())
+                logger.warn("Unable to save Web Script registry snapshot " + file + ": " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Locate the package, schema and web script description documents of each store in the search path
+     * 
+     * @param recordTimestamps  true to record the last modified timestamp of each document
+     * @return  the documents of each store, in search path order
+     */
+    private List<StoreScan> scanStores(boolean recordTimestamps)
+    {
+        List<StoreScan> scans = new ArrayList<StoreScan>();
+        for (Store apiStore : searchPath.getStores())
+        {
+            StoreScan scan = new StoreScan(apiStore);
+            
+            if (logger.isDebugEnabled())
+                logger.debug("Locating package descriptions within " + apiStore.getBasePath());
+            try
+            {
+                scan.packageDescPaths = apiStore.getDocumentPaths("/", true, PackageDescriptionDocument.DESC_NAME_PATTERN);
+            }
+            catch (IOException e)
+            {
+                throw new WebScriptException("Failed to search for package descriptions in store " + apiStore, e);
+            }
+            
+            if (logger.isDebugEnabled())
+                logger.debug("Locating schema descriptions within " + apiStore.getBasePath());
+            try
+            {
+                scan.schemaDescPaths = apiStore.getDocumentPaths("/", true, SchemaDescriptionDocument.DESC_NAME_PATTERN);
+            }
+            catch (IOException e)
+            {
+                throw new WebScriptException("Failed to search for schema descriptions in store " + apiStore, e);
+            }
+            
+            if (logger.isDebugEnabled())
+                logger.debug("Locating Web Scripts within " + apiStore.getBasePath());
+            try
+            {
+                scan.serviceDescPaths = apiStore.getDescriptionDocumentPaths();
+            }
+            catch (IOException e)
+            {
+                throw new WebScriptException("Failed to search for web scripts in store " + apiStore, e);
+            }
+            
+            if (recordTimestamps)
+            {
+                scan.recordTimestamps();
+            }
+            scans.add(scan);
+        }
+        return scans;
+    }
+    
+    /**
+     * Build a new registry state from the located documents
+     * 
+     * The description documents of each store are read and parsed on the parallel initialisation pool
+     * (see {@link #setParallelism(int)}) and then registered one by one in search path order, so the
+     * resulting state does not depend on the number of threads used to build it.
+     * 
+     * @param scans  documents of each store, in search path order
+     * When a previous state is given, the web scripts whose description document and resources are unchanged
+     * are kept along with their URLs in the index, those whose resources only have changed are created anew
+     * from their previous description and the others are read, parsed and created.
+     * 
+     * @param scans  documents of each store, in search path order
+     * @param previous  registry state whose unchanged web scripts, package and schema description documents
+     *                  may be reused, or null to read and parse every document
+     * @return  the new registry state, or null if the URLs of the added or changed web scripts could not be
+     *          registered alongside those of the unchanged ones
+     */
+    private RegistryState buildState(List<StoreScan> scans, RegistryState previous)
+    {
+        final RegistryState state = new RegistryState(previous == null ? newUriIndex() : null, uriIndexCacheSize);
+        state.storeScans = (scans.isEmpty() || scans.get(0).documentStamps != null) ? scans : null;
+        Map<String, WebScript> webscriptsById = state.webscriptsById;
+        Map<String, String> failedWebScriptsByPath = state.failedWebScriptsByPath;
+        Map<String, PackageDescriptionDocument> packageDocumentByPath = state.packageDocumentByPath;
+        Map<String, SchemaDescriptionDocument> schemaDocumentById = state.schemaDocumentById;
+        Map<String, String> failedPackageDescriptionsByPath = state.failedPackageDescriptionsByPath;
+        Map<String, String> failedSchemaDescriptionsByPath = state.failedSchemaDescriptionsByPath;
+        
+        // package and schema description documents are only reused as a whole
+        if (previous != null)
+        {
+            packageDocumentByPath.putAll(previous.packageDocumentByPath);
+            failedPackageDescriptionsByPath.putAll(previous.failedPackageDescriptionsByPath);
+            schemaDocumentById.putAll(previous.schemaDocumentById);
+            failedSchemaDescriptionsByPath.putAll(previous.failedSchemaDescriptionsByPath);
+        }
+        
+        // web scripts registered in order, and those kept from the previous state
+        List<WebScript> registered = new ArrayList<WebScript>();
+        Set<WebScript> unchanged = Collections.newSetFromMap(new IdentityHashMap<WebScript, Boolean>());
+        
+        ForkJoinPool pool = createParsePool();
+        try
+        {
+            for (int storeIdx = 0; storeIdx < scans.size(); storeIdx++)
+            {
+                StoreScan scan = scans.get(storeIdx);
+                StoreScan previousScan = (previous != null ? previous.storeScans.get(storeIdx) : null);
+                final Store apiStore = scan.store;
+                final RegistrySnapshot.StoreDocuments documents = scan.documents;
+                final boolean restored = scan.restored;
+                
+                if (previous == null)
+                {
+                    // read and parse the package and schema description documents of the store
+                    List<ParseTask<PackageDescriptionDocument>> packageTasks = new ArrayList<ParseTask<PackageDescriptionDocument>>(scan.packageDescPaths.length);
+                    for (String packageDescPath : scan.packageDescPaths)
+                    {
+                        packageTasks.add(new ParseTask<PackageDescriptionDocument>(packageDescPath)
+                        {
+                            PackageDescriptionDocument parse()
+                            {
+                                return restored ? restore(documents, documents.packageDocuments, this) : readPackageDescription(apiStore, path);
+                            }
+                        });
+                    }
+                    List<ParseTask<SchemaDescriptionDocument>> schemaTasks = new ArrayList<ParseTask<SchemaDescriptionDocument>>(scan.schemaDescPaths.length);
+                    for (String schemaDescPath : scan.schemaDescPaths)
+                    {
+                        schemaTasks.add(new ParseTask<SchemaDescriptionDocument>(schemaDescPath)
+                        {
+                            SchemaDescriptionDocument parse()
+                            {
+                                return restored ? restore(documents, documents.schemaDocuments, this) : readSchemaDescription(apiStore, path);
+                            }
+                        });
+                    }
+                    List<ParseTask<?>> documentTasks = new ArrayList<ParseTask<?>>(packageTasks.size() + schemaTasks.size());
+                    documentTasks.addAll(packageTasks);
+                    documentTasks.addAll(schemaTasks);
+                    invokeAll(pool, documentTasks);
+                    if (documents != null && !restored)
+                    {
+                        record(documents, documents.packageDocuments, packageTasks);
+                        record(documents, documents.schemaDocuments, schemaTasks);
+                    }
+                    
+                    // Process package description documents.
+                    for (ParseTask<PackageDescriptionDocument> packageTask : packageTasks)
+                    {
+                        if (packageTask.failure == null)
+                        {
+                            String packageDescId = packageTask.document.getId();
+                            // register the package description document
+                            if ( !packageDocumentByPath.containsKey(packageDescId) ) 
+                            {
+                                packageDocumentByPath.put(packageDescId, packageTask.document);
+                            }
+                        }
+                        else
+                        {
+                            // record package description document failure
+                            String path = apiStore.getBasePath() + "/" + packageTask.path;
+                            failedPackageDescriptionsByPath.put(path, packageTask.failure);
+                        }
+                    }
+                    
+                    // Process schema description documents.
+                    for (ParseTask<SchemaDescriptionDocument> schemaTask : schemaTasks)
+                    {
+                        if (schemaTask.failure == null)
+                        {
+                            String schemaDescId = schemaTask.document.getId();
+                            // register the schema description document
+                            if ( !schemaDocumentById.containsKey(schemaDescId) ) 
+                            {
+                                schemaDocumentById.put(schemaDescId, schemaTask.document);
+                            }
+                        }
+                        else
+                        {
+                            // record web script definition failure
+                            String path = apiStore.getBasePath() + "/" + schemaTask.path;
+                            failedSchemaDescriptionsByPath.put(path, schemaTask.failure);
+                        }
+                    }
+                }
+                
+                // read and parse the added or changed web script description documents of the store
+                // NOTE: the schema description documents of the state are not modified until the next store
+                Map<String, ParseTask<DescriptionImpl>> serviceTasks = new HashMap<String, ParseTask<DescriptionImpl>>(scan.serviceDescPaths.length * 2);
+                for (String serviceDescPath : scan.serviceDescPaths)
+                {
+                    if (previousScan == null || !scan.isUnchanged(previousScan, serviceDescPath) ||
+                        !previousScan.webscriptsByDescPath.containsKey(serviceDescPath))
+                    {
+                        serviceTasks.put(serviceDescPath, new ParseTask<DescriptionImpl>(serviceDescPath)
+                        {
+                            DescriptionImpl parse()
+                            {
+                                return restored ? restore(documents, documents.serviceDocuments, this) : readDescription(state, apiStore, path);
+                            }
+                        });
+                    }
+                }
+                invokeAll(pool, serviceTasks.values());
+                if (documents != null && !restored)
+                {
+                    record(documents, documents.serviceDocuments, serviceTasks.values());
+                }
+                
+                // register services
+                for (String serviceDescPath : scan.serviceDescPaths)
+                {
+                    try
+                    {
+                        WebScript serviceImpl = null;
+                        ParseTask<DescriptionImpl> serviceTask = serviceTasks.get(serviceDescPath);
+                        if (serviceTask == null)
+                        {
+                            WebScript previousImpl = previousScan.webscriptsByDescPath.get(serviceDescPath);
+                            if (scan.isResourcesUnchanged(previousScan, serviceDescPath))
+                            {
+                                // keep the web script of an unchanged description document and resources
+                                if (webscriptsById.containsKey(previousImpl.getDescription().getId()))
+                                {
+                                    // overridden by a web script of a preceding store
+                                    continue;
+                                }
+                                serviceImpl = previousImpl;
+                                unchanged.add(serviceImpl);
+                            }
+                            else
+                            {
+                                // reuse the parsed description of an unchanged description document - the web script
+                                // is created anew so that its changed scripts, templates and resources are loaded again
+                                DescriptionImpl serviceDesc = ((DescriptionImpl)previousImpl.getDescription()).copy();
+                                serviceImpl = createWebScript(state, apiStore, serviceDescPath, serviceDesc);
+                                if (serviceImpl == null)
+                                {
+                                    // overridden by a web script of a preceding store
+                                    continue;
+                                }
+                            }
+                        }
+                        else
+                        {
+                            if (serviceTask.failure != null)
+                            {
+                                // record web script definition failure
+                                failedWebScriptsByPath.put(apiStore.getBasePath() + "/" + serviceDescPath, serviceTask.failure);
+                                continue;
+                            }
+                            serviceImpl = createWebScript(state, apiStore, serviceDescPath, serviceTask.document);
+                            if (serviceImpl == null)
+                            {
+                                // move to next service
+                                continue;
+                            }
+                        }
+                        
+                        // register service and its urls
+                        // NOTE: the urls are registered once all the web scripts are known when refreshing
+                        if (previous == null)
+                        {
+                            registerWebScript(state, serviceImpl);
+                        }
+                        else
+                        {
+                            state.webscriptsById.put(serviceImpl.getDescription().getId(), serviceImpl);
+                            registerPaths(state, serviceImpl);
+                            registered.add(serviceImpl);
+                        }
+                        scan.webscriptsByDescPath.put(serviceDescPath, serviceImpl);
+                    }
+                    catch(WebScriptException e)
+                    {
+                        // record web script definition failure
+                        String path = apiStore.getBasePath() + "/" + serviceDescPath;
+                        failedWebScriptsByPath.put(path, getCause(e));
+                    }
+                }
+            }
+        }
+        finally
+        {
+            if (pool != null)
+            {
+                pool.shutdown();
+            }
+        }
+        
+        if (previous != null)
+        {
+            // keep the urls of the unchanged web scripts and register those of the added or changed ones
+            UriIndex newUriIndex = previous.uriIndex.copy(unchanged);
+            if (newUriIndex == null)
+            {
+                newUriIndex = newUriIndex();
+            }
+            else
+            {
+                registered.removeAll(unchanged);
+            }
+            state.uriIndex = newUriIndex;
+            try
+            {
+                for (WebScript serviceImpl : registered)
+                {
+                    registerUris(newUriIndex, serviceImpl);
+                }
+            }
+            catch (WebScriptException e)
+            {
+                // the urls conflict - the outcome of a full reset depends on the order of all the web scripts
+                if (logger.isDebugEnabled())
+                    logger.debug("Unable to register the URLs of the added or changed Web Scripts: " + getCause(e));
+                return null;
+            }
+            
+            if (logger.isDebugEnabled())
+                logger.debug("Kept " + unchanged.size() + " unchanged Web Scripts, registered " + (webscriptsById.size() - unchanged.size()) + " added or changed Web Scripts");
+        }
+        
+        return state;
+    }
+    
+    /**
+     * @return  a new empty uri index configured as the one of the registry
+     */
+    private UriIndex newUriIndex()
+    {
+        UriIndex newUriIndex = uriIndex.newInstance();
+        if (newUriIndex == null)
+        {
+            // the index cannot be built aside from the one serving requests - populate it again in place
+            newUriIndex = uriIndex;
+            newUriIndex.clear();
+        }
+        return newUriIndex;
+    }
+    
+    /**
+     * Create the pool used to read and parse description documents
+     * 
+     * @return  the pool, or null if documents are to be parsed on the calling thread
+     */
+    private ForkJoinPool createParsePool()
+    {
+        if (parallelism <= 1)
+        {
+            return null;
+        }
+        
+        // stores may resolve documents via the context class loader so the workers inherit that of the caller
+        final ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        final String threadPrefix = "WebScriptRegistry-" + container.getName() + "-";
+        ForkJoinPool.ForkJoinWorkerThreadFactory threadFactory = new ForkJoinPool.ForkJoinWorkerThreadFactory()
+        {
+            public ForkJoinWorkerThread newThread(ForkJoinPool pool)
+            {
+                ForkJoinWorkerThread thread = new ForkJoinWorkerThread(pool) {};
+                thread.setName(threadPrefix + thread.getPoolIndex());
+                thread.setContextClassLoader(classLoader);
+                return thread;
+            }
+        };
+        return new ForkJoinPool(parallelism, threadFactory, null, false);
+    }
+    
+    /**
+     * Run the given parse tasks to completion
+     * 
+     * @param pool  pool to run the tasks on, or null to run them on the calling thread
+     * @param tasks  parse tasks
+     */
+    private static void invokeAll(ForkJoinPool pool, Collection<? extends ParseTask<?>> tasks)
+    {
+        if (pool == null || tasks.size() <= 1)
+        {
+            for (ParseTask<?> task : tasks)
+            {
+                task.call();
+            }
+            return;
+        }
+        
+        for (Future<?> future : pool.invokeAll(tasks))
+        {
+            try
+            {
+                future.get();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new WebScriptException("Interrupted while parsing description documents", e);
+            }
+            catch (ExecutionException e)
+            {
+                // NOTE: description failures are recorded by the task - anything else aborts the reset as before
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException)
+                {
+                    throw (RuntimeException)cause;
+                }
+                if (cause instanceof Error)
+                {
+                    throw (Error)cause;
+                }
+                throw new WebScriptException("Failed to parse description documents", cause);
+            }
+        }
+    }
+    
+    /**
+     * Restore a parsed document from a registry snapshot
+     * 
+     * @param documents  restored documents of the store
+     * @param parsed  restored documents of the requested kind by path
+     * @param task  parse task of the document, whose failure is restored too
+     * @return  the parsed document, or null if it failed to parse
+     */
+    private static <T> T restore(RegistrySnapshot.StoreDocuments documents, Map<String, T> parsed, ParseTask<T> task)
+    {
+        task.failure = documents.failures.get(task.path);
+        if (task.failure != null)
+        {
+            return null;
+        }
+        T document = parsed.get(task.path);
+        if (document == null)
+        {
+            throw new WebScriptException("Document " + task.path + " is missing from the registry snapshot");
+        }
+        return document;
+    }
+    
+    /**
+     * Record the result of parse tasks for a registry snapshot
+     * 
+     * @param documents  documents of the store to record into
+     * @param parsed  documents of the parsed kind by path
+     * @param tasks  completed parse tasks
+     */
+    private static <T> void record(RegistrySnapshot.StoreDocuments documents, Map<String, T> parsed, Collection<ParseTask<T>> tasks)
+    {
+        for (ParseTask<T> task : tasks)
+        {
+            if (task.failure == null)
+            {
+                parsed.put(task.path, task.document);
+            }
+            else
+            {
+                documents.failures.put(task.path, task.failure);
+            }
+        }
+    }
+    
+    /**
+     * Read and parse a package description document
+     * 
+     * @param apiStore  store containing the description document
+     * @param packageDescPath  description document path
+     * @return  the package description document
+     */
+    private PackageDescriptionDocument readPackageDescription(Store apiStore, String packageDescPath)
+    {
+        InputStream packageDescIS = null;
+        try
+        {
+            packageDescIS = apiStore.getDocument(packageDescPath);
+            return createPackageDescription(apiStore, packageDescPath, packageDescIS);
+        }
+        catch(IOException e)
+        {
+            throw new WebScriptException("Failed to read package description document " + apiStore.getBasePath() + packageDescPath, e);
+        }
+        finally
+        {
+            try
+            {
+                if (packageDescIS != null) packageDescIS.close();
+            }
+            catch(IOException e)
+            {
+                // NOTE: ignore close exception
+            }
+        }
+    }
+    
+    /**
+     * Read and parse a schema description document
+     * 
+     * @param apiStore  store containing the description document
+     * @param schemaDescPath  description document path
+     * @return  the schema description document
+     */
+    private SchemaDescriptionDocument readSchemaDescription(Store apiStore, String schemaDescPath)
+    {
+        InputStream schemaDescIS = null;
+        try
+        {
+            schemaDescIS = apiStore.getDocument(schemaDescPath);
+            return createSchemaDescription(apiStore, schemaDescPath, schemaDescIS);
+        }
+        catch(IOException e)
+        {
+            throw new WebScriptException("Failed to read Web Script description document " + apiStore.getBasePath() + schemaDescPath, e);
+        }
+        finally
+        {
+            try
+            {
+                if (schemaDescIS != null) schemaDescIS.close();
+            }
+            catch(IOException e)
+            {
+                // NOTE: ignore close exception
+            }
+        }
+    }
+    
+    /**
+     * Read and parse a Web Script description document
+     * 
+     * @param state  registry state being built
+     * @param apiStore  store containing the description document
+     * @param serviceDescPath  description document path
+     * @return  the web script description
+     */
+    private DescriptionImpl readDescription(RegistryState state, Store apiStore, String serviceDescPath)
+    {
+        InputStream serviceDescIS = null;
+        try
+        {
+            serviceDescIS = apiStore.getDocument(serviceDescPath);
+            return createDescription(state, apiStore, serviceDescPath, serviceDescIS);
+        }
+        catch(IOException e)
+        {
+            throw new WebScriptException("Failed to read Web Script description document " + apiStore.getBasePath() + serviceDescPath, e);
+        }
+        finally
+        {
+            try
+            {
+                if (serviceDescIS != null) serviceDescIS.close();
+            }
+            catch(IOException e)
+            {
+                // NOTE: ignore close exception
+            }
+        }
+    }
+    
+    /**
+     * Create a Web Script from its description
+     * 
+     * @param state  registry state being built
+     * @param apiStore  store containing the description document
+     * @param serviceDescPath  description document path
+     * @param serviceDesc  parsed description
+     * @return  the initialised web script, or null if a web script with the same id has already been registered
+     */
+    private WebScript createWebScript(RegistryState state, Store apiStore, String serviceDescPath, DescriptionImpl serviceDesc)
+    {
+        // determine if service description has been registered
+        String id = serviceDesc.getId();
+        if (state.webscriptsById.containsKey(id))
+        {
+            if (logger.isDebugEnabled())
+            {
+                WebScript existingService = state.webscriptsById.get(id);
+                Description existingDesc = existingService.getDescription();
+                String msg = "Web Script description document " + serviceDesc.getStorePath() + "/" + serviceDesc.getDescPath();
+                msg += " overridden by " + existingDesc.getStorePath() + "/" + existingDesc.getDescPath();
+                logger.debug(msg);
+            }
+            return null;
+        }
+        
+        //
+        // construct service implementation
+        //
+        
+        // establish kind of service implementation
+        ApplicationContext applicationContext = getApplicationContext();
+        String kind = serviceDesc.getKind();
+        String serviceImplName = null;
+        String descImplName = null;
+        if (kind == null)
+        {
+            // rely on default mapping of webscript id to service implementation
+            // NOTE: always fallback to vanilla Declarative Web Script
+            String beanName = "webscript." + id.replace('/', '.');
+            serviceImplName = (applicationContext.containsBean(beanName) ? beanName : defaultWebScript);
+            descImplName = "webscriptdesc." + id.replace('/', '.');
+        }
+        else
+        {
+            // rely on explicitly defined web script kind
+            if (!applicationContext.containsBean("webscript." + kind))
+            {
+                throw new WebScriptException("Web Script kind '" + kind + "' is unknown");
+            }
+            serviceImplName = "webscript." + kind;
+            descImplName = "webscriptdesc." + kind;
+        }
+        
+        // extract service specific description extensions
+        if (applicationContext.containsBean(descImplName) && applicationContext.isTypeMatch(descImplName, DescriptionExtension.class))
+        {
+            DescriptionExtension descriptionExtensions = (DescriptionExtension)applicationContext.getBean(descImplName);
+            InputStream serviceDescIS = null;
+            try
+            {
+                serviceDescIS = apiStore.getDocument(serviceDescPath);
+                Map<String, Serializable> extensions = descriptionExtensions.parseExtensions(serviceDescPath, serviceDescIS);
+                serviceDesc.setExtensions(extensions);
+                
+                if (logger.isDebugEnabled())
+                    logger.debug("Extracted " + (extensions == null ? "0" : extensions.size()) + " description extension(s) for Web Script " + id + " (" + extensions + ")");
+            }
+            catch(IOException e)
+            {
+                throw new WebScriptException("Failed to parse extensions from Web Script description document " + apiStore.getBasePath() + serviceDescPath, e);
+            }
+            finally
+            {
+                try
+                {
+                    if (serviceDescIS != null) serviceDescIS.close();
+                }
+                catch(IOException e)
+                {
+                    // NOTE: ignore close exception
+                }
+            }
+        }
+        
+        // retrieve service implementation
+        WebScript serviceImpl = (WebScript)applicationContext.getBean(serviceImplName);
+        serviceImpl.init(container, serviceDesc);
+        
+        if (logger.isDebugEnabled())
+            logger.debug("Found Web Script " + id +  " (desc: " + serviceDescPath + ", impl: " + serviceImplName + ", auth: " + 
+                         serviceDesc.getRequiredAuthentication() + ", trx: " + serviceDesc.getRequiredTransaction() + ", format style: " + 
+                         serviceDesc.getFormatStyle() + ", default format: " + serviceDesc.getDefaultFormat() + ")");
+        
+        return serviceImpl;
+    }
+    
+    /**
+     * Register a Web Script, its URLs and its path indexes
+     * 
+     * @param state  registry state being built
+     * @param serviceImpl  web script
+     */
+    private void registerWebScript(RegistryState state, WebScript serviceImpl)
+    {
+        state.webscriptsById.put(serviceImpl.getDescription().getId(), serviceImpl);
+        registerUris(state.uriIndex, serviceImpl);
+        registerPaths(state, serviceImpl);
+    }
+    
+    /**
+     * Register the URLs of a Web Script
+     * 
+     * @param index  uri index being built
+     * @param serviceImpl  web script
+     */
+    private void registerUris(UriIndex index, WebScript serviceImpl)
+    {
+        Description serviceDesc = serviceImpl.getDescription();
+        for (String uriTemplate : serviceDesc.getURIs())
+        {
+            index.registerUri(serviceImpl, uriTemplate);
+            if (logger.isDebugEnabled())
+                logger.debug("Registered Web Script URL '" + serviceDesc.getMethod() + ":" + uriTemplate + "'");
+        }
+    }
+    
+    /**
+     * Register the path indexes of a Web Script
+     * 
+     * @param state  registry state being built
+     * @param serviceImpl  web script
+     */
+    private void registerPaths(RegistryState state, WebScript serviceImpl)
+    {
+        // build path indexes to web script
+        // NOTE: the package of a kept web script is set to the equivalent path of the new state
+        Description serviceDesc = serviceImpl.getDescription();
+        Path scriptPath = state.registerPackage(serviceImpl);
+        if (serviceDesc instanceof DescriptionImpl)
+        {
+            ((DescriptionImpl)serviceDesc).setPackage(scriptPath);
         }
+        state.registerURIs(serviceImpl);
+        state.registerFamily(serviceImpl);
+        state.registerLifecycle(serviceImpl);
     }
     
     /**
-     * Register a lifecycle
-     * 
-     * @param script WebScript
+     * @param e  exception
+     * @return  the messages of the exception and its causes
      */
-    private void registerLifecycle(WebScript script)
+    private static String getCause(Throwable e)
     {
-        Description desc = script.getDescription();
-        Lifecycle lifecycle = desc.getLifecycle();
-       	
-        PathImpl path = lifecycleByPath.get("/");
-    	PathImpl subpath = lifecycleByPath.get(PathImpl.concatPath(path.getPath(), lifecycle.toString()));
-        if (subpath == null)
+        Throwable c = e;
+        String cause = c.getMessage();
+        while (c.getCause() != null && !c.getCause().equals(c))                    
         {
-             subpath = path.createChildPath(lifecycle.toString());
-             lifecycleByPath.put(subpath.getPath(), subpath);
-        }      	
-        subpath.addScript(script);
+            c = c.getCause();
+            cause += " ; " + c.getMessage(); 
+        }
+        return cause;
     }
-
+    
     /**
-     * Register a Web Script URI
-     * 
-     * @param script WebScript
+     * Log the documents that failed to register
      */
-    private void registerURIs(WebScript script)
+    private void logFailures()
     {
-        Description desc = script.getDescription();
-        for (String uri : desc.getURIs())
+        if (logger.isWarnEnabled())
         {
-            PathImpl path = uriByPath.get("/");
-            String[] parts = uri.split("/");
-            for (String part : parts)
+            RegistryState state = this.state;
+            for (Map.Entry<String, String> failedWebScript : state.failedWebScriptsByPath.entrySet())
             {
-                if (part.indexOf("?") != -1)
-                {
-                    part = part.substring(0, part.indexOf("?"));
-                }
-                PathImpl subpath = uriByPath.get(PathImpl.concatPath(path.getPath(), part));
-                if (subpath == null)
-                {
-                    subpath = path.createChildPath(part);
-                    uriByPath.put(subpath.getPath(), subpath);
-                }
-                path = subpath;
+                String msg = "Unable to register script " + failedWebScript.getKey() + " due to error: " + failedWebScript.getValue();
+                logger.warn(msg);
+            }
+            for (Map.Entry<String, String> failedPackageDesription : state.failedPackageDescriptionsByPath.entrySet())
+            {
+                String msg = "Unable to register package description document " + failedPackageDesription.getKey() + " due to error: " + failedPackageDesription.getValue();
+                logger.warn(msg);
+            }
+            for (Map.Entry<String, String> failedSchemaDescription : state.failedSchemaDescriptionsByPath.entrySet())
+            {
+                String msg = "Unable to register schema description document " + failedSchemaDescription.getKey() + " due to error: " + failedSchemaDescription.getValue();
+                logger.warn(msg);
             }
-            path.addScript(script);
         }
     }
 
@@ -721,13 +1475,14 @@ public class DeclarativeRegistry
     /**
      * Creates an Web Script Description
      * 
+     * @param state registry state being built
      * @param store Store
      * @param serviceDescPath String
      * @param serviceDoc InputStream
      * 
      * @return  web script service description
      */
-	private DescriptionImpl createDescription(Store store, String serviceDescPath, InputStream serviceDoc)
+	private DescriptionImpl createDescription(RegistryState state, Store store, String serviceDescPath, InputStream serviceDoc)
     {
         try
         {
@@ -776,7 +1531,7 @@ public class DeclarativeRegistry
                 {
                     if (requestType.getId() != null) 
                     {
-                        TypeDescription registedType  = getSchemaTypeDescriptionById(requestType.getId());
+                        TypeDescription registedType  = state.getSchemaTypeDescriptionById(requestType.getId());
                         if (registedType != null) 
                         {
                             // TODO: DC - this should just be a reference rather than a copy
@@ -801,7 +1556,7 @@ public class DeclarativeRegistry
                 {
                     if (responseType.getId() != null) 
                     {
-                        TypeDescription registedType  = getSchemaTypeDescriptionById(responseType.getId());
+                        TypeDescription registedType  = state.getSchemaTypeDescriptionById(responseType.getId());
                         if (registedType != null) 
                         {
                             // TODO: DC - this should just be a reference rather than a copy
@@ -836,7 +1591,7 @@ public class DeclarativeRegistry
      */
     public Path getPackage(String scriptPackage)
     {
-        return packageByPath.get(scriptPackage);
+        return state.packageByPath.get(scriptPackage);
     }
 
     /* (non-Javadoc)
@@ -844,7 +1599,7 @@ public class DeclarativeRegistry
      */
     public Path getUri(String scriptUri)
     {
-        return uriByPath.get(scriptUri);
+        return state.uriByPath.get(scriptUri);
     }
 
     /* (non-Javadoc)
@@ -852,7 +1607,7 @@ public class DeclarativeRegistry
      */
     public Path getFamily(String scriptUri)
     {
-        return familyByPath.get(scriptUri);
+        return state.familyByPath.get(scriptUri);
     }
 
     /* (non-Javadoc)
@@ -860,7 +1615,7 @@ public class DeclarativeRegistry
      */
     public Collection<WebScript> getWebScripts()
     {
-        return webscriptsById.values();
+        return state.webscriptsById.values();
     }
 
     /* (non-Javadoc)
@@ -868,7 +1623,7 @@ public class DeclarativeRegistry
      */
     public Map<String, String> getFailures()
     {
-        return Collections.unmodifiableMap(failedWebScriptsByPath);
+        return Collections.unmodifiableMap(state.failedWebScriptsByPath);
     }
 
     /* (non-Javadoc)
@@ -876,7 +1631,7 @@ public class DeclarativeRegistry
      */
     public WebScript getWebScript(String id)
     {
-        return webscriptsById.get(id);
+        return state.webscriptsById.get(id);
     }
 
     /* (non-Javadoc)
@@ -885,50 +1640,77 @@ public class DeclarativeRegistry
     public Match findWebScript(String method, String uri)
     {
         // this is the entry point used to retrieve a webscript description before execution
-        // we need to protect the lookup against an index reset with a lock operation
-        this.indexResetLock.readLock().lock();
-        try
+        // the registry state is read once so the lookup is consistent even if a reset publishes a new state
+        final RegistryState state = this.state;
+        if (state.uriIndex == null)
+        {
+            return null;
+        }
+        
+        final String key = new StringBuilder(uri.length() + 5).append(method).append('|').append(uri).toString();
+        Match match = state.uriIndexCache.get(key);
+        if (match == null)
         {
-            final String key = new StringBuilder(uri.length() + 5).append(method).append('|').append(uri).toString();
-            Match match = uriIndexCache.get(key);
+            final boolean debug = logger.isDebugEnabled();
+            
+            long startTime = 0L;
+            if (debug) startTime = System.nanoTime();
+            
+            match = state.uriIndex.findWebScript(method, uri);
+            
+            if (debug)
+                logger.debug("Web Script index lookup for uri " + uri + " took " + (System.nanoTime() - startTime)/1000000f + "ms");
+            
             if (match == null)
             {
-                final boolean debug = logger.isDebugEnabled();
-                
-                long startTime = 0L;
-                if (debug) startTime = System.nanoTime();
-                
-                match = uriIndex.findWebScript(method, uri);
-                
-                if (debug)
-                    logger.debug("Web Script index lookup for uri " + uri + " took " + (System.nanoTime() - startTime)/1000000f + "ms");
-                
-                if (uriIndexCache.size() < 16384)
-                {
-                    if (match == null)
-                    {
-                        match = SENTINEL_MATCH;
-                    }
-                    uriIndexCache.put(key, match);
-                }
-                
-                if (debug)
-                    logger.debug("WebScript uriIndexCache size: " + uriIndexCache.size());
+                match = SENTINEL_MATCH;
             }
+            state.uriIndexCache.put(key, match);
             
-            return match != SENTINEL_MATCH ? match : null;
-        }
-        finally
-        {
-            this.indexResetLock.readLock().unlock();
+            if (debug)
+                logger.debug("WebScript uriIndexCache: " + state.uriIndexCache);
         }
+        
+        return match != SENTINEL_MATCH ? match : null;
     }
     
 	public Path getLifecycle(String lifecyclePath) 
 	{
-		return lifecycleByPath.get(lifecyclePath);
+		return state.lifecycleByPath.get(lifecyclePath);
 	}
 
+    /**
+     * @return number of URI to Web Script matches currently cached
+     */
+    public int getUriIndexCacheSize()
+    {
+        return state.uriIndexCache.size();
+    }
+
+    /**
+     * @return number of Web Script lookups answered by the URI match cache
+     */
+    public long getUriIndexCacheHitCount()
+    {
+        return state.uriIndexCache.getHitCount();
+    }
+
+    /**
+     * @return number of Web Script lookups that required a URI index search
+     */
+    public long getUriIndexCacheMissCount()
+    {
+        return state.uriIndexCache.getMissCount();
+    }
+
+    /**
+     * @return number of URI matches evicted from (or refused admission to) the URI match cache
+     */
+    public long getUriIndexCacheEvictionCount()
+    {
+        return state.uriIndexCache.getEvictionCount();
+    }
+
     /**
      * Returns package description document with the given webscript package
      * 
@@ -937,7 +1719,7 @@ public class DeclarativeRegistry
      */
     public PackageDescriptionDocument getPackageDescriptionDocument(String scriptPackage) 
     {
-        return packageDocumentByPath.get(scriptPackage);
+        return state.packageDocumentByPath.get(scriptPackage);
     }
 
     /**
@@ -948,7 +1730,7 @@ public class DeclarativeRegistry
      */
     public SchemaDescriptionDocument getSchemaDescriptionDocument(String schemaId) 
     {
-        return schemaDocumentById.get(schemaId);
+        return state.schemaDocumentById.get(schemaId);
     }
 
     /**
@@ -958,7 +1740,7 @@ public class DeclarativeRegistry
      */
     public Collection<PackageDescriptionDocument> getPackageDescriptionDocuments()
     {
-        return packageDocumentByPath.values();
+        return state.packageDocumentByPath.values();
     }
 
     /**
@@ -968,7 +1750,7 @@ public class DeclarativeRegistry
      */
     public Collection<SchemaDescriptionDocument> getSchemaDescriptionDocuments() 
     {
-        return schemaDocumentById.values();
+        return state.schemaDocumentById.values();
     }
 
     /**
@@ -979,20 +1761,7 @@ public class DeclarativeRegistry
      */
     public TypeDescription getSchemaTypeDescriptionById(String typeId) 
     {
-        for (SchemaDescriptionDocument doc:this.getSchemaDescriptionDocuments()) 
-        {
-            if (typeId.startsWith(doc.getId())) 
-            {
-                for (TypeDescription type:doc.getTypeDescriptions()) 
-                {
-                    if (typeId.equals(type.getId())) 
-                    {
-                        return type;
-                    }
-                }
-            }
-        }
-        return null;
+        return state.getSchemaTypeDescriptionById(typeId);
     }
 
     /**
@@ -1002,7 +1771,7 @@ public class DeclarativeRegistry
      */
     public Map<String, String> getFailedPackageDescriptionsByPath()
     {
-        return Collections.unmodifiableMap(failedPackageDescriptionsByPath);
+        return Collections.unmodifiableMap(state.failedPackageDescriptionsByPath);
     }
 
     /**
@@ -1012,7 +1781,465 @@ public class DeclarativeRegistry
      */
     public Map<String, String> getFailedSchemaDescriptionsByPath()
     {
-        return Collections.unmodifiableMap(failedSchemaDescriptionsByPath);
+        return Collections.unmodifiableMap(state.failedSchemaDescriptionsByPath);
+    }
+    
+    
+    /**
+     * The set of registered Web Scripts and their indexes.
+     * 
+     * A state is only modified while it is being built by a reset(). Once published it is never
+     * modified again, so it may be read without locking.
+     */
+    private static final class RegistryState
+    {
+        // map of web scripts by id
+        // NOTE: The map is sorted by id (ascending order)
+        private final Map<String, WebScript> webscriptsById = new TreeMap<String, WebScript>();
+        
+        // map of web script packages by path
+        private final Map<String, PathImpl> packageByPath = new TreeMap<String, PathImpl>();
+        
+        // map of web script uris by path
+        private final Map<String, PathImpl> uriByPath = new TreeMap<String, PathImpl>();
+        
+        // map of web script families by path
+        private final Map<String, PathImpl> familyByPath = new TreeMap<String, PathImpl>();
+        
+        // map of web script families by lifecycle
+        private final Map<String, PathImpl> lifecycleByPath = new TreeMap<String, PathImpl>();
+        
+        // uri index for mapping a URI to a Web Script (set before the state is published)
+        private UriIndex uriIndex;
+        
+        // map of invalid web script definitions (error by path)
+        private final Map<String, String> failedWebScriptsByPath = new TreeMap<String, String>();
+        
+        // map of package description documents by path
+        private final Map<String, PackageDescriptionDocument> packageDocumentByPath = new TreeMap<String, PackageDescriptionDocument>();
+        
+        // map of schema description documents by id
+        private final Map<String, SchemaDescriptionDocument> schemaDocumentById = new TreeMap<String, SchemaDescriptionDocument>();
+        
+        // map of invalid package description documents (error by path)
+        private final Map<String, String> failedPackageDescriptionsByPath = new TreeMap<String, String>();
+        
+        // map of invalid schema description documents (error by path)
+        private final Map<String, String> failedSchemaDescriptionsByPath = new TreeMap<String, String>();
+        
+        // cache of URIs to WebScript match objects
+        // NOTE: admission is frequency based so a long tail of unique URIs cannot flush the popular ones
+        private final TinyLfuCache<String, Match> uriIndexCache;
+        
+        // documents located in each store, in search path order (null if timestamps were not recorded)
+        private List<StoreScan> storeScans;
+        
+        /**
+         * @param uriIndex  empty uri index to populate, or null if it is set once the web scripts are registered
+         * @param uriIndexCacheSize  maximum number of URI to Web Script matches to cache
+         */
+        RegistryState(UriIndex uriIndex, int uriIndexCacheSize)
+        {
+            this.uriIndex = uriIndex;
+            this.uriIndexCache = new TinyLfuCache<String, Match>(uriIndexCacheSize);
+            packageByPath.put("/", new PathImpl("/"));
+            uriByPath.put("/", new PathImpl("/"));
+            familyByPath.put("/", new PathImpl("/"));
+            lifecycleByPath.put("/", new PathImpl("/"));
+        }
+        
+        /**
+         * Register a Web Script Package
+         * 
+         * @param script WebScript
+         */
+        private Path registerPackage(WebScript script)
+        {
+            Description desc = script.getDescription();
+            PathImpl path = packageByPath.get("/");
+            String[] parts = desc.getScriptPath().split("/");
+            for (String part : parts)
+            {
+                PathImpl subpath = packageByPath.get(PathImpl.concatPath(path.getPath(), part));
+                if (subpath == null)
+                {
+                    subpath = path.createChildPath(part);
+                    packageByPath.put(subpath.getPath(), subpath);
+                }      
+                path = subpath;
+            }
+            path.addScript(script);
+            return path;
+        }
+
+        /**
+         * Register a Web Script Family
+         * 
+         * @param script WebScript
+         */
+        private void registerFamily(WebScript script)
+        {
+            Description desc = script.getDescription();
+            Set<String> familys = desc.getFamilys();
+            for(String family : familys)
+            {
+            	if (family != null && family.length() > 0)
+            	{
+            		PathImpl path = familyByPath.get("/");
+                	String[] parts = family.split("/");
+                	for (String part : parts)
+                	{
+                    	PathImpl subpath = familyByPath.get(PathImpl.concatPath(path.getPath(), part));
+                    	if (subpath == null)
+                    	{
+                        	subpath = path.createChildPath(part);
+                        	familyByPath.put(subpath.getPath(), subpath);
+                    	}      
+                    	path = subpath;
+                	}
+                	path.addScript(script);
+            	}
+            }
+        }
+    
+        /**
+         * Register a lifecycle
+         * 
+         * @param script WebScript
+         */
+        private void registerLifecycle(WebScript script)
+        {
+            Description desc = script.getDescription();
+            Lifecycle lifecycle = desc.getLifecycle();
+       	
+            PathImpl path = lifecycleByPath.get("/");
+        	PathImpl subpath = lifecycleByPath.get(PathImpl.concatPath(path.getPath(), lifecycle.toString()));
+            if (subpath == null)
+            {
+                 subpath = path.createChildPath(lifecycle.toString());
+                 lifecycleByPath.put(subpath.getPath(), subpath);
+            }      	
+            subpath.addScript(script);
+        }
+
+        /**
+         * Register a Web Script URI
+         * 
+         * @param script WebScript
+         */
+        private void registerURIs(WebScript script)
+        {
+            Description desc = script.getDescription();
+            for (String uri : desc.getURIs())
+            {
+                PathImpl path = uriByPath.get("/");
+                String[] parts = uri.split("/");
+                for (String part : parts)
+                {
+                    if (part.indexOf("?") != -1)
+                    {
+                        part = part.substring(0, part.indexOf("?"));
+                    }
+                    PathImpl subpath = uriByPath.get(PathImpl.concatPath(path.getPath(), part));
+                    if (subpath == null)
+                    {
+                        subpath = path.createChildPath(part);
+                        uriByPath.put(subpath.getPath(), subpath);
+                    }
+                    path = subpath;
+                }
+                path.addScript(script);
+            }
+        }
+        
+        /**
+         * Returns schema type description document with given id
+         * 
+         * @param typeId id for schema description document
+         * @return schema type description document
+         */
+        TypeDescription getSchemaTypeDescriptionById(String typeId) 
+        {
+            for (SchemaDescriptionDocument doc : schemaDocumentById.values()) 
+            {
+                if (typeId.startsWith(doc.getId())) 
+                {
+                    for (TypeDescription type:doc.getTypeDescriptions()) 
+                    {
+                        if (typeId.equals(type.getId())) 
+                        {
+                            return type;
+                        }
+                    }
+                }
+            }
+            return null;
+        }
+    }
+    
+    
+    /**
+     * Reads and parses a single description document, capturing its result or failure so the
+     * documents parsed in parallel can then be registered in search path order
+     */
+    private abstract static class ParseTask<T> implements Callable<Object>
+    {
+        final String path;
+        T document;
+        
+        // messages of the failure and its causes (null if the document parsed)
+        String failure;
+        
+        ParseTask(String path)
+        {
+            this.path = path;
+        }
+        
+        public Object call()
+        {
+            try
+            {
+                document = parse();
+            }
+            catch (WebScriptException e)
+            {
+                failure = getCause(e);
+            }
+            return this;
+        }
+        
+        /**
+         * @return  the parsed document
+         */
+        abstract T parse();
+    }
+    
+    
+    /**
+     * Compilation of a web script execute script or template, ordered slowest first
+     */
+    private static final class WarmUpTask implements Callable<Object>, Comparable<WarmUpTask>
+    {
+        private final Container container;
+        private final WebScript script;
+        private final String format;
+        
+        // path of the script or template, whether it was found, time taken in nanoseconds, and the reason it failed (null if it did not)
+        private String path;
+        private boolean found;
+        private long time;
+        private String failure;
+        
+        /**
+         * @param container  container of the web script
+         * @param script  web script
+         * @param format  format of the template to load, or null to compile the execute script
+         */
+        WarmUpTask(Container container, WebScript script, String format)
+        {
+            this.container = container;
+            this.script = script;
+            this.format = format;
+            this.path = script.getDescription().getId() + (format == null ? "" : "." + format);
+        }
+        
+        public Object call()
+        {
+            long startTime = System.nanoTime();
+            try
+            {
+                if (format == null)
+                {
+                    AbstractWebScript.ScriptDetails details = ((AbstractWebScript)script).getExecuteScript(null);
+                    if (details != null)
+                    {
+                        ScriptContent content = details.getContent();
+                        path = content.getPath();
+                        found = true;
+                        ScriptProcessor scriptProcessor = container.getScriptProcessorRegistry().getScriptProcessor(content);
+                        if (scriptProcessor instanceof JSScriptProcessor)
+                        {
+                            ((JSScriptProcessor)scriptProcessor).precompileScript(content);
+                        }
+                    }
+                }
+                else
+                {
+                    TemplateProcessorRegistry templateRegistry = container.getTemplateProcessorRegistry();
+                    String templatePath = templateRegistry.findValidTemplatePath(path);
+                    if (templatePath != null)
+                    {
+                        path = templatePath;
+                        found = true;
+                        templateRegistry.getTemplateProcessor(templatePath).hasTemplate(templatePath);
+                    }
+                }
+            }
+            catch (RuntimeException e)
+            {
+                failure = e.getMessage();
+            }
+            finally
+            {
+                time = System.nanoTime() - startTime;
+            }
+            return null;
+        }
+        
+        public int compareTo(WarmUpTask other)
+        {
+            return Long.compare(other.time, time);
+        }
     }
     
+    /**
+     * The description documents located in a store by a reset() and the web scripts registered from them
+     */
+    private static final class StoreScan
+    {
+        private final Store store;
+        private String[] packageDescPaths;
+        private String[] schemaDescPaths;
+        private String[] serviceDescPaths;
+        
+        // last modified timestamp by document path (null if not recorded, -1 if unknown)
+        private Map<String, Long> documentStamps;
+        
+        // scripts, templates and other resources by web script description document path (null if not recorded)
+        private Map<String, String[]> resourcePaths;
+        
+        // web scripts registered by description document path
+        private final Map<String, WebScript> webscriptsByDescPath = new HashMap<String, WebScript>();
+        
+        // documents restored from the registry snapshot, or being recorded for it (null if neither)
+        private RegistrySnapshot.StoreDocuments documents;
+        private boolean restored;
+        
+        StoreScan(Store store)
+        {
+            this.store = store;
+        }
+        
+        /**
+         * Record the last modified timestamp of each located document and of the resources of each web script
+         * 
+         * The resources of a web script are the documents named after its description document, such as
+         * <code>name.method.js</code>, <code>name.method.format.ftl</code> or <code>name.method_locale.properties</code>.
+         */
+        void recordTimestamps()
+        {
+            documentStamps = new HashMap<String, Long>(packageDescPaths.length + schemaDescPaths.length + serviceDescPaths.length * 4);
+            for (String[] paths : new String[][] { packageDescPaths, schemaDescPaths, serviceDescPaths })
+            {
+                for (String path : paths)
+                {
+                    recordTimestamp(path);
+                }
+            }
+            
+            String[] allPaths = store.getAllDocumentPaths();
+            Arrays.sort(allPaths);
+            resourcePaths = new HashMap<String, String[]>(serviceDescPaths.length * 2);
+            for (String serviceDescPath : serviceDescPaths)
+            {
+                String prefix = serviceDescPath.endsWith(WEBSCRIPT_DESC_XML) ?
+                        serviceDescPath.substring(0, serviceDescPath.length() - WEBSCRIPT_DESC_XML.length()) : serviceDescPath;
+                List<String> paths = new ArrayList<String>(4);
+                int idx = Arrays.binarySearch(allPaths, prefix);
+                for (idx = (idx < 0 ? -idx - 1 : idx); idx < allPaths.length && allPaths[idx].startsWith(prefix); idx++)
+                {
+                    String path = allPaths[idx];
+                    char c = (path.length() > prefix.length() ? path.charAt(prefix.length()) : 0);
+                    if ((c == '.' || c == '_') && !path.equals(serviceDescPath))
+                    {
+                        paths.add(path);
+                        recordTimestamp(path);
+                    }
+                }
+                resourcePaths.put(serviceDescPath, paths.toArray(new String[paths.size()]));
+            }
+        }
+        
+        /**
+         * @param path  document path
+         */
+        private void recordTimestamp(String path)
+        {
+            long lastModified;
+            try
+            {
+                lastModified = store.lastModified(path);
+            }
+            catch (IOException e)
+            {
+                lastModified = -1L;
+            }
+            documentStamps.put(path, lastModified);
+        }
+        
+        /**
+         * @param previous  previous scan of the same store
+         * @param serviceDescPath  web script description document path
+         * @return  true if the same resources were located for the web script and none has changed since the previous scan
+         */
+        boolean isResourcesUnchanged(StoreScan previous, String serviceDescPath)
+        {
+            String[] paths = resourcePaths.get(serviceDescPath);
+            String[] previousPaths = previous.resourcePaths.get(serviceDescPath);
+            return paths != null && previousPaths != null && isUnchanged(previous, paths, previousPaths);
+        }
+        
+        /**
+         * @param previous  previous scan of the same store
+         * @return  true if no document has been added, changed or removed since the previous scan
+         */
+        boolean isUnchanged(StoreScan previous)
+        {
+            if (!documentStamps.keySet().equals(previous.documentStamps.keySet()))
+            {
+                return false;
+            }
+            for (String path : documentStamps.keySet())
+            {
+                if (!isUnchanged(previous, path))
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+        
+        /**
+         * @param previous  previous scan of the same store
+         * @param paths  document paths located by this scan
+         * @param previousPaths  document paths located by the previous scan
+         * @return  true if the same documents were located and none has changed since the previous scan
+         */
+        boolean isUnchanged(StoreScan previous, String[] paths, String[] previousPaths)
+        {
+            if (!Arrays.equals(paths, previousPaths))
+            {
+                return false;
+            }
+            for (String path : paths)
+            {
+                if (!isUnchanged(previous, path))
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+        
+        /**
+         * @param previous  previous scan of the same store
+         * @param path  document path
+         * @return  true if the document is known to be unchanged since the previous scan
+         */
+        boolean isUnchanged(StoreScan previous, String path)
+        {
+            Long stamp = documentStamps.get(path);
+            return stamp != null && stamp.longValue() != -1L && stamp.equals(previous.documentStamps.get(path));
+        }
+    }
 }
@@ -116,6 +116,28 @@ public interface Description extends BaseDescriptionDocument
          * @return  true => must re-validate
          */
         public boolean getMustRevalidate();
+
+        /**
+         * Does the Web Script provide a validator script (&lt;id&gt;.validator.js) that computes the
+         * ETag and/or Last-Modified of the response without executing the Web Script - only evaluated
+         * for Web Scripts that require no authentication
+         * 
+         * @return  true => evaluate validator script before execution
+         */
+        public default boolean getValidator()
+        {
+            return false;
+        }
+
+        /**
+         * Should an ETag be computed automatically by hashing the rendered response
+         * 
+         * @return  true => compute ETag from response content
+         */
+        public default boolean getAutoETag()
+        {
+            return false;
+        }
     }
 
     /**
@@ -36,7 +36,7 @@ import org.dom4j.Element;
  * 
  * @author davidc
  */
-public class DescriptionImpl extends AbstractBaseDescriptionDocument implements Description 
+public class DescriptionImpl extends AbstractBaseDescriptionDocument implements Description, Cloneable
 {
     // required root element name
     public static final String ROOT_ELEMENT_NAME = "webscript";
@@ -145,6 +145,24 @@ public class DescriptionImpl extends AbstractBaseDescriptionDocument implements
         this.scriptPackage = scriptPackage;
     }
 
+    /**
+     * Copy the description - the copy shares the parsed values of this description, and may be given
+     * its own package and extensions when registered with a new web script
+     * 
+     * @return copy of this description
+     */
+    public DescriptionImpl copy()
+    {
+        try
+        {
+            return (DescriptionImpl)super.clone();
+        }
+        catch (CloneNotSupportedException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
     /* (non-Javadoc)
      * @see org.alfresco.web.scripts.Description#getPackage()
      */
@@ -669,6 +687,20 @@ public class DescriptionImpl extends AbstractBaseDescriptionDocument implements
                     boolean revalidateBool = (revalidateStr == null || revalidateStr.length() == 0) ? true : Boolean.valueOf(revalidateStr);
                     cache.setMustRevalidate(revalidateBool);
                 }
+                Element validatorElement = cacheElement.element("validator");
+                if (validatorElement != null)
+                {
+                    String validatorStr = validatorElement.getTextTrim();
+                    boolean validatorBool = (validatorStr == null || validatorStr.length() == 0) ? true : Boolean.valueOf(validatorStr);
+                    cache.setValidator(validatorBool);
+                }
+                Element autoETagElement = cacheElement.element("autoetag");
+                if (autoETagElement != null)
+                {
+                    String autoETagStr = autoETagElement.getTextTrim();
+                    boolean autoETagBool = (autoETagStr == null || autoETagStr.length() == 0) ? true : Boolean.valueOf(autoETagStr);
+                    cache.setAutoETag(autoETagBool);
+                }
             }
 
             // retrieve formdata multipart processing setting
@@ -864,6 +896,14 @@ public class DescriptionImpl extends AbstractBaseDescriptionDocument implements
             sb.append(AbstractBaseDescriptionDocument.TAB).append(AbstractBaseDescriptionDocument.TAB).append("<never>").append(this.getRequiredCache().getNeverCache()).append("</never>").append(AbstractBaseDescriptionDocument.NEW_LINE);
             sb.append(AbstractBaseDescriptionDocument.TAB).append(AbstractBaseDescriptionDocument.TAB).append("<public>").append(this.getRequiredCache().getIsPublic()).append("</public>").append(AbstractBaseDescriptionDocument.NEW_LINE);
             sb.append(AbstractBaseDescriptionDocument.TAB).append(AbstractBaseDescriptionDocument.TAB).append("<mustrevalidate>").append(this.getRequiredCache().getMustRevalidate()).append("</mustrevalidate>").append(AbstractBaseDescriptionDocument.NEW_LINE);
+            if (this.getRequiredCache().getValidator())
+            {
+                sb.append(AbstractBaseDescriptionDocument.TAB).append(AbstractBaseDescriptionDocument.TAB).append("<validator>true</validator>").append(AbstractBaseDescriptionDocument.NEW_LINE);
+            }
+            if (this.getRequiredCache().getAutoETag())
+            {
+                sb.append(AbstractBaseDescriptionDocument.TAB).append(AbstractBaseDescriptionDocument.TAB).append("<autoetag>true</autoetag>").append(AbstractBaseDescriptionDocument.NEW_LINE);
+            }
             sb.append(AbstractBaseDescriptionDocument.TAB).append("</cache>").append(AbstractBaseDescriptionDocument.NEW_LINE);
         }
         if (this.getNegotiatedFormats() != null)
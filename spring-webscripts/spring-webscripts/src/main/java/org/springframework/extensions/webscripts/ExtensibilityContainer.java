@@ -38,6 +38,8 @@ import org.springframework.extensions.surf.extensibility.ExtensibilityModel;
 import org.springframework.extensions.surf.extensibility.HandlesExtensibility;
 import org.springframework.extensions.surf.extensibility.WebScriptExtensibilityModuleHandler;
 import org.springframework.extensions.surf.extensibility.impl.ExtensibilityModelImpl;
+import org.springframework.extensions.surf.extensibility.impl.FragmentCache;
+import org.springframework.extensions.surf.extensibility.impl.FragmentCacheDirective;
 import org.springframework.extensions.surf.extensibility.impl.MarkupDirective;
 
 /**
@@ -367,10 +369,81 @@ public class ExtensibilityContainer extends PresentationContainer implements Han
 
     public static final String MARKUP_DIRECTIVE_NAME = "markup";
     
+    public static final String FRAGMENT_CACHE_DIRECTIVE_NAME = "cachedFragment";
+    
+    private long fragmentCacheWeight = FragmentCache.DEFAULT_MAXIMUM_WEIGHT;
+    
+    private long fragmentCacheTimeToLive = FragmentCache.DEFAULT_TIME_TO_LIVE;
+    
+    /**
+     * <p>The store of rendered fragments shared by all requests processed by this {@link Container}.</p>
+     */
+    private volatile FragmentCache fragmentCache = null;
+    
+    /**
+     * <p>Sets the maximum number of characters of rendered template fragments to cache, zero to disable
+     * fragment caching (the <code>cachedFragment</code> directive then renders its body on every request).</p>
+     * @param fragmentCacheWeight long
+     */
+    public void setFragmentCacheWeight(long fragmentCacheWeight)
+    {
+        this.fragmentCacheWeight = fragmentCacheWeight;
+        this.fragmentCache = null;
+    }
+    
+    /**
+     * <p>Sets the time to live, in seconds, of cached template fragments that do not declare their own.</p>
+     * @param fragmentCacheTimeToLive long
+     */
+    public void setFragmentCacheTimeToLive(long fragmentCacheTimeToLive)
+    {
+        this.fragmentCacheTimeToLive = fragmentCacheTimeToLive;
+        this.fragmentCache = null;
+    }
+    
+    /**
+     * <p>Returns the {@link FragmentCache} holding the output of the <code>cachedFragment</code> directive, which
+     * reports the hit rate and render time saved for each fragment.</p>
+     */
+    public FragmentCache getFragmentCache()
+    {
+        FragmentCache cache = this.fragmentCache;
+        if (cache == null)
+        {
+            synchronized (this)
+            {
+                cache = this.fragmentCache;
+                if (cache == null)
+                {
+                    cache = new FragmentCache(this.fragmentCacheWeight, this.fragmentCacheTimeToLive);
+                    this.fragmentCache = cache;
+                }
+            }
+        }
+        return cache;
+    }
+    
+    /* (non-Javadoc)
+     * @see org.springframework.extensions.webscripts.PresentationContainer#reset()
+     */
+    @Override
+    public void reset()
+    {
+        super.reset();
+        
+        // Templates may have changed so discard any output rendered from them...
+        if (this.fragmentCache != null)
+        {
+            this.fragmentCache.clear();
+        }
+    }
+    
     public void addExtensibilityDirectives(Map<String, Object> freeMarkerModel, ExtensibilityModel extModel)
     {
         MarkupDirective mud = new MarkupDirective(MARKUP_DIRECTIVE_NAME, extModel);
         freeMarkerModel.put(MARKUP_DIRECTIVE_NAME, mud);
+        FragmentCacheDirective fcd = new FragmentCacheDirective(FRAGMENT_CACHE_DIRECTIVE_NAME, getFragmentCache());
+        freeMarkerModel.put(FRAGMENT_CACHE_DIRECTIVE_NAME, fcd);
     }
 
     public boolean isExtensibilitySuppressed()
@@ -20,6 +20,7 @@ package org.springframework.extensions.webscripts;
 
 import java.util.Comparator;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
 
 import org.apache.commons.logging.Log;
@@ -56,13 +57,36 @@ public class JaxRSUriIndex implements UriIndex
         return index.size();
     }
 
+    /* (non-Javadoc)
+     * @see org.springframework.extensions.webscripts.UriIndex#newInstance()
+     */
+    public UriIndex newInstance()
+    {
+        return new JaxRSUriIndex();
+    }
+
+    /* (non-Javadoc)
+     * @see org.springframework.extensions.webscripts.UriIndex#copy(java.util.Set)
+     */
+    public UriIndex copy(Set<WebScript> scripts)
+    {
+        JaxRSUriIndex copy = new JaxRSUriIndex();
+        for (IndexEntry entry : index.keySet())
+        {
+            if (scripts.contains(entry.getScript()))
+            {
+                copy.index.put(entry, entry);
+            }
+        }
+        return copy;
+    }
+
     /* (non-Javadoc)
      * @see org.alfresco.web.scripts.UriIndex#findWebScript(java.lang.String, java.lang.String)
      */
     public Match findWebScript(String method, String uri)
     {
         IndexEntry pathMatch = null;
-        Map<String, String> varsMatch = null;
         Match scriptMatch = null;
         String match = uri;
         String matchNoExt = uri;
@@ -78,26 +102,30 @@ public class JaxRSUriIndex implements UriIndex
         method = method.toUpperCase();
         
         // locate full match - on URI and METHOD
+        // NOTE: variable values are only materialised for the selected template
+        UriTemplate.Captures captures = new UriTemplate.Captures();
+        UriTemplate.Captures pathCaptures = new UriTemplate.Captures();
         for (IndexEntry entry : index.keySet())
         {
             String test = entry.getIncludeExtension() ? match : matchNoExt;
-            Map<String, String> vars = entry.getTemplate().match(test);
-            if (vars != null)
+            if (entry.getTemplate().match(test, captures))
             {
-                pathMatch = entry;
-                varsMatch = vars;
                 if (entry.getMethod().equals(method))
                 {
-                    scriptMatch = new Match(entry.getTemplate().getTemplate(), vars, entry.getStaticTemplate(), entry.getScript()); 
+                    scriptMatch = new Match(entry.getTemplate().getTemplate(), captures.getValues(), entry.getStaticTemplate(), entry.getScript()); 
                     break;
                 }
+                pathMatch = entry;
+                UriTemplate.Captures swap = pathCaptures;
+                pathCaptures = captures;
+                captures = swap;
             }
         }
         
         // locate URI match
         if (scriptMatch == null && pathMatch != null)
         {
-            scriptMatch = new Match(pathMatch.getTemplate().getTemplate(), varsMatch, pathMatch.getStaticTemplate());
+            scriptMatch = new Match(pathMatch.getTemplate().getTemplate(), pathCaptures.getValues(), pathMatch.getStaticTemplate());
         }
         
         return scriptMatch;
@@ -20,6 +20,7 @@ package org.springframework.extensions.webscripts;
 
 import java.util.Collections;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
 
 
@@ -55,6 +56,30 @@ public class PrefixTemplateUriIndex implements UriIndex
         return index.size();
     }
 
+    /* (non-Javadoc)
+     * @see org.springframework.extensions.webscripts.UriIndex#newInstance()
+     */
+    public UriIndex newInstance()
+    {
+        return new PrefixTemplateUriIndex();
+    }
+
+    /* (non-Javadoc)
+     * @see org.springframework.extensions.webscripts.UriIndex#copy(java.util.Set)
+     */
+    public UriIndex copy(Set<WebScript> scripts)
+    {
+        PrefixTemplateUriIndex copy = new PrefixTemplateUriIndex();
+        for (Map.Entry<String, IndexEntry> entry : index.entrySet())
+        {
+            if (scripts.contains(entry.getValue().script))
+            {
+                copy.index.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return copy;
+    }
+
     /* (non-Javadoc)
      * @see org.alfresco.web.scripts.UriIndex#registerUri(org.alfresco.web.scripts.WebScript, java.lang.String)
      */
@@ -100,7 +125,7 @@ public class PrefixTemplateUriIndex implements UriIndex
         }
         else
         {
-            IndexEntry urlIndex = new IndexEntry(uri, wildcard, extension, script);
+            IndexEntry urlIndex = new IndexEntry(desc.getMethod(), uri, wildcard, extension, script);
             index.put(uriIdx, urlIndex);
         }
     }
@@ -112,16 +137,19 @@ public class PrefixTemplateUriIndex implements UriIndex
     {
         String matchedPath = null;
         Match scriptMatch = null;
-        String match = method.toUpperCase() + ":" + uri;
-        String matchNoExt = method.toUpperCase() + ":" + ((uri.indexOf('.') != -1) ? uri.substring(0, uri.indexOf('.')) : uri);
+        method = method.toUpperCase();
+        int extIdx = uri.indexOf('.');
+        int noExtLength = (extIdx != -1) ? extIdx : uri.length();
         
         // locate full match - on URI and METHOD
-        for (Map.Entry<String, IndexEntry> entry : index.entrySet())
+        // NOTE: the index key is <method>:<path> - the method and path are compared separately to avoid
+        //       building the equivalent key for the uri (with and without its extension) on each lookup
+        for (IndexEntry urlIndex : index.values())
         {
-            IndexEntry urlIndex = entry.getValue();
-            String index = entry.getKey();
-            String test = urlIndex.includeExtension ? match : matchNoExt; 
-            if ((urlIndex.wildcardPath && test.startsWith(index)) || (!urlIndex.wildcardPath && test.equals(index)))
+            int testLength = urlIndex.includeExtension ? uri.length() : noExtLength;
+            int pathLength = urlIndex.path.length();
+            if (urlIndex.method.equals(method) && uri.startsWith(urlIndex.path) &&
+                (urlIndex.wildcardPath ? pathLength <= testLength : pathLength == testLength))
             {
                 scriptMatch = new Match(urlIndex.path, null, urlIndex.path, urlIndex.script); 
                 break;
@@ -146,14 +174,16 @@ public class PrefixTemplateUriIndex implements UriIndex
      */
     private static class IndexEntry
     {
-        private IndexEntry(String path, boolean wildcardPath, boolean includeExtension, WebScript script)
+        private IndexEntry(String method, String path, boolean wildcardPath, boolean includeExtension, WebScript script)
         {
+            this.method = method;
             this.path = path;
             this.wildcardPath = wildcardPath;
             this.includeExtension = includeExtension;
             this.script = script;
         }
         
+        private String method;
         private String path;
         private boolean wildcardPath;
         private boolean includeExtension;
@@ -0,0 +1,435 @@
+/**
+ * Copyright (C) 2005-2009 Alfresco Software Limited.
+ *
+ * This file is part of the Spring Surf Extension project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.extensions.webscripts;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.extensions.webscripts.JaxRSUriIndex.IndexEntry;
+
+
+/**
+ * JSR-311 (Jax-RS) URI Index backed by a segment level radix trie.
+ * <p>
+ * Each registered URI template is split into its '/' separated segments. Literal segments
+ * are stored as keyed edges of the trie, pure <code>{var}</code> segments as a wildcard node
+ * and segments mixing literals and variables (e.g. <code>b{b}b</code> or <code>{id}.json</code>)
+ * as pattern nodes. A lookup therefore only walks the branches of the trie that can match the
+ * request URI rather than evaluating the regular expression of every registered template.
+ * <p>
+ * A variable in the final segment of a template may match across '/' characters, as it does in
+ * a {@link UriTemplate}, and so consume the rest of the URI segments. A variable followed by more
+ * of the template only ever matches a single URI segment, which keeps a lookup linear in the number
+ * of URI segments. The candidate templates found in the trie are verified against the full
+ * {@link UriTemplate} and ranked with {@link JaxRSUriIndex#COMPARATOR} so the result is that of
+ * {@link JaxRSUriIndex} - other than for URIs that only match by a variable spanning segments in
+ * the middle of a template, e.g. <code>/a/x/y/b</code> is not matched by <code>/a/{a}/b</code>.
+ */
+public class RadixTrieUriIndex implements UriIndex
+{
+    // Logger
+    private static final Log logger = LogFactory.getLog(RadixTrieUriIndex.class);
+
+    // registered entries - used to detect urls claimed by more than one web script
+    private Map<IndexEntry, IndexEntry> entries = new HashMap<IndexEntry, IndexEntry>();
+
+    // trie of templates matched against the full uri (format style is argument)
+    private Node extensionRoot = new Node();
+
+    // trie of templates matched against the uri without its extension
+    private Node noExtensionRoot = new Node();
+
+
+    /* (non-Javadoc)
+     * @see org.alfresco.web.scripts.UriIndex#clear()
+     */
+    public void clear()
+    {
+        entries.clear();
+        extensionRoot = new Node();
+        noExtensionRoot = new Node();
+    }
+
+    /* (non-Javadoc)
+     * @see org.alfresco.web.scripts.UriIndex#getSize()
+     */
+    public int getSize()
+    {
+        return entries.size();
+    }
+
+    /* (non-Javadoc)
+     * @see org.springframework.extensions.webscripts.UriIndex#newInstance()
+     */
+    public UriIndex newInstance()
+    {
+        return new RadixTrieUriIndex();
+    }
+
+    /* (non-Javadoc)
+     * @see org.springframework.extensions.webscripts.UriIndex#copy(java.util.Set)
+     */
+    public UriIndex copy(Set<WebScript> scripts)
+    {
+        RadixTrieUriIndex copy = new RadixTrieUriIndex();
+        for (IndexEntry entry : entries.keySet())
+        {
+            if (scripts.contains(entry.getScript()))
+            {
+                copy.entries.put(entry, entry);
+            }
+        }
+        copy.extensionRoot = extensionRoot.copy(scripts);
+        copy.noExtensionRoot = noExtensionRoot.copy(scripts);
+        return copy;
+    }
+
+    /* (non-Javadoc)
+     * @see org.alfresco.web.scripts.UriIndex#registerUri(org.alfresco.web.scripts.WebScript, java.lang.String)
+     */
+    public void registerUri(WebScript script, String uri)
+    {
+        Description desc = script.getDescription();
+        boolean extension = true;
+
+        // trim uri parameters
+        int queryArgIdx = uri.indexOf('?');
+        if (queryArgIdx != -1)
+        {
+            uri = uri.substring(0, queryArgIdx);
+        }
+
+        // trim extension, only if script distinguishes response format via the extension
+        if (desc.getFormatStyle() != Description.FormatStyle.argument)
+        {
+            int extIdx = uri.lastIndexOf(".");
+            if (extIdx != -1)
+            {
+                uri = uri.substring(0, extIdx);
+            }
+            extension = false;
+        }
+
+        // index service ensuring no other service has already claimed the url
+        IndexEntry entry = new IndexEntry(desc.getMethod(), new UriTemplate(uri), extension, script);
+        IndexEntry existingEntry = entries.get(entry);
+        if (existingEntry != null)
+        {
+            WebScript existingService = existingEntry.getScript();
+            if (!existingService.getDescription().getId().equals(desc.getId()))
+            {
+                String msg = "Web Script document " + desc.getDescPath() + " is attempting to define the url '" + entry + "' already defined by " + existingService.getDescription().getDescPath();
+                throw new WebScriptException(msg);
+            }
+        }
+        else
+        {
+            entries.put(entry, entry);
+            Node node = extension ? extensionRoot : noExtensionRoot;
+            for (String segment : split(uri))
+            {
+                node = node.addChild(segment);
+            }
+            node.entries.add(entry);
+            if (logger.isTraceEnabled())
+                logger.trace("Indexed URI '" + uri + "' as '" + entry.getTemplate() + "'");
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see org.alfresco.web.scripts.UriIndex#findWebScript(java.lang.String, java.lang.String)
+     */
+    public Match findWebScript(String method, String uri)
+    {
+        if (uri.length() == 0 || uri.charAt(0) != '/')
+        {
+            return null;
+        }
+
+        String matchNoExt = uri;
+        int extIdx = uri.indexOf('.');
+        if (extIdx != -1)
+        {
+            // format extension is only valid as the last URL element
+            if (uri.lastIndexOf('/') < extIdx)
+            {
+                matchNoExt = uri.substring(0, extIdx);
+            }
+        }
+        method = method.toUpperCase();
+
+        // collect the candidate entries whose template structure fits the uri
+        List<IndexEntry> candidates = new ArrayList<IndexEntry>(4);
+        Set<IndexEntry> collected = Collections.newSetFromMap(new IdentityHashMap<IndexEntry, Boolean>(8));
+        collect(extensionRoot, split(uri), 0, candidates, collected);
+        int extCandidates = candidates.size();
+        collect(noExtensionRoot, split(matchNoExt), 0, candidates, collected);
+
+        // rank the verified candidates as the Jax-RS index would:
+        // the full match is the first entry (in index order) matching on URI and METHOD
+        // the uri match is the last entry (in index order) matching on URI only
+        // NOTE: variable values are only materialised for the selected template
+        UriTemplate.Captures captures = new UriTemplate.Captures();
+        IndexEntry fullMatch = null;
+        String fullUri = null;
+        IndexEntry pathMatch = null;
+        String pathUri = null;
+        for (int i = 0; i < candidates.size(); i++)
+        {
+            IndexEntry entry = candidates.get(i);
+            String test = i < extCandidates ? uri : matchNoExt;
+            if (entry.getTemplate().match(test, captures))
+            {
+                if (entry.getMethod().equals(method))
+                {
+                    if (fullMatch == null || JaxRSUriIndex.COMPARATOR.compare(entry, fullMatch) < 0)
+                    {
+                        fullMatch = entry;
+                        fullUri = test;
+                    }
+                }
+                if (pathMatch == null || JaxRSUriIndex.COMPARATOR.compare(entry, pathMatch) > 0)
+                {
+                    pathMatch = entry;
+                    pathUri = test;
+                }
+            }
+        }
+
+        Match scriptMatch = null;
+        if (fullMatch != null)
+        {
+            fullMatch.getTemplate().match(fullUri, captures);
+            scriptMatch = new Match(fullMatch.getTemplate().getTemplate(), captures.getValues(), fullMatch.getStaticTemplate(), fullMatch.getScript());
+        }
+        else if (pathMatch != null)
+        {
+            pathMatch.getTemplate().match(pathUri, captures);
+            scriptMatch = new Match(pathMatch.getTemplate().getTemplate(), captures.getValues(), pathMatch.getStaticTemplate());
+        }
+        return scriptMatch;
+    }
+
+    /**
+     * Walk the trie collecting the entries of every node reachable by the given uri segments
+     *
+     * Each segment of a template consumes a single uri segment, other than the final segment of a
+     * template which may consume all of the remaining uri segments.
+     *
+     * @param node  current trie node
+     * @param segments  uri segments
+     * @param index  index of the next segment to consume
+     * @param candidates  list of collected entries
+     * @param collected  identity set of the collected entries
+     */
+    private static void collect(Node node, String[] segments, int index, List<IndexEntry> candidates, Set<IndexEntry> collected)
+    {
+        if (index == segments.length)
+        {
+            addAll(node.entries, candidates, collected);
+            return;
+        }
+        boolean more = index + 1 < segments.length;
+
+        // literal segment
+        if (node.literals != null)
+        {
+            Node child = node.literals.get(segments[index]);
+            if (child != null)
+            {
+                collect(child, segments, index + 1, candidates, collected);
+            }
+        }
+
+        // variable segment - the final segment of a template may span the remaining uri segments
+        if (node.wildcard != null)
+        {
+            if (more)
+            {
+                addAll(node.wildcard.entries, candidates, collected);
+            }
+            collect(node.wildcard, segments, index + 1, candidates, collected);
+        }
+
+        // mixed literal and variable segment - the final segment of a template may span the remaining uri segments
+        if (node.patterns != null)
+        {
+            String segment = segments[index];
+            for (Node child : node.patterns.values())
+            {
+                if (segment.startsWith(child.prefix))
+                {
+                    if (segment.endsWith(child.suffix) && segment.length() >= child.prefix.length() + child.suffix.length())
+                    {
+                        collect(child, segments, index + 1, candidates, collected);
+                    }
+                    if (more && segments[segments.length - 1].endsWith(child.suffix))
+                    {
+                        addAll(child.entries, candidates, collected);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void addAll(List<IndexEntry> entries, List<IndexEntry> candidates, Set<IndexEntry> collected)
+    {
+        for (IndexEntry entry : entries)
+        {
+            if (collected.add(entry))
+            {
+                candidates.add(entry);
+            }
+        }
+    }
+
+    /**
+     * Split a uri (or uri template) into its segments
+     *
+     * e.g. /a/{b}/c is split into [a, {b}, c] and / into [""]
+     *
+     * @param uri  uri beginning with '/'
+     * @return  uri segments
+     */
+    private static String[] split(String uri)
+    {
+        return uri.substring(1).split("/", -1);
+    }
+
+    /**
+     * Node of the URI trie
+     */
+    private static class Node
+    {
+        // children keyed by literal segment
+        private Map<String, Node> literals;
+
+        // child for a segment consisting of a single variable
+        private Node wildcard;
+
+        // children keyed by segment mixing literals and variables
+        private Map<String, Node> patterns;
+
+        // static prefix and suffix of a pattern segment
+        private String prefix = "";
+        private String suffix = "";
+
+        // entries whose template ends at this node
+        private List<IndexEntry> entries = new ArrayList<IndexEntry>(1);
+
+        /**
+         * Copy this node and its children, retaining only the entries of the given web scripts
+         *
+         * @param scripts  web scripts whose entries to retain
+         * @return  the copy
+         */
+        Node copy(Set<WebScript> scripts)
+        {
+            Node copy = new Node();
+            copy.prefix = prefix;
+            copy.suffix = suffix;
+            for (IndexEntry entry : entries)
+            {
+                if (scripts.contains(entry.getScript()))
+                {
+                    copy.entries.add(entry);
+                }
+            }
+            if (literals != null)
+            {
+                copy.literals = new HashMap<String, Node>(literals.size() * 2);
+                for (Map.Entry<String, Node> child : literals.entrySet())
+                {
+                    copy.literals.put(child.getKey(), child.getValue().copy(scripts));
+                }
+            }
+            if (wildcard != null)
+            {
+                copy.wildcard = wildcard.copy(scripts);
+            }
+            if (patterns != null)
+            {
+                copy.patterns = new HashMap<String, Node>(patterns.size() * 2);
+                for (Map.Entry<String, Node> child : patterns.entrySet())
+                {
+                    copy.patterns.put(child.getKey(), child.getValue().copy(scripts));
+                }
+            }
+            return copy;
+        }
+
+        /**
+         * Gets (or creates) the child for the given template segment
+         *
+         * @param segment  template segment
+         * @return  child node
+         */
+        Node addChild(String segment)
+        {
+            int varStart = segment.indexOf('{');
+            if (varStart == -1)
+            {
+                if (literals == null)
+                {
+                    literals = new HashMap<String, Node>(4);
+                }
+                Node child = literals.get(segment);
+                if (child == null)
+                {
+                    child = new Node();
+                    literals.put(segment, child);
+                }
+                return child;
+            }
+
+            int varEnd = segment.lastIndexOf('}');
+            if (varStart == 0 && varEnd == segment.length() - 1 && segment.indexOf('}') == varEnd)
+            {
+                if (wildcard == null)
+                {
+                    wildcard = new Node();
+                }
+                return wildcard;
+            }
+
+            if (patterns == null)
+            {
+                patterns = new HashMap<String, Node>(4);
+            }
+            // the structure of a pattern does not depend on its variable names
+            String key = segment.replaceAll("\\{[^}]*\\}", "{}");
+            Node child = patterns.get(key);
+            if (child == null)
+            {
+                child = new Node();
+                child.prefix = segment.substring(0, varStart);
+                child.suffix = segment.substring(varEnd + 1);
+                patterns.put(key, child);
+            }
+            return child;
+        }
+    }
+}
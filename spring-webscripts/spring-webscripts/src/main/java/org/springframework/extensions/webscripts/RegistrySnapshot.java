@@ -0,0 +1,706 @@
+/**
+ * Copyright (C) 2005-2009 Alfresco Software Limited.
+ *
+ * This file is part of the Spring Surf Extension project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.extensions.webscripts;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.springframework.extensions.webscripts.Description.FormatStyle;
+import org.springframework.extensions.webscripts.Description.Lifecycle;
+import org.springframework.extensions.webscripts.Description.RequiredAuthentication;
+import org.springframework.extensions.webscripts.Description.RequiredCache;
+import org.springframework.extensions.webscripts.Description.RequiredTransaction;
+import org.springframework.extensions.webscripts.Description.RequiredTransactionParameters;
+import org.springframework.extensions.webscripts.Description.TransactionCapability;
+
+
+/**
+ * Binary snapshot of the description documents parsed by the {@link DeclarativeRegistry}.
+ * <p>
+ * A snapshot records, for each store of the search path, the package, schema and web script
+ * description document paths together with the parsed documents (or the reason they failed to
+ * parse), so a registry can be rebuilt on start up without locating and parsing the documents again.
+ * The web scripts themselves and the URI index are not part of the snapshot - they refer to beans
+ * of the application context and are rebuilt from the restored descriptions.
+ * <p>
+ * Snapshots are only supported for search paths consisting of {@link ClassPathStore class path stores}.
+ * A snapshot is valid while the base paths of the stores and the fingerprint of the class path (the
+ * name, size and last modified time of each class path jar and of each file beneath each class path
+ * directory) are those recorded when it was written.
+ */
+final class RegistrySnapshot
+{
+    private static final int MAGIC = 0x5753524e;
+    private static final int VERSION = 2;
+
+    private final String fingerprint;
+    private final List<StoreDocuments> stores;
+
+    /**
+     * @param fingerprint  fingerprint of the stores the documents were located in
+     * @param stores  documents of each store, in search path order
+     */
+    RegistrySnapshot(String fingerprint, List<StoreDocuments> stores)
+    {
+        this.fingerprint = fingerprint;
+        this.stores = stores;
+    }
+
+    /**
+     * @return  documents of each store, in search path order
+     */
+    List<StoreDocuments> getStores()
+    {
+        return stores;
+    }
+
+    /**
+     * Determine if the description documents of the given stores may be snapshot
+     *
+     * @param stores  stores of the search path
+     * @return  true if every store is a class path store
+     */
+    static boolean isSupported(Collection<Store> stores)
+    {
+        for (Store store : stores)
+        {
+            if (!(store instanceof ClassPathStore))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compute the fingerprint of the given stores
+     *
+     * @param stores  class path stores of the search path
+     * @param classLoader  class loader the stores resolve their documents with
+     * @return  fingerprint
+     */
+    static String getFingerprint(Collection<Store> stores, ClassLoader classLoader)
+    {
+        MessageDigest digest;
+        try
+        {
+            digest = MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new WebScriptException("Unable to compute registry snapshot fingerprint", e);
+        }
+
+        for (Store store : stores)
+        {
+            update(digest, "store:" + store.getBasePath());
+        }
+
+        // class path entries visible to the class loader
+        Set<String> entries = new LinkedHashSet<String>();
+        for (ClassLoader loader = classLoader; loader != null; loader = loader.getParent())
+        {
+            if (loader instanceof URLClassLoader)
+            {
+                for (URL url : ((URLClassLoader)loader).getURLs())
+                {
+                    entries.add("file".equals(url.getProtocol()) ? new File(url.getPath()).getAbsolutePath() : url.toExternalForm());
+                }
+            }
+        }
+        String classPath = System.getProperty("java.class.path");
+        if (classPath != null && classPath.length() != 0)
+        {
+            for (String entry : classPath.split(File.pathSeparator))
+            {
+                entries.add(new File(entry).getAbsolutePath());
+            }
+        }
+        for (String entry : entries)
+        {
+            File file = new File(entry);
+            update(digest, "entry:" + entry);
+            if (file.isDirectory())
+            {
+                updateDirectory(digest, file);
+            }
+            else if (file.exists())
+            {
+                update(digest, file.length() + ":" + file.lastModified());
+            }
+        }
+
+        StringBuilder hex = new StringBuilder(64);
+        for (byte b : digest.digest())
+        {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    private static void updateDirectory(MessageDigest digest, File dir)
+    {
+        File[] files = dir.listFiles();
+        if (files == null)
+        {
+            return;
+        }
+        Arrays.sort(files);
+        for (File file : files)
+        {
+            if (file.isDirectory())
+            {
+                updateDirectory(digest, file);
+            }
+            else
+            {
+                update(digest, file.getPath() + ":" + file.length() + ":" + file.lastModified());
+            }
+        }
+    }
+
+    private static void update(MessageDigest digest, String value)
+    {
+        digest.update(value.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte)0);
+    }
+
+    /**
+     * Write the snapshot to the given file
+     *
+     * The snapshot is written to a temporary file first and then renamed, so a concurrent or
+     * interrupted write never leaves a partial snapshot behind.
+     *
+     * @param file  snapshot file
+     * @throws IOException
+     */
+    void write(File file) throws IOException
+    {
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (dir != null && !dir.exists() && !dir.mkdirs())
+        {
+            throw new IOException("Unable to create directory " + dir);
+        }
+        File temp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(temp))));
+        try
+        {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeString(out, fingerprint);
+            out.writeInt(stores.size());
+            for (StoreDocuments store : stores)
+            {
+                writeString(out, store.basePath);
+
+                out.writeInt(store.packageDescPaths.length);
+                for (String path : store.packageDescPaths)
+                {
+                    writeString(out, path);
+                    if (writeFailure(out, store.failures.get(path)))
+                    {
+                        writePackageDescription(out, store.packageDocuments.get(path));
+                    }
+                }
+
+                out.writeInt(store.schemaDescPaths.length);
+                for (String path : store.schemaDescPaths)
+                {
+                    writeString(out, path);
+                    if (writeFailure(out, store.failures.get(path)))
+                    {
+                        writeSchemaDescription(out, store.schemaDocuments.get(path));
+                    }
+                }
+
+                out.writeInt(store.serviceDescPaths.length);
+                for (String path : store.serviceDescPaths)
+                {
+                    writeString(out, path);
+                    if (writeFailure(out, store.failures.get(path)))
+                    {
+                        writeDescription(out, store.serviceDocuments.get(path));
+                    }
+                }
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+
+        if (!temp.renameTo(file))
+        {
+            file.delete();
+            if (!temp.renameTo(file))
+            {
+                temp.delete();
+                throw new IOException("Unable to rename " + temp + " to " + file);
+            }
+        }
+    }
+
+    /**
+     * Read the snapshot from the given file
+     *
+     * @param file  snapshot file
+     * @param stores  stores of the search path
+     * @param fingerprint  current fingerprint of the stores
+     * @return  the snapshot with its documents bound to the given stores, or null if the snapshot
+     *          was taken from different stores or a different class path
+     * @throws IOException
+     */
+    static RegistrySnapshot read(File file, Collection<Store> stores, String fingerprint) throws IOException
+    {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))));
+        try
+        {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || !fingerprint.equals(readString(in)) || in.readInt() != stores.size())
+            {
+                return null;
+            }
+            List<StoreDocuments> storeDocuments = new ArrayList<StoreDocuments>(stores.size());
+            for (Store store : stores)
+            {
+                if (!store.getBasePath().equals(readString(in)))
+                {
+                    return null;
+                }
+                StoreDocuments documents = new StoreDocuments(store.getBasePath());
+
+                documents.packageDescPaths = new String[in.readInt()];
+                for (int i = 0; i < documents.packageDescPaths.length; i++)
+                {
+                    String path = readString(in);
+                    documents.packageDescPaths[i] = path;
+                    if (readFailure(in, documents, path))
+                    {
+                        documents.packageDocuments.put(path, readPackageDescription(in, store));
+                    }
+                }
+
+                documents.schemaDescPaths = new String[in.readInt()];
+                for (int i = 0; i < documents.schemaDescPaths.length; i++)
+                {
+                    String path = readString(in);
+                    documents.schemaDescPaths[i] = path;
+                    if (readFailure(in, documents, path))
+                    {
+                        documents.schemaDocuments.put(path, readSchemaDescription(in, store));
+                    }
+                }
+
+                documents.serviceDescPaths = new String[in.readInt()];
+                for (int i = 0; i < documents.serviceDescPaths.length; i++)
+                {
+                    String path = readString(in);
+                    documents.serviceDescPaths[i] = path;
+                    if (readFailure(in, documents, path))
+                    {
+                        documents.serviceDocuments.put(path, readDescription(in, store));
+                    }
+                }
+
+                storeDocuments.add(documents);
+            }
+            return new RegistrySnapshot(fingerprint, storeDocuments);
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+
+    //
+    // Description documents
+    //
+
+    private static void writePackageDescription(DataOutputStream out, PackageDescriptionDocument doc) throws IOException
+    {
+        writeBaseDescription(out, doc);
+        writeString(out, doc.getDescPath());
+        writeString(out, doc.getPackage() == null ? null : doc.getPackage().getPath());
+        List<ResourceDescription> resources = doc.getResourceDescriptionList();
+        out.writeInt(resources == null ? -1 : resources.size());
+        for (int i = 0; resources != null && i < resources.size(); i++)
+        {
+            writeBaseDescription(out, resources.get(i));
+            writeStrings(out, resources.get(i).getScriptIds());
+        }
+    }
+
+    private static PackageDescriptionDocument readPackageDescription(DataInputStream in, Store store) throws IOException
+    {
+        PackageDescriptionDocument doc = new PackageDescriptionDocument();
+        readBaseDescription(in, doc);
+        doc.setDescPath(readString(in));
+        String packagePath = readString(in);
+        doc.setPackage(packagePath == null ? null : new PathImpl(packagePath));
+        doc.setStore(store);
+        int count = in.readInt();
+        if (count != -1)
+        {
+            ArrayList<ResourceDescription> resources = new ArrayList<ResourceDescription>(count);
+            for (int i = 0; i < count; i++)
+            {
+                ResourceDescription resource = new ResourceDescription();
+                readBaseDescription(in, resource);
+                resource.setScriptIds(readStrings(in));
+                resources.add(resource);
+            }
+            doc.setResourceDescriptionList(resources);
+        }
+        return doc;
+    }
+
+    private static void writeSchemaDescription(DataOutputStream out, SchemaDescriptionDocument doc) throws IOException
+    {
+        writeBaseDescription(out, doc);
+        writeString(out, doc.getDescPath());
+        List<TypeDescription> types = doc.getTypeDescriptionList();
+        writeTypeDescriptions(out, types == null ? null : types.toArray(new TypeDescription[types.size()]));
+    }
+
+    private static SchemaDescriptionDocument readSchemaDescription(DataInputStream in, Store store) throws IOException
+    {
+        SchemaDescriptionDocument doc = new SchemaDescriptionDocument();
+        readBaseDescription(in, doc);
+        doc.setDescPath(readString(in));
+        doc.setStore(store);
+        TypeDescription[] types = readTypeDescriptions(in);
+        if (types != null)
+        {
+            doc.setTypeDescriptionList(new ArrayList<TypeDescription>(Arrays.asList(types)));
+        }
+        return doc;
+    }
+
+    private static void writeDescription(DataOutputStream out, DescriptionImpl desc) throws IOException
+    {
+        writeBaseDescription(out, desc);
+        writeString(out, desc.getDescPath());
+        writeString(out, desc.getScriptPath());
+        writeString(out, desc.getKind());
+        writeEnum(out, desc.getLifecycle());
+        writeStrings(out, desc.getFamilys() == null ? null : desc.getFamilys().toArray(new String[desc.getFamilys().size()]));
+        writeEnum(out, desc.getRequiredAuthentication());
+        writeString(out, desc.getRunAs());
+        RequiredTransactionParameters trx = desc.getRequiredTransactionParameters();
+        out.writeBoolean(trx != null);
+        if (trx != null)
+        {
+            writeEnum(out, trx.getRequired());
+            writeEnum(out, trx.getCapability());
+            out.writeInt(trx.getBufferSize());
+        }
+        RequiredCache cache = desc.getRequiredCache();
+        out.writeBoolean(cache != null);
+        if (cache != null)
+        {
+            out.writeBoolean(cache.getNeverCache());
+            out.writeBoolean(cache.getIsPublic());
+            out.writeBoolean(cache.getMustRevalidate());
+            out.writeBoolean(cache.getValidator());
+            out.writeBoolean(cache.getAutoETag());
+        }
+        writeEnum(out, desc.getFormatStyle());
+        writeString(out, desc.getMethod());
+        writeStrings(out, desc.getURIs());
+        writeString(out, desc.getDefaultFormat());
+        NegotiatedFormat[] formats = desc.getNegotiatedFormats();
+        out.writeInt(formats == null ? -1 : formats.length);
+        for (int i = 0; formats != null && i < formats.length; i++)
+        {
+            MediaType mediaType = formats[i].getMediaType();
+            String params = mediaType.getParams();
+            writeString(out, mediaType.getType() + "/" + mediaType.getSubtype() + (params.length() == 0 ? "" : ";" + params) + ";q=" + mediaType.getQuality());
+            writeString(out, formats[i].getFormat());
+        }
+        out.writeBoolean(desc.getMultipartProcessing());
+        ArgumentTypeDescription[] arguments = desc.getArguments();
+        out.writeInt(arguments == null ? -1 : arguments.length);
+        for (int i = 0; arguments != null && i < arguments.length; i++)
+        {
+            out.writeBoolean(arguments[i] != null);
+            if (arguments[i] != null)
+            {
+                writeBaseDescription(out, arguments[i]);
+                writeString(out, arguments[i].getDefaultValue());
+                out.writeBoolean(arguments[i].isRequired());
+            }
+        }
+        writeTypeDescriptions(out, desc.getRequestTypes());
+        writeTypeDescriptions(out, desc.getResponseTypes());
+    }
+
+    private static DescriptionImpl readDescription(DataInputStream in, Store store) throws IOException
+    {
+        DescriptionImpl desc = new DescriptionImpl();
+        readBaseDescription(in, desc);
+        desc.setStore(store);
+        desc.setDescPath(readString(in));
+        desc.setScriptPath(readString(in));
+        desc.setKind(readString(in));
+        desc.setLifecycle(readEnum(in, Lifecycle.class));
+        String[] familys = readStrings(in);
+        desc.setFamilys(familys == null ? null : new TreeSet<String>(Arrays.asList(familys)));
+        desc.setRequiredAuthentication(readEnum(in, RequiredAuthentication.class));
+        desc.setRunAs(readString(in));
+        if (in.readBoolean())
+        {
+            TransactionParameters trx = new TransactionParameters();
+            trx.setRequired(readEnum(in, RequiredTransaction.class));
+            trx.setCapability(readEnum(in, TransactionCapability.class));
+            trx.setBufferSize(in.readInt());
+            desc.setRequiredTransactionParameters(trx);
+        }
+        if (in.readBoolean())
+        {
+            Cache cache = new Cache();
+            cache.setNeverCache(in.readBoolean());
+            cache.setIsPublic(in.readBoolean());
+            cache.setMustRevalidate(in.readBoolean());
+            cache.setValidator(in.readBoolean());
+            cache.setAutoETag(in.readBoolean());
+            desc.setRequiredCache(cache);
+        }
+        desc.setFormatStyle(readEnum(in, FormatStyle.class));
+        desc.setMethod(readString(in));
+        desc.setUris(readStrings(in));
+        desc.setDefaultFormat(readString(in));
+        int formatCount = in.readInt();
+        if (formatCount != -1)
+        {
+            NegotiatedFormat[] formats = new NegotiatedFormat[formatCount];
+            for (int i = 0; i < formatCount; i++)
+            {
+                MediaType mediaType = new MediaType(readString(in));
+                formats[i] = new NegotiatedFormat(mediaType, readString(in));
+            }
+            desc.setNegotiatedFormats(formats);
+        }
+        desc.setMultipartProcessing(in.readBoolean());
+        int argumentCount = in.readInt();
+        if (argumentCount != -1)
+        {
+            ArgumentTypeDescription[] arguments = new ArgumentTypeDescription[argumentCount];
+            for (int i = 0; i < argumentCount; i++)
+            {
+                if (in.readBoolean())
+                {
+                    arguments[i] = new ArgumentTypeDescription();
+                    readBaseDescription(in, arguments[i]);
+                    arguments[i].setDefaultValue(readString(in));
+                    arguments[i].setRequired(in.readBoolean());
+                }
+            }
+            desc.setArguments(arguments);
+        }
+        desc.setRequestTypes(readTypeDescriptions(in));
+        desc.setResponseTypes(readTypeDescriptions(in));
+        return desc;
+    }
+
+    private static void writeTypeDescriptions(DataOutputStream out, TypeDescription[] types) throws IOException
+    {
+        out.writeInt(types == null ? -1 : types.length);
+        for (int i = 0; types != null && i < types.length; i++)
+        {
+            out.writeBoolean(types[i] != null);
+            if (types[i] != null)
+            {
+                writeBaseDescription(out, types[i]);
+                writeString(out, types[i].getFormat());
+                writeString(out, types[i].getDefinition());
+                writeString(out, types[i].getUrl());
+            }
+        }
+    }
+
+    private static TypeDescription[] readTypeDescriptions(DataInputStream in) throws IOException
+    {
+        int count = in.readInt();
+        if (count == -1)
+        {
+            return null;
+        }
+        TypeDescription[] types = new TypeDescription[count];
+        for (int i = 0; i < count; i++)
+        {
+            if (in.readBoolean())
+            {
+                types[i] = new TypeDescription();
+                readBaseDescription(in, types[i]);
+                types[i].setFormat(readString(in));
+                types[i].setDefinition(readString(in));
+                types[i].setUrl(readString(in));
+            }
+        }
+        return types;
+    }
+
+    private static void writeBaseDescription(DataOutputStream out, BaseDescription desc) throws IOException
+    {
+        writeString(out, desc.getId());
+        writeString(out, desc.getShortName());
+        writeString(out, desc.getDescription());
+    }
+
+    private static void readBaseDescription(DataInputStream in, AbstractBaseDescription desc) throws IOException
+    {
+        desc.setId(readString(in));
+        desc.setShortName(readString(in));
+        desc.setDescription(readString(in));
+    }
+
+
+    //
+    // Primitives
+    //
+
+    private static boolean writeFailure(DataOutputStream out, String failure) throws IOException
+    {
+        out.writeBoolean(failure == null);
+        if (failure != null)
+        {
+            writeString(out, failure);
+        }
+        return failure == null;
+    }
+
+    private static boolean readFailure(DataInputStream in, StoreDocuments documents, String path) throws IOException
+    {
+        if (in.readBoolean())
+        {
+            return true;
+        }
+        documents.failures.put(path, readString(in));
+        return false;
+    }
+
+    private static void writeEnum(DataOutputStream out, Enum<?> value) throws IOException
+    {
+        writeString(out, value == null ? null : value.name());
+    }
+
+    private static <E extends Enum<E>> E readEnum(DataInputStream in, Class<E> type) throws IOException
+    {
+        String name = readString(in);
+        return name == null ? null : Enum.valueOf(type, name);
+    }
+
+    private static void writeStrings(DataOutputStream out, String[] values) throws IOException
+    {
+        out.writeInt(values == null ? -1 : values.length);
+        for (int i = 0; values != null && i < values.length; i++)
+        {
+            writeString(out, values[i]);
+        }
+    }
+
+    private static String[] readStrings(DataInputStream in) throws IOException
+    {
+        int count = in.readInt();
+        if (count == -1)
+        {
+            return null;
+        }
+        String[] values = new String[count];
+        for (int i = 0; i < count; i++)
+        {
+            values[i] = readString(in);
+        }
+        return values;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException
+    {
+        // NOTE: writeUTF() is limited to 64K which a type definition may exceed
+        if (value == null)
+        {
+            out.writeInt(-1);
+        }
+        else
+        {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException
+    {
+        int length = in.readInt();
+        if (length == -1)
+        {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+
+    /**
+     * The description documents located in a store and the result of parsing each of them
+     */
+    static final class StoreDocuments
+    {
+        final String basePath;
+        String[] packageDescPaths;
+        String[] schemaDescPaths;
+        String[] serviceDescPaths;
+
+        // parsed documents by path
+        final Map<String, PackageDescriptionDocument> packageDocuments = new LinkedHashMap<String, PackageDescriptionDocument>();
+        final Map<String, SchemaDescriptionDocument> schemaDocuments = new LinkedHashMap<String, SchemaDescriptionDocument>();
+        final Map<String, DescriptionImpl> serviceDocuments = new LinkedHashMap<String, DescriptionImpl>();
+
+        // documents that failed to parse (error by path)
+        final Map<String, String> failures = new LinkedHashMap<String, String>();
+
+        StoreDocuments(String basePath)
+        {
+            this.basePath = basePath;
+        }
+    }
+}
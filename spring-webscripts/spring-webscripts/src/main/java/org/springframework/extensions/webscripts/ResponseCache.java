@@ -0,0 +1,641 @@
+/**
+ * Copyright (C) 2005-2009 Alfresco Software Limited.
+ *
+ * This file is part of the Spring Surf Extension project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.extensions.webscripts;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.StringTokenizer;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.extensions.surf.util.I18NUtil;
+import org.springframework.extensions.surf.util.TinyLfuCache;
+
+
+/**
+ * Server-side cache of rendered GET Web Script responses.
+ *
+ * Only Web Scripts whose description declares a public cache and requires no authentication are considered,
+ * as a response is replayed before the container authenticates the request. A response is stored when
+ * the Web Script completes with status 200 and a public Cache with a max age, and is then replayed - status,
+ * headers, cache controls and body - without executing the Web Script until the max age passes.
+ *
+ * Responses are keyed by Web Script id, URL, format and locale. A response with a Vary header is further
+ * keyed by the values of the named request headers. Responses with a "Vary: *" or Set-Cookie header, and
+ * responses written directly to the underlying transport, are never stored.
+ *
+ * The cache is opt-in: configure it on the container via {@link AbstractRuntimeContainer#setResponseCache}.
+ */
+public class ResponseCache
+{
+    // Logger
+    private static final Log logger = LogFactory.getLog(ResponseCache.class);
+
+    private static final String HEADER_VARY = "Vary";
+    private static final String HEADER_SET_COOKIE = "Set-Cookie";
+    private static final int ENTRY_OVERHEAD = 256;
+
+    private static final TinyLfuCache.Weigher<String, Object> WEIGHER = new TinyLfuCache.Weigher<String, Object>()
+    {
+        public int weigh(String key, Object value)
+        {
+            int weight = key.length() * 2 + ENTRY_OVERHEAD;
+            if (value instanceof CachedResponse)
+            {
+                weight += ((CachedResponse)value).getWeight();
+            }
+            return weight;
+        }
+    };
+
+    private long maxWeight = 16L * 1024L * 1024L;
+    private int maxEntrySize = 512 * 1024;
+    private volatile TinyLfuCache<String, Object> cache;
+
+    /**
+     * @param maxWeight  approximate maximum number of bytes of responses to hold
+     */
+    public void setMaxWeight(long maxWeight)
+    {
+        this.maxWeight = maxWeight;
+        this.cache = null;
+    }
+
+    /**
+     * @param maxEntrySize  maximum size in bytes of a single response body, larger responses are not stored
+     */
+    public void setMaxEntrySize(int maxEntrySize)
+    {
+        this.maxEntrySize = maxEntrySize;
+    }
+
+    /**
+     * Determine whether a request for the given Web Script may be served from the cache
+     *
+     * @param method  request method
+     * @param description  Web Script description
+     * @return  true if the response may be cached
+     */
+    public boolean isCachable(String method, Description description)
+    {
+        if (!"GET".equalsIgnoreCase(method))
+        {
+            return false;
+        }
+        if (description.getRequiredAuthentication() != Description.RequiredAuthentication.none)
+        {
+            return false;
+        }
+        Description.RequiredCache requiredCache = description.getRequiredCache();
+        return requiredCache != null && !requiredCache.getNeverCache() && requiredCache.getIsPublic();
+    }
+
+    /**
+     * Compute the cache key of a request
+     *
+     * @param req  Web Script request
+     * @return  cache key (before any Vary request headers are applied)
+     */
+    public String getKey(WebScriptRequest req)
+    {
+        Locale locale = I18NUtil.getLocale();
+        return req.getServiceMatch().getWebScript().getDescription().getId() + '\n' + req.getFormat() + '\n' +
+               (locale == null ? "" : locale.toString()) + '\n' + req.getURL();
+    }
+
+    /**
+     * Write the cached response for the given key, if any, to the response
+     *
+     * @param key  cache key
+     * @param req  Web Script request
+     * @param res  Web Script response
+     * @return  true if a cached response was written
+     */
+    public boolean replay(String key, WebScriptRequest req, WebScriptResponse res)
+        throws IOException
+    {
+        TinyLfuCache<String, Object> cache = getCache();
+        Object value = cache.get(key);
+        if (value instanceof Vary)
+        {
+            value = cache.get(getVaryKey(key, ((Vary)value).headers, req));
+        }
+        if (value instanceof CachedResponse)
+        {
+            if (logger.isDebugEnabled())
+                logger.debug("Serving cached response for " + req.getURL());
+            ((CachedResponse)value).replay(res);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Wrap a response so that its output may be stored once the Web Script completes
+     *
+     * @param res  Web Script response
+     * @return  recording response
+     */
+    public RecordingResponse record(WebScriptResponse res)
+    {
+        return new RecordingResponse(res, maxEntrySize);
+    }
+
+    /**
+     * Store a recorded response, if it is cachable
+     *
+     * @param key  cache key
+     * @param req  Web Script request
+     * @param res  recording response the Web Script completed with
+     */
+    public void store(String key, WebScriptRequest req, RecordingResponse res)
+    {
+        CachedResponse response = res.getResponse();
+        if (response == null)
+        {
+            return;
+        }
+        long ttl = response.cache.getMaxAge() * 1000L;
+        String[] vary = response.getVary();
+        TinyLfuCache<String, Object> cache = getCache();
+        if (vary == null)
+        {
+            cache.put(key, response, ttl);
+        }
+        else if (vary.length == 0)
+        {
+            return;
+        }
+        else
+        {
+            cache.put(key, new Vary(vary), ttl);
+            cache.put(getVaryKey(key, vary, req), response, ttl);
+        }
+        if (logger.isDebugEnabled())
+            logger.debug("Cached response for " + req.getURL() + " (" + response.getWeight() + " bytes, max age " + response.cache.getMaxAge() + "s)");
+    }
+
+    /**
+     * Remove all cached responses
+     */
+    public void clear()
+    {
+        TinyLfuCache<String, Object> cache = this.cache;
+        if (cache != null)
+        {
+            cache.clear();
+        }
+    }
+
+    /**
+     * @return  number of cached entries
+     */
+    public int size()
+    {
+        TinyLfuCache<String, Object> cache = this.cache;
+        return cache == null ? 0 : cache.size();
+    }
+
+    /**
+     * @return  number of lookups answered from the cache
+     */
+    public long getHitCount()
+    {
+        TinyLfuCache<String, Object> cache = this.cache;
+        return cache == null ? 0L : cache.getHitCount();
+    }
+
+    /**
+     * @return  number of lookups not answered from the cache
+     */
+    public long getMissCount()
+    {
+        TinyLfuCache<String, Object> cache = this.cache;
+        return cache == null ? 0L : cache.getMissCount();
+    }
+
+    private TinyLfuCache<String, Object> getCache()
+    {
+        TinyLfuCache<String, Object> cache = this.cache;
+        if (cache == null)
+        {
+            synchronized (this)
+            {
+                cache = this.cache;
+                if (cache == null)
+                {
+                    cache = new TinyLfuCache<String, Object>(maxWeight, WEIGHER, 0L);
+                    this.cache = cache;
+                }
+            }
+        }
+        return cache;
+    }
+
+    private static String getVaryKey(String key, String[] headers, WebScriptRequest req)
+    {
+        StringBuilder varyKey = new StringBuilder(key);
+        for (String header : headers)
+        {
+            String value = req.getHeader(header);
+            varyKey.append('\n').append(header).append('=').append(value == null ? "" : value);
+        }
+        return varyKey.toString();
+    }
+
+
+    /**
+     * Marker entry recording the request headers a response varies by
+     */
+    private static class Vary
+    {
+        private final String[] headers;
+
+        private Vary(String[] headers)
+        {
+            this.headers = headers;
+        }
+    }
+
+    /**
+     * A stored response
+     */
+    private static class CachedResponse
+    {
+        private final int status;
+        private final List<String[]> headers;
+        private final String contentType;
+        private final String contentEncoding;
+        private final Cache cache;
+        private final String text;
+        private final byte[] bytes;
+
+        private CachedResponse(int status, List<String[]> headers, String contentType, String contentEncoding,
+                Cache cache, String text, byte[] bytes)
+        {
+            this.status = status;
+            this.headers = headers;
+            this.contentType = contentType;
+            this.contentEncoding = contentEncoding;
+            this.cache = cache;
+            this.text = text;
+            this.bytes = bytes;
+        }
+
+        private int getWeight()
+        {
+            int weight = text != null ? text.length() * 2 : (bytes != null ? bytes.length : 0);
+            for (String[] header : headers)
+            {
+                weight += (header[1].length() + header[2].length()) * 2;
+            }
+            return weight;
+        }
+
+        /**
+         * @return  the request headers the response varies by, an empty array if it may not be stored,
+         *          or null if it does not vary
+         */
+        private String[] getVary()
+        {
+            List<String> vary = null;
+            for (String[] header : headers)
+            {
+                if (HEADER_SET_COOKIE.equalsIgnoreCase(header[1]))
+                {
+                    return new String[0];
+                }
+                if (HEADER_VARY.equalsIgnoreCase(header[1]))
+                {
+                    if (vary == null)
+                    {
+                        vary = new ArrayList<String>(4);
+                    }
+                    StringTokenizer tokens = new StringTokenizer(header[2], ", ");
+                    while (tokens.hasMoreTokens())
+                    {
+                        String name = tokens.nextToken();
+                        if (name.equals("*"))
+                        {
+                            return new String[0];
+                        }
+                        vary.add(name);
+                    }
+                }
+            }
+            return vary == null ? null : vary.toArray(new String[vary.size()]);
+        }
+
+        private void replay(WebScriptResponse res) throws IOException
+        {
+            res.setStatus(status);
+            for (String[] header : headers)
+            {
+                if (header[0] != null)
+                {
+                    res.addHeader(header[1], header[2]);
+                }
+                else
+                {
+                    res.setHeader(header[1], header[2]);
+                }
+            }
+            if (contentType != null)
+            {
+                res.setContentType(contentType);
+            }
+            if (contentEncoding != null)
+            {
+                res.setContentEncoding(contentEncoding);
+            }
+            res.setCache(cache);
+            if (text != null)
+            {
+                res.getWriter().write(text);
+            }
+            else if (bytes != null)
+            {
+                res.getOutputStream().write(bytes);
+            }
+        }
+    }
+
+
+    /**
+     * Web Script response that passes everything through to the wrapped response while recording
+     * what is needed to replay it
+     */
+    public static class RecordingResponse implements WrappingWebScriptResponse
+    {
+        private final WebScriptResponse res;
+        private final int maxEntrySize;
+        private int status = 200;
+        private List<String[]> headers = new ArrayList<String[]>(8);
+        private String contentType;
+        private String contentEncoding;
+        private Cache cache;
+        private StringBuilder text;
+        private ByteArrayOutputStream bytes;
+        private Writer writer;
+        private OutputStream outputStream;
+        private boolean overflow;
+
+        private RecordingResponse(WebScriptResponse res, int maxEntrySize)
+        {
+            this.res = res;
+            this.maxEntrySize = maxEntrySize;
+        }
+
+        /**
+         * @return  the response to store, or null if the response is not cachable
+         */
+        private CachedResponse getResponse()
+        {
+            if (status != 200 || overflow || cache == null || cache.getNeverCache() || !cache.getIsPublic() ||
+                cache.getMaxAge() == null || cache.getMaxAge() <= 0L || (text != null && bytes != null))
+            {
+                return null;
+            }
+            if (writer != null)
+            {
+                try
+                {
+                    writer.flush();
+                }
+                catch (IOException e)
+                {
+                    return null;
+                }
+            }
+            return new CachedResponse(status, headers, contentType, contentEncoding, cache,
+                    text == null ? null : text.toString(), bytes == null ? null : bytes.toByteArray());
+        }
+
+        private boolean capture(int length)
+        {
+            if (!overflow && (text == null ? 0 : text.length() * 2) + (bytes == null ? 0 : bytes.size()) + length > maxEntrySize)
+            {
+                overflow = true;
+                text = null;
+                bytes = null;
+            }
+            return !overflow;
+        }
+
+        /* (non-Javadoc)
+         * @see org.springframework.extensions.webscripts.WrappingWebScriptResponse#getNext()
+         */
+        public WebScriptResponse getNext()
+        {
+            return res;
+        }
+
+        public void setStatus(int status)
+        {
+            this.status = status;
+            res.setStatus(status);
+        }
+
+        public void setHeader(String name, String value)
+        {
+            headers.add(new String[] { null, name, value });
+            res.setHeader(name, value);
+        }
+
+        public void addHeader(String name, String value)
+        {
+            headers.add(new String[] { "add", name, value });
+            res.addHeader(name, value);
+        }
+
+        public void setContentType(String contentType)
+        {
+            this.contentType = contentType;
+            res.setContentType(contentType);
+        }
+
+        public void setContentEncoding(String contentEncoding)
+        {
+            this.contentEncoding = contentEncoding;
+            res.setContentEncoding(contentEncoding);
+        }
+
+        public void setCache(Cache cache)
+        {
+            this.cache = cache;
+            res.setCache(cache);
+        }
+
+        public Writer getWriter() throws IOException
+        {
+            if (writer == null)
+            {
+                final Writer next = res.getWriter();
+                text = new StringBuilder(1024);
+                writer = new Writer()
+                {
+                    @Override
+                    public void write(char[] cbuf, int off, int len) throws IOException
+                    {
+                        next.write(cbuf, off, len);
+                        if (capture(len))
+                        {
+                            text.append(cbuf, off, len);
+                        }
+                    }
+
+                    @Override
+                    public void write(String str, int off, int len) throws IOException
+                    {
+                        next.write(str, off, len);
+                        if (capture(len))
+                        {
+                            text.append(str, off, off + len);
+                        }
+                    }
+
+                    @Override
+                    public void flush() throws IOException
+                    {
+                        next.flush();
+                    }
+
+                    @Override
+                    public void close() throws IOException
+                    {
+                        next.close();
+                    }
+                };
+            }
+            return writer;
+        }
+
+        public OutputStream getOutputStream() throws IOException
+        {
+            if (outputStream == null)
+            {
+                final OutputStream next = res.getOutputStream();
+                bytes = new ByteArrayOutputStream(1024);
+                outputStream = new OutputStream()
+                {
+                    @Override
+                    public void write(int b) throws IOException
+                    {
+                        next.write(b);
+                        if (capture(1))
+                        {
+                            bytes.write(b);
+                        }
+                    }
+
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException
+                    {
+                        next.write(b, off, len);
+                        if (capture(len))
+                        {
+                            bytes.write(b, off, len);
+                        }
+                    }
+
+                    @Override
+                    public void flush() throws IOException
+                    {
+                        next.flush();
+                    }
+
+                    @Override
+                    public void close() throws IOException
+                    {
+                        next.close();
+                    }
+                };
+            }
+            return outputStream;
+        }
+
+        public void reset()
+        {
+            res.reset();
+            resetRecording();
+        }
+
+        public void reset(String preserveHeadersPattern)
+        {
+            res.reset(preserveHeadersPattern);
+            List<String[]> preserved = new ArrayList<String[]>(headers.size());
+            for (String[] header : headers)
+            {
+                if (header[1].matches(preserveHeadersPattern))
+                {
+                    preserved.add(header);
+                }
+            }
+            resetRecording();
+            headers = preserved;
+        }
+
+        private void resetRecording()
+        {
+            status = 200;
+            headers = new ArrayList<String[]>(8);
+            contentType = null;
+            contentEncoding = null;
+            cache = null;
+            if (text != null)
+            {
+                text.setLength(0);
+            }
+            if (bytes != null)
+            {
+                bytes.reset();
+            }
+        }
+
+        public String encodeScriptUrl(String url)
+        {
+            return res.encodeScriptUrl(url);
+        }
+
+        public String encodeResourceUrl(String url)
+        {
+            return res.encodeResourceUrl(url);
+        }
+
+        public String getEncodeScriptUrlFunction(String name)
+        {
+            return res.getEncodeScriptUrlFunction(name);
+        }
+
+        public String getEncodeResourceUrlFunction(String name)
+        {
+            return res.getEncodeResourceUrlFunction(name);
+        }
+
+        public Runtime getRuntime()
+        {
+            return res.getRuntime();
+        }
+    }
+}
@@ -19,9 +19,18 @@
 package org.springframework.extensions.webscripts;
 
 import java.io.ByteArrayInputStream;
+import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -36,6 +45,7 @@ import org.springframework.extensions.webscripts.connector.Connector;
 import org.springframework.extensions.webscripts.connector.ConnectorContext;
 import org.springframework.extensions.webscripts.connector.HttpMethod;
 import org.springframework.extensions.webscripts.connector.Response;
+import org.springframework.extensions.webscripts.connector.ResponseStatus;
 
 /**
  * Describes a connector to a remote endpoint.
@@ -246,6 +256,125 @@ public final class ScriptRemoteConnector
         return this.connector.call(uri, context);
     }
     
+    /**
+     * Invokes a number of URIs on the endpoint concurrently via GET requests.
+     * 
+     * @param uris   array of URIs to call on the endpoint
+     * 
+     * @return array of Response objects, in the order of the URIs
+     */
+    @ScriptMethod
+    (
+            help="Invokes a number of URIs on the endpoint concurrently via GET requests.",
+            output="Array of Response objects from the calls, in the order of the URIs"
+    )
+    public Response[] getAll(@ScriptParameter(help="Array of endpoint Urls") Object uris)
+    {
+        return callAll(uris, 0L, 0L);
+    }
+    
+    /**
+     * Invokes a number of requests on the endpoint concurrently.
+     * 
+     * @param requests   array of requests - see {@link #callAll(Object, long, long)}
+     * 
+     * @return array of Response objects, in the order of the requests
+     */
+    @ScriptMethod
+    (
+            help="Invokes a number of requests on the endpoint concurrently.",
+            output="Array of Response objects from the calls, in the order of the requests"
+    )
+    public Response[] callAll(@ScriptParameter(help="Array of endpoint Urls or request objects") Object requests)
+    {
+        return callAll(requests, 0L, 0L);
+    }
+    
+    /**
+     * Invokes a number of requests on the endpoint concurrently, waiting at most for the given timeouts.
+     * 
+     * Each request is either an endpoint Url for a GET request or an object with the properties "uri" and
+     * optionally "method", "body", "contentType" and "timeout" (to override the timeout for that call).
+     * The calls are all issued before any is waited for, so the time taken is that of the slowest call
+     * rather than the sum of the calls. A call that does not complete in time is cancelled, aborting its
+     * request, and given a 504 response. A call rejected by a saturated executor is given a 503 response.
+     * 
+     * @param requests   array of requests
+     * @param timeout    timeout in milliseconds for each call, 0 for no timeout
+     * @param deadline   timeout in milliseconds for all the calls, 0 for no timeout
+     * 
+     * @return array of Response objects, in the order of the requests
+     */
+    @ScriptMethod
+    (
+            help="Invokes a number of requests on the endpoint concurrently, waiting at most for the given timeouts.\nEach request is either an endpoint Url for a GET request or an object with the properties\n'uri' and optionally 'method', 'body', 'contentType' and 'timeout'.\nA call that does not complete in time is given a 504 response.",
+            output="Array of Response objects from the calls, in the order of the requests"
+    )
+    public Response[] callAll(@ScriptParameter(help="Array of endpoint Urls or request objects") Object requests,
+                              @ScriptParameter(help="Timeout in milliseconds for each call, 0 for no timeout") long timeout,
+                              @ScriptParameter(help="Timeout in milliseconds for all the calls, 0 for no timeout") long deadline)
+    {
+        Object value = ScriptValueConverter.unwrapValue(requests);
+        if (!(value instanceof List))
+        {
+            throw new WebScriptsPlatformException("Expected an array of requests.");
+        }
+        List<?> list = (List<?>)value;
+        
+        // issue all the calls before waiting on any of them
+        long start = System.currentTimeMillis();
+        List<CompletableFuture<Response>> futures = new ArrayList<CompletableFuture<Response>>(list.size());
+        long[] timeouts = new long[list.size()];
+        for (int i = 0; i < list.size(); i++)
+        {
+            Object request = list.get(i);
+            timeouts[i] = timeout;
+            if (request instanceof Map)
+            {
+                Map<?, ?> props = (Map<?, ?>)request;
+                Object callTimeout = props.get("timeout");
+                if (callTimeout instanceof Number)
+                {
+                    timeouts[i] = ((Number)callTimeout).longValue();
+                }
+            }
+            try
+            {
+                futures.add(callAsync(request));
+            }
+            catch (RejectedExecutionException err)
+            {
+                // the executor is saturated - the other calls of the batch are still made
+                logger.warn("Remote call rejected: " + err.getMessage());
+                ResponseStatus status = new ResponseStatus();
+                status.setCode(ResponseStatus.STATUS_SERVICE_UNAVAILABLE);
+                status.setMessage("Call rejected by the executor.");
+                status.setException(err);
+                futures.add(CompletableFuture.completedFuture(new Response(status)));
+            }
+        }
+        
+        Response[] responses = new Response[futures.size()];
+        for (int i = 0; i < responses.length; i++)
+        {
+            long limit = Long.MAX_VALUE;
+            if (timeouts[i] > 0L)
+            {
+                limit = start + timeouts[i];
+            }
+            if (deadline > 0L)
+            {
+                limit = Math.min(limit, start + deadline);
+            }
+            responses[i] = waitFor(futures.get(i), limit);
+        }
+        
+        if (logger.isDebugEnabled())
+            logger.debug("Completed " + responses.length + " calls to " + getEndpoint() + " in " + (System.currentTimeMillis() - start) + "ms");
+        
+        return responses;
+    }
+    
     /**
      * Returns the endpoint string
      * 
@@ -275,6 +404,99 @@ public final class ScriptRemoteConnector
     }
     
     
+    /**
+     * Issue a request given as an endpoint Url or an object describing the request
+     * 
+     * @param request   endpoint Url or Map of request properties
+     * 
+     * @return future Response
+     */
+    private CompletableFuture<Response> callAsync(Object request)
+    {
+        String uri;
+        ConnectorContext context = new ConnectorContext(null, buildDefaultHeaders());
+        InputStream in = null;
+        if (request instanceof Map)
+        {
+            Map<?, ?> props = (Map<?, ?>)request;
+            Object method = props.get("method");
+            Object body = props.get("body");
+            Object contentType = props.get("contentType");
+            uri = (String)props.get("uri");
+            if (method != null)
+            {
+                context.setMethod(HttpMethod.valueOf(method.toString().toUpperCase(Locale.ENGLISH)));
+            }
+            if (contentType != null)
+            {
+                context.setContentType(contentType.toString());
+            }
+            if (body != null)
+            {
+                try
+                {
+                    in = new ByteArrayInputStream(body.toString().getBytes("UTF-8"));
+                }
+                catch (UnsupportedEncodingException err)
+                {
+                    throw new WebScriptsPlatformException("Unsupported encoding.", err);
+                }
+            }
+        }
+        else
+        {
+            uri = (request != null ? request.toString() : null);
+        }
+        if (uri == null)
+        {
+            throw new WebScriptsPlatformException("Request does not specify a uri.");
+        }
+        return this.connector.callAsync(uri, context, in);
+    }
+    
+    /**
+     * Wait for a call to complete, no later than the given time
+     * 
+     * @param future    future Response of the call
+     * @param limit     time in milliseconds to wait until
+     * 
+     * @return the Response or an error Response if the call failed or did not complete in time
+     */
+    private static Response waitFor(CompletableFuture<Response> future, long limit)
+    {
+        ResponseStatus status = new ResponseStatus();
+        try
+        {
+            if (limit == Long.MAX_VALUE)
+            {
+                return future.get();
+            }
+            return future.get(Math.max(limit - System.currentTimeMillis(), 0L), TimeUnit.MILLISECONDS);
+        }
+        catch (TimeoutException err)
+        {
+            // cancelling the call aborts its request - any response is discarded
+            future.cancel(false);
+            status.setCode(ResponseStatus.STATUS_GATEWAY_TIMEOUT);
+            status.setMessage("Call did not complete in time.");
+        }
+        catch (InterruptedException err)
+        {
+            Thread.currentThread().interrupt();
+            future.cancel(false);
+            status.setCode(ResponseStatus.STATUS_GATEWAY_TIMEOUT);
+            status.setMessage("Interrupted waiting for call to complete.");
+        }
+        catch (ExecutionException err)
+        {
+            logger.error("Error during remote call: " + err.getCause().getMessage(), err.getCause());
+            status.setCode(ResponseStatus.STATUS_INTERNAL_SERVER_ERROR);
+            status.setMessage(err.getCause().getMessage());
+            status.setException(err.getCause());
+        }
+        return new Response(status);
+    }
+    
     /**
      * Helper to build a map of the default headers for script requests - we send over
      * the current users locale so it can be respected by any appropriate REST APIs.
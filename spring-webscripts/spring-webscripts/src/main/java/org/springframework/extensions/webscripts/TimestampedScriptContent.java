@@ -0,0 +1,34 @@
+/**
+ * Copyright (C) 2005-2009 Alfresco Software Limited.
+ *
+ * This file is part of the Spring Surf Extension project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.extensions.webscripts;
+
+
+/**
+ * Web Script Content that can report when it was last modified, allowing script processors
+ * to detect that a compiled form of the script is out of date.
+ */
+public interface TimestampedScriptContent extends ScriptContent
+{
+    /**
+     * Gets the last modified time of the script
+     * 
+     * @return  last modified time in milliseconds, or -1 if not known
+     */
+    long getLastModified();
+}
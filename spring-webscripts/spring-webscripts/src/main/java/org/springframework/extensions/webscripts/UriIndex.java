@@ -18,6 +18,8 @@
 
 package org.springframework.extensions.webscripts;
 
+import java.util.Set;
+
 /**
  * Encapsulates the mapping of URIs to Web Scripts
  */
@@ -51,4 +53,33 @@ public interface UriIndex
      * @return  script match (pair of script and uri that matched)
      */
     public Match findWebScript(String method, String uri);
+    
+    /**
+     * Create a new, empty index configured as this one
+     * 
+     * A reset of the registry populates the new index while this one continues to serve lookups. An index
+     * that does not support this is cleared and populated again in place, so lookups made during a reset
+     * may not find a Web Script.
+     * 
+     * @return  new empty index, or null if not supported
+     */
+    public default UriIndex newInstance()
+    {
+        return null;
+    }
+    
+    /**
+     * Create a new index configured as this one, holding the URIs this index has registered for the given
+     * Web Scripts
+     * 
+     * An incremental reset of the registry copies the URIs of the unchanged Web Scripts rather than registering
+     * them again. An index that does not support this has all its URIs registered again.
+     * 
+     * @param scripts  Web Scripts whose URIs to copy
+     * @return  new index, or null if not supported
+     */
+    public default UriIndex copy(Set<WebScript> scripts)
+    {
+        return null;
+    }
 }
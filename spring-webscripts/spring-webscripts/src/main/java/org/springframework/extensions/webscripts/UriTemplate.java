@@ -41,6 +41,13 @@ public class UriTemplate
     private Pattern regex;
     private String[] vars;
     private int charCnt;
+    
+    // compiled form of the template: the literals before, between and after the variables
+    private String[] literals;
+    // minimum number of uri chars remaining once the variable at each index has been matched
+    private int[] minRemaining;
+    // index of the first variable with the same name as the variable at each index (or -1 if it is the first)
+    private int[] firstIndex;
 
     /**
      * Construct
@@ -66,6 +73,7 @@ public class UriTemplate
         // and extract variable names
         StringBuilder templateRegex = new StringBuilder();
         List<String> names = new ArrayList<String>();
+        List<String> literals = new ArrayList<String>();
         int charCnt = 0;
         int start = 0;
         int end = 0;
@@ -74,12 +82,14 @@ public class UriTemplate
         {
             end = matcher.start();
             charCnt += appendTemplate(template, start, end, templateRegex);
+            literals.add(template.substring(start, end));
             templateRegex.append(VARIABLE_REGEX);
             String name = matcher.group(1);
             names.add(name);
             start = matcher.end();
         }
         charCnt += appendTemplate(template, start, template.length(), templateRegex);
+        literals.add(template.substring(start));
 
         // initialise
         this.template = template;
@@ -87,6 +97,25 @@ public class UriTemplate
         this.regex = Pattern.compile(templateRegex.toString());
         this.vars = new String[names.size()];
         names.toArray(this.vars);
+        
+        // compile the template for matching without the regular expression
+        this.literals = literals.toArray(new String[literals.size()]);
+        this.minRemaining = new int[vars.length];
+        int remaining = 0;
+        for (int i = vars.length - 1; i >= 0; i--)
+        {
+            remaining += this.literals[i + 1].length();
+            this.minRemaining[i] = remaining;
+        }
+        this.firstIndex = new int[vars.length];
+        for (int i = 0; i < vars.length; i++)
+        {
+            this.firstIndex[i] = names.indexOf(vars[i]);
+            if (this.firstIndex[i] == i)
+            {
+                this.firstIndex[i] = -1;
+            }
+        }
     }
 
     /**
@@ -121,36 +150,127 @@ public class UriTemplate
      */
     public Map<String, String> match(String uri)
     {
-        Map<String, String> values = null;
+        Captures captures = new Captures();
+        return match(uri, captures) ? captures.getValues() : null;
+    }
 
-        if (uri != null && uri.length() != 0)
+    /**
+     * Determine if uri is matched by this uri template, recording the variable values into the
+     * given captures if it does.
+     * 
+     * The template is matched by walking its literals and variables over the uri chars, with the
+     * same result as matching its regular expression equivalent (see {@link #getRegex()}), where
+     * each variable matches the shortest value that allows the rest of the template to match.
+     * Nothing is allocated, so the captures may be reused to match many templates and their
+     * values only materialised for the template finally selected.
+     * 
+     * @param uri  uri to match
+     * @param captures  captures to record the variable values into
+     * @return  true if the uri is matched
+     */
+    public boolean match(String uri, Captures captures)
+    {
+        if (uri == null || uri.length() == 0)
+        {
+            return false;
+        }
+        if (!uri.startsWith(literals[0]))
+        {
+            return false;
+        }
+        captures.reset(this, uri);
+        if (!matchVariable(uri, literals[0].length(), 0, captures.offsets))
         {
-            Matcher m = regex.matcher(uri);
-            if (m.matches())
+            return false;
+        }
+        
+        /**
+         * To support the case where multiple tokens of the same name may appear in the url
+         * there's only a match if the value provided for each instance of the token is the same
+         * e.g.  /{a}/xyx/{a}  only matches  /fred/xyx/fred  not  /fred/xyx/bob
+         */
+        int[] offsets = captures.offsets;
+        for (int i = 0; i < vars.length; i++)
+        {
+            int first = firstIndex[i];
+            if (first != -1)
             {
-                values = new HashMap<String, String>(m.groupCount(), 1.0f);
-                for (int i = 0; i < m.groupCount(); i++)
+                int length = offsets[i * 2 + 1] - offsets[i * 2];
+                if (length != offsets[first * 2 + 1] - offsets[first * 2] ||
+                    !uri.regionMatches(offsets[i * 2], uri, offsets[first * 2], length))
                 {
-                    String name = vars[i];
-                    String value = m.group(i + 1);
-                    
-                    /**
-                     * To support the case where multiple tokens of the same name may appear in the url
-                     * there's only a match if the value provided for each instance of the token is the same
-                     * e.g.  /{a}/xyx/{a}  only matches  /fred/xyx/fred  not  /fred/xyx/bob
-                     */
-                    String existingValue = values.get(name);
-                    if (existingValue != null && !existingValue.equals(value))
-                    {
-                        return null;
-                    }
-                    
-                    values.put(vars[i], value);
+                    return false;
                 }
             }
         }
+        return true;
+    }
+
+    /**
+     * Match the variable at the given index, and the rest of the template, from the given uri position
+     * 
+     * Values are tried shortest first, as the reluctant groups of the regular expression equivalent are.
+     * 
+     * @param uri  uri to match
+     * @param pos  position of the variable value within the uri
+     * @param var  index of the variable
+     * @param offsets  start and end offsets of each variable value
+     * @return  true if the rest of the uri is matched
+     */
+    private boolean matchVariable(String uri, int pos, int var, int[] offsets)
+    {
+        int length = uri.length();
+        if (var == vars.length)
+        {
+            return pos == length;
+        }
+        
+        String literal = literals[var + 1];
+        int last = length - minRemaining[var];
+        if (var == vars.length - 1)
+        {
+            // the final literal must end the uri - so there is only one candidate value
+            if (last < pos || !uri.startsWith(literal, last) || !isValue(uri, pos, last))
+            {
+                return false;
+            }
+            offsets[var * 2] = pos;
+            offsets[var * 2 + 1] = last;
+            return true;
+        }
+        
+        for (int end = pos; end <= last; end++)
+        {
+            if (end > pos && isLineTerminator(uri.charAt(end - 1)))
+            {
+                // NOTE: a variable (.) does not match line terminators
+                return false;
+            }
+            if (uri.startsWith(literal, end) && matchVariable(uri, end + literal.length(), var + 1, offsets))
+            {
+                offsets[var * 2] = pos;
+                offsets[var * 2 + 1] = end;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isValue(String uri, int start, int end)
+    {
+        for (int i = start; i < end; i++)
+        {
+            if (isLineTerminator(uri.charAt(i)))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
 
-        return values;
+    private static boolean isLineTerminator(char c)
+    {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
     }
 
     /**
@@ -185,6 +305,75 @@ public class UriTemplate
         return charCnt;
     }
 
+    /**
+     * Variable values captured by matching a uri against a uri template.
+     * 
+     * Values are held as offsets into the matched uri and only materialised on request. A single
+     * instance may be reused across any number of matches (on a single thread) - each match replaces
+     * the values captured by the previous one.
+     */
+    public static final class Captures
+    {
+        private UriTemplate template;
+        private String uri;
+        private int[] offsets = new int[8];
+
+        /**
+         * Prepare to capture the values of a match
+         * 
+         * @param template  template being matched
+         * @param uri  uri being matched
+         */
+        private void reset(UriTemplate template, String uri)
+        {
+            this.template = template;
+            this.uri = uri;
+            if (offsets.length < template.vars.length * 2)
+            {
+                offsets = new int[template.vars.length * 2];
+            }
+        }
+
+        /**
+         * @return  template of the last match
+         */
+        public UriTemplate getTemplate()
+        {
+            return template;
+        }
+
+        /**
+         * @param name  variable name
+         * @return  value of the variable (or null, if the template does not declare it)
+         */
+        public String getValue(String name)
+        {
+            String[] vars = template.vars;
+            for (int i = 0; i < vars.length; i++)
+            {
+                if (vars[i].equals(name))
+                {
+                    return uri.substring(offsets[i * 2], offsets[i * 2 + 1]);
+                }
+            }
+            return null;
+        }
+
+        /**
+         * @return  map of variable values (empty if no vars)
+         */
+        public Map<String, String> getValues()
+        {
+            String[] vars = template.vars;
+            Map<String, String> values = new HashMap<String, String>(vars.length, 1.0f);
+            for (int i = 0; i < vars.length; i++)
+            {
+                values.put(vars[i], uri.substring(offsets[i * 2], offsets[i * 2 + 1]));
+            }
+            return values;
+        }
+    }
+
     @Override
     public final String toString()
     {
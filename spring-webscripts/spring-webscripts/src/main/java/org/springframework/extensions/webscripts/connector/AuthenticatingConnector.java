@@ -21,6 +21,9 @@ package org.springframework.extensions.webscripts.connector;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Function;
 
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
@@ -108,7 +111,11 @@ public class AuthenticatingConnector implements Connector
         
         if (handshake)
         {
-            handshake(); // ignore result
+            if (!handshake() && !EndpointManager.allowConnect(getEndpoint()))
+            {
+                // the circuit to the endpoint is open - don't pile another call onto it
+                return throttledResponse(uri);
+            }
             
             // now that we've authenticated, try again
             response = this.connector.call(uri);
@@ -152,7 +159,11 @@ public class AuthenticatingConnector implements Connector
         
         if (handshake)
         {
-            handshake(); // ignore result
+            if (!handshake() && !EndpointManager.allowConnect(getEndpoint()))
+            {
+                // the circuit to the endpoint is open - don't pile another call onto it
+                return throttledResponse(uri);
+            }
             
             // now that we've authenticated, try again
             response = this.connector.call(uri, context);
@@ -196,7 +207,11 @@ public class AuthenticatingConnector implements Connector
         
         if (handshake)
         {
-            handshake(); // ignore result
+            if (!handshake() && !EndpointManager.allowConnect(getEndpoint()))
+            {
+                // the circuit to the endpoint is open - don't pile another call onto it
+                return throttledResponse(uri);
+            }
 
             // now that we've authenticated, try again
             if (in.markSupported())
@@ -252,7 +267,11 @@ public class AuthenticatingConnector implements Connector
         
         if (handshake)
         {
-            handshake(); // ignore result
+            if (!handshake() && !EndpointManager.allowConnect(getEndpoint()))
+            {
+                // the circuit to the endpoint is open - don't pile another call onto it
+                return throttledResponse(uri);
+            }
             
             // now that we've authenticated, try again
             if (in.markSupported())
@@ -309,7 +328,11 @@ public class AuthenticatingConnector implements Connector
         
         if (handshake)
         {
-            handshake(); // ignore result
+            if (!handshake() && !EndpointManager.allowConnect(getEndpoint()))
+            {
+                // the circuit to the endpoint is open - don't pile another call onto it
+                return throttledResponse(uri);
+            }
             
             // now that we've authenticated, try again
             context.setCommitResponseOnAuthenticationError(true);
@@ -323,6 +346,77 @@ public class AuthenticatingConnector implements Connector
         return response;
     }
     
+    /* (non-Javadoc)
+     * @see org.springframework.extensions.webscripts.connector.Connector#callAsync(java.lang.String, org.springframework.extensions.webscripts.connector.ConnectorContext)
+     */
+    public CompletableFuture<Response> callAsync(String uri, ConnectorContext context)
+    {
+        return callAsync(uri, context, null);
+    }
+    
+    /* (non-Javadoc)
+     * @see org.springframework.extensions.webscripts.connector.Connector#callAsync(java.lang.String, org.springframework.extensions.webscripts.connector.ConnectorContext, java.io.InputStream)
+     */
+    public CompletableFuture<Response> callAsync(final String uri, final ConnectorContext context, final InputStream in)
+    {
+        if (isAuthenticated())
+        {
+            // try to call into the connector - on an authentication challenge, handshake and call again
+            return this.connector.callAsync(uri, context, in).thenCompose(new Function<Response, CompletionStage<Response>>()
+            {
+                public CompletionStage<Response> apply(Response response)
+                {
+                    if (logger.isDebugEnabled())
+                        logger.debug("Received " + response.getStatus().getCode() + " on first async call to: " + uri);
+                    
+                    if (response.getStatus().getCode() == ResponseStatus.STATUS_UNAUTHORIZED)
+                    {
+                        return handshakeAndCallAsync(uri, context, in);
+                    }
+                    return CompletableFuture.completedFuture(response);
+                }
+            });
+        }
+        else
+        {
+            return handshakeAndCallAsync(uri, context, in);
+        }
+    }
+    
+    /**
+     * Performs the authentication handshake then calls the connector asynchronously
+     */
+    private CompletableFuture<Response> handshakeAndCallAsync(final String uri, ConnectorContext context, InputStream in)
+    {
+        if (!handshake() && !EndpointManager.allowConnect(getEndpoint()))
+        {
+            // the circuit to the endpoint is open - don't pile another call onto it
+            return CompletableFuture.completedFuture(throttledResponse(uri));
+        }
+        
+        // now that we've authenticated, try again
+        if (in != null && in.markSupported())
+        {
+            try
+            {
+                in.reset();
+            }
+            catch (IOException ioErr)
+            {
+                // if we cannot reset the stream - there's nothing else we can do
+            }
+        }
+        return this.connector.callAsync(uri, context, in).thenApply(new Function<Response, Response>()
+        {
+            public Response apply(Response response)
+            {
+                if (logger.isDebugEnabled())
+                    logger.debug("Received " + response.getStatus().getCode() + " on async call after handshake to: " + uri);
+                return response;
+            }
+        });
+    }
+    
     /* (non-Javadoc)
      * @see org.alfresco.connector.Connector#setCredentials(org.alfresco.connector.Credentials)
      */
@@ -426,6 +520,22 @@ public class AuthenticatingConnector implements Connector
         return success;
     }
 
+    /**
+     * Builds the response to a call that is refused because the circuit to the endpoint is open
+     * 
+     * @param uri the uri
+     * 
+     * @return the Response
+     */
+    private Response throttledResponse(String uri)
+    {
+        if (endpointLogger.isInfoEnabled())
+            endpointLogger.info("Throttled call to: " + uri + " waiting for reconnect timeout on: " + getEndpoint());
+        ResponseStatus status = new ResponseStatus();
+        status.setCode(ResponseStatus.STATUS_INTERNAL_SERVER_ERROR);
+        return new Response(status);
+    }
+
     /* (non-Javadoc)
      * @see java.lang.Object#toString()
      */
@@ -0,0 +1,371 @@
+/**
+ * Copyright (C) 2005-2009 Alfresco Software Limited.
+ *
+ * This file is part of the Spring Surf Extension project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.extensions.webscripts.connector;
+
+import jakarta.servlet.http.HttpServletResponse;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Circuit breaker for calls to a remote endpoint.
+ * <p>
+ * The outcomes of the most recent calls are kept in a sliding window. When the rate of failed calls
+ * (connection failures, timeouts and gateway errors) or of slow calls in the window reaches its threshold
+ * the circuit opens and calls are refused without connecting. Once the open duration has passed the circuit
+ * is half open - a limited number of probe calls are let through, and their outcomes decide whether the
+ * circuit closes again or stays open for another period.
+ */
+public class CircuitBreaker
+{
+    private static final Log logger = LogFactory.getLog(EndpointManager.class);
+
+    /**
+     * States of the circuit
+     */
+    public enum State
+    {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private static final byte OUTCOME_FAILED = 1;
+    private static final byte OUTCOME_SLOW = 2;
+
+    private final String endpoint;
+    private final int windowSize;
+    private final int minimumCalls;
+    private final int failureRateThreshold;
+    private final long slowCallDuration;
+    private final int slowCallRateThreshold;
+    private final long openDuration;
+    private final int halfOpenCalls;
+
+    /** guarded by this */
+    private State state = State.CLOSED;
+    private long openedAt = 0L;
+    private final byte[] window;
+    private int windowIndex = 0;
+    private int windowCount = 0;
+    private int windowFailures = 0;
+    private int windowSlowCalls = 0;
+    private int probesStarted = 0;
+    private int probeCount = 0;
+    private int probeFailures = 0;
+    private int probeSlowCalls = 0;
+
+    /** statistics - guarded by this */
+    private long successfulCalls = 0L;
+    private long failedCalls = 0L;
+    private long slowCalls = 0L;
+    private long rejectedCalls = 0L;
+    private long openedCount = 0L;
+    private long halfOpenedCount = 0L;
+    private long closedCount = 0L;
+
+
+    /**
+     * Constructor
+     *
+     * @param endpoint                  endpoint the circuit breaker protects, for logging
+     * @param windowSize                number of the most recent calls to compute the failure rates from
+     * @param minimumCalls              minimum number of calls in the window before the circuit may open
+     * @param failureRateThreshold      percentage of failed calls in the window that opens the circuit
+     * @param slowCallDuration          duration in milliseconds above which a call is slow
+     * @param slowCallRateThreshold     percentage of slow calls in the window that opens the circuit
+     * @param openDuration              time in milliseconds the circuit stays open before probe calls are allowed
+     * @param halfOpenCalls             number of probe calls allowed when the circuit is half open
+     */
+    public CircuitBreaker(String endpoint, int windowSize, int minimumCalls, int failureRateThreshold,
+            long slowCallDuration, int slowCallRateThreshold, long openDuration, int halfOpenCalls)
+    {
+        this.endpoint = endpoint;
+        this.windowSize = Math.max(windowSize, 1);
+        this.minimumCalls = Math.max(Math.min(minimumCalls, this.windowSize), 1);
+        this.failureRateThreshold = failureRateThreshold;
+        this.slowCallDuration = slowCallDuration;
+        this.slowCallRateThreshold = slowCallRateThreshold;
+        this.openDuration = openDuration;
+        this.halfOpenCalls = Math.max(halfOpenCalls, 1);
+        this.window = new byte[this.windowSize];
+    }
+
+    /**
+     * Returns true if a call to the endpoint would currently be permitted - without acquiring the permission
+     *
+     * @return true if a call would be permitted
+     */
+    public synchronized boolean isCallPermitted()
+    {
+        switch (this.state)
+        {
+            case OPEN:
+                return System.currentTimeMillis() - this.openedAt >= this.openDuration;
+            case HALF_OPEN:
+                return this.probesStarted < this.halfOpenCalls;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Acquire the permission to make a call to the endpoint. The outcome of a permitted call must be
+     * reported with {@link #onResult(long, boolean)}.
+     *
+     * @return true if the call is permitted, false if it must not be made
+     */
+    public synchronized boolean tryAcquirePermission()
+    {
+        if (this.state == State.OPEN && System.currentTimeMillis() - this.openedAt >= this.openDuration)
+        {
+            transitionTo(State.HALF_OPEN);
+        }
+        switch (this.state)
+        {
+            case OPEN:
+                this.rejectedCalls++;
+                return false;
+            case HALF_OPEN:
+                if (this.probesStarted >= this.halfOpenCalls)
+                {
+                    this.rejectedCalls++;
+                    return false;
+                }
+                this.probesStarted++;
+                return true;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Report the outcome of a permitted call
+     *
+     * @param duration  duration of the call in milliseconds, until the response was received
+     * @param failed    true if the call failed to get a response from the endpoint
+     */
+    public synchronized void onResult(long duration, boolean failed)
+    {
+        boolean slow = duration > this.slowCallDuration;
+        if (failed)
+        {
+            this.failedCalls++;
+        }
+        else
+        {
+            this.successfulCalls++;
+        }
+        if (slow)
+        {
+            this.slowCalls++;
+        }
+
+        switch (this.state)
+        {
+            case CLOSED:
+                record((byte)((failed ? OUTCOME_FAILED : 0) | (slow ? OUTCOME_SLOW : 0)));
+                if (this.windowCount >= this.minimumCalls &&
+                    (exceeds(this.windowFailures, this.windowCount, this.failureRateThreshold) ||
+                     exceeds(this.windowSlowCalls, this.windowCount, this.slowCallRateThreshold)))
+                {
+                    transitionTo(State.OPEN);
+                }
+                break;
+
+            case HALF_OPEN:
+                this.probeCount++;
+                if (failed)
+                {
+                    this.probeFailures++;
+                }
+                if (slow)
+                {
+                    this.probeSlowCalls++;
+                }
+                if (this.probeCount >= this.halfOpenCalls)
+                {
+                    if (exceeds(this.probeFailures, this.probeCount, this.failureRateThreshold) ||
+                        exceeds(this.probeSlowCalls, this.probeCount, this.slowCallRateThreshold))
+                    {
+                        transitionTo(State.OPEN);
+                    }
+                    else
+                    {
+                        transitionTo(State.CLOSED);
+                    }
+                }
+                break;
+
+            default:
+                // the outcome of a call started before the circuit opened
+                break;
+        }
+    }
+
+    /**
+     * Determine whether a response status code reports a failure to reach the endpoint rather
+     * than a response from the endpoint itself
+     *
+     * @param code  response status code
+     *
+     * @return true for a timeout, unavailable service or gateway error
+     */
+    public static boolean isFailure(int code)
+    {
+        return code == HttpServletResponse.SC_REQUEST_TIMEOUT ||
+               code == HttpServletResponse.SC_BAD_GATEWAY ||
+               code == HttpServletResponse.SC_SERVICE_UNAVAILABLE ||
+               code == HttpServletResponse.SC_GATEWAY_TIMEOUT;
+    }
+
+    private void record(byte outcome)
+    {
+        if (this.windowCount == this.windowSize)
+        {
+            byte evicted = this.window[this.windowIndex];
+            if ((evicted & OUTCOME_FAILED) != 0)
+            {
+                this.windowFailures--;
+            }
+            if ((evicted & OUTCOME_SLOW) != 0)
+            {
+                this.windowSlowCalls--;
+            }
+        }
+        else
+        {
+            this.windowCount++;
+        }
+        this.window[this.windowIndex] = outcome;
+        this.windowIndex = (this.windowIndex + 1) % this.windowSize;
+        if ((outcome & OUTCOME_FAILED) != 0)
+        {
+            this.windowFailures++;
+        }
+        if ((outcome & OUTCOME_SLOW) != 0)
+        {
+            this.windowSlowCalls++;
+        }
+    }
+
+    private static boolean exceeds(int count, int total, int threshold)
+    {
+        return threshold > 0 && count * 100 >= threshold * total;
+    }
+
+    private void transitionTo(State state)
+    {
+        if (logger.isInfoEnabled())
+            logger.info("Circuit for endpoint " + this.endpoint + " changed from " + this.state + " to " + state +
+                    (state == State.OPEN ? " - failure rate " + getFailureRate() + "%, slow call rate " + getSlowCallRate() + "%" : ""));
+
+        this.state = state;
+        switch (state)
+        {
+            case OPEN:
+                this.openedAt = System.currentTimeMillis();
+                this.openedCount++;
+                break;
+            case HALF_OPEN:
+                this.probesStarted = 0;
+                this.probeCount = 0;
+                this.probeFailures = 0;
+                this.probeSlowCalls = 0;
+                this.halfOpenedCount++;
+                break;
+            case CLOSED:
+                this.windowIndex = 0;
+                this.windowCount = 0;
+                this.windowFailures = 0;
+                this.windowSlowCalls = 0;
+                this.closedCount++;
+                break;
+        }
+    }
+
+    /**
+     * @return the current state of the circuit
+     */
+    public synchronized State getState()
+    {
+        return this.state;
+    }
+
+    /**
+     * @return the percentage of failed calls in the window
+     */
+    public synchronized int getFailureRate()
+    {
+        return this.windowCount == 0 ? 0 : this.windowFailures * 100 / this.windowCount;
+    }
+
+    /**
+     * @return the percentage of slow calls in the window
+     */
+    public synchronized int getSlowCallRate()
+    {
+        return this.windowCount == 0 ? 0 : this.windowSlowCalls * 100 / this.windowCount;
+    }
+
+    public synchronized long getSuccessfulCallCount()
+    {
+        return this.successfulCalls;
+    }
+
+    public synchronized long getFailedCallCount()
+    {
+        return this.failedCalls;
+    }
+
+    public synchronized long getSlowCallCount()
+    {
+        return this.slowCalls;
+    }
+
+    /**
+     * @return the number of calls refused while the circuit was open
+     */
+    public synchronized long getRejectedCallCount()
+    {
+        return this.rejectedCalls;
+    }
+
+    public synchronized long getOpenedCount()
+    {
+        return this.openedCount;
+    }
+
+    public synchronized long getHalfOpenedCount()
+    {
+        return this.halfOpenedCount;
+    }
+
+    public synchronized long getClosedCount()
+    {
+        return this.closedCount;
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        return "state=" + this.state + ", failureRate=" + getFailureRate() + "%, slowCallRate=" + getSlowCallRate() +
+               "%, successful=" + this.successfulCalls + ", failed=" + this.failedCalls + ", slow=" + this.slowCalls +
+               ", rejected=" + this.rejectedCalls + ", opened=" + this.openedCount + ", halfOpened=" + this.halfOpenedCount +
+               ", closed=" + this.closedCount;
+    }
+}
@@ -0,0 +1,607 @@
+/**
+ * Copyright (C) 2005-2009 Alfresco Software Limited.
+ *
+ * This file is part of the Spring Surf Extension project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.extensions.webscripts.connector;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ConnectionRequest;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.springframework.extensions.config.ConfigService;
+import org.springframework.extensions.config.RemoteConfigElement;
+import org.springframework.extensions.config.RemoteConfigElement.EndpointDescriptor;
+import org.springframework.extensions.config.RemoteConfigElement.SSLConfigDescriptor;
+
+/**
+ * The HTTP connection pools of the remote endpoints, and the HTTP clients built over them, shared by all
+ * RemoteClient instances - RemoteClient beans are prototypes, so the clients and pools are closed when
+ * this singleton is destroyed.
+ * <p>
+ * Each configured endpoint has its own pool, so that a slow endpoint cannot exhaust the connections of
+ * another. The pool of an endpoint is configured by the elements of the endpoint descriptor with a
+ * matching endpoint-url - max-connections-per-route, connection-idle-timeout, connection-ttl and
+ * connection-validate-after-inactivity (all times in milliseconds) - or by the defaults of this bean.
+ * The calls to any other url share the {@link #DEFAULT_POOL default pool}. The connections leased from
+ * all the pools together are limited to the maxTotal of this bean.
+ * <p>
+ * The pools are instrumented: the leased, available and pending connections of each pool and the
+ * time spent waiting to lease a connection are available from {@link #getStatistics()}.
+ */
+public class ConnectionPools
+{
+    private static final Log logger = LogFactory.getLog(ConnectionPools.class);
+
+    /** upper bounds in milliseconds of the lease wait time histogram buckets - the last bucket is unbounded */
+    public static final long[] LEASE_WAIT_BUCKETS = new long[] {1L, 5L, 10L, 50L, 100L, 500L, 1000L, 5000L};
+
+    /** name of the pool shared by the urls without an endpoint config */
+    public static final String DEFAULT_POOL = "default";
+
+    private static final long EVICTION_INTERVAL = 5000L;
+
+    private ConfigService configService;
+    private int maxTotal = RemoteClient.DEFAULT_POOLSIZE;
+    private int maxConnectionsPerRoute = RemoteClient.DEFAULT_POOLSIZE;
+    private long idleTimeout = 30000L;
+    private long timeToLive = -1L;
+    private int validateAfterInactivity = 2000;
+
+    private final ConcurrentMap<String, InstrumentedConnectionManager> pools = new ConcurrentHashMap<String, InstrumentedConnectionManager>();
+    private final ConcurrentMap<String, CloseableHttpClient> httpClients = new ConcurrentHashMap<String, CloseableHttpClient>();
+    private volatile Registry<ConnectionSocketFactory> socketFactoryRegistry;
+    private volatile Set<String> configuredEndpoints;
+    private Semaphore connections = new Semaphore(RemoteClient.DEFAULT_POOLSIZE, true);
+    private ScheduledExecutorService evictor;
+
+    public void setConfigService(ConfigService configService)
+    {
+        this.configService = configService;
+    }
+
+    /**
+     * @param maxTotal      maximum number of connections leased from all the pools together
+     */
+    public void setMaxTotal(int maxTotal)
+    {
+        this.maxTotal = maxTotal;
+        this.connections = new Semaphore(maxTotal, true);
+    }
+
+    /**
+     * @param maxConnectionsPerRoute    default maximum number of connections to an endpoint
+     */
+    public void setMaxConnectionsPerRoute(int maxConnectionsPerRoute)
+    {
+        this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+    }
+
+    /**
+     * @param idleTimeout   default time in milliseconds after which idle connections are closed, 0 to keep them
+     */
+    public void setIdleTimeout(long idleTimeout)
+    {
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * @param timeToLive    default maximum lifetime in milliseconds of a connection, -1 for no limit
+     */
+    public void setTimeToLive(long timeToLive)
+    {
+        this.timeToLive = timeToLive;
+    }
+
+    /**
+     * @param validateAfterInactivity   default time in milliseconds of inactivity after which a pooled
+     *                                  connection is validated before it is leased, -1 to never validate
+     */
+    public void setValidateAfterInactivity(int validateAfterInactivity)
+    {
+        this.validateAfterInactivity = validateAfterInactivity;
+    }
+
+    public void init()
+    {
+        // close expired and idle connections in the background rather than on lease
+        this.evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+        {
+            public Thread newThread(Runnable r)
+            {
+                Thread thread = new Thread(r, "RemoteClient-connection-evictor");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.evictor.scheduleWithFixedDelay(new Runnable()
+        {
+            public void run()
+            {
+                closeIdleConnections();
+            }
+        }, EVICTION_INTERVAL, EVICTION_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Close the HTTP clients and shut down the pools - closing all their connections
+     */
+    public void destroy()
+    {
+        if (this.evictor != null)
+        {
+            this.evictor.shutdownNow();
+        }
+        for (CloseableHttpClient httpClient : this.httpClients.values())
+        {
+            close(httpClient);
+        }
+        this.httpClients.clear();
+        for (PoolingHttpClientConnectionManager pool : this.pools.values())
+        {
+            pool.shutdown();
+        }
+        this.pools.clear();
+    }
+
+    /**
+     * Returns the name of the pool the connections to an url are leased from
+     *
+     * @param endpoint  endpoint url
+     *
+     * @return the url if it has an endpoint config, else {@link #DEFAULT_POOL}
+     */
+    public String getPoolName(String endpoint)
+    {
+        Set<String> configuredEndpoints = this.configuredEndpoints;
+        if (configuredEndpoints == null)
+        {
+            configuredEndpoints = new HashSet<String>();
+            RemoteConfigElement remoteConfig = getRemoteConfig();
+            if (remoteConfig != null)
+            {
+                for (String id : remoteConfig.getEndpointIds())
+                {
+                    configuredEndpoints.add(remoteConfig.getEndpointDescriptor(id).getEndpointUrl());
+                }
+            }
+            this.configuredEndpoints = configuredEndpoints;
+        }
+        return (configuredEndpoints.contains(endpoint) ? endpoint : DEFAULT_POOL);
+    }
+
+    /**
+     * Returns the connection pool of an endpoint, creating it on first use
+     *
+     * @param endpoint  endpoint url
+     *
+     * @return the connection manager of the endpoint - shared by all the urls without an endpoint config
+     */
+    public PoolingHttpClientConnectionManager getConnectionManager(String endpoint)
+    {
+        String name = getPoolName(endpoint);
+        InstrumentedConnectionManager pool = this.pools.get(name);
+        if (pool == null)
+        {
+            pool = createConnectionManager(name);
+            InstrumentedConnectionManager existing = this.pools.putIfAbsent(name, pool);
+            if (existing != null)
+            {
+                pool.shutdown();
+                pool = existing;
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * Returns the HTTP client cached with the given key
+     *
+     * @param key   pool, route and settings of the client
+     *
+     * @return the client, or null if none is cached
+     */
+    public CloseableHttpClient getHttpClient(String key)
+    {
+        return this.httpClients.get(key);
+    }
+
+    /**
+     * Cache an HTTP client with the given key, unless another thread cached one first
+     *
+     * @param key   pool, route and settings of the client
+     * @param httpClient    client built over one of the pools - closed if another client is cached
+     *
+     * @return the cached client
+     */
+    public CloseableHttpClient putHttpClient(String key, CloseableHttpClient httpClient)
+    {
+        CloseableHttpClient existing = this.httpClients.putIfAbsent(key, httpClient);
+        if (existing != null)
+        {
+            close(httpClient);
+            return existing;
+        }
+        return httpClient;
+    }
+
+    /**
+     * @return the live statistics of the connection pools, keyed by pool name
+     */
+    public Map<String, Statistics> getStatistics()
+    {
+        Map<String, Statistics> statistics = new HashMap<String, Statistics>(this.pools.size() * 2);
+        for (Map.Entry<String, InstrumentedConnectionManager> pool : this.pools.entrySet())
+        {
+            statistics.put(pool.getKey(), pool.getValue().statistics);
+        }
+        return Collections.unmodifiableMap(statistics);
+    }
+
+    /**
+     * Close the expired connections, and those idle for longer than the idle timeout of their pool
+     */
+    public void closeIdleConnections()
+    {
+        for (InstrumentedConnectionManager pool : this.pools.values())
+        {
+            pool.closeExpiredConnections();
+            if (pool.idleTimeout > 0L)
+            {
+                pool.closeIdleConnections(pool.idleTimeout, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    private InstrumentedConnectionManager createConnectionManager(String endpoint)
+    {
+        if (DEFAULT_POOL.equals(endpoint))
+        {
+            // connections to any number of hosts - each route is limited, as is the pool by the total of all pools
+            InstrumentedConnectionManager pool = new InstrumentedConnectionManager(getSocketFactoryRegistry(),
+                    this.connections, this.timeToLive, this.idleTimeout);
+            pool.setMaxTotal(this.maxTotal);
+            pool.setDefaultMaxPerRoute(Math.min(this.maxConnectionsPerRoute, this.maxTotal));
+            pool.setValidateAfterInactivity(this.validateAfterInactivity);
+            return pool;
+        }
+        
+        int maxConnections = this.maxConnectionsPerRoute;
+        long idleTimeout = this.idleTimeout;
+        long timeToLive = this.timeToLive;
+        int validateAfterInactivity = this.validateAfterInactivity;
+
+        // several endpoints may share the url - and so the pool - each setting is taken from the first that has it
+        List<EndpointDescriptor> descriptors = getEndpointDescriptors(endpoint);
+        for (int i = descriptors.size() - 1; i >= 0; i--)
+        {
+            EndpointDescriptor descriptor = descriptors.get(i);
+            maxConnections = (int)getLong(descriptor.getMaxConnectionsPerRoute(), maxConnections);
+            idleTimeout = getLong(descriptor.getConnectionIdleTimeout(), idleTimeout);
+            timeToLive = getLong(descriptor.getConnectionTimeToLive(), timeToLive);
+            validateAfterInactivity = (int)getLong(descriptor.getConnectionValidateAfterInactivity(), validateAfterInactivity);
+        }
+
+        InstrumentedConnectionManager pool = new InstrumentedConnectionManager(getSocketFactoryRegistry(), this.connections,
+                timeToLive, idleTimeout);
+        pool.setMaxTotal(maxConnections);
+        pool.setDefaultMaxPerRoute(maxConnections);
+        pool.setValidateAfterInactivity(validateAfterInactivity);
+
+        if (logger.isDebugEnabled())
+            logger.debug("Created connection pool for endpoint: " + endpoint + " maxPerRoute=" + maxConnections +
+                    " idleTimeout=" + idleTimeout + " ttl=" + timeToLive + " validateAfterInactivity=" + validateAfterInactivity);
+
+        return pool;
+    }
+
+    /**
+     * The socket factories of the pools - resolved on first use, once the remote config is available
+     */
+    private Registry<ConnectionSocketFactory> getSocketFactoryRegistry()
+    {
+        if (this.socketFactoryRegistry == null)
+        {
+            SSLConfigDescriptor sslConfigDescriptor = null;
+            RemoteConfigElement remoteConfig = getRemoteConfig();
+            if (remoteConfig != null)
+            {
+                sslConfigDescriptor = remoteConfig.getSSLConfigDescriptor();
+            }
+            if (sslConfigDescriptor != null && sslConfigDescriptor.getSocketFactoryRegistry() != null)
+            {
+                this.socketFactoryRegistry = sslConfigDescriptor.getSocketFactoryRegistry();
+            }
+            else
+            {
+                this.socketFactoryRegistry = RegistryBuilder.<ConnectionSocketFactory>create()
+                        .register("http", PlainConnectionSocketFactory.getSocketFactory())
+                        .register("https", SSLConnectionSocketFactory.getSocketFactory())
+                        .build();
+            }
+        }
+        return this.socketFactoryRegistry;
+    }
+
+    private List<EndpointDescriptor> getEndpointDescriptors(String endpoint)
+    {
+        List<EndpointDescriptor> descriptors = new ArrayList<EndpointDescriptor>(4);
+        RemoteConfigElement remoteConfig = getRemoteConfig();
+        if (remoteConfig != null)
+        {
+            for (String id : remoteConfig.getEndpointIds())
+            {
+                EndpointDescriptor descriptor = remoteConfig.getEndpointDescriptor(id);
+                if (endpoint.equals(descriptor.getEndpointUrl()))
+                {
+                    descriptors.add(descriptor);
+                }
+            }
+        }
+        return descriptors;
+    }
+
+    private RemoteConfigElement getRemoteConfig()
+    {
+        if (this.configService == null || this.configService.getConfig("Remote") == null)
+        {
+            return null;
+        }
+        return (RemoteConfigElement)this.configService.getConfig("Remote").getConfigElement("remote");
+    }
+
+    private static void close(CloseableHttpClient httpClient)
+    {
+        try
+        {
+            httpClient.close();
+        }
+        catch (IOException e)
+        {
+            if (logger.isDebugEnabled())
+                logger.debug("Failed to close HttpClient: " + e.getMessage());
+        }
+    }
+
+    private static long getLong(String value, long defaultValue)
+    {
+        return (value != null && value.length() != 0) ? Long.parseLong(value.trim()) : defaultValue;
+    }
+
+
+    /**
+     * Connection manager that records the time spent waiting to lease a connection, and holds a permit
+     * of the connections shared by all the pools for each leased connection
+     */
+    private static class InstrumentedConnectionManager extends PoolingHttpClientConnectionManager
+    {
+        private final Semaphore connections;
+        private final long idleTimeout;
+        private final Statistics statistics;
+
+        InstrumentedConnectionManager(Registry<ConnectionSocketFactory> socketFactoryRegistry, Semaphore connections,
+                long timeToLive, long idleTimeout)
+        {
+            super(socketFactoryRegistry, null, null, null, timeToLive, TimeUnit.MILLISECONDS);
+            this.connections = connections;
+            this.idleTimeout = idleTimeout;
+            this.statistics = new Statistics(this);
+        }
+
+        @Override
+        public ConnectionRequest requestConnection(HttpRoute route, Object state)
+        {
+            final ConnectionRequest request = super.requestConnection(route, state);
+            final long start = System.nanoTime();
+            return new ConnectionRequest()
+            {
+                public HttpClientConnection get(long timeout, TimeUnit tunit)
+                        throws InterruptedException, ExecutionException, ConnectionPoolTimeoutException
+                {
+                    boolean leased = false;
+                    try
+                    {
+                        // a timeout of 0 waits indefinitely, as for the pool
+                        if (timeout <= 0L)
+                        {
+                            connections.acquire();
+                        }
+                        else if (!connections.tryAcquire(timeout, tunit))
+                        {
+                            throw new ConnectionPoolTimeoutException("Timeout waiting for connection from pools");
+                        }
+                        try
+                        {
+                            long remaining = (timeout <= 0L ? 0L : Math.max(tunit.toNanos(timeout) - (System.nanoTime() - start), 1L));
+                            HttpClientConnection connection = request.get(remaining, TimeUnit.NANOSECONDS);
+                            leased = true;
+                            return connection;
+                        }
+                        finally
+                        {
+                            if (!leased)
+                            {
+                                connections.release();
+                            }
+                        }
+                    }
+                    finally
+                    {
+                        statistics.recordLeaseWait(System.nanoTime() - start);
+                    }
+                }
+
+                public boolean cancel()
+                {
+                    return request.cancel();
+                }
+            };
+        }
+
+        @Override
+        public void releaseConnection(HttpClientConnection managedConn, Object state, long keepalive, TimeUnit tunit)
+        {
+            try
+            {
+                super.releaseConnection(managedConn, state, keepalive, tunit);
+            }
+            finally
+            {
+                this.connections.release();
+            }
+        }
+    }
+
+    /**
+     * <p>The live connection counts of a pool and the time spent waiting to lease its connections.</p>
+     */
+    public static final class Statistics
+    {
+        private final PoolingHttpClientConnectionManager pool;
+        private final AtomicLong leases = new AtomicLong();
+        private final AtomicLong leaseWaitTime = new AtomicLong();
+        private final AtomicLong maxLeaseWaitTime = new AtomicLong();
+        private final AtomicLongArray leaseWaitHistogram = new AtomicLongArray(LEASE_WAIT_BUCKETS.length + 1);
+
+        private Statistics(PoolingHttpClientConnectionManager pool)
+        {
+            this.pool = pool;
+        }
+
+        private void recordLeaseWait(long nanos)
+        {
+            this.leases.incrementAndGet();
+            this.leaseWaitTime.addAndGet(nanos);
+            long max = this.maxLeaseWaitTime.get();
+            while (nanos > max && !this.maxLeaseWaitTime.compareAndSet(max, nanos))
+            {
+                max = this.maxLeaseWaitTime.get();
+            }
+            long millis = nanos / 1000000L;
+            int bucket = 0;
+            while (bucket < LEASE_WAIT_BUCKETS.length && millis >= LEASE_WAIT_BUCKETS[bucket])
+            {
+                bucket++;
+            }
+            this.leaseWaitHistogram.incrementAndGet(bucket);
+        }
+
+        /**
+         * @return The number of connections currently leased.
+         */
+        public int getLeased()
+        {
+            return this.pool.getTotalStats().getLeased();
+        }
+
+        /**
+         * @return The number of idle connections available to lease.
+         */
+        public int getAvailable()
+        {
+            return this.pool.getTotalStats().getAvailable();
+        }
+
+        /**
+         * @return The number of requests waiting to lease a connection.
+         */
+        public int getPending()
+        {
+            return this.pool.getTotalStats().getPending();
+        }
+
+        /**
+         * @return The maximum number of connections of the pool.
+         */
+        public int getMax()
+        {
+            return this.pool.getTotalStats().getMax();
+        }
+
+        public long getLeaseCount()
+        {
+            return this.leases.get();
+        }
+
+        /**
+         * @return The total time spent waiting to lease connections, in milliseconds.
+         */
+        public long getLeaseWaitTime()
+        {
+            return this.leaseWaitTime.get() / 1000000L;
+        }
+
+        /**
+         * @return The longest time spent waiting to lease a connection, in milliseconds.
+         */
+        public long getMaxLeaseWaitTime()
+        {
+            return this.maxLeaseWaitTime.get() / 1000000L;
+        }
+
+        /**
+         * @return The number of leases in each bucket of {@link ConnectionPools#LEASE_WAIT_BUCKETS} - with a final
+         *         bucket for the leases that waited longer than the last bound.
+         */
+        public long[] getLeaseWaitHistogram()
+        {
+            long[] histogram = new long[this.leaseWaitHistogram.length()];
+            for (int i = 0; i < histogram.length; i++)
+            {
+                histogram[i] = this.leaseWaitHistogram.get(i);
+            }
+            return histogram;
+        }
+
+        @Override
+        public String toString()
+        {
+            PoolStats stats = this.pool.getTotalStats();
+            return "leased=" + stats.getLeased() + ", available=" + stats.getAvailable() + ", pending=" + stats.getPending() +
+                   ", max=" + stats.getMax() + ", leases=" + getLeaseCount() + ", leaseWaitTime=" + getLeaseWaitTime() +
+                   "ms, maxLeaseWaitTime=" + getMaxLeaseWaitTime() + "ms";
+        }
+    }
+}
@@ -20,6 +20,7 @@ package org.springframework.extensions.webscripts.connector;
 
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.concurrent.CompletableFuture;
 
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
@@ -128,6 +129,52 @@ public interface Connector
      */
     public Response call(String uri, ConnectorContext context, HttpServletRequest req, HttpServletResponse res);
 
+    /**
+     * Invokes a URI on a remote service without blocking the caller.
+     * If the context is null, then it will not be utilized.
+     * 
+     * The response data is buffered into a data element on the Response
+     * object the returned future completes with.
+     * 
+     * The default implementation is a blocking compatibility fallback for
+     * connectors that cannot call asynchronously: the call is made on the
+     * calling thread and the returned future is already complete.
+     * 
+     * @param uri the uri
+     * @param context the context of the invoke
+     * 
+     * @return future completing with the response
+     */
+    public default CompletableFuture<Response> callAsync(String uri, ConnectorContext context)
+    {
+        return CompletableFuture.completedFuture(call(uri, context));
+    }
+
+    /**
+     * Invokes a URI on a remote service without blocking the caller, passing
+     * the input as supplied via a POST/PUT.
+     * 
+     * If the context is null, then it will not be utilized and POST will
+     * be assumed.
+     * 
+     * The response data is buffered into a data element on the Response
+     * object the returned future completes with.
+     * 
+     * The default implementation is a blocking compatibility fallback for
+     * connectors that cannot call asynchronously: the call is made on the
+     * calling thread and the returned future is already complete.
+     * 
+     * @param uri the uri
+     * @param context the context of the invoke
+     * @param in the input stream
+     * 
+     * @return future completing with the response
+     */
+    public default CompletableFuture<Response> callAsync(String uri, ConnectorContext context, InputStream in)
+    {
+        return CompletableFuture.completedFuture(call(uri, context, in));
+    }
+
     /**
      * Binds Credentials to this connector.
      * 
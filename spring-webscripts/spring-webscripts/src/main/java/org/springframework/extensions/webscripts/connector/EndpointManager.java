@@ -18,6 +18,8 @@
 
 package org.springframework.extensions.webscripts.connector;
 
+import java.util.Collections;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
@@ -29,6 +31,10 @@ import org.springframework.extensions.config.RemoteConfigElement.ConnectorDescri
  * The EndpointManager is responsible for maintaining connection timeout and connection
  * retry information for endpoints. It may be used by multiple Connector objects to
  * ensure that failing endpoints are not repeatedly connected to or waited on.
+ * <p>
+ * An endpoint first registered with a ConnectorDescriptor configuring a &lt;circuit-breaker&gt;
+ * has a {@link CircuitBreaker} instead, which the RemoteClient reports the outcome of every
+ * call to. The circuit breaker settings are read from that ConnectorDescriptor.
  * 
  * @author Kevin Roast
  */
@@ -37,11 +43,27 @@ public final class EndpointManager
     /** timeout value in milliseconds before a reconnection
         to a particular endpoint should be attempted */
     private static final long DEFAULT_RECONNECT_TIMEOUT = 0L;
+    /** duration in milliseconds a circuit stays open - unless set by the reconnect timeout */
+    private static final long DEFAULT_OPEN_DURATION = 5000L;
+    /** number of the most recent calls the failure rates are computed from */
+    private static final int DEFAULT_WINDOW_SIZE = 20;
+    /** minimum number of calls before the failure rates are considered */
+    private static final int DEFAULT_MINIMUM_CALLS = 10;
+    /** percentage of failed calls that opens the circuit */
+    private static final int DEFAULT_FAILURE_RATE_THRESHOLD = 50;
+    /** duration in milliseconds above which a call is slow */
+    private static final long DEFAULT_SLOW_CALL_THRESHOLD = 10000L;
+    /** percentage of slow calls that opens the circuit */
+    private static final int DEFAULT_SLOW_CALL_RATE_THRESHOLD = 80;
+    /** number of probe calls allowed when the circuit is half open */
+    private static final int DEFAULT_HALF_OPEN_CALLS = 2;
     
     /** conncurrent map of current endpoint->timeout values */
     private static ConcurrentMap<String, Long> endpointTimeouts = new ConcurrentHashMap<String, Long>();
     /** conncurrent map of endpoint->reconnect values */
     private static ConcurrentMap<String, Long> endpointReconnectValues = new ConcurrentHashMap<String, Long>();
+    /** conncurrent map of endpoint->circuit breaker, for the endpoints configured with one */
+    private static ConcurrentMap<String, CircuitBreaker> circuitBreakers = new ConcurrentHashMap<String, CircuitBreaker>();
     
     
     /**
@@ -69,29 +91,49 @@ public final class EndpointManager
      * 
      * @param endpoint      The endpoint to register
      * @param descriptor    The ConnectorDescriptor used to connect to this endpoint
-     *                      Used to retrieve reconnection timeout config.
+     *                      Used to retrieve reconnection timeout and circuit breaker config.
      */
     public static void registerEndpoint(String endpoint, ConnectorDescriptor descriptor)
     {
-        endpointTimeouts.putIfAbsent(endpoint, 0L);
-        if (!endpointReconnectValues.containsKey(endpoint))
+        if (descriptor != null && descriptor.isCircuitBreakerEnabled())
+        {
+            if (!circuitBreakers.containsKey(endpoint))
+            {
+                registerCircuitBreaker(endpoint, descriptor);
+            }
+        }
+        else if (!endpointReconnectValues.containsKey(endpoint) && !circuitBreakers.containsKey(endpoint))
         {
             long connTimeout = DEFAULT_RECONNECT_TIMEOUT;
             if (descriptor != null)
             {
-                String strConnTimeout = descriptor.getReconnectTimeout();
-                if (strConnTimeout != null && strConnTimeout.length() != 0)
-                {
-                    connTimeout = Long.parseLong(strConnTimeout);
-                }
+                connTimeout = getLong(descriptor.getReconnectTimeout(), connTimeout);
             }
-            endpointReconnectValues.put(endpoint, connTimeout);
+            endpointTimeouts.putIfAbsent(endpoint, 0L);
+            endpointReconnectValues.putIfAbsent(endpoint, connTimeout);
         }
     }
     
+    /**
+     * Create the circuit breaker of an endpoint from the settings of its ConnectorDescriptor
+     */
+    private static void registerCircuitBreaker(String endpoint, ConnectorDescriptor descriptor)
+    {
+        long openDuration = getLong(descriptor.getReconnectTimeout(), DEFAULT_OPEN_DURATION);
+        int windowSize = (int)getLong(descriptor.getFailureWindowSize(), DEFAULT_WINDOW_SIZE);
+        int minimumCalls = (int)getLong(descriptor.getMinimumCalls(), DEFAULT_MINIMUM_CALLS);
+        int failureRateThreshold = (int)getLong(descriptor.getFailureRateThreshold(), DEFAULT_FAILURE_RATE_THRESHOLD);
+        long slowCallThreshold = getLong(descriptor.getSlowCallThreshold(), DEFAULT_SLOW_CALL_THRESHOLD);
+        int slowCallRateThreshold = (int)getLong(descriptor.getSlowCallRateThreshold(), DEFAULT_SLOW_CALL_RATE_THRESHOLD);
+        int halfOpenCalls = (int)getLong(descriptor.getHalfOpenCalls(), DEFAULT_HALF_OPEN_CALLS);
+        circuitBreakers.putIfAbsent(endpoint, new CircuitBreaker(endpoint, windowSize, minimumCalls,
+                failureRateThreshold, slowCallThreshold, slowCallRateThreshold, openDuration, halfOpenCalls));
+    }
+    
     /**
      * Returns true if the connector should make a connection attempt to the specified
-     * endpoint, false if the endpoint is still in the "wait" period between retries.
+     * endpoint, false if the endpoint is still in the "wait" period between retries or
+     * the circuit to the endpoint is open.
      * 
      * @param endpoint      The endpoint to test
      * 
@@ -99,13 +141,20 @@ public final class EndpointManager
      */
     public static boolean allowConnect(String endpoint)
     {
-        return (endpointTimeouts.get(endpoint) + endpointReconnectValues.get(endpoint) <= System.currentTimeMillis());
+        CircuitBreaker circuitBreaker = circuitBreakers.get(endpoint);
+        if (circuitBreaker != null)
+        {
+            return circuitBreaker.isCallPermitted();
+        }
+        Long timeout = endpointTimeouts.get(endpoint);
+        return (timeout == null || timeout + endpointReconnectValues.get(endpoint) <= System.currentTimeMillis());
     }
     
     /**
      * Process the given response code for an endpoint - recording if that remote
      * connection is unavailable for a time. Returns true if further response
-     * processing should continue, false otherwise.
+     * processing should continue, false otherwise. The outcome of the calls to an
+     * endpoint with a circuit breaker is recorded against it by the RemoteClient.
      * 
      * @param endpoint      The endpoint to record code against
      * @param code          Response code
@@ -123,10 +172,38 @@ public final class EndpointManager
             // again for a short time. This is to ensure that if an endpoint is not
             // currently available, we don't continually connect+timeout potentially
             // 100's of times in a row therefore slowing the server startup etc. 
-            endpointTimeouts.put(endpoint, System.currentTimeMillis());
+            if (endpointTimeouts.containsKey(endpoint))
+            {
+                endpointTimeouts.put(endpoint, System.currentTimeMillis());
+            }
             allowContinue = false;
         }
         
         return allowContinue;
     }
+    
+    /**
+     * Returns the circuit breaker of an endpoint
+     * 
+     * @param endpoint      The endpoint
+     * 
+     * @return the CircuitBreaker or null if the endpoint is not registered with one
+     */
+    public static CircuitBreaker getCircuitBreaker(String endpoint)
+    {
+        return circuitBreakers.get(endpoint);
+    }
+    
+    /**
+     * @return the circuit breakers of the registered endpoints, keyed by endpoint - for monitoring
+     */
+    public static Map<String, CircuitBreaker> getCircuitBreakers()
+    {
+        return Collections.unmodifiableMap(circuitBreakers);
+    }
+    
+    private static long getLong(String value, long defaultValue)
+    {
+        return (value != null && value.length() != 0) ? Long.parseLong(value.trim()) : defaultValue;
+    }
 }
\ No newline at end of file
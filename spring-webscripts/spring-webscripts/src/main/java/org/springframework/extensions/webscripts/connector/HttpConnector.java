@@ -22,6 +22,9 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
@@ -155,6 +158,58 @@ public class HttpConnector extends AbstractConnector
         return response;
     }
     
+    /* (non-Javadoc)
+     * @see org.springframework.extensions.webscripts.connector.Connector#callAsync(java.lang.String, org.springframework.extensions.webscripts.connector.ConnectorContext)
+     */
+    public CompletableFuture<Response> callAsync(String uri, ConnectorContext context)
+    {
+        return callAsync(uri, context, null);
+    }
+    
+    /* (non-Javadoc)
+     * @see org.springframework.extensions.webscripts.connector.Connector#callAsync(java.lang.String, org.springframework.extensions.webscripts.connector.ConnectorContext, java.io.InputStream)
+     */
+    public CompletableFuture<Response> callAsync(String uri, ConnectorContext context, InputStream in)
+    {
+        if (logger.isDebugEnabled())
+            logger.debug("Requested async Method: " + (context != null ? context.getMethod() : "GET") + " URI: " + uri);
+        if (EndpointManager.allowConnect(this.endpoint))
+        {
+            // the client is configured on the calling thread - the cookies are stored back on completion
+            final RemoteClient remoteClient = initRemoteClient(context);
+            final CompletableFuture<Response> call = remoteClient.callAsync(uri, in);
+            final CompletableFuture<Response> result = call.thenApply(new Function<Response, Response>()
+            {
+                public Response apply(Response response)
+                {
+                    processResponse(remoteClient, response);
+                    return response;
+                }
+            });
+            
+            // cancelling the result aborts the call
+            result.whenComplete(new BiConsumer<Response, Throwable>()
+            {
+                public void accept(Response response, Throwable err)
+                {
+                    if (result.isCancelled())
+                    {
+                        call.cancel(false);
+                    }
+                }
+            });
+            return result;
+        }
+        else
+        {
+            if (endpointLogger.isInfoEnabled())
+                endpointLogger.info("Throttled call to: " + uri + " waiting for reconnect timeout on: " + this.endpoint);
+            ResponseStatus status = new ResponseStatus();
+            status.setCode(ResponseStatus.STATUS_INTERNAL_SERVER_ERROR);
+            return CompletableFuture.completedFuture(new Response(status));
+        }
+    }
+    
     /**
      * Stamps headers onto the remote client
      * 
@@ -168,9 +223,13 @@ public class HttpConnector extends AbstractConnector
         if (connectorSession != null)
         {
             Map<String, String> cookies = new HashMap<String, String>(8);
-            for (String cookieName : connectorSession.getCookieNames())
+            // the session may be updated by the completion of asynchronous calls
+            synchronized (connectorSession)
             {
-                cookies.put(cookieName, connectorSession.getCookie(cookieName));
+                for (String cookieName : connectorSession.getCookieNames())
+                {
+                    cookies.put(cookieName, connectorSession.getCookie(cookieName));
+                }
             }
             remoteClient.setCookies(cookies);
         }
@@ -233,14 +292,18 @@ public class HttpConnector extends AbstractConnector
         if (EndpointManager.processResponseCode(this.endpoint, response.getStatus().getCode()) &&
             connectorSession != null)
         {
-            Map<String, String> cookies = remoteClient.getCookies();
-            for (Map.Entry<String, String> cookie : cookies.entrySet())
+            // the cookies of a response are stored back as a whole - asynchronous calls may complete concurrently
+            synchronized (connectorSession)
             {
-                // store cookie back
-                if (logger.isDebugEnabled())
-                    logger.debug("Connector found Set-Cookie: " + cookie.getKey() + " = " + cookie.getValue());
-                
-                connectorSession.setCookie(cookie.getKey(), cookie.getValue());
+                Map<String, String> cookies = remoteClient.getCookies();
+                for (Map.Entry<String, String> cookie : cookies.entrySet())
+                {
+                    // store cookie back
+                    if (logger.isDebugEnabled())
+                        logger.debug("Connector found Set-Cookie: " + cookie.getKey() + " = " + cookie.getValue());
+                    
+                    connectorSession.setCookie(cookie.getKey(), cookie.getValue());
+                }
             }
         }
     }
@@ -38,6 +38,12 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.zip.GZIPInputStream;
@@ -68,18 +74,17 @@ import org.apache.http.client.methods.HttpPut;
 import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.conn.HttpClientConnectionManager;
 import org.apache.http.conn.routing.HttpRoutePlanner;
 import org.apache.http.entity.BufferedHttpEntity;
 import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.impl.conn.DefaultProxyRoutePlanner;
-import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.http.message.BasicNameValuePair;
 import org.apache.http.protocol.HTTP;
 import org.apache.http.protocol.HttpContext;
 import org.springframework.extensions.config.ConfigService;
-import org.springframework.extensions.config.RemoteConfigElement;
-import org.springframework.extensions.config.RemoteConfigElement.SSLConfigDescriptor;
 import org.springframework.extensions.surf.exception.WebScriptsPlatformException;
 import org.springframework.extensions.surf.util.Base64;
 import org.springframework.extensions.webscripts.ScriptRemote;
@@ -124,6 +129,8 @@ public class RemoteClient extends AbstractClient implements Cloneable
     protected static final String HEADER_SET_COOKIE         = "Set-Cookie";
     protected static final String HEADER_COOKIE             = "Cookie";
     protected static final String HEADER_SERVER             = "Server";
+    protected static final String HEADER_IF_NONE_MATCH      = "If-None-Match";
+    protected static final String HEADER_IF_MODIFIED_SINCE  = "If-Modified-Since";
     
     // timeout values etc. can be modified in the spring config for this bean
     protected static final int DEFAULT_CONNECT_TIMEOUT  = 10000;    // 10 seconds
@@ -131,6 +138,7 @@ public class RemoteClient extends AbstractClient implements Cloneable
     protected static final int DEFAULT_BUFFERSIZE       = 4096;
     protected static final int DEFAULT_MAX_REDIRECTS    = 10;
     protected static final int DEFAULT_POOLSIZE         = 200;
+    protected static final int DEFAULT_ASYNC_POOLSIZE   = 32;
     protected static final String DEFAULT_TICKET_NAME   = "alf_ticket";
     protected static final String DEFAULT_REQUEST_CONTENT_TYPE = "application/octet-stream";
     
@@ -145,9 +153,36 @@ public class RemoteClient extends AbstractClient implements Cloneable
     private static HttpHost s_httpProxyHost;
     private static HttpHost s_httpsProxyHost;
     
-    // HTTP client connection manager and config service
-    private PoolingHttpClientConnectionManager connectionManager;
+    // Switch off automatic redirect handling as we want to process them ourselves and maintain cookies
+    private static final RedirectStrategy NO_REDIRECT_STRATEGY = new RedirectStrategy()
+    {
+        public boolean isRedirected(HttpRequest request, HttpResponse response, HttpContext context)
+                throws ProtocolException
+        {
+            return false;
+        }
+        public HttpUriRequest getRedirect(HttpRequest request, HttpResponse response, HttpContext context)
+                throws ProtocolException
+        {
+            return null;
+        }
+    };
+    
+    // Config service
     private ConfigService configService;
+    
+    // Connection pools of each endpoint and the HTTP clients built over them, shared by all instances - and the
+    // default used when none is configured
+    private ConnectionPools connectionPools;
+    private static ConnectionPools s_defaultConnectionPools;
+    private static volatile boolean s_poolSizeIgnoredLogged = false;
+    
+    // Private cache of GET responses, shared by all instances it is set on - no caching when not set
+    private RemoteResponseCache responseCache;
+    
+    // Executor of asynchronous calls, shared by clones - and the default used when none is configured
+    private Executor asyncExecutor;
+    private static Executor s_defaultAsyncExecutor;
 
     // Stateful values (set programatically for each remote client instance)
     private Map<String, String> cookies;
@@ -156,6 +191,11 @@ public class RemoteClient extends AbstractClient implements Cloneable
     // Stateful values (set programatically for each connection request by the Connector framework)
     private String requestContentType = null;
     private HttpMethod requestMethod = HttpMethod.GET;
+    private Map<String, String> conditionalHeaders = null;
+    
+    // Request of an asynchronous call in progress - aborted if the call is cancelled
+    private volatile HttpRequestBase asyncMethod = null;
+    private volatile boolean asyncAborted = false;
     
     // Authentication state - applied to each request if set
     private String username;
@@ -207,25 +247,37 @@ public class RemoteClient extends AbstractClient implements Cloneable
 
     public void init()
     {
-        RemoteConfigElement remoteConfig = (RemoteConfigElement) configService.getConfig("Remote").getConfigElement("remote");
-
-        SSLConfigDescriptor sslConfigDescriptor = null;
-        if (remoteConfig != null)
+        if (connectionPools == null)
         {
-            sslConfigDescriptor = remoteConfig.getSSLConfigDescriptor();
+            // connections are leased from the pools shared by all the instances configured without pools
+            connectionPools = getDefaultConnectionPools(configService, poolSize);
         }
-
-        if (sslConfigDescriptor != null && sslConfigDescriptor.getSocketFactoryRegistry() != null)
+        else if (poolSize != DEFAULT_POOLSIZE && !s_poolSizeIgnoredLogged)
         {
-            connectionManager = new PoolingHttpClientConnectionManager(sslConfigDescriptor.getSocketFactoryRegistry());
+            s_poolSizeIgnoredLogged = true;
+            logger.warn("The poolSize of RemoteClient is deprecated and ignored when connection pools are set - " +
+                    "set the maxTotal of the connection pools instead.");
         }
-        else
+    }
+    
+    /**
+     * @return the connection pools shared by the instances configured without pools - created by the first of them
+     */
+    private static ConnectionPools getDefaultConnectionPools(ConfigService configService, int poolSize)
+    {
+        synchronized (RemoteClient.class)
         {
-            connectionManager = new PoolingHttpClientConnectionManager();
+            if (s_defaultConnectionPools == null)
+            {
+                ConnectionPools pools = new ConnectionPools();
+                pools.setConfigService(configService);
+                pools.setMaxTotal(poolSize);
+                pools.setMaxConnectionsPerRoute(poolSize);
+                pools.init();
+                s_defaultConnectionPools = pools;
+            }
+            return s_defaultConnectionPools;
         }
-
-        connectionManager.setMaxTotal(poolSize);
-        connectionManager.setDefaultMaxPerRoute(poolSize);
     }
 
     /**
@@ -354,12 +406,32 @@ public class RemoteClient extends AbstractClient implements Cloneable
     }
 
     /**
-     * @param poolSize          the connection thread pool size to set
+     * @param poolSize          the connection thread pool size to set - only used by the default connection pools,
+     *                          when no connection pools are set
+     * 
+     * @deprecated set the maxTotal and maxConnectionsPerRoute of the connection pools instead
      */
+    @Deprecated
     public void setPoolSize(int poolSize)
     {
         this.poolSize = poolSize;
     }
+    
+    /**
+     * @param connectionPools   the connection pools of each endpoint - shared with clones of this RemoteClient
+     */
+    public void setConnectionPools(ConnectionPools connectionPools)
+    {
+        this.connectionPools = connectionPools;
+    }
+    
+    /**
+     * @param responseCache     the private cache of GET responses - shared with clones of this RemoteClient
+     */
+    public void setResponseCache(RemoteResponseCache responseCache)
+    {
+        this.responseCache = responseCache;
+    }
 
     /**
      * @param allowHttpProxy    allowHttpProxy to set
@@ -571,6 +643,43 @@ public class RemoteClient extends AbstractClient implements Cloneable
     {
         this.exceptionOnError = exceptionOnError;
     }
+
+    /**
+     * @param asyncExecutor     executor of asynchronous calls - shared with clones of this RemoteClient
+     */
+    public void setAsyncExecutor(Executor asyncExecutor)
+    {
+        this.asyncExecutor = asyncExecutor;
+    }
+
+    /**
+     * @return the executor of asynchronous calls - a shared pool of daemon threads unless one has been set
+     */
+    protected Executor getAsyncExecutor()
+    {
+        if (this.asyncExecutor != null)
+        {
+            return this.asyncExecutor;
+        }
+        synchronized (RemoteClient.class)
+        {
+            if (s_defaultAsyncExecutor == null)
+            {
+                s_defaultAsyncExecutor = Executors.newFixedThreadPool(DEFAULT_ASYNC_POOLSIZE, new ThreadFactory()
+                {
+                    private final AtomicInteger count = new AtomicInteger();
+                    
+                    public Thread newThread(Runnable r)
+                    {
+                        Thread thread = new Thread(r, "RemoteClient-async-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+            }
+            return s_defaultAsyncExecutor;
+        }
+    }
     
     
     /////////////////////////////////////////////////////////////////
@@ -591,6 +700,81 @@ public class RemoteClient extends AbstractClient implements Cloneable
         return call(uri, true, null);
     }
     
+    /**
+     * Call a remote WebScript uri asynchronously. The call - including redirect handling and cookie
+     * processing - is made by the async executor and the response is buffered as by {@link #call(String)}.
+     * <p>
+     * The state of this RemoteClient must not be changed until the returned future completes.
+     * 
+     * Cancelling the returned future aborts the request.
+     * 
+     * @param uri     WebScript URI - for example /test/myscript?arg=value
+     * 
+     * @return future completing with the Response object from the call {@link Response}
+     */
+    public CompletableFuture<Response> callAsync(String uri)
+    {
+        return callAsync(uri, null);
+    }
+    
+    /**
+     * Call a remote WebScript uri asynchronously, as by {@link #call(String, InputStream)}.
+     * <p>
+     * The state of this RemoteClient must not be changed until the returned future completes.
+     * 
+     * @param uri    WebScript URI - for example /test/myscript?arg=value
+     * @param in     The optional InputStream to the call - if supplied a POST will be performed
+     * 
+     * @return future completing with the Response object from the call {@link Response}
+     */
+    public CompletableFuture<Response> callAsync(final String uri, final InputStream in)
+    {
+        final CompletableFuture<Response> future = new CompletableFuture<Response>()
+        {
+            public boolean cancel(boolean mayInterruptIfRunning)
+            {
+                // abort the request rather than leave it to complete in the background
+                boolean cancelled = super.cancel(mayInterruptIfRunning);
+                if (cancelled)
+                {
+                    abort();
+                }
+                return cancelled;
+            }
+        };
+        getAsyncExecutor().execute(new Runnable()
+        {
+            public void run()
+            {
+                if (!future.isDone())
+                {
+                    try
+                    {
+                        future.complete(call(uri, true, in));
+                    }
+                    catch (Throwable err)
+                    {
+                        future.completeExceptionally(err);
+                    }
+                }
+            }
+        });
+        return future;
+    }
+    
+    /**
+     * Abort the asynchronous call in progress - the request is aborted, or not sent if it is not yet built
+     */
+    private void abort()
+    {
+        this.asyncAborted = true;
+        HttpRequestBase method = this.asyncMethod;
+        if (method != null)
+        {
+            method.abort();
+        }
+    }
+    
     /**
      * Call a remote WebScript uri, passing the supplied body as a POST request (unless the
      * request method is set to override as say PUT).
@@ -654,7 +838,16 @@ public class RemoteClient extends AbstractClient implements Cloneable
         try
         {
             ByteArrayOutputStream bOut = new ByteArrayOutputStream(this.bufferSize);
-            String encoding = service(buildURL(uri), in, bOut, status);
+            URL url = buildURL(uri);
+            String encoding;
+            if (in == null && this.requestMethod == HttpMethod.GET && this.responseCache != null)
+            {
+                encoding = serviceCached(url, bOut, status);
+            }
+            else
+            {
+                encoding = service(url, in, bOut, status);
+            }
             if (buildResponseString)
             {
                 String data;
@@ -934,6 +1127,94 @@ public class RemoteClient extends AbstractClient implements Cloneable
         return service(url, in, out, null, null, status);
     }
 
+    /**
+     * Service a GET of a remote URL through the response cache and write the result into an output stream.
+     * A fresh cached response is written without calling the endpoint, a stale one is revalidated with
+     * a conditional request and written again if the endpoint reports it is not modified.
+     * 
+     * @param url    The URL to retrieve data from
+     * @param out    The OutputStream to write result to
+     * @param status The status object to apply the response code too
+     * 
+     * @return encoding specified by the source URL - may be null
+     * 
+     * @throws IOException
+     */
+    private String serviceCached(URL url, ByteArrayOutputStream out, ResponseStatus status)
+        throws IOException
+    {
+        final String key = getCacheKey(url);
+        RemoteResponseCache.CachedResponse cached = this.responseCache.get(key);
+        if (cached != null && cached.isFresh())
+        {
+            if (logger.isDebugEnabled()) logger.debug("Serving cached response for: " + url);
+        }
+        else
+        {
+            if (cached != null)
+            {
+                // revalidate the stale response with its validators
+                this.conditionalHeaders = new HashMap<>(4);
+                if (cached.getETag() != null)
+                {
+                    this.conditionalHeaders.put(HEADER_IF_NONE_MATCH, cached.getETag());
+                }
+                if (cached.getLastModified() != null)
+                {
+                    this.conditionalHeaders.put(HEADER_IF_MODIFIED_SINCE, cached.getLastModified());
+                }
+            }
+            String encoding = service(url, null, out, status);
+            if (cached == null || status.getCode() != HttpServletResponse.SC_NOT_MODIFIED)
+            {
+                this.responseCache.store(key, status.getCode(), status.getHeaders(), out.toByteArray(), encoding);
+                return encoding;
+            }
+            if (logger.isDebugEnabled()) logger.debug("Serving revalidated cached response for: " + url);
+            cached = this.responseCache.notModified(key, cached, status.getHeaders());
+        }
+        
+        status.setCode(cached.getCode());
+        for (Map.Entry<String, String> header : cached.getHeaders().entrySet())
+        {
+            status.setHeader(header.getKey(), header.getValue());
+        }
+        out.write(cached.getBody());
+        return cached.getEncoding();
+    }
+    
+    /**
+     * Compute the response cache key of a call to the given URL - from the URL, which carries any ticket,
+     * and the user name, cookies and request headers that would be sent with the call
+     * 
+     * @param url    The URL of the call
+     * 
+     * @return the response cache key
+     */
+    private String getCacheKey(URL url)
+    {
+        StringBuilder request = new StringBuilder(256);
+        request.append(url.toString());
+        if (this.username != null)
+        {
+            request.append("\nuser:").append(this.username).append(':').append(this.password);
+        }
+        if (this.cookies != null)
+        {
+            for (Map.Entry<String, String> cookie : new TreeMap<String, String>(this.cookies).entrySet())
+            {
+                request.append("\ncookie:").append(cookie.getKey()).append('=').append(cookie.getValue());
+            }
+        }
+        Map<String, String> headers = new TreeMap<String, String>(this.requestHeaders);
+        headers.putAll(this.requestProperties);
+        for (Map.Entry<String, String> header : headers.entrySet())
+        {
+            request.append("\nheader:").append(header.getKey()).append('=').append(header.getValue());
+        }
+        return this.responseCache.getKey(this.endpoint, request.toString());
+    }
+
     /**
      * Service a remote URL and write the the result into an output stream.
      * If an InputStream is provided then a POST will be performed with the content
@@ -963,9 +1244,39 @@ public class RemoteClient extends AbstractClient implements Cloneable
             if (req != null && res != null) logger.debug(" - Full Proxy mode between servlet request and response...");
         }
         
-        // aquire and configure the HttpClient
+        // unsafe methods invalidate any cached response of the URL
+        if (this.responseCache != null && this.requestMethod != HttpMethod.GET &&
+            this.requestMethod != HttpMethod.HEAD && this.requestMethod != HttpMethod.OPTIONS)
+        {
+            this.responseCache.invalidate(getCacheKey(url));
+        }
+        
+        // aquire and configure the HttpClient - before any permit is acquired, as it is released by the try below
         HttpClient httpClient = createHttpClient(url);
         
+        // calls to an endpoint with an open circuit fail fast without connecting
+        final CircuitBreaker circuitBreaker = EndpointManager.getCircuitBreaker(this.endpoint);
+        if (circuitBreaker != null && !circuitBreaker.tryAcquirePermission())
+        {
+            if (debug) logger.debug("Circuit open for endpoint: " + this.endpoint);
+            status.setCode(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            status.setException(new RuntimeException(GENERIC_ERROR_MESSAGE));
+            status.setMessage(GENERIC_ERROR_MESSAGE);
+            if (res != null)
+            {
+                res.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, GENERIC_ERROR_MESSAGE);
+            }
+            
+            // reset state values
+            setRequestContentType(null);
+            this.requestMethod = HttpMethod.GET;
+            this.conditionalHeaders = null;
+            return null;
+        }
+        final long startTime = System.currentTimeMillis();
+        long callTime = -1L;
+        boolean callFailed = false;
+        
         URL redirectURL = url;
         HttpResponse response;
         HttpRequestBase method = null;
@@ -1030,6 +1341,10 @@ public class RemoteClient extends AbstractClient implements Cloneable
                 // firstly pre-configured headers are applied and overridden/augmented by runtime request properties 
                 final Map<String, String> headers = (Map<String, String>)this.requestHeaders.clone();
                 headers.putAll(this.requestProperties);
+                if (this.conditionalHeaders != null)
+                {
+                    headers.putAll(this.conditionalHeaders);
+                }
                 if (headers.size() != 0)
                 {
                     for (Map.Entry<String, String> entry : headers.entrySet())
@@ -1163,12 +1478,18 @@ public class RemoteClient extends AbstractClient implements Cloneable
                 }
                 
                 //////////////////////////////////////////////////////////////////////////////////////////////////////////////
-                // Execute the method to get the response
+                // Execute the method to get the response - unless the asynchronous call was cancelled meanwhile
+                this.asyncMethod = method;
+                if (this.asyncAborted)
+                {
+                    method.abort();
+                }
                 response = httpClient.execute(method);
                 
                 redirectURL = processResponse(redirectURL, response);
             }
             while (redirectURL != null && ++retries < maxRetries);
+            callTime = System.currentTimeMillis() - startTime;
             
             // record the status code for the internal response object
             int responseCode = response.getStatusLine().getStatusCode(); 
@@ -1279,6 +1600,7 @@ public class RemoteClient extends AbstractClient implements Cloneable
         {
             // caught a socket timeout IO exception - apply internal error code
             logger.info("Exception calling (" + requestMethod + ") " + url.toString(), timeErr);
+            callFailed = true;
             status.setCode(HttpServletResponse.SC_REQUEST_TIMEOUT);
             status.setException(new RuntimeException(GENERIC_ERROR_MESSAGE));
             status.setMessage(GENERIC_ERROR_MESSAGE);
@@ -1294,6 +1616,7 @@ public class RemoteClient extends AbstractClient implements Cloneable
         {
             // caught an unknown host IO exception 
             logger.info("Exception calling (" + requestMethod + ") " + url.toString(), hostErr);
+            callFailed = true;
             status.setCode(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
             status.setException(new RuntimeException(GENERIC_ERROR_MESSAGE));
             status.setMessage(GENERIC_ERROR_MESSAGE);
@@ -1309,6 +1632,7 @@ public class RemoteClient extends AbstractClient implements Cloneable
         {
             // caught a general IO exception - apply generic error code so one gets returned
             logger.info("Exception calling (" + requestMethod + ") " + url.toString(), ioErr);
+            callFailed |= (callTime < 0L);
             status.setCode(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
             status.setException(new RuntimeException(GENERIC_ERROR_MESSAGE));
             status.setMessage(GENERIC_ERROR_MESSAGE);
@@ -1334,13 +1658,21 @@ public class RemoteClient extends AbstractClient implements Cloneable
         }
         finally
         {
+            if (circuitBreaker != null)
+            {
+                circuitBreaker.onResult(callTime >= 0L ? callTime : System.currentTimeMillis() - startTime,
+                        callFailed || CircuitBreaker.isFailure(status.getCode()));
+            }
+            
             // reset state values
+            this.asyncMethod = null;
             if (method != null)
             {
                 method.releaseConnection();
             }
             setRequestContentType(null);
             this.requestMethod = HttpMethod.GET;
+            this.conditionalHeaders = null;
         }
     }
 
@@ -1508,8 +1840,11 @@ public class RemoteClient extends AbstractClient implements Cloneable
     // HTTPClient and Proxy creation methods
     
     /**
-     * Create and configure an HttpClient per thread based on Pooled connection manager.
+     * Get the HttpClient based on Pooled connection manager for the given URL.
      * Proxy route will be applied the client based on current settings.
+     * <p>
+     * HttpClient instances are thread safe - a client is built once for each combination of connection
+     * pool, proxy route, timeouts and stale connection check and reused by subsequent calls.
      * 
      * @param url URL
      * @return HttpClient
@@ -1517,36 +1852,54 @@ public class RemoteClient extends AbstractClient implements Cloneable
     protected HttpClient createHttpClient(URL url)
     {
         // use the appropriate HTTP proxy host if required
-        HttpRoutePlanner routePlanner = null;
+        HttpHost proxyHost = null;
         if (s_httpProxyHost != null && this.allowHttpProxy &&
             url.getProtocol().equals("http") && requiresProxy(url.getHost()))
         {
-            routePlanner = new DefaultProxyRoutePlanner(s_httpProxyHost);
+            proxyHost = s_httpProxyHost;
             if (logger.isDebugEnabled()) logger.debug(" - using HTTP proxy host for: " + url);
         }
         else if (s_httpsProxyHost != null && this.allowHttpsProxy &&
                  url.getProtocol().equals("https") && requiresProxy(url.getHost()))
         {
-            routePlanner = new DefaultProxyRoutePlanner(s_httpsProxyHost);
+            proxyHost = s_httpsProxyHost;
             if (logger.isDebugEnabled()) logger.debug(" - using HTTPS proxy host for: " + url);
         }
         
+        // lease connections from the pool of the endpoint - the clients are cached and closed with the pools
+        ConnectionPools connectionPools = this.connectionPools;
+        if (connectionPools == null)
+        {
+            connectionPools = getDefaultConnectionPools(configService, poolSize);
+        }
+        final String pool = connectionPools.getPoolName(endpoint != null ? endpoint : url.getProtocol() + "://" + url.getAuthority());
+        final String key = pool + '|' + (proxyHost != null ? proxyHost.toURI() : "direct") + '|' + connectTimeout + '|' +
+                readTimeout + '|' + httpConnectionStalecheck;
+        CloseableHttpClient httpClient = connectionPools.getHttpClient(key);
+        if (httpClient == null)
+        {
+            httpClient = connectionPools.putHttpClient(key, buildHttpClient(proxyHost, connectionPools.getConnectionManager(pool)));
+        }
+        return httpClient;
+    }
+    
+    /**
+     * Build and configure an HttpClient over the Pooled connection manager.
+     * 
+     * @param proxyHost HTTP proxy host to route requests through, null for a direct route
+     * @param connectionManager pooled connection manager to lease connections from
+     * @return HttpClient
+     */
+    protected CloseableHttpClient buildHttpClient(HttpHost proxyHost, HttpClientConnectionManager connectionManager)
+    {
+        HttpRoutePlanner routePlanner = (proxyHost != null ? new DefaultProxyRoutePlanner(proxyHost) : null);
         return HttpClientBuilder.create()
             .setConnectionManager(connectionManager)
+            // the pool is shut down with the connection pools rather than when a client is closed
+            .setConnectionManagerShared(connectionManager != null)
             .setRoutePlanner(routePlanner)
-            .setRedirectStrategy(new RedirectStrategy() {
-                // Switch off automatic redirect handling as we want to process them ourselves and maintain cookies
-                public boolean isRedirected(HttpRequest request, HttpResponse response, HttpContext context)
-                        throws ProtocolException
-                {
-                    return false;
-                }
-                public HttpUriRequest getRedirect(HttpRequest request, HttpResponse response, HttpContext context)
-                        throws ProtocolException
-                {
-                    return null;
-                }
-            }).setDefaultRequestConfig(RequestConfig.custom()
+            .setRedirectStrategy(NO_REDIRECT_STRATEGY)
+            .setDefaultRequestConfig(RequestConfig.custom()
                 .setStaleConnectionCheckEnabled(httpConnectionStalecheck)
                 .setConnectTimeout(connectTimeout)
                 .setSocketTimeout(readTimeout)
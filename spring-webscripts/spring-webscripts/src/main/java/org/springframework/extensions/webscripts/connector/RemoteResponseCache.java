@@ -0,0 +1,530 @@
+/**
+ * Copyright (C) 2005-2009 Alfresco Software Limited.
+ *
+ * This file is part of the Spring Surf Extension project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.extensions.webscripts.connector;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.StringTokenizer;
+import java.util.concurrent.atomic.AtomicLong;
+
+import jakarta.servlet.http.HttpServletResponse;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.client.utils.DateUtils;
+import org.springframework.extensions.surf.util.TinyLfuCache;
+
+/**
+ * Private HTTP cache of the GET responses received by {@link RemoteClient} instances.
+ * <p>
+ * A 200 response is stored when its Cache-Control allows it and it is either fresh for a time - from the
+ * max-age directive or the Expires header - or carries an ETag or Last-Modified validator. A fresh response
+ * is served without calling the endpoint. A stale response is revalidated with a conditional request, and
+ * served again if the endpoint answers 304 Not Modified. Responses with no-store, "Vary: *" or Set-Cookie
+ * headers are never stored, and responses with no-cache are always revalidated. No heuristic freshness is
+ * applied.
+ * <p>
+ * Responses are keyed by endpoint and by a digest of the request URL - which carries any ticket - and of the
+ * user name, cookies and request headers of the client, so a response is only ever served to the same user.
+ * As every request header sent takes part in the key, Vary headers need no further handling.
+ * <p>
+ * The cache is bounded by the approximate memory size of the responses it holds and is shared by all the
+ * RemoteClient instances it is set on - see {@link RemoteClient#setResponseCache(RemoteResponseCache)}.
+ */
+public class RemoteResponseCache
+{
+    private static final Log logger = LogFactory.getLog(RemoteResponseCache.class);
+
+    private static final String HEADER_CACHE_CONTROL = "Cache-Control";
+    private static final String HEADER_PRAGMA = "Pragma";
+    private static final String HEADER_EXPIRES = "Expires";
+    private static final String HEADER_DATE = "Date";
+    private static final String HEADER_AGE = "Age";
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    private static final String HEADER_VARY = "Vary";
+    private static final String HEADER_SET_COOKIE = "Set-Cookie";
+    private static final String HEADER_CONTENT_LENGTH = "Content-Length";
+    private static final int ENTRY_OVERHEAD = 256;
+
+    private static final TinyLfuCache.Weigher<String, CachedResponse> WEIGHER = new TinyLfuCache.Weigher<String, CachedResponse>()
+    {
+        public int weigh(String key, CachedResponse value)
+        {
+            return key.length() * 2 + ENTRY_OVERHEAD + value.getWeight();
+        }
+    };
+
+    private long maxWeight = 16L * 1024L * 1024L;
+    private int maxEntrySize = 512 * 1024;
+    private volatile TinyLfuCache<String, CachedResponse> cache;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong revalidations = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param maxWeight  approximate maximum number of bytes of responses to hold
+     */
+    public void setMaxWeight(long maxWeight)
+    {
+        this.maxWeight = maxWeight;
+        this.cache = null;
+    }
+
+    /**
+     * @param maxEntrySize  maximum size in bytes of a single response body, larger responses are not stored
+     */
+    public void setMaxEntrySize(int maxEntrySize)
+    {
+        this.maxEntrySize = maxEntrySize;
+    }
+
+    /**
+     * Compute the cache key of a request
+     *
+     * @param endpoint  endpoint the request is made to
+     * @param request   request URL followed by everything identifying the user making it
+     *
+     * @return cache key
+     */
+    public String getKey(String endpoint, String request)
+    {
+        try
+        {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(request.getBytes(StandardCharsets.UTF_8));
+            StringBuilder key = new StringBuilder(endpoint.length() + 1 + digest.length * 2);
+            key.append(endpoint).append('\n');
+            for (byte b : digest)
+            {
+                key.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return key.toString();
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Get the cached response for a request. A fresh response counts as a cache hit, a stale one must be
+     * revalidated before it is used.
+     *
+     * @param key  cache key
+     *
+     * @return the cached response, fresh or stale, or null if there is none
+     */
+    public CachedResponse get(String key)
+    {
+        CachedResponse cached = getCache().get(key);
+        if (cached != null && cached.isFresh())
+        {
+            hits.incrementAndGet();
+        }
+        return cached;
+    }
+
+    /**
+     * Refresh a stale cached response the endpoint answered 304 Not Modified to
+     *
+     * @param key      cache key
+     * @param cached   the stale cached response
+     * @param headers  headers of the 304 response
+     *
+     * @return the cached response updated with the headers of the 304 response
+     */
+    public CachedResponse notModified(String key, CachedResponse cached, Map<String, String> headers)
+    {
+        revalidations.incrementAndGet();
+
+        Map<String, String> updated = new HashMap<String, String>(cached.headers);
+        for (Map.Entry<String, String> header : headers.entrySet())
+        {
+            if (!header.getKey().equalsIgnoreCase(HEADER_CONTENT_LENGTH))
+            {
+                removeHeader(updated, header.getKey());
+                updated.put(header.getKey(), header.getValue());
+            }
+        }
+        CachedResponse refreshed = new CachedResponse(cached.code, updated, cached.body, cached.encoding, 0L);
+        if (!put(key, refreshed))
+        {
+            invalidate(key);
+        }
+        return refreshed;
+    }
+
+    /**
+     * Store a response received from the endpoint, if it is cachable. Counts as a cache miss.
+     *
+     * @param key       cache key
+     * @param code      response status code
+     * @param headers   response headers
+     * @param body      response body
+     * @param encoding  response encoding - may be null
+     */
+    public void store(String key, int code, Map<String, String> headers, byte[] body, String encoding)
+    {
+        misses.incrementAndGet();
+
+        if (code != HttpServletResponse.SC_OK)
+        {
+            return;
+        }
+        CachedResponse response = new CachedResponse(code, new HashMap<String, String>(headers), body, encoding, 0L);
+        if (body.length > maxEntrySize || !put(key, response))
+        {
+            // a previously cached response is superseded
+            invalidate(key);
+            return;
+        }
+        if (logger.isDebugEnabled())
+            logger.debug("Cached response (" + body.length + " bytes, fresh for " +
+                    Math.max(response.expires - System.currentTimeMillis(), 0L) + "ms)");
+    }
+
+    /**
+     * Remove the cached response for a request - e.g. once an unsafe method has been called on its URL
+     *
+     * @param key  cache key
+     */
+    public void invalidate(String key)
+    {
+        TinyLfuCache<String, CachedResponse> cache = this.cache;
+        if (cache != null)
+        {
+            cache.remove(key);
+        }
+    }
+
+    /**
+     * Remove all cached responses
+     */
+    public void clear()
+    {
+        TinyLfuCache<String, CachedResponse> cache = this.cache;
+        if (cache != null)
+        {
+            cache.clear();
+        }
+    }
+
+    /**
+     * @return number of cached responses
+     */
+    public int size()
+    {
+        TinyLfuCache<String, CachedResponse> cache = this.cache;
+        return cache == null ? 0 : cache.size();
+    }
+
+    /**
+     * @return approximate number of bytes held by the cache
+     */
+    public long getWeight()
+    {
+        TinyLfuCache<String, CachedResponse> cache = this.cache;
+        return cache == null ? 0L : cache.getWeightedSize();
+    }
+
+    /**
+     * @return number of requests answered from the cache without calling the endpoint
+     */
+    public long getHitCount()
+    {
+        return hits.get();
+    }
+
+    /**
+     * @return number of requests answered from the cache after the endpoint confirmed it was not modified
+     */
+    public long getRevalidationCount()
+    {
+        return revalidations.get();
+    }
+
+    /**
+     * @return number of requests answered with a full response from the endpoint
+     */
+    public long getMissCount()
+    {
+        return misses.get();
+    }
+
+    /**
+     * @return number of cached responses evicted or refused admission due to the size bound
+     */
+    public long getEvictionCount()
+    {
+        TinyLfuCache<String, CachedResponse> cache = this.cache;
+        return cache == null ? 0L : cache.getEvictionCount();
+    }
+
+    /**
+     * @return the ratio of requests answered from the cache - with or without revalidation - 1.0 if there
+     *         have been no requests
+     */
+    public double getHitRatio()
+    {
+        long served = hits.get() + revalidations.get();
+        long total = served + misses.get();
+        return total == 0L ? 1.0d : (double)served / total;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "size=" + size() + ", weight=" + getWeight() + ", hits=" + getHitCount() + ", revalidations=" +
+               getRevalidationCount() + ", misses=" + getMissCount() + ", evictions=" + getEvictionCount() +
+               ", hitRatio=" + getHitRatio();
+    }
+
+    private boolean put(String key, CachedResponse response)
+    {
+        Map<String, String> headers = response.headers;
+        if (getHeader(headers, HEADER_SET_COOKIE) != null)
+        {
+            return false;
+        }
+        String vary = getHeader(headers, HEADER_VARY);
+        if (vary != null && vary.trim().equals("*"))
+        {
+            return false;
+        }
+
+        // freshness lifetime from Cache-Control or Expires - relative to the response Date
+        long freshness = 0L;
+        boolean noCache = false;
+        String cacheControl = getHeader(headers, HEADER_CACHE_CONTROL);
+        if (cacheControl != null)
+        {
+            long maxAge = -1L;
+            StringTokenizer t = new StringTokenizer(cacheControl, ",");
+            while (t.hasMoreTokens())
+            {
+                String directive = t.nextToken().trim().toLowerCase(Locale.ENGLISH);
+                if (directive.equals("no-store"))
+                {
+                    return false;
+                }
+                else if (directive.startsWith("no-cache"))
+                {
+                    noCache = true;
+                }
+                else if (directive.startsWith("max-age="))
+                {
+                    try
+                    {
+                        maxAge = Long.parseLong(directive.substring(8).replace("\"", "").trim()) * 1000L;
+                    }
+                    catch (NumberFormatException e)
+                    {
+                        noCache = true;
+                    }
+                }
+            }
+            if (maxAge >= 0L)
+            {
+                freshness = maxAge;
+            }
+            else
+            {
+                freshness = getExpiresFreshness(headers);
+            }
+        }
+        else
+        {
+            String pragma = getHeader(headers, HEADER_PRAGMA);
+            noCache = pragma != null && pragma.toLowerCase(Locale.ENGLISH).contains("no-cache");
+            freshness = getExpiresFreshness(headers);
+        }
+        String age = getHeader(headers, HEADER_AGE);
+        if (age != null)
+        {
+            try
+            {
+                freshness -= Long.parseLong(age.trim()) * 1000L;
+            }
+            catch (NumberFormatException e)
+            {
+                freshness = 0L;
+            }
+        }
+        if (noCache || freshness < 0L)
+        {
+            freshness = 0L;
+        }
+
+        boolean validated = response.getETag() != null || response.getLastModified() != null;
+        if (freshness == 0L && !validated)
+        {
+            return false;
+        }
+        response.expires = System.currentTimeMillis() + freshness;
+
+        // responses that can be revalidated are kept until evicted, others only while fresh
+        getCache().put(key, response, validated ? 0L : freshness);
+        return true;
+    }
+
+    private static long getExpiresFreshness(Map<String, String> headers)
+    {
+        String expires = getHeader(headers, HEADER_EXPIRES);
+        if (expires == null)
+        {
+            return 0L;
+        }
+        Date expiresDate = DateUtils.parseDate(expires);
+        if (expiresDate == null)
+        {
+            return 0L;
+        }
+        String date = getHeader(headers, HEADER_DATE);
+        Date responseDate = date != null ? DateUtils.parseDate(date) : null;
+        return expiresDate.getTime() - (responseDate != null ? responseDate.getTime() : System.currentTimeMillis());
+    }
+
+    private TinyLfuCache<String, CachedResponse> getCache()
+    {
+        TinyLfuCache<String, CachedResponse> cache = this.cache;
+        if (cache == null)
+        {
+            synchronized (this)
+            {
+                cache = this.cache;
+                if (cache == null)
+                {
+                    cache = new TinyLfuCache<String, CachedResponse>(maxWeight, WEIGHER, 0L);
+                    this.cache = cache;
+                }
+            }
+        }
+        return cache;
+    }
+
+    private static String getHeader(Map<String, String> headers, String name)
+    {
+        String value = headers.get(name);
+        if (value == null)
+        {
+            for (Map.Entry<String, String> header : headers.entrySet())
+            {
+                if (name.equalsIgnoreCase(header.getKey()))
+                {
+                    return header.getValue();
+                }
+            }
+        }
+        return value;
+    }
+
+    private static void removeHeader(Map<String, String> headers, String name)
+    {
+        for (Iterator<String> i = headers.keySet().iterator(); i.hasNext(); )
+        {
+            if (name.equalsIgnoreCase(i.next()))
+            {
+                i.remove();
+            }
+        }
+    }
+
+    /**
+     * A cached response - status code, headers, body and encoding
+     */
+    public static final class CachedResponse
+    {
+        private final int code;
+        private final Map<String, String> headers;
+        private final byte[] body;
+        private final String encoding;
+        private volatile long expires;
+
+        CachedResponse(int code, Map<String, String> headers, byte[] body, String encoding, long expires)
+        {
+            this.code = code;
+            this.headers = headers;
+            this.body = body;
+            this.encoding = encoding;
+            this.expires = expires;
+        }
+
+        /**
+         * @return true if the response may be used without revalidating it
+         */
+        public boolean isFresh()
+        {
+            return System.currentTimeMillis() < this.expires;
+        }
+
+        public int getCode()
+        {
+            return this.code;
+        }
+
+        public Map<String, String> getHeaders()
+        {
+            return Collections.unmodifiableMap(this.headers);
+        }
+
+        public byte[] getBody()
+        {
+            return this.body;
+        }
+
+        public String getEncoding()
+        {
+            return this.encoding;
+        }
+
+        /**
+         * @return the entity tag validator of the response - may be null
+         */
+        public String getETag()
+        {
+            return getHeader(this.headers, HEADER_ETAG);
+        }
+
+        /**
+         * @return the last modified date validator of the response - may be null
+         */
+        public String getLastModified()
+        {
+            return getHeader(this.headers, HEADER_LAST_MODIFIED);
+        }
+
+        int getWeight()
+        {
+            int weight = this.body.length;
+            for (Map.Entry<String, String> header : this.headers.entrySet())
+            {
+                weight += (header.getKey().length() + header.getValue().length()) * 2;
+            }
+            return weight;
+        }
+    }
+}
@@ -24,6 +24,7 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.StringReader;
 import java.io.Writer;
+import java.util.Map;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -32,6 +33,7 @@ import org.springframework.extensions.config.ConfigElement;
 import org.springframework.extensions.config.ConfigService;
 import org.springframework.extensions.config.element.GenericConfigElement;
 import org.springframework.extensions.surf.util.I18NUtil;
+import org.springframework.extensions.webscripts.ScriptableMap;
 import org.springframework.extensions.webscripts.TemplateConfigModel;
 import org.springframework.extensions.webscripts.WebScriptException;
 import org.springframework.extensions.webscripts.json.JSONUtils;
@@ -40,9 +42,12 @@ import freemarker.cache.MruCacheStorage;
 import freemarker.cache.StrongCacheStorage;
 import freemarker.core.Environment;
 import freemarker.core.TemplateClassResolver;
+import freemarker.ext.beans.StringModel;
 import freemarker.template.Configuration;
 import freemarker.template.DefaultObjectWrapper;
+import freemarker.template.DefaultObjectWrapperBuilder;
 import freemarker.template.ObjectWrapper;
+import freemarker.template.SimpleHash;
 import freemarker.template.Template;
 import freemarker.template.TemplateExceptionHandler;
 import freemarker.template.TemplateModel;
@@ -365,26 +370,24 @@ public class FTLTemplateProcessor extends AbstractTemplateProcessor
         TemplateConfigModel.class, GenericConfigElement.class, JSONUtils.class };
     
     /**
-     * Implements the FreeMarker ObjectWrapper cache as a ThreadLocal to avoid blocking
-     * when interogating or populating the bean cache.
+     * Implements the FreeMarker ObjectWrapper as a single wrapper shared by all threads.
+     * <p>
+     * The shared DefaultObjectWrapper is not modified once built and holds its bean introspection
+     * data in a concurrent cache, so wrapping does not block and each class is introspected once -
+     * rather than once per thread, as when each thread held a wrapper of its own. The model types
+     * passed to templates most often are wrapped directly, exactly as the DefaultObjectWrapper would
+     * wrap them, skipping its chain of type tests.
      * 
      * @author dward
      */
     public static class NonBlockingObjectWrapper implements ObjectWrapper
     {
-        private final ThreadLocal<ObjectWrapper> threadWrappers = new ThreadLocal<ObjectWrapper>()
-        {
-            @Override
-            protected ObjectWrapper initialValue()
-            {
-                return new DefaultObjectWrapper();
-            }
-        };
+        private final DefaultObjectWrapper wrapper =
+                new DefaultObjectWrapperBuilder(Configuration.VERSION_2_3_0).build();
         
         public NonBlockingObjectWrapper()
         {
             // Force introspection of core classes in advance
-            threadWrappers.get();
             for (Class<?> type : INTROSPECT_CLASSES)
             {
                 try
@@ -403,7 +406,19 @@ public class FTLTemplateProcessor extends AbstractTemplateProcessor
          */
         public TemplateModel wrap(Object obj) throws TemplateModelException
         {
-            return threadWrappers.get().wrap(obj);
+            if (obj instanceof ScriptableMap)
+            {
+                return new SimpleHash((Map<?, ?>)obj, wrapper);
+            }
+            if (obj != null)
+            {
+                Class<?> type = obj.getClass();
+                if (type == TemplateConfigModel.class || type == GenericConfigElement.class || type == JSONUtils.class)
+                {
+                    return new StringModel(obj, wrapper);
+                }
+            }
+            return wrapper.wrap(obj);
         }  
     }
 }
\ No newline at end of file
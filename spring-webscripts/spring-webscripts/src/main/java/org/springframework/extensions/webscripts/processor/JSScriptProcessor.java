@@ -19,16 +19,27 @@
 package org.springframework.extensions.webscripts.processor;
 
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ContextFactory;
 import org.mozilla.javascript.ImporterTopLevel;
+import org.mozilla.javascript.NativeObject;
 import org.mozilla.javascript.Script;
 import org.mozilla.javascript.Scriptable;
 import org.mozilla.javascript.ScriptableObject;
@@ -37,12 +48,15 @@ import org.mozilla.javascript.WrappedException;
 import org.springframework.extensions.config.Config;
 import org.springframework.extensions.config.ConfigElement;
 import org.springframework.extensions.config.ConfigService;
+import org.springframework.extensions.surf.core.processor.ProcessorExtension;
 import org.springframework.extensions.surf.core.scripts.ScriptException;
 import org.springframework.extensions.surf.core.scripts.ScriptResourceHelper;
 import org.springframework.extensions.surf.core.scripts.ScriptResourceLoader;
+import org.springframework.extensions.surf.util.TinyLfuCache;
 import org.springframework.extensions.webscripts.NativeMap;
 import org.springframework.extensions.webscripts.ScriptContent;
 import org.springframework.extensions.webscripts.ScriptValueConverter;
+import org.springframework.extensions.webscripts.TimestampedScriptContent;
 import org.springframework.extensions.webscripts.WebScriptException;
 import org.springframework.util.FileCopyUtils;
 
@@ -72,8 +86,43 @@ public class JSScriptProcessor extends AbstractScriptProcessor implements Script
     /** Flag to enable the sharing of sealed root scopes between scripts executions */
     private boolean shareSealedScopes = true;
     
+    /** Flag to enable prepared processor extension scopes and the reuse of contexts per thread */
+    private boolean prepareScopes = false;
+    
+    /** Sealed scopes holding the processor extensions, layered over the shared sealed scopes - built on demand */
+    private volatile ExtensionScopes extensionScopes;
+    
+    /** Context reused by script executions on each thread when scopes are prepared */
+    private final ThreadLocal<Context> threadContext = new ThreadLocal<Context>();
+    
+    /** Maximum number of runtime compiled scripts to cache */
+    private long scriptCacheSize = 1024L;
+    
+    /** Maximum total length of the sources of the runtime compiled scripts to cache, zero or less to bound by number only */
+    private long scriptCacheWeight = 0L;
+    
+    /** Interval in milliseconds between checks of cached scripts against their sources, less than zero to never check */
+    private long scriptCheckInterval = -1L;
+    
     /** Cache of runtime compiled script instances */
-    private Map<String, Script> scriptCache = new ConcurrentHashMap<String, Script>(256);
+    private TinyLfuCache<String, CompiledScript> scriptCache = createScriptCache();
+    
+    /** Number of cached scripts discarded as their sources were modified */
+    private final AtomicLong scriptInvalidationCount = new AtomicLong();
+    
+    /** Compilations of cachable scripts in progress, by path */
+    private final Map<String, FutureTask<CompiledScript>> compilations = new ConcurrentHashMap<String, FutureTask<CompiledScript>>();
+    
+    /** Number and total duration in nanoseconds of script compilations (including import resolution) */
+    private final AtomicLong compileCount = new AtomicLong();
+    private final AtomicLong compileTime = new AtomicLong();
+    
+    /** Number of times and total nanoseconds requests waited for a compilation already in progress on another thread */
+    private final AtomicLong compileWaitCount = new AtomicLong();
+    private final AtomicLong compileWaitTime = new AtomicLong();
+    
+    /** On-disk cache of compiled script classes, null if disabled */
+    private ScriptClassCache scriptClassCache;
     
     /** WebScript ConfigService */
     private ConfigService configService;
@@ -99,6 +148,139 @@ public class JSScriptProcessor extends AbstractScriptProcessor implements Script
         this.compile = compile;
     }
     
+    /**
+     * Sets whether script scopes are prepared. When set, and sealed scopes are shared, the processor
+     * extensions are held in sealed scopes layered over the shared scopes, built once rather than added
+     * to the model of each execution. The scope of an execution then only holds the model - which is
+     * neither copied nor amended with the processor extensions - and model entries named as a processor
+     * extension are ignored. Each thread also reuses a single Rhino context between executions; such
+     * contexts are created once, so a debugger attached later does not see them.
+     * 
+     * @param prepareScopes true to prepare scopes and reuse contexts, false (the default) to build the
+     *                      scope of each execution from its model and processor extensions
+     */
+    public void setPrepareScopes(boolean prepareScopes)
+    {
+        this.prepareScopes = prepareScopes;
+    }
+    
+    /**
+     * @param scriptCacheSize   maximum number of runtime compiled scripts to cache (default 1024)
+     */
+    public void setScriptCacheSize(long scriptCacheSize)
+    {
+        this.scriptCacheSize = scriptCacheSize;
+        this.scriptCache = createScriptCache();
+    }
+    
+    /**
+     * @param scriptCacheWeight maximum total length in characters of the (import resolved) sources of the
+     *                          runtime compiled scripts to cache - when greater than zero this replaces the
+     *                          bound on the number of scripts
+     */
+    public void setScriptCacheWeight(long scriptCacheWeight)
+    {
+        this.scriptCacheWeight = scriptCacheWeight;
+        this.scriptCache = createScriptCache();
+    }
+    
+    /**
+     * Sets the interval at which a cached script is checked against the last modified time of its source
+     * and of the sources it imports, so modified scripts are recompiled without a reset. Sources that are
+     * imported from the classpath or cannot report a last modified time are not checked.
+     * 
+     * @param scriptCheckInterval   interval in milliseconds, zero to check on every execution, less than
+     *                              zero to never check (the default)
+     */
+    public void setScriptCheckInterval(long scriptCheckInterval)
+    {
+        this.scriptCheckInterval = scriptCheckInterval;
+    }
+    
+    /**
+     * @return the number of runtime compiled scripts in the cache
+     */
+    public int getCachedScriptCount()
+    {
+        return this.scriptCache.size();
+    }
+    
+    /**
+     * @return the number of script executions that found a compiled script in the cache
+     */
+    public long getScriptCacheHitCount()
+    {
+        return this.scriptCache.getHitCount();
+    }
+    
+    /**
+     * @return the number of script executions that did not find a compiled script in the cache
+     */
+    public long getScriptCacheMissCount()
+    {
+        return this.scriptCache.getMissCount();
+    }
+    
+    /**
+     * @return the number of compiled scripts evicted from the cache to keep it within its bounds
+     */
+    public long getScriptCacheEvictionCount()
+    {
+        return this.scriptCache.getEvictionCount();
+    }
+    
+    /**
+     * @return the number of compiled scripts discarded from the cache as their sources were modified
+     */
+    public long getScriptCacheInvalidationCount()
+    {
+        return this.scriptInvalidationCount.get();
+    }
+    
+    /**
+     * @return the number of scripts compiled, including those not cached
+     */
+    public long getScriptCompileCount()
+    {
+        return this.compileCount.get();
+    }
+    
+    /**
+     * @return the total time in milliseconds spent resolving the imports of and compiling scripts
+     */
+    public long getScriptCompileTime()
+    {
+        return this.compileTime.get() / 1000000L;
+    }
+    
+    /**
+     * @return the number of times a script execution waited for another thread to compile the script
+     */
+    public long getScriptCompileWaitCount()
+    {
+        return this.compileWaitCount.get();
+    }
+    
+    /**
+     * @return the total time in milliseconds script executions spent waiting for other threads to compile scripts
+     */
+    public long getScriptCompileWaitTime()
+    {
+        return this.compileWaitTime.get() / 1000000L;
+    }
+    
+    /**
+     * Sets the directory used to persist compiled script classes between restarts. Scripts are
+     * compiled to classes once per distinct source, and loaded from the directory thereafter.
+     * 
+     * @param compiledScriptDirectory   the directory, or null or empty to disable the on-disk cache
+     */
+    public void setCompiledScriptDirectory(String compiledScriptDirectory)
+    {
+        this.scriptClassCache = (compiledScriptDirectory == null || compiledScriptDirectory.length() == 0) ?
+                null : new ScriptClassCache(new File(compiledScriptDirectory));
+    }
+    
     /**
      * @param shareSealedScopes true to allow sharing of sealed scopes between script executions - set to
      * false to disable this feature and ensure that a new scope is created for each executed script.
@@ -166,47 +348,210 @@ public class JSScriptProcessor extends AbstractScriptProcessor implements Script
         {
             // test the cache for a pre-compiled script matching our path
             String path = location.getPath();
+            boolean cachable = this.compile && location.isCachable() && isDebugMode() == false;
             Script script = null;
-            if (this.compile && location.isCachable() && isDebugMode() == false)
+            if (cachable)
             {
-                script = this.scriptCache.get(path);
+                CompiledScript compiled = this.scriptCache.get(path);
+                if (compiled != null)
+                {
+                    if (isModified(compiled))
+                    {
+                        if (logger.isDebugEnabled())
+                            logger.debug("Discarding compiled script as its source was modified: " + path);
+                        this.scriptCache.remove(path);
+                        this.scriptInvalidationCount.incrementAndGet();
+                    }
+                    else
+                    {
+                        script = compiled.script;
+                    }
+                }
             }
             if (script == null)
             {
-                if (logger.isDebugEnabled())
-                    logger.debug("Resolving and compiling script path: " + path);
-                
-                // retrieve script content and resolve imports
-                ByteArrayOutputStream os = new ByteArrayOutputStream();
-                FileCopyUtils.copy(location.getInputStream(), os);  // both streams are closed
-                byte[] bytes = os.toByteArray();
-                String source = new String(bytes, "UTF-8");
-                source = ScriptResourceHelper.resolveScriptImports(source, this, logger);
-                
-                // compile the script and cache the result
-                Context cx = Context.enter();
+                script = cachable ? compileSharedScript(location) : compileScript(location, false).script;
+            }
+            
+            return executeScriptImpl(script, model, location.isSecure());
+        }
+        catch (ScriptException se)
+        {
+            throw new WebScriptException("Failed to load script '" + location.toString() + "': " + se.getMessage(), se);
+        }
+        catch (Throwable e)
+        {
+            throw new WebScriptException("Failed to execute script '" + location.toString() + "': " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Compile a cachable script and add it to the cache. If the script is already being compiled by
+     * another thread, wait for and share the result of that compilation instead - so however many
+     * requests for a script arrive at once, its imports are resolved and it is compiled only once.
+     * 
+     * @param location      the script content
+     * 
+     * @return the compiled script
+     */
+    private Script compileSharedScript(final ScriptContent location) throws Exception
+    {
+        final String path = location.getPath();
+        FutureTask<CompiledScript> compilation = new FutureTask<CompiledScript>(new Callable<CompiledScript>()
+        {
+            public CompiledScript call() throws Exception
+            {
+                CompiledScript compiled = compileScript(location, true);
+                scriptCache.put(path, compiled);
+                return compiled;
+            }
+        });
+        
+        try
+        {
+            FutureTask<CompiledScript> existing = this.compilations.putIfAbsent(path, compilation);
+            if (existing == null)
+            {
                 try
                 {
-                    script = cx.compileString(source, path, 1, null);
-                    
-                    // We do not worry about more than one user thread compiling the same script.
-                    // If more than one request thread compiles the same script and adds it to the
-                    // cache that does not matter - the results will be the same. Therefore we
-                    // rely on the ConcurrentHashMap impl to deal both with ensuring the safety of the
-                    // underlying structure with asynchronous get/put operations and for fast
-                    // multi-threaded access to the common cache.
-                    if (this.compile && location.isCachable() && isDebugMode() == false)
+                    // a compilation that completed since the cache was tested has already cached its result
+                    CompiledScript compiled = this.scriptCache.get(path);
+                    if (compiled != null && !isModified(compiled))
                     {
-                        this.scriptCache.put(path, script);
+                        return compiled.script;
                     }
+                    compilation.run();
+                    return compilation.get().script;
                 }
                 finally
                 {
-                    Context.exit();
+                    // the result is cached before the compilation is removed, so later requests find one or the other
+                    this.compilations.remove(path, compilation);
                 }
             }
             
-            return executeScriptImpl(script, model, location.isSecure());
+            long startTime = System.nanoTime();
+            try
+            {
+                return existing.get().script;
+            }
+            finally
+            {
+                long waitTime = System.nanoTime() - startTime;
+                this.compileWaitCount.incrementAndGet();
+                this.compileWaitTime.addAndGet(waitTime);
+                if (logger.isDebugEnabled())
+                    logger.debug("Waited " + waitTime/1000000f + "ms for compilation of script path: " + path);
+            }
+        }
+        catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+            if (cause instanceof Error)
+            {
+                throw (Error)cause;
+            }
+            throw (Exception)cause;
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw e;
+        }
+    }
+    
+    /**
+     * Resolve the imports of a script and compile it.
+     * 
+     * @param location      the script content
+     * @param cachable      true if the compiled script is to be cached
+     * 
+     * @return the compiled script
+     */
+    private CompiledScript compileScript(ScriptContent location, boolean cachable) throws IOException
+    {
+        String path = location.getPath();
+        if (logger.isDebugEnabled())
+            logger.debug("Resolving and compiling script path: " + path);
+        long startTime = System.nanoTime();
+        
+        // the sources of a cached script are recorded - before they are read - so it can be checked for modifications
+        final List<ScriptContent> sources = (cachable && this.scriptCheckInterval >= 0) ? new ArrayList<ScriptContent>() : null;
+        final List<Long> lastModified = (sources != null) ? new ArrayList<Long>() : null;
+        if (sources != null)
+        {
+            sources.add(location);
+            lastModified.add(getLastModified(location));
+        }
+        
+        // retrieve script content and resolve imports
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        FileCopyUtils.copy(location.getInputStream(), os);  // both streams are closed
+        byte[] bytes = os.toByteArray();
+        String source = new String(bytes, "UTF-8");
+        ScriptResourceLoader loader = this;
+        if (sources != null)
+        {
+            loader = new ScriptResourceLoader()
+            {
+                public String loadScriptResource(String resource)
+                {
+                    return JSScriptProcessor.this.loadScriptResource(resource, sources, lastModified);
+                }
+            };
+        }
+        source = ScriptResourceHelper.resolveScriptImports(source, loader, logger);
+        
+        // compile the script
+        Context cx = Context.enter();
+        try
+        {
+            Script script = null;
+            if (cachable && this.scriptClassCache != null)
+            {
+                script = this.scriptClassCache.getScript(cx, source, path);
+            }
+            if (script == null)
+            {
+                script = cx.compileString(source, path, 1, null);
+            }
+            return new CompiledScript(script, source.length(), sources, lastModified);
+        }
+        finally
+        {
+            Context.exit();
+            
+            long compileTime = System.nanoTime() - startTime;
+            this.compileCount.incrementAndGet();
+            this.compileTime.addAndGet(compileTime);
+            if (logger.isDebugEnabled())
+                logger.debug("Time to resolve and compile script: " + compileTime/1000000f + "ms");
+        }
+    }
+
+    /**
+     * Compile a script ahead of its first execution, so that execution finds it in the cache. Scripts
+     * that are not cachable, or are already cached and unmodified, are not compiled.
+     * 
+     * @param location      the script content
+     * 
+     * @return true if the script was compiled
+     */
+    public boolean precompileScript(ScriptContent location)
+    {
+        if (this.compile == false || location.isCachable() == false || isDebugMode())
+        {
+            return false;
+        }
+        CompiledScript compiled = this.scriptCache.get(location.getPath());
+        if (compiled != null && isModified(compiled) == false)
+        {
+            return false;
+        }
+        try
+        {
+            compileSharedScript(location);
+            return true;
         }
         catch (ScriptException se)
         {
@@ -214,7 +559,7 @@ public class JSScriptProcessor extends AbstractScriptProcessor implements Script
         }
         catch (Throwable e)
         {
-            throw new WebScriptException("Failed to execute script '" + location.toString() + "': " + e.getMessage(), e);
+            throw new WebScriptException("Failed to compile script '" + location.toString() + "': " + e.getMessage(), e);
         }
     }
 
@@ -228,6 +573,21 @@ public class JSScriptProcessor extends AbstractScriptProcessor implements Script
      * 
      */
     public String loadScriptResource(String resource)
+    {
+        return loadScriptResource(resource, null, null);
+    }
+    
+    /**
+     * Load a script content from the specific resource path, recording the script content located
+     * within the webscript stores.
+     * 
+     * @param resource      Script resource to load
+     * @param sources       list to add the located script content to, may be null
+     * @param lastModified  list to add the last modified time of the located script content to
+     * 
+     * @return the content from the resource
+     */
+    private String loadScriptResource(String resource, List<ScriptContent> sources, List<Long> lastModified)
     {
         if (resource.startsWith(PATH_CLASSPATH))
         {
@@ -259,6 +619,11 @@ public class JSScriptProcessor extends AbstractScriptProcessor implements Script
             {
                 throw new ScriptException("Unable to locate script " + resource);
             }
+            if (sources != null)
+            {
+                sources.add(scriptLocation);
+                lastModified.add(getLastModified(scriptLocation));
+            }
             try
             {   
                 ByteArrayOutputStream os = new ByteArrayOutputStream();
@@ -293,7 +658,7 @@ public class JSScriptProcessor extends AbstractScriptProcessor implements Script
             startTime = System.nanoTime();
         }
         
-        Context cx = Context.enter();
+        Context cx = enterContext();
         cx.setOptimizationLevel(1);
         try
         {
@@ -301,32 +666,53 @@ public class JSScriptProcessor extends AbstractScriptProcessor implements Script
             // See http://www.mozilla.org/rhino/scopes.html
             cx.setWrapFactory(wrapFactory);
             Scriptable scope;
-            if (this.shareSealedScopes)
+            if (this.prepareScopes && this.shareSealedScopes)
             {
-                Scriptable sharedScope = secure ? this.nonSecureScope : this.secureScope;
-                scope = cx.newObject(sharedScope);
-                scope.setPrototype(sharedScope);
+                // layer the model over the prepared processor extensions
+                ExtensionScopes extensions = getExtensionScopes();
+                scope = new NativeObject();
+                scope.setPrototype(secure ? extensions.nonSecureScope : extensions.secureScope);
                 scope.setParentScope(null);
+                if (model != null)
+                {
+                    for (Map.Entry<String, Object> entry : model.entrySet())
+                    {
+                        if (!extensions.names.contains(entry.getKey()))
+                        {
+                            scope.put(entry.getKey(), scope, entry.getValue());
+                        }
+                    }
+                }
             }
             else
             {
-                scope = initScope(cx, secure, false);
-            }
-            
-            // there's always a model, if only to hold the extension objects
-            if (model == null)
-            {
-                model = new HashMap<String, Object>();
-            }
-            
-            // add the global scripts
-            addProcessorModelExtensions(model);
-            
-            // insert supplied object model into root of the default scope
-            for (String key : model.keySet())
-            {
-                Object obj = model.get(key);
-                ScriptableObject.putProperty(scope, key, obj);
+                if (this.shareSealedScopes)
+                {
+                    Scriptable sharedScope = secure ? this.nonSecureScope : this.secureScope;
+                    scope = cx.newObject(sharedScope);
+                    scope.setPrototype(sharedScope);
+                    scope.setParentScope(null);
+                }
+                else
+                {
+                    scope = initScope(cx, secure, false);
+                }
+                
+                // there's always a model, if only to hold the extension objects
+                if (model == null)
+                {
+                    model = new HashMap<String, Object>();
+                }
+                
+                // add the global scripts
+                addProcessorModelExtensions(model);
+                
+                // insert supplied object model into root of the default scope
+                for (String key : model.keySet())
+                {
+                    Object obj = model.get(key);
+                    ScriptableObject.putProperty(scope, key, obj);
+                }
             }
             
             // execute the script and return the result
@@ -354,6 +740,64 @@ public class JSScriptProcessor extends AbstractScriptProcessor implements Script
         }
     }
 
+    /**
+     * Determine if the sources of a cached script have been modified since it was compiled. The sources
+     * are checked no more often than the configured script check interval.
+     * 
+     * @param compiled      the cached script
+     * 
+     * @return true if a source of the script has been modified
+     */
+    private boolean isModified(CompiledScript compiled)
+    {
+        if (this.scriptCheckInterval < 0 || compiled.sources == null)
+        {
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        if (now - compiled.lastChecked < this.scriptCheckInterval)
+        {
+            return false;
+        }
+        compiled.lastChecked = now;
+        for (int i = 0; i < compiled.sources.length; i++)
+        {
+            if (getLastModified(compiled.sources[i]) != compiled.lastModified[i])
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * @param content       script content
+     * 
+     * @return the last modified time of the script content, -1 if not known
+     */
+    private static long getLastModified(ScriptContent content)
+    {
+        return (content instanceof TimestampedScriptContent) ? ((TimestampedScriptContent)content).getLastModified() : -1L;
+    }
+    
+    /**
+     * @return a new, empty cache of runtime compiled scripts bounded by the configured limits
+     */
+    private TinyLfuCache<String, CompiledScript> createScriptCache()
+    {
+        if (this.scriptCacheWeight > 0)
+        {
+            return new TinyLfuCache<String, CompiledScript>(this.scriptCacheWeight, new TinyLfuCache.Weigher<String, CompiledScript>()
+            {
+                public int weigh(String key, CompiledScript value)
+                {
+                    return value.weight;
+                }
+            }, 0L);
+        }
+        return new TinyLfuCache<String, CompiledScript>(this.scriptCacheSize);
+    }
+
     /* (non-Javadoc)
      * @see org.alfresco.web.scripts.ScriptProcessor#unwrapValue(java.lang.Object)
      */
@@ -371,6 +815,50 @@ public class JSScriptProcessor extends AbstractScriptProcessor implements Script
         this.scriptCache.clear();
     }
     
+    /* (non-Javadoc)
+     * @see org.springframework.extensions.webscripts.processor.BaseProcessor#registerProcessorExtension(org.springframework.extensions.surf.core.processor.ProcessorExtension)
+     */
+    public void registerProcessorExtension(ProcessorExtension processorExtension)
+    {
+        super.registerProcessorExtension(processorExtension);
+        this.extensionScopes = null;
+    }
+    
+    /**
+     * Enter a context for script execution - the context of the current thread is reused when scopes are prepared.
+     * 
+     * @return the context, to be exited with {@link Context#exit()}
+     */
+    private Context enterContext()
+    {
+        if (this.prepareScopes == false || Context.getCurrentContext() != null)
+        {
+            return Context.enter();
+        }
+        Context cx = this.threadContext.get();
+        if (cx == null)
+        {
+            cx = Context.enter();
+            this.threadContext.set(cx);
+            return cx;
+        }
+        return ContextFactory.getGlobal().enterContext(cx);
+    }
+    
+    /**
+     * @return the sealed scopes holding the processor extensions, built if necessary
+     */
+    private ExtensionScopes getExtensionScopes()
+    {
+        ExtensionScopes scopes = this.extensionScopes;
+        if (scopes == null)
+        {
+            scopes = new ExtensionScopes(this.secureScope, this.nonSecureScope, this.processorExtensions.values());
+            this.extensionScopes = scopes;
+        }
+        return scopes;
+    }
+    
     /**
      * Inits the processor.
      */
@@ -399,6 +887,8 @@ public class JSScriptProcessor extends AbstractScriptProcessor implements Script
         {
             Context.exit();
         }
+        
+        this.extensionScopes = null;
     }
     
     /**
@@ -465,6 +955,72 @@ public class JSScriptProcessor extends AbstractScriptProcessor implements Script
     }
 
 
+    /**
+     * Sealed scopes holding the processor extensions over each of the shared sealed scopes
+     */
+    private static class ExtensionScopes
+    {
+        final Scriptable secureScope;
+        final Scriptable nonSecureScope;
+        final Set<String> names = new HashSet<String>();
+        
+        ExtensionScopes(Scriptable secureScope, Scriptable nonSecureScope, Iterable<ProcessorExtension> extensions)
+        {
+            for (ProcessorExtension ex : extensions)
+            {
+                this.names.add(ex.getExtensionName());
+            }
+            this.secureScope = createScope(secureScope, extensions);
+            this.nonSecureScope = createScope(nonSecureScope, extensions);
+        }
+        
+        private static Scriptable createScope(Scriptable sharedScope, Iterable<ProcessorExtension> extensions)
+        {
+            NativeObject scope = new NativeObject();
+            scope.setPrototype(sharedScope);
+            scope.setParentScope(null);
+            for (ProcessorExtension ex : extensions)
+            {
+                scope.put(ex.getExtensionName(), scope, ex);
+            }
+            scope.sealObject();
+            return scope;
+        }
+    }
+    
+    /**
+     * Runtime compiled script together with the sources it was compiled from
+     */
+    private static class CompiledScript
+    {
+        final Script script;
+        final int weight;
+        final ScriptContent[] sources;
+        final long[] lastModified;
+        volatile long lastChecked;
+        
+        CompiledScript(Script script, int weight, List<ScriptContent> sources, List<Long> lastModified)
+        {
+            this.script = script;
+            this.weight = weight;
+            if (sources != null)
+            {
+                this.sources = sources.toArray(new ScriptContent[sources.size()]);
+                this.lastModified = new long[sources.size()];
+                for (int i = 0; i < this.lastModified.length; i++)
+                {
+                    this.lastModified[i] = lastModified.get(i);
+                }
+                this.lastChecked = System.currentTimeMillis();
+            }
+            else
+            {
+                this.sources = null;
+                this.lastModified = null;
+            }
+        }
+    }
+    
     /**
      * Wrap Factory for Rhino Script Engine
      * 
@@ -0,0 +1,309 @@
+/**
+ * Copyright (C) 2005-2009 Alfresco Software Limited.
+ *
+ * This file is part of the Spring Surf Extension project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.extensions.webscripts.processor;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.mozilla.javascript.CompilerEnvirons;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.DefiningClassLoader;
+import org.mozilla.javascript.RhinoException;
+import org.mozilla.javascript.Script;
+import org.mozilla.javascript.optimizer.ClassCompiler;
+
+
+/**
+ * On-disk cache of compiled Rhino script classes.
+ * <p>
+ * Scripts are compiled to Java classes with the settings of the calling {@link Context} and the
+ * class files written to the cache directory, keyed by a hash of the script source (with its imports
+ * resolved), the script path and the compiler settings. A later compilation of the same source - for
+ * instance after a restart - defines the stored classes instead of compiling the script again. The
+ * classes of each script are defined by a class loader of their own, so they may be collected with
+ * the script.
+ * <p>
+ * Edited scripts hash to new entries; the cache directory may be emptied at any time.
+ */
+public class ScriptClassCache
+{
+    private static final Log logger = LogFactory.getLog(ScriptClassCache.class);
+
+    static final int MAGIC = 0x57534a53;
+    private static final String CLASS_PREFIX = "org.springframework.extensions.webscripts.processor.compiled.Script_";
+    private static final String FILE_SUFFIX = ".jsc";
+
+    private final File directory;
+
+    /**
+     * @param directory  directory to hold the compiled script classes, created if necessary
+     */
+    public ScriptClassCache(File directory)
+    {
+        this.directory = directory;
+    }
+
+    /**
+     * @return  the cache directory
+     */
+    public File getDirectory()
+    {
+        return directory;
+    }
+
+    /**
+     * Get the compiled form of the given script, compiling and storing it if not already cached
+     *
+     * @param cx  current context, supplying the compiler settings and application class loader
+     * @param source  script source with imports resolved
+     * @param path  script path, used as the source name
+     * @return  the compiled script, or null if the script could not be compiled to classes (the
+     *          caller should fall back to {@link Context#compileString})
+     * @throws RhinoException  if the script has errors
+     */
+    public Script getScript(Context cx, String source, String path)
+    {
+        CompilerEnvirons compilerEnv = new CompilerEnvirons();
+        compilerEnv.initFromContext(cx);
+        String key = getKey(cx, compilerEnv, source, path);
+        File file = new File(directory, key + FILE_SUFFIX);
+
+        Object[] classes = null;
+        if (file.exists())
+        {
+            try
+            {
+                classes = read(file, path);
+            }
+            catch (IOException e)
+            {
+                if (logger.isWarnEnabled())
+                    logger.warn("Discarding unreadable compiled script " + file + ": " + e.getMessage());
+            }
+            catch (RuntimeException e)
+            {
+                if (logger.isWarnEnabled())
+                    logger.warn("Discarding unreadable compiled script " + file + ": " + e);
+            }
+            if (classes != null)
+            {
+                try
+                {
+                    Script script = define(cx, classes);
+                    if (logger.isDebugEnabled())
+                        logger.debug("Loaded compiled script " + path + " from " + file);
+                    return script;
+                }
+                catch (LinkageError e)
+                {
+                    // corrupted, or written by an incompatible version of Rhino
+                    if (logger.isWarnEnabled())
+                        logger.warn("Discarding invalid compiled script " + file + ": " + e);
+                    classes = null;
+                }
+            }
+            file.delete();
+        }
+
+        if (classes == null)
+        {
+            try
+            {
+                classes = new ClassCompiler(compilerEnv).compileToClassFiles(source, path, 1, CLASS_PREFIX + key);
+            }
+            catch (RhinoException e)
+            {
+                throw e;
+            }
+            catch (RuntimeException e)
+            {
+                // e.g. class file limits exceeded - the interpreter copes with these
+                if (logger.isDebugEnabled())
+                    logger.debug("Unable to compile script " + path + " to classes: " + e.getMessage());
+                return null;
+            }
+            try
+            {
+                write(file, path, classes);
+            }
+            catch (IOException e)
+            {
+                if (logger.isWarnEnabled())
+                    logger.warn("Unable to store compiled script " + path + " in " + file + ": " + e.getMessage());
+            }
+        }
+
+        return define(cx, classes);
+    }
+
+    /**
+     * Define the given classes in a class loader of their own and instantiate the script
+     *
+     * @param cx  current context
+     * @param classes  alternating class names and class file bytes, script class first
+     * @return  script instance
+     */
+    private static Script define(Context cx, Object[] classes)
+    {
+        DefiningClassLoader loader = new DefiningClassLoader(cx.getApplicationClassLoader());
+        Class<?> scriptClass = null;
+        for (int i = 0; i < classes.length; i += 2)
+        {
+            Class<?> c = loader.defineClass((String)classes[i], (byte[])classes[i + 1]);
+            if (i == 0)
+            {
+                scriptClass = c;
+            }
+        }
+        loader.linkClass(scriptClass);
+        try
+        {
+            return (Script)scriptClass.getDeclaredConstructor().newInstance();
+        }
+        catch (ReflectiveOperationException e)
+        {
+            throw new IllegalStateException("Unable to instantiate compiled script " + scriptClass.getName(), e);
+        }
+    }
+
+    /**
+     * Compute the cache key of a script
+     */
+    private static String getKey(Context cx, CompilerEnvirons compilerEnv, String source, String path)
+    {
+        MessageDigest digest;
+        try
+        {
+            digest = MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new IllegalStateException("Unable to compute compiled script key", e);
+        }
+        String settings = cx.getImplementationVersion() + ':' + compilerEnv.getOptimizationLevel() + ':' +
+                compilerEnv.getLanguageVersion() + ':' + compilerEnv.isGenerateDebugInfo() + ':' +
+                compilerEnv.isStrictMode() + '\n' + path + '\n';
+        digest.update(settings.getBytes(StandardCharsets.UTF_8));
+        digest.update(source.getBytes(StandardCharsets.UTF_8));
+
+        StringBuilder key = new StringBuilder(64);
+        for (byte b : digest.digest())
+        {
+            key.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return key.toString();
+    }
+
+    /**
+     * Read the classes of a compiled script
+     *
+     * The class count and lengths are checked against the bytes remaining in the file before anything is
+     * allocated, so a corrupted entry is reported as an IOException rather than exhausting the heap.
+     * 
+     * @return  alternating class names and class file bytes, or null if the file was written for another path
+     */
+    private static Object[] read(File file, String path) throws IOException
+    {
+        long length = file.length();
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try
+        {
+            if (in.readInt() != MAGIC || !path.equals(in.readUTF()))
+            {
+                return null;
+            }
+            int count = in.readInt();
+            // each class takes at least the 2 byte length of its name and the 4 byte length of its bytes
+            if (count <= 0 || count > in.available() / 6)
+            {
+                throw new IOException("Invalid class count " + count);
+            }
+            Object[] classes = new Object[count * 2];
+            for (int i = 0; i < classes.length; i += 2)
+            {
+                classes[i] = in.readUTF();
+                int size = in.readInt();
+                if (size < 0 || size > length || size > in.available())
+                {
+                    throw new IOException("Invalid class length " + size);
+                }
+                byte[] bytes = new byte[size];
+                in.readFully(bytes);
+                classes[i + 1] = bytes;
+            }
+            return classes;
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Write the classes of a compiled script - via a temporary file, so concurrent readers never see a partial entry
+     */
+    private void write(File file, String path, Object[] classes) throws IOException
+    {
+        if (!directory.exists() && !directory.mkdirs() && !directory.exists())
+        {
+            throw new IOException("Unable to create directory " + directory);
+        }
+        File temp = File.createTempFile("script", ".tmp", directory);
+        try
+        {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            try
+            {
+                out.writeInt(MAGIC);
+                out.writeUTF(path);
+                out.writeInt(classes.length / 2);
+                for (int i = 0; i < classes.length; i += 2)
+                {
+                    byte[] bytes = (byte[])classes[i + 1];
+                    out.writeUTF((String)classes[i]);
+                    out.writeInt(bytes.length);
+                    out.write(bytes);
+                }
+            }
+            finally
+            {
+                out.close();
+            }
+            if (!temp.renameTo(file) && !file.exists())
+            {
+                throw new IOException("Unable to rename " + temp + " to " + file);
+            }
+        }
+        finally
+        {
+            temp.delete();
+        }
+    }
+}
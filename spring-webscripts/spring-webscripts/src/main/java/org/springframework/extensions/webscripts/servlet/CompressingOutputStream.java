@@ -0,0 +1,249 @@
+/**
+ * Copyright (C) 2005-2009 Alfresco Software Limited.
+ *
+ * This file is part of the Spring Surf Extension project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.extensions.webscripts.servlet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import jakarta.servlet.http.HttpServletResponse;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+
+/**
+ * Output stream which compresses a HTTP Servlet Response with a negotiated content encoding.
+ *
+ * The first bytes written, up to the minimum compression size, are buffered to decide whether the response
+ * is worth compressing; after that the response is compressed (or not) as it is streamed. A Content-Length
+ * set before the decision is held back and only applied to an uncompressed response.
+ */
+class CompressingOutputStream extends OutputStream
+{
+    private static final Log logger = LogFactory.getLog(CompressingOutputStream.class);
+
+    private static final String HEADER_CONTENT_ENCODING = "Content-Encoding";
+    private static final String HEADER_CONTENT_LENGTH = "Content-Length";
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_VARY = "Vary";
+
+    private final HttpServletResponse res;
+    private final ResponseCompression compression;
+    private final String encoding;
+    private byte[] buffer;
+    private int count = 0;
+    private String contentLength = null;
+    private OutputStream out = null;
+    private DeflaterOutputStream compressor = null;
+    private Deflater deflater = null;
+    private boolean finished = false;
+
+    /**
+     * Construct
+     *
+     * @param res  HTTP Servlet Response
+     * @param compression  compression configuration
+     * @param encoding  negotiated content encoding
+     */
+    CompressingOutputStream(HttpServletResponse res, ResponseCompression compression, String encoding)
+    {
+        this.res = res;
+        this.compression = compression;
+        this.encoding = encoding;
+        this.buffer = new byte[Math.max(compression.getMinSize(), 0)];
+    }
+
+    /**
+     * @return  true once it is decided whether the response is compressed
+     */
+    boolean isDecided()
+    {
+        return out != null;
+    }
+
+    /**
+     * @return  true if the response is compressed
+     */
+    boolean isCompressed()
+    {
+        return compressor != null;
+    }
+
+    /**
+     * Hold back the Content-Length of the response until it is known whether the response is compressed
+     *
+     * @param contentLength  Content-Length header value
+     */
+    void setContentLength(String contentLength)
+    {
+        this.contentLength = contentLength;
+    }
+
+    @Override
+    public void write(int b) throws IOException
+    {
+        if (out == null)
+        {
+            if (count < buffer.length)
+            {
+                buffer[count++] = (byte)b;
+                return;
+            }
+            decide(true);
+        }
+        out.write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException
+    {
+        if (out == null)
+        {
+            if (count + len <= buffer.length)
+            {
+                System.arraycopy(b, off, buffer, count, len);
+                count += len;
+                return;
+            }
+            decide(true);
+        }
+        out.write(b, off, len);
+    }
+
+    /**
+     * Flushing before the minimum size is reached sends the response uncompressed
+     */
+    @Override
+    public void flush() throws IOException
+    {
+        if (out == null)
+        {
+            if (count == 0)
+            {
+                return;
+            }
+            decide(false);
+        }
+        out.flush();
+    }
+
+    /**
+     * Complete the compressed stream, leaving the underlying servlet stream open
+     */
+    void finish() throws IOException
+    {
+        if (finished)
+        {
+            return;
+        }
+        finished = true;
+        if (out == null)
+        {
+            if (count == 0)
+            {
+                // nothing written through this stream
+                if (contentLength != null)
+                {
+                    res.setHeader(HEADER_CONTENT_LENGTH, contentLength);
+                }
+                return;
+            }
+            decide(false);
+        }
+        try
+        {
+            if (compressor != null)
+            {
+                compressor.finish();
+            }
+            out.flush();
+        }
+        finally
+        {
+            if (deflater != null)
+            {
+                deflater.end();
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        finish();
+    }
+
+    /**
+     * Decide whether to compress the response and write out the buffered bytes
+     *
+     * @param large  true if the response has grown beyond the minimum size
+     */
+    private void decide(boolean large) throws IOException
+    {
+        OutputStream raw = res.getOutputStream();
+        if (large && isCompressible())
+        {
+            res.setHeader(HEADER_CONTENT_ENCODING, encoding);
+            res.addHeader(HEADER_VARY, "Accept-Encoding");
+            String eTag = res.getHeader(HEADER_ETAG);
+            if (eTag != null && eTag.startsWith("\""))
+            {
+                // the compressed representation is not byte-for-byte identical
+                res.setHeader(HEADER_ETAG, "W/" + eTag);
+            }
+            if (ResponseCompression.GZIP.equals(encoding))
+            {
+                compressor = new GZIPOutputStream(raw, 8192, true);
+            }
+            else
+            {
+                deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+                compressor = new DeflaterOutputStream(raw, deflater, 8192, true);
+            }
+            out = compressor;
+
+            if (logger.isDebugEnabled())
+                logger.debug("Compressing response with " + encoding);
+        }
+        else
+        {
+            if (contentLength != null)
+            {
+                res.setHeader(HEADER_CONTENT_LENGTH, contentLength);
+            }
+            out = raw;
+        }
+        if (count > 0)
+        {
+            out.write(buffer, 0, count);
+        }
+        buffer = null;
+    }
+
+    private boolean isCompressible()
+    {
+        int status = res.getStatus();
+        return status != HttpServletResponse.SC_NO_CONTENT && status != HttpServletResponse.SC_NOT_MODIFIED &&
+               !res.isCommitted() && !res.containsHeader(HEADER_CONTENT_ENCODING) &&
+               compression.isCompressible(res.getContentType());
+    }
+}
@@ -0,0 +1,186 @@
+/**
+ * Copyright (C) 2005-2009 Alfresco Software Limited.
+ *
+ * This file is part of the Spring Surf Extension project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.extensions.webscripts.servlet;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.StringTokenizer;
+
+
+/**
+ * Configuration of the compression of Web Script Servlet responses.
+ *
+ * Responses are compressed with the encoding (gzip or deflate) negotiated from the request's Accept-Encoding
+ * header when their content type is in the allowed list and they grow beyond the minimum size. Compression is
+ * applied while the response is streamed - only the first minimum size bytes are buffered, to decide.
+ *
+ * Enable by naming the bean in the "compression" initialisation parameter of the Web Script Servlet.
+ */
+public class ResponseCompression
+{
+    public static final String GZIP = "gzip";
+    public static final String DEFLATE = "deflate";
+
+    private int minSize = 2048;
+    private boolean gzip = true;
+    private boolean deflate = true;
+    private Set<String> mimetypes = new HashSet<String>(Arrays.asList(
+            "text/html", "text/plain", "text/css", "text/xml", "text/csv", "text/javascript",
+            "application/json", "application/javascript", "application/xml", "application/atom+xml",
+            "application/rss+xml", "application/xhtml+xml", "image/svg+xml"));
+
+    /**
+     * @param minSize  minimum size in bytes of responses to compress
+     */
+    public void setMinSize(int minSize)
+    {
+        this.minSize = minSize;
+    }
+
+    /**
+     * @return  minimum size in bytes of responses to compress
+     */
+    public int getMinSize()
+    {
+        return minSize;
+    }
+
+    /**
+     * @param gzip  true to allow gzip encoding
+     */
+    public void setGzip(boolean gzip)
+    {
+        this.gzip = gzip;
+    }
+
+    /**
+     * @param deflate  true to allow deflate encoding
+     */
+    public void setDeflate(boolean deflate)
+    {
+        this.deflate = deflate;
+    }
+
+    /**
+     * @param mimetypes  mimetypes of the responses that may be compressed
+     */
+    public void setMimetypes(List<String> mimetypes)
+    {
+        Set<String> set = new HashSet<String>(mimetypes.size() * 2);
+        for (String mimetype : mimetypes)
+        {
+            set.add(mimetype.trim().toLowerCase(Locale.ENGLISH));
+        }
+        this.mimetypes = set;
+    }
+
+    /**
+     * Determine whether a response of the given content type may be compressed
+     *
+     * @param contentType  response content type, possibly with parameters
+     * @return  true if the content type is in the allowed list
+     */
+    public boolean isCompressible(String contentType)
+    {
+        if (contentType == null)
+        {
+            return false;
+        }
+        int separator = contentType.indexOf(';');
+        String mimetype = (separator == -1 ? contentType : contentType.substring(0, separator)).trim();
+        return mimetypes.contains(mimetype.toLowerCase(Locale.ENGLISH));
+    }
+
+    /**
+     * Select the content encoding for a response from the request's Accept-Encoding header
+     *
+     * @param acceptEncoding  Accept-Encoding request header, may be null
+     * @return  "gzip", "deflate" or null if the response should not be compressed
+     */
+    public String negotiate(String acceptEncoding)
+    {
+        if (acceptEncoding == null || acceptEncoding.length() == 0)
+        {
+            return null;
+        }
+        // unlisted encodings take the quality of "*", if present
+        float gzipQuality = -1f;
+        float deflateQuality = -1f;
+        float anyQuality = 0f;
+        StringTokenizer tokens = new StringTokenizer(acceptEncoding, ",");
+        while (tokens.hasMoreTokens())
+        {
+            String token = tokens.nextToken().trim();
+            float quality = 1f;
+            int separator = token.indexOf(';');
+            if (separator != -1)
+            {
+                String param = token.substring(separator + 1).trim();
+                token = token.substring(0, separator).trim();
+                if (param.startsWith("q="))
+                {
+                    try
+                    {
+                        quality = Float.parseFloat(param.substring(2));
+                    }
+                    catch (NumberFormatException e)
+                    {
+                        quality = 0f;
+                    }
+                }
+            }
+            if (token.equalsIgnoreCase(GZIP) || token.equalsIgnoreCase("x-gzip"))
+            {
+                gzipQuality = quality;
+            }
+            else if (token.equalsIgnoreCase(DEFLATE))
+            {
+                deflateQuality = quality;
+            }
+            else if (token.equals("*"))
+            {
+                anyQuality = quality;
+            }
+        }
+        if (gzipQuality < 0f)
+        {
+            gzipQuality = anyQuality;
+        }
+        if (deflateQuality < 0f)
+        {
+            deflateQuality = anyQuality;
+        }
+        if (!gzip)
+        {
+            gzipQuality = 0f;
+        }
+        if (!deflate)
+        {
+            deflateQuality = 0f;
+        }
+        if (gzipQuality > 0f && gzipQuality >= deflateQuality)
+        {
+            return GZIP;
+        }
+        return deflateQuality > 0f ? DEFLATE : null;
+    }
+}
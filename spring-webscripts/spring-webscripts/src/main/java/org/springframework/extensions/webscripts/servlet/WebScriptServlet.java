@@ -53,6 +53,7 @@ public class WebScriptServlet extends HttpServlet
     // Component Dependencies
     protected RuntimeContainer container;
     protected ServletAuthenticatorFactory authenticatorFactory;
+    protected ResponseCompression responseCompression;
     protected ConfigService configService;
 
     /** Host Server Configuration */
@@ -86,6 +87,18 @@ public class WebScriptServlet extends HttpServlet
             authenticatorFactory = (ServletAuthenticatorFactory)bean;
         }
         
+        // retrieve response compression
+        String compressionId = getInitParameter("compression");
+        if (compressionId != null && compressionId.length() > 0)
+        {
+            Object bean = context.getBean(compressionId);
+            if (!(bean instanceof ResponseCompression))
+            {
+                throw new ServletException("Initialisation parameter 'compression' does not refer to a response compression (" + compressionId + ")");
+            }
+            responseCompression = (ResponseCompression)bean;
+        }
+        
         // retrieve host server configuration 
         Config config = configService.getConfig("Server");
         serverProperties = (ServerConfigElement)config.getConfigElement(ServerConfigElement.CONFIG_ELEMENT_ID);
@@ -94,7 +107,7 @@ public class WebScriptServlet extends HttpServlet
         initServlet(context);
         
         if (logger.isDebugEnabled())
-            logger.debug("Initialised Web Script Servlet (authenticator='" + authenticatorId + "')");
+            logger.debug("Initialised Web Script Servlet (authenticator='" + authenticatorId + "', compression='" + compressionId + "')");
     }
 
     /* (non-Javadoc) 
@@ -115,6 +128,7 @@ public class WebScriptServlet extends HttpServlet
         try
         {
             WebScriptServletRuntime runtime = new WebScriptServletRuntime(container, authenticatorFactory, req, res, serverProperties);
+            runtime.setResponseCompression(responseCompression);
             if (req.getMethod().equals(HttpMethod.OPTIONS.name()))
             {
                 // respond to OPTIONS request with list of support methods for the WebScript
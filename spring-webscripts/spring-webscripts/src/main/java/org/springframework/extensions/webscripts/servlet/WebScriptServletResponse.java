@@ -20,6 +20,8 @@ package org.springframework.extensions.webscripts.servlet;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
 import java.io.Writer;
 import java.text.SimpleDateFormat;
 import java.util.Collection;
@@ -53,6 +55,12 @@ public class WebScriptServletResponse extends WebScriptResponseImpl
     // Servlet Response
     private HttpServletResponse res;
 
+    // Response compression, when negotiated
+    private ResponseCompression compression;
+    private String compressionEncoding;
+    private CompressingOutputStream compressingStream;
+    private PrintWriter compressingWriter;
+
     
     /**
      * Construct
@@ -75,6 +83,35 @@ public class WebScriptServletResponse extends WebScriptResponseImpl
     {
         return res;
     }
+
+    /**
+     * Compress the response with the given content encoding
+     * 
+     * @param compression  compression configuration
+     * @param encoding  content encoding negotiated with the client
+     */
+    public void setCompression(ResponseCompression compression, String encoding)
+    {
+        this.compression = compression;
+        this.compressionEncoding = encoding;
+    }
+
+    /**
+     * Complete the response - finishing its compression, if any
+     * 
+     * @throws IOException
+     */
+    public void finish() throws IOException
+    {
+        if (compressingWriter != null)
+        {
+            compressingWriter.flush();
+        }
+        if (compressingStream != null)
+        {
+            compressingStream.finish();
+        }
+    }
     
     /* (non-Javadoc)
      * @see org.alfresco.web.scripts.WebScriptResponse#setStatus(int)
@@ -89,6 +126,11 @@ public class WebScriptServletResponse extends WebScriptResponseImpl
      */
     public void setHeader(String name, String value)
     {
+        if (isContentLengthHeld(name))
+        {
+            getCompressingStream().setContentLength(value);
+            return;
+        }
         res.setHeader(name, formatHeaderValue(value));
     }
 
@@ -97,9 +139,33 @@ public class WebScriptServletResponse extends WebScriptResponseImpl
      */
     public void addHeader(String name, String value)
     {
+        if (isContentLengthHeld(name))
+        {
+            getCompressingStream().setContentLength(value);
+            return;
+        }
         res.addHeader(name, formatHeaderValue(value));
     }
 
+    /*
+     * The length of the response is not known until it is decided whether it is compressed,
+     * and does not apply to a compressed response
+     */
+    private boolean isContentLengthHeld(String name)
+    {
+        return compression != null && "Content-Length".equalsIgnoreCase(name) &&
+               (compressingStream == null || !compressingStream.isDecided() || compressingStream.isCompressed());
+    }
+
+    private CompressingOutputStream getCompressingStream()
+    {
+        if (compressingStream == null)
+        {
+            compressingStream = new CompressingOutputStream(res, compression, compressionEncoding);
+        }
+        return compressingStream;
+    }
+
     /*
      * Formats, if necessary, multiline header value in order to comply with RFC2616 :
      * Header fields can be extended over multiple lines by preceding
@@ -214,6 +280,8 @@ public class WebScriptServletResponse extends WebScriptResponseImpl
      */
     public void reset()
     {
+        compressingStream = null;
+        compressingWriter = null;
         try
         {
             res.reset();
@@ -264,7 +332,15 @@ public class WebScriptServletResponse extends WebScriptResponseImpl
      */
     public Writer getWriter() throws IOException
     {
-        return res.getWriter();
+        if (compression == null)
+        {
+            return res.getWriter();
+        }
+        if (compressingWriter == null)
+        {
+            compressingWriter = new PrintWriter(new OutputStreamWriter(getCompressingStream(), res.getCharacterEncoding()));
+        }
+        return compressingWriter;
     }
 
     /* (non-Javadoc)
@@ -272,7 +348,11 @@ public class WebScriptServletResponse extends WebScriptResponseImpl
      */
     public OutputStream getOutputStream() throws IOException
     {
-        return res.getOutputStream();
+        if (compression == null)
+        {
+            return res.getOutputStream();
+        }
+        return getCompressingStream();
     }
 
     /* (non-Javadoc)
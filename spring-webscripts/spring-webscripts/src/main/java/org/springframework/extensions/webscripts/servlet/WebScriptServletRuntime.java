@@ -18,6 +18,7 @@
 
 package org.springframework.extensions.webscripts.servlet;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -50,6 +51,7 @@ public class WebScriptServletRuntime extends AbstractRuntime
     protected WebScriptServletRequest servletReq;
     protected WebScriptServletResponse servletRes;
     protected WebScriptServletSession servletSession;
+    protected ResponseCompression responseCompression;
     
 
     /**
@@ -69,6 +71,16 @@ public class WebScriptServletRuntime extends AbstractRuntime
         this.res = res;
         this.serverProperties = serverProperties;
     }
+
+    /**
+     * Sets the compression of the Web Script responses, negotiated with the client
+     * 
+     * @param responseCompression ResponseCompression, or null for none
+     */
+    public void setResponseCompression(ResponseCompression responseCompression)
+    {
+        this.responseCompression = responseCompression;
+    }
     
     /* (non-Javadoc)
      * @see org.alfresco.web.scripts.WebScriptRuntime#getScriptMethod()
@@ -147,9 +159,29 @@ public class WebScriptServletRuntime extends AbstractRuntime
         // TODO: construct org.springframework.extensions.webscripts.servlet.WebScriptServletResponse when
         //       org.alfresco.web.scripts.WebScriptServletResponse (deprecated) is removed
         servletRes = new WebScriptServletResponse(this, res);
+        if (responseCompression != null)
+        {
+            String encoding = responseCompression.negotiate(req.getHeader("Accept-Encoding"));
+            if (encoding != null)
+            {
+                servletRes.setCompression(responseCompression, encoding);
+            }
+        }
         return servletRes;
     }
 
+    /* (non-Javadoc)
+     * @see org.springframework.extensions.webscripts.AbstractRuntime#completeResponse()
+     */
+    @Override
+    protected void completeResponse() throws IOException
+    {
+        if (servletRes != null)
+        {
+            servletRes.finish();
+        }
+    }
+
     /* (non-Javadoc)
      * @see org.alfresco.web.scripts.AbstractRuntime#createAuthenticator()
      */
@@ -18,13 +18,28 @@
 
 package org.springframework.extensions.webscripts.servlet.mvc;
 
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.StringTokenizer;
+import java.util.UUID;
+import java.util.zip.GZIPOutputStream;
 
 import jakarta.servlet.RequestDispatcher;
 import jakarta.servlet.ServletException;
@@ -33,8 +48,12 @@ import jakarta.servlet.http.HttpServletResponse;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.BeansException;
 import org.springframework.core.io.Resource;
+import org.springframework.extensions.surf.util.TinyLfuCache;
+import org.springframework.extensions.webscripts.servlet.ResponseCompression;
 import org.springframework.util.ClassUtils;
+import org.springframework.util.ResourceUtils;
 import org.springframework.web.context.support.ServletContextResource;
 import org.springframework.web.servlet.HandlerMapping;
 import org.springframework.web.servlet.ModelAndView;
@@ -52,6 +71,19 @@ import org.springframework.web.servlet.mvc.AbstractController;
  * <p>
  * The order allows resource assets to be overriden in jar file or classpath based extensions.
  * <p>
+ * The location each path resolves to is cached, as is the content of small resources - together with a
+ * pre-compressed gzip variant for compressible content types and a strong ETag, so that conditional
+ * requests are answered with 304 Not Modified. The memory used by cached content is bounded by the
+ * cacheMaxWeight property; set it to zero to disable content caching. A cached location is checked
+ * against the last modified time of the resource every checkInterval milliseconds, and resolved again
+ * with its content if the resource has changed. Paths that resolve to no resource are not cached.
+ * <p>
+ * If a JAR or classpath resource cannot be read, the locations after it are tried in turn.
+ * <p>
+ * Byte range requests (Range / If-Range) are supported with single and multipart/byteranges responses.
+ * Resources resolved to plain files are streamed with FileChannel transfers - or handed to the servlet
+ * container's sendfile support where available - rather than copied through a heap buffer.
+ * <p>
  * The following URL format is supported:
  * <code>
  *    /res/<path>
@@ -68,6 +100,31 @@ public class ResourceController extends AbstractController
     private static final String HTTP_HEADER_LAST_MODIFIED = "Last-Modified";
     private static final String HTTP_HEADER_ETAG = "ETag";
     private static final String HTTP_HEADER_CACHE_CONTROL = "Cache-Control";
+    private static final String HTTP_HEADER_CONTENT_ENCODING = "Content-Encoding";
+    private static final String HTTP_HEADER_VARY = "Vary";
+    private static final String HTTP_HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+    private static final String HTTP_HEADER_IF_NONE_MATCH = "If-None-Match";
+    private static final String HTTP_HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+    private static final String HTTP_HEADER_ACCEPT_RANGES = "Accept-Ranges";
+    private static final String HTTP_HEADER_RANGE = "Range";
+    private static final String HTTP_HEADER_IF_RANGE = "If-Range";
+    private static final String HTTP_HEADER_CONTENT_RANGE = "Content-Range";
+    
+    private static final String BYTES_UNIT = "bytes";
+    
+    /** locations of resources, in lookup order */
+    private static final int SOURCE_JAR = 0;
+    private static final int SOURCE_CLASSPATH = 1;
+    private static final int SOURCE_SERVLET_CONTEXT = 2;
+    
+    /** maximum number of ranges served for a request - more is taken as a full request */
+    private static final int MAX_RANGES = 16;
+    
+    /** Tomcat sendfile request attributes */
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
     
     private static final Map<String, String> defaultMimeTypes = new HashMap<String, String>();
     {
@@ -87,6 +144,24 @@ public class ResourceController extends AbstractController
     /** allow for a default redirection url to be provided */
     private String defaultUrl;
     
+    /** maximum number of resolved resource locations to cache */
+    private int resolutionCacheSize = 4096;
+    
+    /** maximum total size in bytes of cached resource content (including compressed variants) */
+    private long cacheMaxWeight = 16L * 1024L * 1024L;
+    
+    /** maximum size in bytes of a resource for its content to be cached */
+    private int cacheMaxEntrySize = 256 * 1024;
+    
+    /** interval in milliseconds between checks of a cached location against its resource */
+    private long checkInterval = 5000L;
+    
+    private TinyLfuCache<String, ResourceLocation> resolutionCache;
+    private TinyLfuCache<String, CachedResource> resourceCache;
+    
+    /** content types to pre-compress and gzip negotiation */
+    private final ResponseCompression compression = new ResponseCompression();
+    
     /** Thread local stream byte buffer */
     private ThreadLocal<byte[]> streamBuffer = new ThreadLocal<byte[]>()
     {
@@ -117,6 +192,81 @@ public class ResourceController extends AbstractController
     {
         return this.defaultUrl;
     }
+    
+    /**
+     * Sets the maximum number of resolved resource locations to cache - zero to disable
+     * 
+     * @param resolutionCacheSize the resolution cache size
+     */
+    public void setResolutionCacheSize(int resolutionCacheSize)
+    {
+        this.resolutionCacheSize = resolutionCacheSize;
+    }
+    
+    /**
+     * Sets the maximum total size in bytes of cached resource content - zero to disable
+     * 
+     * @param cacheMaxWeight the memory budget of the resource cache
+     */
+    public void setCacheMaxWeight(long cacheMaxWeight)
+    {
+        this.cacheMaxWeight = cacheMaxWeight;
+    }
+    
+    /**
+     * Sets the maximum size in bytes of a resource for its content to be cached
+     * 
+     * @param cacheMaxEntrySize the maximum size of a cached resource
+     */
+    public void setCacheMaxEntrySize(int cacheMaxEntrySize)
+    {
+        this.cacheMaxEntrySize = cacheMaxEntrySize;
+    }
+    
+    /**
+     * Sets the interval at which a cached location is checked against the last modified time of its
+     * resource, so that changed resources are resolved and cached again
+     * 
+     * @param checkInterval interval in milliseconds, zero to check on every request, less than zero to never check
+     */
+    public void setCheckInterval(long checkInterval)
+    {
+        this.checkInterval = checkInterval;
+    }
+    
+    /**
+     * Clears the cached resource locations and content
+     */
+    public void clearCache()
+    {
+        if (resolutionCache != null)
+        {
+            resolutionCache.clear();
+        }
+        if (resourceCache != null)
+        {
+            resourceCache.clear();
+        }
+    }
+    
+    /* (non-Javadoc)
+     * @see org.springframework.context.support.ApplicationObjectSupport#initApplicationContext()
+     */
+    @Override
+    protected void initApplicationContext() throws BeansException
+    {
+        super.initApplicationContext();
+        compression.setDeflate(false);
+        resolutionCache = resolutionCacheSize > 0 ? new TinyLfuCache<String, ResourceLocation>(resolutionCacheSize) : null;
+        resourceCache = cacheMaxWeight > 0 ? new TinyLfuCache<String, CachedResource>(
+                cacheMaxWeight, new TinyLfuCache.Weigher<String, CachedResource>()
+                {
+                    public int weigh(String key, CachedResource value)
+                    {
+                        return value.getWeight();
+                    }
+                }, 0L) : null;
+    }
 
     /* (non-Javadoc)
      * @see org.alfresco.web.framework.mvc.AbstractController#createModelAndView(jakarta.servlet.http.HttpServletRequest, jakarta.servlet.http.HttpServletResponse)
@@ -146,79 +296,671 @@ public class ResourceController extends AbstractController
         if (debug) logger.debug("Attemping to dispatch resource: " + path);
         
         boolean resolved = false;
+        ResourceLocation location = resolveResource(path);
+        if (location.servletContextResource)
         {
-            // check JAR files
-            URL resourceUrl = ClassUtils.getDefaultClassLoader().getResource("META-INF/" + path);
-            if (resourceUrl != null)
+            // dispatch to resource
+            if (debug) logger.debug("...dispatching resource from web application ServletContext.");
+            CachedResource cached = getCachedResource(path, location);
+            if (cached != null)
+            {
+                commitResponse(path, cached, request, response);
+            }
+            else
+            {
+                commitResponse(path, new ServletContextResource(getServletContext(), "/" + path), request, response);
+            }
+            resolved = true;
+        }
+        while (!resolved && location.url != null && !location.servletContextResource)
+        {
+            if (debug) logger.debug("...dispatching resource from JAR or classpath location: " + location.url);
+            
+            // attempt to stream back
+            try
+            {
+                CachedResource cached = getCachedResource(path, location);
+                if (cached != null)
+                {
+                    commitResponse(path, cached, request, response);
+                }
+                else
+                {
+                    commitResponse(path, location.url, request, response);
+                }
+                resolved = true;
+            }
+            catch (IOException ioe)
             {
-                if (debug) logger.debug("...dispatching resource from JAR location: " + resourceUrl);
+                logger.info(ioe.getMessage());
+                if (debug) ioe.printStackTrace();
                 
-                // attempt to stream back
-                try
+                // resolve again next time, and try the locations after this one now
+                invalidate(path);
+                location = lookupResource(path, location.source + 1);
+                if (location.servletContextResource)
                 {
-                    commitResponse(path, resourceUrl, response);
+                    if (debug) logger.debug("...dispatching resource from web application ServletContext.");
+                    commitResponse(path, new ServletContextResource(getServletContext(), "/" + path), request, response);
                     resolved = true;
                 }
-                catch (IOException ioe)
+            }
+        }
+        
+        if (!resolved && defaultUrl != null)
+        {
+            if (debug) logger.debug("...handing off to Spring resource servlet: " + defaultUrl + "/" + path);
+            
+            // try to hand off to a default servlet context (compatibility with Spring JS resource servlet)
+            // use a forward here because the new servlet context may be different than the current servlet context
+            RequestDispatcher rd = this.getServletContext().getRequestDispatcher(defaultUrl + "/" + path);
+            rd.forward(request, response);
+            resolved = true;
+        }
+        
+        return resolved;
+    }
+    
+    /**
+     * Resolve the location of the resource with the given path - the location is cached if the resource
+     * exists, and resolved again if the resource has changed when it is next checked
+     * 
+     * @param path the path
+     * 
+     * @return the location of the resource, never null
+     */
+    protected ResourceLocation resolveResource(final String path)
+        throws IOException
+    {
+        ResourceLocation location = (resolutionCache != null ? resolutionCache.get(path) : null);
+        if (location != null && checkInterval >= 0)
+        {
+            final long now = System.currentTimeMillis();
+            if (now - location.checked >= checkInterval)
+            {
+                location.checked = now;
+                if (getLastModified(location.url) != location.lastModified)
                 {
-                    logger.info(ioe.getMessage());
-                    if (debug) ioe.printStackTrace();
+                    if (logger.isDebugEnabled())
+                        logger.debug("Resource has changed - resolving it again: " + path);
+                    invalidate(path);
+                    location = null;
                 }
             }
         }
+        if (location == null)
+        {
+            location = lookupResource(path, SOURCE_JAR);
+            if (resolutionCache != null && location.url != null)
+            {
+                resolutionCache.put(path, location);
+            }
+        }
+        return location;
+    }
+    
+    /**
+     * Remove the cached location and content of the resource with the given path
+     */
+    private void invalidate(final String path)
+    {
+        if (resolutionCache != null)
+        {
+            resolutionCache.remove(path);
+        }
+        if (resourceCache != null)
+        {
+            resourceCache.remove(path);
+        }
+    }
+    
+    /**
+     * Look up the location of the resource with the given path in the JAR files, classpath
+     * and web application in turn
+     * 
+     * @param path the path
+     * @param source the first source to look in - SOURCE_JAR to look in all of them
+     */
+    private ResourceLocation lookupResource(final String path, final int source)
+        throws IOException
+    {
+        // check JAR files
+        if (source <= SOURCE_JAR)
+        {
+            URL resourceUrl = ClassUtils.getDefaultClassLoader().getResource("META-INF/" + path);
+            if (resourceUrl != null)
+            {
+                return new ResourceLocation(resourceUrl, SOURCE_JAR);
+            }
+        }
         
-        if (!resolved)
+        // look up the resource in the resource provider
+        // (application context resources / classpath)
+        if (source <= SOURCE_CLASSPATH)
         {
-            // look up the resource in the resource provider
-            // (application context resources / classpath)
-            
-            // check the classpath
             Resource r = getApplicationContext().getResource("classpath*:" + path);
             if (r != null && r.exists())
             {
-                URL resourceUrl = r.getURL();
-                
-                if (debug) logger.debug("...dispatching resource from classpath location: " + resourceUrl);
-                
-                // stream back resource
-                try
+                return new ResourceLocation(r.getURL(), SOURCE_CLASSPATH);
+            }
+        }
+        
+        // serve back the resource from the web application (if it exists)
+        ServletContextResource resource = new ServletContextResource(getServletContext(), "/" + path);
+        if (resource.exists())
+        {
+            return new ResourceLocation(resource.getURL(), SOURCE_SERVLET_CONTEXT);
+        }
+        
+        return new ResourceLocation(null, SOURCE_SERVLET_CONTEXT);
+    }
+    
+    /**
+     * @return the last modified time of the resource at the given location, 0 if unknown or -1 if it cannot be read
+     */
+    private static long getLastModified(final URL url)
+    {
+        if (url == null)
+        {
+            return 0L;
+        }
+        try
+        {
+            // a file connection opens the file to read its headers - so ask the file itself
+            if (ResourceUtils.isFileURL(url))
+            {
+                return ResourceUtils.getFile(url).lastModified();
+            }
+            return url.openConnection().getLastModified();
+        }
+        catch (IOException ioe)
+        {
+            return -1L;
+        }
+    }
+    
+    /**
+     * Get the cached content of a resource, loading it if it is small enough to be cached
+     * 
+     * @return the cached resource, or null if the resource is not cached
+     */
+    private CachedResource getCachedResource(final String path, final ResourceLocation location)
+    {
+        if (resourceCache == null || location.url == null || !location.cachable)
+        {
+            return null;
+        }
+        CachedResource cached = resourceCache.get(path);
+        if (cached == null)
+        {
+            try
+            {
+                cached = loadResource(path, location);
+            }
+            catch (IOException ioe)
+            {
+                if (logger.isDebugEnabled())
+                    logger.debug("Unable to cache resource: " + path, ioe);
+            }
+            if (cached != null)
+            {
+                resourceCache.put(path, cached);
+            }
+            else
+            {
+                location.cachable = false;
+            }
+        }
+        return cached;
+    }
+    
+    /**
+     * Read the content of a resource, with a gzip variant if compression is worthwhile
+     * 
+     * @return the resource, or null if it is too large to be cached
+     */
+    private CachedResource loadResource(final String path, final ResourceLocation location)
+        throws IOException
+    {
+        final URLConnection resourceConn = location.url.openConnection();
+        final long contentLength = resourceConn.getContentLengthLong();
+        if (contentLength < 0 || contentLength > cacheMaxEntrySize)
+        {
+            return null;
+        }
+        byte[] content;
+        InputStream in = resourceConn.getInputStream();
+        try
+        {
+            content = in.readAllBytes();
+        }
+        finally
+        {
+            in.close();
+        }
+        
+        final String mimetype = getMimetype(path);
+        byte[] gzipContent = null;
+        if (compression.isCompressible(mimetype))
+        {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(content.length / 2);
+            GZIPOutputStream out = new GZIPOutputStream(bytes);
+            out.write(content);
+            out.close();
+            if (bytes.size() < content.length)
+            {
+                gzipContent = bytes.toByteArray();
+            }
+        }
+        
+        if (logger.isDebugEnabled())
+            logger.debug("Caching resource: " + path + " (" + content.length + " bytes" +
+                    (gzipContent != null ? ", " + gzipContent.length + " bytes compressed)" : ")"));
+        
+        return new CachedResource(mimetype, resourceConn.getLastModified(), content, gzipContent);
+    }
+    
+    /**
+     * Commit a cached resource to the response stream - the gzip variant if the client accepts it -
+     * or 304 Not Modified if the client's copy is current. Range requests are served from the
+     * uncompressed content.
+     * 
+     * @throws IOException
+     */
+    protected void commitResponse(
+            final String path, final CachedResource cached, final HttpServletRequest request, final HttpServletResponse response)
+        throws IOException
+    {
+        final boolean gzip = cached.gzipContent != null && request.getHeader(HTTP_HEADER_RANGE) == null &&
+                ResponseCompression.GZIP.equals(compression.negotiate(request.getHeader(HTTP_HEADER_ACCEPT_ENCODING)));
+        final String eTag = (gzip ? cached.gzipETag : cached.eTag);
+        
+        response.setContentType(cached.mimetype);
+        if (cached.gzipContent != null)
+        {
+            response.addHeader(HTTP_HEADER_VARY, HTTP_HEADER_ACCEPT_ENCODING);
+        }
+        response.setHeader(HTTP_HEADER_ETAG, eTag);
+        if (cached.lastModified != 0)
+        {
+            response.setDateHeader(HTTP_HEADER_LAST_MODIFIED, cached.lastModified);
+        }
+        if (!response.containsHeader(HTTP_HEADER_CACHE_CONTROL))
+        {
+            response.setHeader(HTTP_HEADER_CACHE_CONTROL, "max-age=86400");
+        }
+        response.setHeader(HTTP_HEADER_ACCEPT_RANGES, BYTES_UNIT);
+        
+        if (isNotModified(request, eTag, cached.lastModified))
+        {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+        
+        if (!gzip)
+        {
+            final List<ByteRange> ranges = getRanges(request, response, cached.content.length, eTag, cached.lastModified);
+            if (ranges != null)
+            {
+                if (!ranges.isEmpty())
                 {
-                    commitResponse(path, resourceUrl, response);
-                    resolved = true;
+                    commitRanges(ranges, cached.content.length, cached.mimetype, new ContentSource()
+                    {
+                        public void write(OutputStream out, long start, long count) throws IOException
+                        {
+                            out.write(cached.content, (int)start, (int)count);
+                        }
+                    }, response);
                 }
-                catch (IOException ioe)
+                return;
+            }
+        }
+        
+        final byte[] content = (gzip ? cached.gzipContent : cached.content);
+        if (gzip)
+        {
+            response.setHeader(HTTP_HEADER_CONTENT_ENCODING, ResponseCompression.GZIP);
+        }
+        response.setHeader(HTTP_HEADER_CONTENT_LENGTH, Integer.toString(content.length));
+        final OutputStream out = response.getOutputStream();
+        out.write(content);
+        out.flush();
+    }
+    
+    /**
+     * Commit the resource to the response stream - or 304 Not Modified if the client's copy is current,
+     * or the requested byte ranges. Sets appropriate date, length and content type headers.
+     * 
+     * @throws IOException
+     */
+    public void commitResponse(
+            final String path, final URL resourceUrl, final HttpServletRequest request, final HttpServletResponse response)
+        throws IOException
+    {
+        // determine properties of the resource being served back
+        final File file = getFile(resourceUrl);
+        final URLConnection resourceConn;
+        final long contentLength;
+        final long lastModified;
+        if (file != null)
+        {
+            resourceConn = null;
+            contentLength = file.length();
+            lastModified = file.lastModified();
+        }
+        else
+        {
+            resourceConn = resourceUrl.openConnection();
+            contentLength = resourceConn.getContentLengthLong();
+            lastModified = resourceConn.getLastModified();
+        }
+        applyHeaders(path, response, contentLength, lastModified);
+        
+        final String eTag = (lastModified != 0 ? '"' + Long.toString(lastModified) + '"' : null);
+        if (eTag != null && isNotModified(request, eTag, lastModified))
+        {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+        
+        List<ByteRange> ranges = null;
+        if (contentLength >= 0)
+        {
+            response.setHeader(HTTP_HEADER_ACCEPT_RANGES, BYTES_UNIT);
+            ranges = getRanges(request, response, contentLength, eTag, lastModified);
+            if (ranges != null && ranges.isEmpty())
+            {
+                return;
+            }
+        }
+        
+        if (file != null)
+        {
+            commitFile(path, file, contentLength, ranges, request, response);
+        }
+        else if (ranges == null)
+        {
+            // stream back to response
+            copyStream(resourceConn.getInputStream(), response.getOutputStream());
+        }
+        else
+        {
+            commitRanges(ranges, contentLength, getMimetype(path), new ContentSource()
+            {
+                public void write(OutputStream out, long start, long count) throws IOException
                 {
-                    logger.info(ioe.getMessage());
-                    if (debug) ioe.printStackTrace();
+                    final InputStream in = resourceUrl.openStream();
+                    try
+                    {
+                        in.skipNBytes(start);
+                        final byte[] buffer = streamBuffer.get();
+                        while (count > 0)
+                        {
+                            final int byteCount = in.read(buffer, 0, (int)Math.min(buffer.length, count));
+                            if (byteCount == -1)
+                            {
+                                throw new EOFException("Resource shorter than its content length: " + resourceUrl);
+                            }
+                            out.write(buffer, 0, byteCount);
+                            count -= byteCount;
+                        }
+                    }
+                    finally
+                    {
+                        in.close();
+                    }
                 }
+            }, response);
+        }
+    }
+    
+    /**
+     * Commit a plain file resource - using the servlet container's sendfile support if available,
+     * otherwise transferring the file channel directly to the response stream.
+     * 
+     * @throws IOException
+     */
+    private void commitFile(final String path, final File file, final long contentLength, final List<ByteRange> ranges,
+            final HttpServletRequest request, final HttpServletResponse response)
+        throws IOException
+    {
+        if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT)) && (ranges == null || ranges.size() == 1))
+        {
+            long start = 0L;
+            long end = contentLength;
+            if (ranges != null)
+            {
+                final ByteRange range = ranges.get(0);
+                applyRangeHeaders(response, range, contentLength);
+                start = range.start;
+                end = range.end + 1;
             }
+            if (logger.isDebugEnabled())
+                logger.debug("...serving file with container sendfile: " + file);
+            request.setAttribute(SENDFILE_FILENAME, file.getCanonicalPath());
+            request.setAttribute(SENDFILE_START, Long.valueOf(start));
+            request.setAttribute(SENDFILE_END, Long.valueOf(end));
+            return;
         }
         
-        if (!resolved)
+        final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try
         {
-            // serve back the resource from the web application (if it exists)
-            ServletContextResource resource = new ServletContextResource(getServletContext(), "/" + path);
-            if (resource.exists())
+            final ContentSource source = new ContentSource()
             {
-                // dispatch to resource
-                if (debug) logger.debug("...dispatching resource from web application ServletContext.");
-                commitResponse(path, resource, request, response);
-                resolved = true;
+                public void write(OutputStream out, long start, long count) throws IOException
+                {
+                    final WritableByteChannel target = Channels.newChannel(out);
+                    while (count > 0)
+                    {
+                        final long transferred = channel.transferTo(start, count, target);
+                        if (transferred <= 0)
+                        {
+                            throw new EOFException("File shorter than its content length: " + file);
+                        }
+                        start += transferred;
+                        count -= transferred;
+                    }
+                }
+            };
+            if (ranges == null)
+            {
+                final OutputStream out = response.getOutputStream();
+                source.write(out, 0L, contentLength);
+                out.flush();
             }
+            else
+            {
+                commitRanges(ranges, contentLength, getMimetype(path), source, response);
+            }
+        }
+        finally
+        {
+            channel.close();
+        }
+    }
+    
+    /**
+     * Determine the byte ranges requested by the Range header, honouring If-Range. Responds
+     * 416 Range Not Satisfiable if none of the ranges overlap the content.
+     * 
+     * @return the ranges to send, null to send the full content, or empty if 416 was sent
+     */
+    protected static List<ByteRange> getRanges(final HttpServletRequest request, final HttpServletResponse response,
+            final long contentLength, final String eTag, final long lastModified)
+    {
+        final String rangeHeader = request.getHeader(HTTP_HEADER_RANGE);
+        if (rangeHeader == null || !"GET".equals(request.getMethod()) || !rangeHeader.startsWith(BYTES_UNIT + "="))
+        {
+            return null;
+        }
+        if (request.getHeader(HTTP_HEADER_IF_RANGE) != null && !isRangeCurrent(request, eTag, lastModified))
+        {
+            return null;
         }
         
-        if (!resolved && defaultUrl != null)
+        final List<ByteRange> ranges = new ArrayList<ByteRange>(4);
+        final StringTokenizer tokens = new StringTokenizer(rangeHeader.substring(BYTES_UNIT.length() + 1), ",");
+        while (tokens.hasMoreTokens())
         {
-            if (debug) logger.debug("...handing off to Spring resource servlet: " + defaultUrl + "/" + path);
-            
-            // try to hand off to a default servlet context (compatibility with Spring JS resource servlet)
-            // use a forward here because the new servlet context may be different than the current servlet context
-            RequestDispatcher rd = this.getServletContext().getRequestDispatcher(defaultUrl + "/" + path);
-            rd.forward(request, response);
-            resolved = true;
+            final String spec = tokens.nextToken().trim();
+            final int separator = spec.indexOf('-');
+            if (separator == -1)
+            {
+                return null;
+            }
+            long start;
+            long end;
+            try
+            {
+                if (separator == 0)
+                {
+                    // suffix range - the last N bytes
+                    final long suffix = Long.parseLong(spec.substring(1));
+                    if (suffix <= 0)
+                    {
+                        continue;
+                    }
+                    start = Math.max(0L, contentLength - suffix);
+                    end = contentLength - 1;
+                }
+                else
+                {
+                    start = Long.parseLong(spec.substring(0, separator));
+                    final String last = spec.substring(separator + 1);
+                    end = contentLength - 1;
+                    if (last.length() != 0)
+                    {
+                        final long lastByte = Long.parseLong(last);
+                        if (lastByte < start)
+                        {
+                            return null;
+                        }
+                        end = Math.min(lastByte, end);
+                    }
+                }
+            }
+            catch (NumberFormatException e)
+            {
+                // invalid range headers are ignored
+                return null;
+            }
+            if (start >= contentLength)
+            {
+                continue;
+            }
+            ranges.add(new ByteRange(start, end));
+            if (ranges.size() > MAX_RANGES)
+            {
+                return null;
+            }
         }
         
-        return resolved;
+        if (ranges.isEmpty())
+        {
+            response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            response.setHeader(HTTP_HEADER_CONTENT_RANGE, BYTES_UNIT + " */" + contentLength);
+            response.setHeader(HTTP_HEADER_CONTENT_LENGTH, "0");
+        }
+        return ranges;
+    }
+    
+    /**
+     * Determine whether the If-Range validator matches the current resource - an ETag must match
+     * strongly, a date exactly
+     */
+    private static boolean isRangeCurrent(final HttpServletRequest request, final String eTag, final long lastModified)
+    {
+        final String ifRange = request.getHeader(HTTP_HEADER_IF_RANGE).trim();
+        if (ifRange.startsWith("W/"))
+        {
+            return false;
+        }
+        if (ifRange.startsWith("\""))
+        {
+            return ifRange.equals(eTag);
+        }
+        try
+        {
+            final long date = request.getDateHeader(HTTP_HEADER_IF_RANGE);
+            return lastModified != 0 && lastModified / 1000L == date / 1000L;
+        }
+        catch (IllegalArgumentException e)
+        {
+            return false;
+        }
+    }
+    
+    private static void applyRangeHeaders(final HttpServletResponse response, final ByteRange range, final long contentLength)
+    {
+        response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        response.setHeader(HTTP_HEADER_CONTENT_RANGE, range.getContentRange(contentLength));
+        response.setHeader(HTTP_HEADER_CONTENT_LENGTH, Long.toString(range.getLength()));
+    }
+    
+    /**
+     * Commit a 206 Partial Content response - a single range or a multipart/byteranges response
+     * 
+     * @throws IOException
+     */
+    private static void commitRanges(final List<ByteRange> ranges, final long contentLength, final String mimetype,
+            final ContentSource source, final HttpServletResponse response)
+        throws IOException
+    {
+        final OutputStream out = response.getOutputStream();
+        if (ranges.size() == 1)
+        {
+            final ByteRange range = ranges.get(0);
+            applyRangeHeaders(response, range, contentLength);
+            source.write(out, range.start, range.getLength());
+        }
+        else
+        {
+            final String boundary = UUID.randomUUID().toString();
+            final byte[][] partHeaders = new byte[ranges.size()][];
+            final byte[] end = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+            long length = end.length;
+            for (int i = 0; i < partHeaders.length; i++)
+            {
+                final ByteRange range = ranges.get(i);
+                partHeaders[i] = ("\r\n--" + boundary + "\r\n" +
+                        (mimetype != null ? "Content-Type: " + mimetype + "\r\n" : "") +
+                        HTTP_HEADER_CONTENT_RANGE + ": " + range.getContentRange(contentLength) + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+                length += partHeaders[i].length + range.getLength();
+            }
+            
+            response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            response.setContentType("multipart/byteranges; boundary=" + boundary);
+            response.setHeader(HTTP_HEADER_CONTENT_LENGTH, Long.toString(length));
+            for (int i = 0; i < partHeaders.length; i++)
+            {
+                final ByteRange range = ranges.get(i);
+                out.write(partHeaders[i]);
+                source.write(out, range.start, range.getLength());
+            }
+            out.write(end);
+        }
+        out.flush();
+    }
+    
+    /**
+     * @return the file a resource URL refers to, or null if it is not a plain file
+     */
+    private static File getFile(final URL resourceUrl)
+    {
+        if (ResourceUtils.URL_PROTOCOL_FILE.equals(resourceUrl.getProtocol()))
+        {
+            try
+            {
+                final File file = ResourceUtils.getFile(resourceUrl);
+                return (file.isFile() ? file : null);
+            }
+            catch (IOException e)
+            {
+                // not a plain file after all
+            }
+        }
+        return null;
     }
     
     /**
@@ -254,7 +996,25 @@ public class ResourceController extends AbstractController
     protected void applyHeaders(
             final String path, final HttpServletResponse response, final long contentLength, final long lastModified)
     {
-        // determine mimetype
+        // set response headers
+        response.setContentType(getMimetype(path));
+        response.setHeader(HTTP_HEADER_CONTENT_LENGTH, Long.toString(contentLength));
+        if (lastModified != 0)
+        {
+            response.setHeader(HTTP_HEADER_ETAG, '"' + Long.toString(lastModified) + '"');
+            response.setDateHeader(HTTP_HEADER_LAST_MODIFIED, lastModified);
+        }
+        if (!response.containsHeader(HTTP_HEADER_CACHE_CONTROL))
+        {
+            response.setHeader(HTTP_HEADER_CACHE_CONTROL, "max-age=86400");
+        }
+    }
+    
+    /**
+     * Determine the mimetype of a resource - text mimetypes include the UTF-8 charset
+     */
+    private String getMimetype(final String path)
+    {
         String mimetype = getServletContext().getMimeType(path);
         if (mimetype == null) 
         {
@@ -266,24 +1026,52 @@ public class ResourceController extends AbstractController
                 mimetype = (String)defaultMimeTypes.get(extension.toLowerCase());
             }
         }
-        
-        // set response headers
         if (mimetype != null && mimetype.startsWith("text/"))
         {
             // ensure text encoding is applied
             mimetype += ";charset=UTF-8";
         }
-        response.setContentType(mimetype);
-        response.setHeader(HTTP_HEADER_CONTENT_LENGTH, Long.toString(contentLength));
-        if (lastModified != 0)
+        return mimetype;
+    }
+    
+    /**
+     * Determine whether the client's copy of a resource is current from the If-None-Match
+     * (which takes precedence) or If-Modified-Since request headers
+     */
+    protected static boolean isNotModified(final HttpServletRequest request, final String eTag, final long lastModified)
+    {
+        final String ifNoneMatch = request.getHeader(HTTP_HEADER_IF_NONE_MATCH);
+        if (ifNoneMatch != null)
         {
-            response.setHeader(HTTP_HEADER_ETAG, '"' + Long.toString(lastModified) + '"');
-            response.setDateHeader(HTTP_HEADER_LAST_MODIFIED, lastModified);
+            StringTokenizer tokens = new StringTokenizer(ifNoneMatch, ",");
+            while (tokens.hasMoreTokens())
+            {
+                String token = tokens.nextToken().trim();
+                if (token.startsWith("W/"))
+                {
+                    token = token.substring(2);
+                }
+                if (token.equals("*") || token.equals(eTag))
+                {
+                    return true;
+                }
+            }
+            return false;
         }
-        if (!response.containsHeader(HTTP_HEADER_CACHE_CONTROL))
+        if (lastModified != 0)
         {
-            response.setHeader(HTTP_HEADER_CACHE_CONTROL, "max-age=86400");
+            try
+            {
+                final long since = request.getDateHeader(HTTP_HEADER_IF_MODIFIED_SINCE);
+                // HTTP dates have a resolution of one second
+                return since != -1 && lastModified / 1000L <= since / 1000L;
+            }
+            catch (IllegalArgumentException e)
+            {
+                // ignore invalid dates as required by the specification
+            }
         }
+        return false;
     }
     
     /**
@@ -315,4 +1103,109 @@ public class ResourceController extends AbstractController
             catch (IOException ex) {}
         }
     }
+    
+    
+    /**
+     * Resolved location of a resource - no URL if the resource was not found
+     */
+    protected static final class ResourceLocation
+    {
+        final URL url;
+        final int source;
+        final boolean servletContextResource;
+        final long lastModified;
+        volatile long checked;
+        volatile boolean cachable = true;
+        
+        ResourceLocation(final URL url, final int source)
+        {
+            this.url = url;
+            this.source = source;
+            this.servletContextResource = (url != null && source == SOURCE_SERVLET_CONTEXT);
+            this.lastModified = getLastModified(url);
+            this.checked = System.currentTimeMillis();
+        }
+    }
+    
+    /**
+     * Inclusive range of bytes of a resource
+     */
+    protected static final class ByteRange
+    {
+        final long start;
+        final long end;
+        
+        ByteRange(final long start, final long end)
+        {
+            this.start = start;
+            this.end = end;
+        }
+        
+        long getLength()
+        {
+            return end - start + 1;
+        }
+        
+        String getContentRange(final long contentLength)
+        {
+            return BYTES_UNIT + " " + start + "-" + end + "/" + contentLength;
+        }
+    }
+    
+    /**
+     * Writes a range of bytes of a resource to a stream
+     */
+    private interface ContentSource
+    {
+        void write(OutputStream out, long start, long count) throws IOException;
+    }
+    
+    /**
+     * Cached content of a resource, with its gzip variant (if compression was worthwhile) and their ETags
+     */
+    protected static final class CachedResource
+    {
+        final String mimetype;
+        final long lastModified;
+        final byte[] content;
+        final byte[] gzipContent;
+        final String eTag;
+        final String gzipETag;
+        
+        CachedResource(final String mimetype, final long lastModified, final byte[] content, final byte[] gzipContent)
+        {
+            this.mimetype = mimetype;
+            this.lastModified = lastModified;
+            this.content = content;
+            this.gzipContent = gzipContent;
+            final String digest = getDigest(content);
+            this.eTag = '"' + digest + '"';
+            this.gzipETag = '"' + digest + "-gz\"";
+        }
+        
+        int getWeight()
+        {
+            return content.length + (gzipContent != null ? gzipContent.length : 0);
+        }
+        
+        private static String getDigest(final byte[] bytes)
+        {
+            MessageDigest digest;
+            try
+            {
+                digest = MessageDigest.getInstance("SHA-256");
+            }
+            catch (NoSuchAlgorithmException e)
+            {
+                throw new IllegalStateException("Unable to compute ETag", e);
+            }
+            final byte[] hash = digest.digest(bytes);
+            final StringBuilder eTag = new StringBuilder(32);
+            for (int i = 0; i < 16; i++)
+            {
+                eTag.append(Character.forDigit((hash[i] >> 4) & 0xf, 16)).append(Character.forDigit(hash[i] & 0xf, 16));
+            }
+            return eTag.toString();
+        }
+    }
 }
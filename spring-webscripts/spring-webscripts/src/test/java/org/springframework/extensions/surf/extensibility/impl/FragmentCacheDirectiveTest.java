@@ -0,0 +1,124 @@
+/**
+ * Copyright (C) 2005-2009 Alfresco Software Limited.
+ *
+ * This file is part of the Spring Surf Extension project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.extensions.surf.extensibility.impl;
+
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import freemarker.cache.StringTemplateLoader;
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+
+/**
+ * FragmentCacheDirective unit tests
+ */
+public class FragmentCacheDirectiveTest extends TestCase
+{
+    private static final String TEMPLATE =
+        "<@cachedFragment id=\"menu\" key=[user, 1]>${counter.next()}</@cachedFragment>|" +
+        "<@cachedFragment id=\"footer\" ttl=0>${counter.next()}</@cachedFragment>";
+
+    private StringTemplateLoader loader;
+    private Configuration config;
+    private Counter counter;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        loader = new StringTemplateLoader();
+        loader.putTemplate("page.ftl", TEMPLATE);
+        config = new Configuration(Configuration.VERSION_2_3_0);
+        config.setTemplateLoader(loader);
+        counter = new Counter();
+    }
+
+    public static class Counter
+    {
+        private int count;
+
+        public int next()
+        {
+            return ++count;
+        }
+    }
+
+    private String render(FragmentCache cache, String user) throws Exception
+    {
+        Map<String, Object> model = new HashMap<String, Object>();
+        model.put("cachedFragment", new FragmentCacheDirective("cachedFragment", cache));
+        model.put("counter", counter);
+        model.put("user", user);
+        Template template = config.getTemplate("page.ftl");
+        StringWriter out = new StringWriter();
+        template.process(model, out);
+        return out.toString();
+    }
+
+    public void testCachedByKey() throws Exception
+    {
+        FragmentCache cache = new FragmentCache();
+        assertEquals("1|2", render(cache, "admin"));
+        assertEquals("1|3", render(cache, "admin"));
+        assertEquals("4|5", render(cache, "guest"));
+        assertEquals("4|6", render(cache, "guest"));
+
+        FragmentCache.Statistics menu = cache.getStatistics().get("page.ftl#menu");
+        assertEquals(2, menu.getHitCount());
+        assertEquals(2, menu.getMissCount());
+        FragmentCache.Statistics footer = cache.getStatistics().get("page.ftl#footer");
+        assertEquals(0, footer.getHitCount());
+        assertEquals(4, footer.getMissCount());
+
+        cache.clear();
+        assertEquals("7|8", render(cache, "admin"));
+    }
+
+    public void testIncludedTemplates() throws Exception
+    {
+        // the same fragment id in two templates included by one page
+        loader.putTemplate("a.ftl", "<@cachedFragment id=\"menu\">a${counter.next()}</@cachedFragment>");
+        loader.putTemplate("b.ftl", "<@cachedFragment id=\"menu\">b${counter.next()}</@cachedFragment>");
+        loader.putTemplate("page.ftl", "<#include \"a.ftl\">|<#include \"b.ftl\">");
+
+        FragmentCache cache = new FragmentCache();
+        assertEquals("a1|b2", render(cache, "admin"));
+        assertEquals("a1|b2", render(cache, "admin"));
+        assertEquals(1, cache.getStatistics().get("a.ftl#menu").getHitCount());
+        assertEquals(1, cache.getStatistics().get("b.ftl#menu").getHitCount());
+    }
+
+    public void testExpiry() throws Exception
+    {
+        FragmentCache cache = new FragmentCache(1024L, 1L);
+        assertEquals("1|2", render(cache, "admin"));
+        assertEquals("1|3", render(cache, "admin"));
+        Thread.sleep(1100L);
+        assertEquals("4|5", render(cache, "admin"));
+    }
+
+    public void testDisabled() throws Exception
+    {
+        FragmentCache cache = new FragmentCache(0L, 60L);
+        assertFalse(cache.isEnabled());
+        assertEquals("1|2", render(cache, "admin"));
+        assertEquals("3|4", render(cache, "admin"));
+    }
+}
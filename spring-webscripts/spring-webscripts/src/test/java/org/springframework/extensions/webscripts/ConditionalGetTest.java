@@ -0,0 +1,90 @@
+/**
+ * Copyright (C) 2005-2009 Alfresco Software Limited.
+ *
+ * This file is part of the Spring Surf Extension project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.extensions.webscripts;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.springframework.extensions.webscripts.TestWebScriptServer.GetRequest;
+import org.springframework.extensions.webscripts.TestWebScriptServer.Request;
+import org.springframework.extensions.webscripts.TestWebScriptServer.Response;
+
+/**
+ * Test conditional GET requests are answered with 304 Not Modified
+ */
+public class ConditionalGetTest extends TestCase
+{
+    private static final TestWebScriptServer TEST_SERVER = TestWebScriptServer.getTestServer();
+
+    public void testValidatorScript() throws Exception
+    {
+        Response res = TEST_SERVER.submitRequest(new GetRequest("/test/conditional?v=1"));
+        assertEquals(200, res.getStatus());
+        assertEquals("version 1", res.getContentAsString());
+        assertEquals("\"v1\"", res.getHeader("ETag"));
+        assertNotNull(res.getHeader("Last-Modified"));
+
+        // the Web Script is not executed when the ETag matches...
+        Response notModified = TEST_SERVER.submitRequest(conditional("/test/conditional?v=1&fail=true", "If-None-Match", "\"v1\""));
+        assertEquals(304, notModified.getStatus());
+        assertEquals("", notModified.getContentAsString());
+
+        // ...or the response has not been modified since the given date
+        notModified = TEST_SERVER.submitRequest(conditional("/test/conditional?v=1&fail=true", "If-Modified-Since", res.getHeader("Last-Modified")));
+        assertEquals(304, notModified.getStatus());
+
+        Response modified = TEST_SERVER.submitRequest(conditional("/test/conditional?v=2", "If-None-Match", "\"v1\""));
+        assertEquals(200, modified.getStatus());
+        assertEquals("version 2", modified.getContentAsString());
+    }
+
+    public void testValidatorScriptRequiresNoAuthentication() throws Exception
+    {
+        // the validator is not evaluated before the container has authenticated the request
+        Response res = TEST_SERVER.submitRequest(conditional("/test/conditionalauth?v=1&fail=true", "If-None-Match", "\"v1\""));
+        assertFalse(res.getStatus() == 304);
+    }
+
+    public void testAutoETag() throws Exception
+    {
+        Response res = TEST_SERVER.submitRequest(new GetRequest("/test/autoetag?v=1"));
+        assertEquals(200, res.getStatus());
+        assertEquals("content 1", res.getContentAsString());
+        String eTag = res.getHeader("ETag");
+        assertNotNull(eTag);
+
+        Response notModified = TEST_SERVER.submitRequest(conditional("/test/autoetag?v=1", "If-None-Match", eTag));
+        assertEquals(304, notModified.getStatus());
+        assertEquals("", notModified.getContentAsString());
+
+        Response modified = TEST_SERVER.submitRequest(conditional("/test/autoetag?v=2", "If-None-Match", eTag));
+        assertEquals(200, modified.getStatus());
+        assertEquals("content 2", modified.getContentAsString());
+        assertFalse(eTag.equals(modified.getHeader("ETag")));
+    }
+
+    private static Request conditional(String uri, String header, String value)
+    {
+        Map<String, String> headers = new HashMap<String, String>();
+        headers.put(header, value);
+        return new GetRequest(uri).setHeaders(headers);
+    }
+}
@@ -0,0 +1,344 @@
+/**
+ * Copyright (C) 2005-2009 Alfresco Software Limited.
+ *
+ * This file is part of the Spring Surf Extension project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.extensions.webscripts;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestCase;
+
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+import org.springframework.context.support.GenericApplicationContext;
+import org.springframework.extensions.webscripts.TestWebScriptServer.GetRequest;
+import org.springframework.extensions.webscripts.processor.JSScriptProcessor;
+import org.springframework.util.FileSystemUtils;
+
+
+/**
+ * Test the Declarative Registry reset
+ */
+public class DeclarativeRegistryTest extends TestCase
+{
+    // web scripts whose format is given by the uri extension
+    private static final String[][] URIS = new String[][]
+    {
+        { "POST", "/test/bogus" },
+        { "POST", "/test/encodedpost" },
+        { "POST", "/test/jsonecho" },
+        { "PUT", "/test/requestbody" },
+    };
+
+    private ClassPathXmlApplicationContext context;
+    private DeclarativeRegistry registry;
+    private File storeDir;
+    private long stamp = (System.currentTimeMillis() / 1000L) * 1000L - 1000000L;
+
+    public void setUp() throws Exception
+    {
+        context = new ClassPathXmlApplicationContext(new String[] {
+                "classpath:org/springframework/extensions/webscripts/spring-webscripts-application-context.xml",
+                "classpath:org/springframework/extensions/webscripts/test/spring-webscripts-server-test-context.xml" });
+        registry = (DeclarativeRegistry)context.getBean("webscripts.registry");
+    }
+
+    public void tearDown() throws Exception
+    {
+        context.close();
+        if (storeDir != null)
+        {
+            FileSystemUtils.deleteRecursively(storeDir);
+        }
+    }
+
+    public void testResetIsAtomic() throws Exception
+    {
+        registry.reset();
+        final int size = registry.getWebScripts().size();
+        final int failures = registry.getFailures().size();
+
+        // lookups made while the registry is reset see the previous or the new registry - never a partial one
+        final AtomicBoolean done = new AtomicBoolean();
+        final AtomicReference<String> failure = new AtomicReference<String>();
+        Thread reader = new Thread(new Runnable()
+        {
+            public void run()
+            {
+                // each lookup has a different format extension, so is not served from the uri index cache
+                for (int i = 0; !done.get() && failure.get() == null; i++)
+                {
+                    if (registry.getWebScripts().size() != size || registry.getFailures().size() != failures)
+                    {
+                        failure.set("Saw " + registry.getWebScripts().size() + " Web Scripts and " + registry.getFailures().size() + " failures");
+                    }
+                    for (String[] uri : URIS)
+                    {
+                        Match match = registry.findWebScript(uri[0], uri[1] + ".f" + i);
+                        if (match == null || match.getWebScript() == null)
+                        {
+                            failure.set("No Web Script found for " + uri[0] + " " + uri[1]);
+                        }
+                    }
+                }
+            }
+        });
+        reader.start();
+        try
+        {
+            for (int i = 0; i < 20 && failure.get() == null; i++)
+            {
+                registry.reset();
+            }
+        }
+        finally
+        {
+            done.set(true);
+            reader.join();
+        }
+        assertNull(failure.get(), failure.get());
+    }
+
+    public void testIndexWithoutNewInstance() throws Exception
+    {
+        // an index that cannot create a new instance is populated again in place
+        final UriIndex index = new JaxRSUriIndex();
+        registry.setUriIndex(new UriIndex()
+        {
+            public void clear()
+            {
+                index.clear();
+            }
+
+            public int getSize()
+            {
+                return index.getSize();
+            }
+
+            public void registerUri(WebScript script, String uri)
+            {
+                index.registerUri(script, uri);
+            }
+
+            public Match findWebScript(String method, String uri)
+            {
+                return index.findWebScript(method, uri);
+            }
+        });
+        registry.reset();
+        int size = index.getSize();
+        assertTrue(size > 0);
+        registry.reset();
+        assertEquals(size, index.getSize());
+        assertNotNull(registry.findWebScript("POST", "/test/jsonecho").getWebScript());
+    }
+
+    public void testWarmUp() throws Exception
+    {
+        // the first request after the warm up finds its script compiled
+        JSScriptProcessor scriptProcessor = (JSScriptProcessor)context.getBean("webscripts.scriptprocessor.javascript");
+        registry.setWarmUpThreads(2);
+        registry.reset();
+        long compiled = scriptProcessor.getScriptCompileCount();
+        long waited = scriptProcessor.getScriptCompileWaitCount();
+        assertTrue(compiled > 0);
+        
+        TestWebScriptServer server = (TestWebScriptServer)context.getBean("webscripts.test");
+        assertEquals(200, server.submitRequest(new GetRequest("/test/cached?a=1")).getStatus());
+        assertEquals(compiled, scriptProcessor.getScriptCompileCount());
+        assertEquals(waited, scriptProcessor.getScriptCompileWaitCount());
+    }
+    
+    public void testParallelism() throws Exception
+    {
+        // the registry built on one thread and on several is the same
+        registry.setParallelism(1);
+        registry.reset();
+        List<String> ids = getIds();
+        Map<String, String> failures = getFailures();
+        Map<String, String> matches = getMatches();
+        assertFalse(ids.isEmpty());
+        assertFalse(failures.isEmpty());
+        
+        registry.setParallelism(4);
+        registry.reset();
+        assertEquals(ids, getIds());
+        assertEquals(failures, getFailures());
+        assertEquals(matches, getMatches());
+    }
+    
+    /**
+     * @return  the ids of the registered web scripts, in registry order
+     */
+    private List<String> getIds()
+    {
+        List<String> ids = new ArrayList<String>();
+        for (WebScript script : registry.getWebScripts())
+        {
+            ids.add(script.getDescription().getId());
+        }
+        return ids;
+    }
+    
+    /**
+     * @return  the failures of the registry without the numbered prefix of the exception messages
+     */
+    private Map<String, String> getFailures()
+    {
+        Map<String, String> failures = new TreeMap<String, String>();
+        for (Map.Entry<String, String> failure : registry.getFailures().entrySet())
+        {
+            failures.put(failure.getKey(), failure.getValue().replaceAll("\\b[0-9]{8} ", ""));
+        }
+        return failures;
+    }
+    
+    /**
+     * @return  the web script and template matched by the index for each url of the registered web scripts
+     */
+    private Map<String, String> getMatches()
+    {
+        Map<String, String> matches = new TreeMap<String, String>();
+        for (WebScript script : registry.getWebScripts())
+        {
+            Description desc = script.getDescription();
+            for (String uri : desc.getURIs())
+            {
+                int query = uri.indexOf('?');
+                String path = (query == -1 ? uri : uri.substring(0, query));
+                Match match = registry.findWebScript(desc.getMethod(), path);
+                matches.put(desc.getMethod() + " " + path, match == null ? null :
+                        match.getKind() + " " + match.getTemplate() + " " + (match.getWebScript() == null ? null : match.getWebScript().getDescription().getId()));
+            }
+        }
+        return matches;
+    }
+    
+    public void testIncrementalReset() throws Exception
+    {
+        // a store of web scripts that are added, changed and removed by the test
+        storeDir = File.createTempFile("webscripts", "");
+        storeDir.delete();
+        writeDocument("alpha.get.desc.xml", "<webscript><shortname>alpha</shortname><url>/incremental/alpha</url></webscript>");
+        writeDocument("beta.get.desc.xml", "<webscript><shortname>beta</shortname><url>/incremental/beta</url></webscript>");
+        writeDocument("beta.get.html.ftl", "beta");
+        GenericApplicationContext storeContext = new GenericApplicationContext();
+        storeContext.setClassLoader(new URLClassLoader(new URL[] { storeDir.toURI().toURL() }, getClass().getClassLoader()));
+        storeContext.refresh();
+        ClassPathStore store = new ClassPathStore();
+        store.setApplicationContext(storeContext);
+        store.setClassPath("incremental");
+        store.init();
+        SearchPath searchPath = (SearchPath)context.getBean("webscripts.searchpath");
+        List<Store> stores = new ArrayList<Store>(searchPath.getStoresInternal());
+        stores.add(store);
+        searchPath.setSearchPath(stores);
+        registry.setIncrementalReset(true);
+        ((Container)context.getBean("webscripts.container")).reset();
+        
+        int size = registry.getWebScripts().size();
+        WebScript alpha = registry.getWebScript("org/test/alpha.get");
+        WebScript beta = registry.getWebScript("org/test/beta.get");
+        assertNotNull(alpha);
+        assertNotNull(beta);
+        
+        // nothing changed
+        registry.reset();
+        assertSame(alpha, registry.getWebScript("org/test/alpha.get"));
+        assertSame(beta, registry.getWebScript("org/test/beta.get"));
+        assertSame(alpha, registry.findWebScript("GET", "/incremental/alpha").getWebScript());
+        
+        // added description document
+        writeDocument("gamma.get.desc.xml", "<webscript><shortname>gamma</shortname><url>/incremental/gamma</url></webscript>");
+        registry.reset();
+        assertEquals(size + 1, registry.getWebScripts().size());
+        WebScript gamma = registry.getWebScript("org/test/gamma.get");
+        assertNotNull(gamma);
+        assertSame(gamma, registry.findWebScript("GET", "/incremental/gamma").getWebScript());
+        assertSame(alpha, registry.getWebScript("org/test/alpha.get"));
+        assertSame(beta, registry.getWebScript("org/test/beta.get"));
+        assertSame(alpha, registry.findWebScript("GET", "/incremental/alpha").getWebScript());
+        
+        // changed description document
+        writeDocument("beta.get.desc.xml", "<webscript><shortname>beta</shortname><url>/incremental/beta2</url></webscript>");
+        registry.reset();
+        WebScript beta2 = registry.getWebScript("org/test/beta.get");
+        assertNotSame(beta, beta2);
+        assertSame(beta2, registry.findWebScript("GET", "/incremental/beta2").getWebScript());
+        assertNull(registry.findWebScript("GET", "/incremental/beta"));
+        assertSame(alpha, registry.getWebScript("org/test/alpha.get"));
+        assertSame(gamma, registry.getWebScript("org/test/gamma.get"));
+        
+        // removed description document
+        new File(storeDir, "incremental/org/test/gamma.get.desc.xml").delete();
+        registry.reset();
+        assertEquals(size, registry.getWebScripts().size());
+        assertNull(registry.getWebScript("org/test/gamma.get"));
+        assertNull(registry.findWebScript("GET", "/incremental/gamma"));
+        assertSame(alpha, registry.getWebScript("org/test/alpha.get"));
+        assertSame(beta2, registry.getWebScript("org/test/beta.get"));
+        
+        // added and changed script next to an unchanged description document
+        writeDocument("alpha.get.js", "var alpha = 1;");
+        registry.reset();
+        WebScript alpha2 = registry.getWebScript("org/test/alpha.get");
+        assertNotSame(alpha, alpha2);
+        assertNotNull(((AbstractWebScript)alpha2).getExecuteScript(null));
+        assertSame(alpha2, registry.findWebScript("GET", "/incremental/alpha").getWebScript());
+        assertSame(beta2, registry.getWebScript("org/test/beta.get"));
+        writeDocument("alpha.get.js", "var alpha = 2;");
+        registry.reset();
+        assertNotSame(alpha2, registry.getWebScript("org/test/alpha.get"));
+        assertSame(beta2, registry.getWebScript("org/test/beta.get"));
+        
+        // changed template
+        writeDocument("beta.get.html.ftl", "beta2");
+        registry.reset();
+        assertNotSame(beta2, registry.getWebScript("org/test/beta.get"));
+    }
+    
+    /**
+     * Write a document of the test store with a last modified timestamp later than that of any previous one
+     */
+    private void writeDocument(String name, String content) throws IOException
+    {
+        File file = new File(storeDir, "incremental/org/test/" + name);
+        file.getParentFile().mkdirs();
+        OutputStream out = new FileOutputStream(file);
+        try
+        {
+            out.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+        finally
+        {
+            out.close();
+        }
+        stamp += 10000L;
+        file.setLastModified(stamp);
+    }
+}
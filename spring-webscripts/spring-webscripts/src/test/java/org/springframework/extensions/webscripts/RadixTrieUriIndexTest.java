@@ -0,0 +1,248 @@
+/**
+ * Copyright (C) 2005-2009 Alfresco Software Limited.
+ *
+ * This file is part of the Spring Surf Extension project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.extensions.webscripts;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.ResourceBundle;
+
+import junit.framework.TestCase;
+
+
+/**
+ * Test the Radix Trie Uri Index produces the same matches as the Jax-RS Uri Index, other than for
+ * variables spanning segments in the middle of a template
+ */
+public class RadixTrieUriIndexTest extends TestCase
+{
+    private static final String[][] TEMPLATES = new String[][]
+    {
+        { "GET", "/" },
+        { "GET", "/a" },
+        { "POST", "/a" },
+        { "GET", "/a/b" },
+        { "GET", "/a/{a1}" },
+        { "PUT", "/a/{a1}" },
+        { "GET", "/a/{a1}/b" },
+        { "GET", "/a/{a1}/b/b{b1}b" },
+        { "GET", "/a/b{b}/{c}" },
+        { "DELETE", "/a/b{b}/{c}" },
+        { "GET", "/c/d/{e}/{f}" },
+        { "GET", "/c/d/{e}/x" },
+        { "GET", "/c/d/x/{e}" },
+        { "GET", "/api/node/{store_type}/{store_id}/{id}/content{property}" },
+        { "GET", "/api/path/{store_type}/{store_id}/{id}" },
+        { "GET", "/api/sites/{shortname}/memberships" },
+        { "POST", "/api/sites/{shortname}/memberships" },
+        { "GET", "/api/sites/{shortname}/memberships/{username}" },
+        { "GET", "/api/sites" },
+        { "GET", "/slingshot/doclib/doclist/{type}/site/{site}/{container}/{path}" },
+        { "GET", "/slingshot/doclib/doclist/{type}/site/{site}/{container}" },
+        { "GET", "/semi;colon/{x}" },
+        { "GET", "/dup/{a}/{a}" },
+        { "GET", "/ext/{name}.json" },
+        { "GET", "/trailing/" },
+    };
+
+    private static final String[] URIS = new String[]
+    {
+        "/", "/a", "/a/", "/a/b", "/a/b/", "/a/x", "/a/x/y", "/a/x/b", "/a/x/y/b", "/a/x/b/bzb",
+        "/a/x/b/b", "/a/x/b/bb", "/a/b/c", "/a/bb/c", "/a/bbb/c/d", "/c/d/1/2", "/c/d/1/x", "/c/d/x/1",
+        "/c/d/x/x", "/c/d/1/2/3", "/c/d/1", "/api/node/workspace/SpacesStore/1234/content",
+        "/api/node/workspace/SpacesStore/1234/content;cm:thumb", "/api/path/workspace/SpacesStore/Company/Home",
+        "/api/sites", "/api/sites.json", "/api/sites/swsdp/memberships", "/api/sites/swsdp/memberships/admin",
+        "/api/sites/swsdp/memberships/admin.json", "/slingshot/doclib/doclist/all/site/swsdp/documentLibrary",
+        "/slingshot/doclib/doclist/all/site/swsdp/documentLibrary/a/b/c.txt", "/semi;colon/1",
+        "/dup/1/1", "/dup/1/2", "/ext/x.json", "/ext/x", "/ext/a/b.json", "/trailing/", "/trailing",
+        "/unknown", "/a.html", "/a/b.json", "/a/x.y/b", "//", "", "a/b"
+    };
+
+
+    public void testEquivalence()
+    {
+        for (Description.FormatStyle formatStyle : new Description.FormatStyle[] { Description.FormatStyle.any, Description.FormatStyle.argument })
+        {
+            UriIndex jaxrs = new JaxRSUriIndex();
+            UriIndex trie = new RadixTrieUriIndex();
+            register(jaxrs, trie, formatStyle);
+            assertEquals(jaxrs.getSize(), trie.getSize());
+
+            for (String method : new String[] { "GET", "post", "PUT", "DELETE", "HEAD" })
+            {
+                for (String uri : URIS)
+                {
+                    assertEquivalent(jaxrs, trie, method, uri);
+                }
+            }
+        }
+    }
+
+    public void testRandomEquivalence()
+    {
+        UriIndex jaxrs = new JaxRSUriIndex();
+        UriIndex trie = new RadixTrieUriIndex();
+        register(jaxrs, trie, Description.FormatStyle.any);
+
+        String[] parts = new String[] { "a", "b", "bb", "bzb", "c", "d", "x", "1", "api", "sites", "memberships", "content", "x.json", "" };
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; i++)
+        {
+            StringBuilder uri = new StringBuilder();
+            int segments = 1 + random.nextInt(6);
+            for (int j = 0; j < segments; j++)
+            {
+                uri.append('/').append(parts[random.nextInt(parts.length)]);
+            }
+            assertEquivalent(jaxrs, trie, random.nextBoolean() ? "GET" : "POST", uri.toString());
+        }
+    }
+
+    public void testVariableSpan()
+    {
+        UriIndex trie = new RadixTrieUriIndex();
+        trie.registerUri(new TestWebScript("a.get", "GET", Description.FormatStyle.any), "/a/{a}");
+        trie.registerUri(new TestWebScript("b.get", "GET", Description.FormatStyle.any), "/a/{a}/b");
+        trie.registerUri(new TestWebScript("c.get", "GET", Description.FormatStyle.argument), "/c/{c}.json");
+
+        // a variable in the final segment spans the remaining segments
+        Match match = trie.findWebScript("GET", "/a/x/y/z");
+        assertEquals("/a/{a}", match.getTemplate());
+        assertEquals("x/y/z", match.getTemplateVars().get("a"));
+        match = trie.findWebScript("GET", "/c/x/y.json");
+        assertEquals("/c/{c}.json", match.getTemplate());
+        assertEquals("x/y", match.getTemplateVars().get("c"));
+
+        // a variable followed by more of the template matches a single segment
+        match = trie.findWebScript("GET", "/a/x/b");
+        assertEquals("/a/{a}/b", match.getTemplate());
+        match = trie.findWebScript("GET", "/a/x/y/b");
+        assertEquals("/a/{a}", match.getTemplate());
+        assertEquals("x/y/b", match.getTemplateVars().get("a"));
+    }
+
+    public void testDuplicateUri()
+    {
+        UriIndex trie = new RadixTrieUriIndex();
+        trie.registerUri(new TestWebScript("a.get", "GET", Description.FormatStyle.any), "/a/{b}");
+        try
+        {
+            trie.registerUri(new TestWebScript("b.get", "GET", Description.FormatStyle.any), "/a/{c}");
+            fail("Failed to catch url already defined by another web script");
+        }
+        catch (WebScriptException e) {};
+
+        trie.clear();
+        assertEquals(0, trie.getSize());
+        assertNull(trie.findWebScript("GET", "/a/1"));
+    }
+
+    private void register(UriIndex jaxrs, UriIndex trie, Description.FormatStyle formatStyle)
+    {
+        List<WebScript> scripts = new ArrayList<WebScript>();
+        for (String[] template : TEMPLATES)
+        {
+            String id = template[1] + "." + template[0].toLowerCase();
+            scripts.add(new TestWebScript(id, template[0], formatStyle));
+        }
+        for (int i = 0; i < TEMPLATES.length; i++)
+        {
+            jaxrs.registerUri(scripts.get(i), TEMPLATES[i][1]);
+            trie.registerUri(scripts.get(i), TEMPLATES[i][1]);
+        }
+    }
+
+    private void assertEquivalent(UriIndex jaxrs, UriIndex trie, String method, String uri)
+    {
+        Match expected = jaxrs.findWebScript(method, uri);
+        Match actual = trie.findWebScript(method, uri);
+        String msg = method + " " + uri;
+        if (expected == null)
+        {
+            assertNull(msg, actual);
+            return;
+        }
+        if (spansSegments(expected))
+        {
+            // only matched by a variable spanning segments in the middle of the template
+            assertTrue(msg, actual == null || !expected.getTemplate().equals(actual.getTemplate()));
+            return;
+        }
+        assertNotNull(msg, actual);
+        assertEquals(msg, expected.getKind(), actual.getKind());
+        assertEquals(msg, expected.getTemplate(), actual.getTemplate());
+        assertEquals(msg, expected.getPath(), actual.getPath());
+        assertEquals(msg, expected.getTemplateVars(), actual.getTemplateVars());
+        assertSame(msg, expected.getWebScript(), actual.getWebScript());
+    }
+
+    private static boolean spansSegments(Match match)
+    {
+        String template = match.getTemplate();
+        String last = template.substring(template.lastIndexOf('/'));
+        for (Map.Entry<String, String> var : match.getTemplateVars().entrySet())
+        {
+            if (var.getValue().indexOf('/') != -1 && last.indexOf("{" + var.getKey() + "}") == -1)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Minimal web script used to populate the indexes
+     */
+    private static class TestWebScript implements WebScript
+    {
+        private DescriptionImpl description = new DescriptionImpl();
+
+        TestWebScript(String id, String method, Description.FormatStyle formatStyle)
+        {
+            description.setId(id);
+            description.setDescPath(id + ".desc.xml");
+            description.setMethod(method);
+            description.setFormatStyle(formatStyle);
+        }
+
+        public void init(Container container, Description description)
+        {
+        }
+
+        public Description getDescription()
+        {
+            return description;
+        }
+
+        public ResourceBundle getResources()
+        {
+            return null;
+        }
+
+        public void execute(WebScriptRequest req, WebScriptResponse res) throws IOException
+        {
+        }
+
+        public void setURLModelFactory(URLModelFactory urlModelFactory)
+        {
+        }
+    }
+}
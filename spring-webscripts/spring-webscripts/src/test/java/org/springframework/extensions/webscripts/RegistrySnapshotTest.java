@@ -0,0 +1,115 @@
+/**
+ * Copyright (C) 2005-2009 Alfresco Software Limited.
+ *
+ * This file is part of the Spring Surf Extension project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.extensions.webscripts;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import junit.framework.TestCase;
+
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+
+
+/**
+ * Test the Declarative Registry restores the same Web Scripts from its snapshot as it registers from the stores
+ */
+public class RegistrySnapshotTest extends TestCase
+{
+    private ClassPathXmlApplicationContext context;
+    private DeclarativeRegistry registry;
+    private File snapshotFile;
+
+    public void setUp() throws Exception
+    {
+        context = new ClassPathXmlApplicationContext(new String[] {
+                "classpath:org/springframework/extensions/webscripts/spring-webscripts-application-context.xml",
+                "classpath:org/springframework/extensions/webscripts/test/spring-webscripts-server-test-context.xml" });
+        registry = (DeclarativeRegistry)context.getBean("webscripts.registry");
+        snapshotFile = File.createTempFile("webscripts", ".snapshot");
+        snapshotFile.delete();
+    }
+
+    public void tearDown() throws Exception
+    {
+        snapshotFile.delete();
+        context.close();
+    }
+
+    public void testRestore() throws Exception
+    {
+        registry.reset();
+        List<String> expected = describe(registry);
+
+        // a reset saves the snapshot...
+        registry.setSnapshotFile(snapshotFile.getPath());
+        registry.reset();
+        assertTrue(snapshotFile.exists());
+        assertEquals(expected, describe(registry));
+        Map<String, String> expectedFailures = new TreeMap<String, String>(registry.getFailures());
+        assertFalse(expectedFailures.isEmpty());
+
+        // ...which the next reset restores
+        long saved = snapshotFile.lastModified();
+        registry.reset();
+        assertEquals(saved, snapshotFile.lastModified());
+        assertEquals(expected, describe(registry));
+        assertEquals(expectedFailures, registry.getFailures());
+        assertNotNull(registry.findWebScript("POST", "/test/jsonecho").getWebScript());
+    }
+
+    public void testCorruptSnapshot() throws Exception
+    {
+        registry.reset();
+        List<String> expected = describe(registry);
+
+        FileOutputStream out = new FileOutputStream(snapshotFile);
+        out.write("not a snapshot".getBytes("UTF-8"));
+        out.close();
+
+        registry.setSnapshotFile(snapshotFile.getPath());
+        registry.reset();
+        assertEquals(expected, describe(registry));
+    }
+
+    private static List<String> describe(DeclarativeRegistry registry)
+    {
+        List<String> scripts = new ArrayList<String>();
+        for (WebScript script : registry.getWebScripts())
+        {
+            Description desc = script.getDescription();
+            StringBuilder builder = new StringBuilder();
+            builder.append(desc.getId()).append(' ').append(desc.getStorePath()).append(' ').append(desc.getMethod())
+                   .append(' ').append(desc.getKind()).append(' ').append(desc.getFormatStyle())
+                   .append(' ').append(desc.getDefaultFormat()).append(' ').append(desc.getRequiredAuthentication())
+                   .append(' ').append(desc.getRequiredTransaction()).append(' ').append(desc.getLifecycle())
+                   .append(' ').append(desc.getFamilys()).append(' ').append(desc.getRequiredCache().getNeverCache())
+                   .append(' ').append(desc.getPackage().getPath());
+            for (String uri : desc.getURIs())
+            {
+                builder.append(' ').append(uri);
+            }
+            scripts.add(builder.toString());
+        }
+        return scripts;
+    }
+}
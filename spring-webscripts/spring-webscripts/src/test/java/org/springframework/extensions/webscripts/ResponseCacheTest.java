@@ -0,0 +1,87 @@
+/**
+ * Copyright (C) 2005-2009 Alfresco Software Limited.
+ *
+ * This file is part of the Spring Surf Extension project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.extensions.webscripts;
+
+import junit.framework.TestCase;
+
+import org.springframework.extensions.webscripts.TestWebScriptServer.GetRequest;
+import org.springframework.extensions.webscripts.TestWebScriptServer.Response;
+
+/**
+ * Test the server-side response cache replays public GET responses
+ */
+public class ResponseCacheTest extends TestCase
+{
+    private static final TestWebScriptServer TEST_SERVER = TestWebScriptServer.getTestServer();
+
+    private AbstractRuntimeContainer container;
+    private ResponseCache responseCache;
+
+    public void setUp() throws Exception
+    {
+        container = (AbstractRuntimeContainer)TEST_SERVER.container;
+        responseCache = new ResponseCache();
+        container.setResponseCache(responseCache);
+    }
+
+    public void tearDown() throws Exception
+    {
+        container.setResponseCache(null);
+    }
+
+    public void testReplay() throws Exception
+    {
+        Response first = TEST_SERVER.submitRequest(new GetRequest("/test/cached?a=1"));
+        assertEquals(200, first.getStatus());
+        Response second = TEST_SERVER.submitRequest(new GetRequest("/test/cached?a=1"));
+        assertEquals(200, second.getStatus());
+        assertEquals(first.getContentAsString(), second.getContentAsString());
+        assertEquals(first.getContentType(), second.getContentType());
+        assertEquals(first.getHeader("Cache-Control"), second.getHeader("Cache-Control"));
+        assertEquals(1, responseCache.getHitCount());
+
+        // a different URL is a different response
+        Response other = TEST_SERVER.submitRequest(new GetRequest("/test/cached?a=2"));
+        assertTrue(other.getContentAsString().startsWith("2 "));
+        assertFalse(first.getContentAsString().substring(2).equals(other.getContentAsString().substring(2)));
+
+        // a reset discards the cached responses
+        container.reset();
+        Response third = TEST_SERVER.submitRequest(new GetRequest("/test/cached?a=1"));
+        assertFalse(first.getContentAsString().equals(third.getContentAsString()));
+    }
+
+    public void testNotCachable() throws Exception
+    {
+        TEST_SERVER.submitRequest(new GetRequest("/test/exception?a=1"));
+        TEST_SERVER.submitRequest(new GetRequest("/test/exception?a=1"));
+        assertEquals(0, responseCache.getHitCount());
+        assertEquals(0, responseCache.size());
+    }
+
+    public void testAuthenticatedNotCachable() throws Exception
+    {
+        DescriptionImpl description = ((DescriptionImpl)container.getRegistry().getWebScript("org/alfresco/test/cached.get").getDescription()).copy();
+        assertTrue(responseCache.isCachable("GET", description));
+        description.setRequiredAuthentication(Description.RequiredAuthentication.user);
+        assertFalse(responseCache.isCachable("GET", description));
+        description.setRequiredAuthentication(Description.RequiredAuthentication.guest);
+        assertFalse(responseCache.isCachable("GET", description));
+    }
+}
@@ -0,0 +1,166 @@
+/**
+ * Copyright (C) 2005-2009 Alfresco Software Limited.
+ *
+ * This file is part of the Spring Surf Extension project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.extensions.webscripts;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import junit.framework.TestCase;
+
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.extensions.webscripts.connector.Connector;
+import org.springframework.extensions.webscripts.connector.ConnectorContext;
+import org.springframework.extensions.webscripts.connector.ConnectorSession;
+import org.springframework.extensions.webscripts.connector.Credentials;
+import org.springframework.extensions.webscripts.connector.Response;
+import org.springframework.extensions.webscripts.connector.ResponseStatus;
+
+/**
+ * Test the script remote connector issues batches of calls concurrently
+ */
+public class ScriptRemoteConnectorTest extends TestCase
+{
+    public void testCallAll() throws Exception
+    {
+        ScriptRemoteConnector connector = new ScriptRemoteConnector(new DelayingConnector(), null);
+
+        // the calls overlap - the batch takes as long as the slowest call
+        long start = System.currentTimeMillis();
+        Response[] responses = connector.getAll(Arrays.asList("/300", "/200", "/300"));
+        long elapsed = System.currentTimeMillis() - start;
+        assertEquals(3, responses.length);
+        assertEquals("GET /300", responses[0].getResponse());
+        assertEquals("GET /200", responses[1].getResponse());
+        assertEquals("GET /300", responses[2].getResponse());
+        assertTrue("Calls did not overlap: " + elapsed + "ms", elapsed < 800L);
+
+        // a call that does not complete before the deadline is given a 504 response
+        Map<String, Object> post = new HashMap<String, Object>();
+        post.put("uri", "/0");
+        post.put("method", "post");
+        post.put("body", "{}");
+        responses = connector.callAll(Arrays.asList("/2000", post), 0L, 200L);
+        assertEquals(ResponseStatus.STATUS_GATEWAY_TIMEOUT, responses[0].getStatus().getCode());
+        assertEquals("POST /0", responses[1].getResponse());
+
+        // per call timeouts
+        Map<String, Object> slow = new HashMap<String, Object>();
+        slow.put("uri", "/2000");
+        slow.put("timeout", Integer.valueOf(100));
+        responses = connector.callAll(Arrays.asList(slow, "/300"), 1000L, 0L);
+        assertEquals(ResponseStatus.STATUS_GATEWAY_TIMEOUT, responses[0].getStatus().getCode());
+        assertEquals(ResponseStatus.STATUS_OK, responses[1].getStatus().getCode());
+
+        // a call rejected by the executor is given a 503 response - the other calls are still made
+        responses = connector.getAll(Arrays.asList("/reject", "/0"));
+        assertEquals(ResponseStatus.STATUS_SERVICE_UNAVAILABLE, responses[0].getStatus().getCode());
+        assertEquals("GET /0", responses[1].getResponse());
+    }
+
+    /**
+     * Connector which responds after the number of milliseconds given by the uri
+     */
+    private static class DelayingConnector implements Connector
+    {
+        public CompletableFuture<Response> callAsync(final String uri, final ConnectorContext context, InputStream in)
+        {
+            if (uri.equals("/reject"))
+            {
+                throw new TaskRejectedException("Executor saturated");
+            }
+            return CompletableFuture.supplyAsync(new Supplier<Response>()
+            {
+                public Response get()
+                {
+                    try
+                    {
+                        Thread.sleep(Long.parseLong(uri.substring(1)));
+                    }
+                    catch (InterruptedException e)
+                    {
+                        Thread.currentThread().interrupt();
+                    }
+                    ResponseStatus status = new ResponseStatus();
+                    status.setCode(ResponseStatus.STATUS_OK);
+                    return new Response(context.getMethod() + " " + uri, status);
+                }
+            });
+        }
+
+        public Response call(String uri)
+        {
+            return call(uri, null);
+        }
+
+        public Response call(String uri, ConnectorContext context)
+        {
+            return callAsync(uri, context).join();
+        }
+
+        public Response call(String uri, ConnectorContext context, InputStream in)
+        {
+            return callAsync(uri, context, in).join();
+        }
+
+        public Response call(String uri, ConnectorContext context, InputStream in, OutputStream out)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        public Response call(String uri, ConnectorContext context, HttpServletRequest req, HttpServletResponse res)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        public void setCredentials(Credentials credentials)
+        {
+        }
+
+        public Credentials getCredentials()
+        {
+            return null;
+        }
+
+        public void setEndpoint(String endpoint)
+        {
+        }
+
+        public String getEndpoint()
+        {
+            return "delaying";
+        }
+
+        public void setConnectorSession(ConnectorSession connectorSession)
+        {
+        }
+
+        public ConnectorSession getConnectorSession()
+        {
+            return null;
+        }
+    }
+}
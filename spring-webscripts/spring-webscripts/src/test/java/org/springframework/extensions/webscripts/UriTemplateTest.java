@@ -0,0 +1,140 @@
+/**
+ * Copyright (C) 2005-2009 Alfresco Software Limited.
+ *
+ * This file is part of the Spring Surf Extension project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.extensions.webscripts;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Matcher;
+
+import junit.framework.TestCase;
+
+
+/**
+ * Test the compiled Uri Template matcher produces the same matches as the Uri Template regular expression
+ */
+public class UriTemplateTest extends TestCase
+{
+    private static final String[] TEMPLATES = new String[]
+    {
+        "/", "/a", "/a/b", "/a/{a1}", "/a/{a1}/b", "/a/{a1}/b/b{b1}b", "/a/b{b}/{c}", "/{x}", "/{x}/{y}", "/{x}{y}",
+        "/c/d/{e}/{f}", "/api/node/{store_type}/{store_id}/{id}/content{property}", "/semi;colon/{x}",
+        "/dup/{a}/{a}", "/dup/{a}-{a}", "/ext/{name}.json", "/trailing/", "/{a}/x/{b}/x/{c}", "/a-b/{c}"
+    };
+
+    private static final String[] PARTS = new String[] { "a", "b", "bb", "bzb", "c", "x", "1", "-", ";", ".json", "content", "\n", "" };
+
+
+    public void testEquivalence()
+    {
+        Random random = new Random(42);
+        UriTemplate.Captures captures = new UriTemplate.Captures();
+        for (String template : TEMPLATES)
+        {
+            UriTemplate uriTemplate = new UriTemplate(template);
+            for (int i = 0; i < 2000; i++)
+            {
+                String uri = randomUri(random);
+                Map<String, String> expected = regexMatch(uriTemplate, uri);
+                assertEquals(template + " " + uri, expected, uriTemplate.match(uri));
+                assertEquals(template + " " + uri, expected != null, uriTemplate.match(uri, captures));
+            }
+        }
+    }
+
+    public void testMatch()
+    {
+        UriTemplate template = new UriTemplate("/a/{b}/c/{d}");
+        UriTemplate.Captures captures = new UriTemplate.Captures();
+        assertTrue(template.match("/a/1/c/2/c/3", captures));
+        assertSame(template, captures.getTemplate());
+        assertEquals("1", captures.getValue("b"));
+        assertEquals("2/c/3", captures.getValue("d"));
+        assertNull(captures.getValue("x"));
+        assertFalse(template.match("/a/1/d/2", captures));
+        assertFalse(template.match("", captures));
+        assertNull(template.match(null));
+
+        UriTemplate dup = new UriTemplate("/dup/{a}/{a}");
+        assertEquals("fred", dup.match("/dup/fred/fred").get("a"));
+        assertNull(dup.match("/dup/fred/bob"));
+        assertTrue(new UriTemplate("/").match("/").isEmpty());
+    }
+
+    /**
+     * Compares the compiled matcher with the regular expression
+     */
+    public void testCompare()
+    {
+        UriTemplate[] templates = new UriTemplate[TEMPLATES.length];
+        for (int i = 0; i < templates.length; i++)
+        {
+            templates[i] = new UriTemplate(TEMPLATES[i]);
+        }
+        String[] uris = new String[] { "/a/1/b/bzb", "/api/node/workspace/SpacesStore/1234/content;cm:thumb", "/unknown/uri/of/some/length" };
+        UriTemplate.Captures captures = new UriTemplate.Captures();
+
+        for (UriTemplate template : templates)
+        {
+            for (String uri : uris)
+            {
+                assertEquals(template + " " + uri, regexMatch(template, uri) != null, template.match(uri, captures));
+            }
+        }
+    }
+
+    private static String randomUri(Random random)
+    {
+        StringBuilder uri = new StringBuilder();
+        int segments = random.nextInt(6);
+        for (int j = 0; j < segments; j++)
+        {
+            if (random.nextInt(4) != 0)
+            {
+                uri.append('/');
+            }
+            uri.append(PARTS[random.nextInt(PARTS.length)]);
+        }
+        return uri.length() == 0 ? "/" : uri.toString();
+    }
+
+    /**
+     * The regular expression match the compiled matcher replaces
+     */
+    private static Map<String, String> regexMatch(UriTemplate template, String uri)
+    {
+        Matcher m = template.getRegex().matcher(uri);
+        if (!m.matches())
+        {
+            return null;
+        }
+        Map<String, String> values = new HashMap<String, String>();
+        String[] vars = template.getVariableNames();
+        for (int i = 0; i < m.groupCount(); i++)
+        {
+            String existingValue = values.get(vars[i]);
+            if (existingValue != null && !existingValue.equals(m.group(i + 1)))
+            {
+                return null;
+            }
+            values.put(vars[i], m.group(i + 1));
+        }
+        return values;
+    }
+}
@@ -0,0 +1,152 @@
+/**
+ * Copyright (C) 2005-2009 Alfresco Software Limited.
+ *
+ * This file is part of the Spring Surf Extension project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.extensions.webscripts.connector;
+
+import junit.framework.TestCase;
+
+import org.dom4j.DocumentHelper;
+import org.springframework.extensions.config.RemoteConfigElement;
+import org.springframework.extensions.config.RemoteConfigElement.ConnectorDescriptor;
+import org.springframework.extensions.config.RemoteConfigElementReader;
+import org.springframework.extensions.webscripts.TestWebScriptServer;
+import org.springframework.extensions.webscripts.connector.CircuitBreaker.State;
+
+/**
+ * Test the circuit breaker opens on failing endpoints and probes them before closing again
+ */
+public class CircuitBreakerTest extends TestCase
+{
+    public void testStateTransitions() throws Exception
+    {
+        CircuitBreaker breaker = new CircuitBreaker("test", 10, 4, 50, 1000L, 100, 100L, 2);
+
+        // failures below the minimum number of calls don't open the circuit
+        for (int i = 0; i < 3; i++)
+        {
+            assertTrue(breaker.tryAcquirePermission());
+            breaker.onResult(10L, true);
+        }
+        assertEquals(State.CLOSED, breaker.getState());
+
+        // the window has reached the failure rate
+        assertTrue(breaker.tryAcquirePermission());
+        breaker.onResult(10L, false);
+        assertEquals(State.OPEN, breaker.getState());
+        assertFalse(breaker.isCallPermitted());
+        assertFalse(breaker.tryAcquirePermission());
+        assertEquals(1L, breaker.getRejectedCallCount());
+
+        // after the open duration a limited number of probes are allowed
+        Thread.sleep(150L);
+        assertTrue(breaker.isCallPermitted());
+        assertTrue(breaker.tryAcquirePermission());
+        assertEquals(State.HALF_OPEN, breaker.getState());
+        assertTrue(breaker.tryAcquirePermission());
+        assertFalse(breaker.tryAcquirePermission());
+
+        // a failed probe opens the circuit again
+        breaker.onResult(10L, false);
+        breaker.onResult(10L, true);
+        assertEquals(State.OPEN, breaker.getState());
+
+        Thread.sleep(150L);
+        assertTrue(breaker.tryAcquirePermission());
+        assertTrue(breaker.tryAcquirePermission());
+        breaker.onResult(10L, false);
+        breaker.onResult(10L, false);
+        assertEquals(State.CLOSED, breaker.getState());
+        assertEquals(0, breaker.getFailureRate());
+        assertEquals(2L, breaker.getOpenedCount());
+        assertEquals(2L, breaker.getHalfOpenedCount());
+        assertEquals(1L, breaker.getClosedCount());
+
+        // slow calls open the circuit as well
+        for (int i = 0; i < 4; i++)
+        {
+            assertTrue(breaker.tryAcquirePermission());
+            breaker.onResult(2000L, false);
+        }
+        assertEquals(State.OPEN, breaker.getState());
+        assertEquals(4L, breaker.getSlowCallCount());
+    }
+
+    public void testRemoteClient() throws Exception
+    {
+        // nothing listens on the endpoint - each call fails to connect
+        String endpoint = "http://localhost:2";
+        EndpointManager.registerEndpoint(endpoint, getConnectorDescriptor(
+                "<connector><id>breaker</id><circuit-breaker><minimum-calls>10</minimum-calls></circuit-breaker></connector>"));
+        CircuitBreaker breaker = EndpointManager.getCircuitBreaker(endpoint);
+
+        RemoteClient remote = (RemoteClient)TestWebScriptServer.getTestServer().getApplicationContext().getBean("connector.remoteclient");
+        remote.setEndpoint(endpoint);
+        for (int i = 0; i < 10; i++)
+        {
+            assertEquals(ResponseStatus.STATUS_SERVICE_UNAVAILABLE, remote.call("/").getStatus().getCode());
+        }
+        assertEquals(State.OPEN, breaker.getState());
+        assertEquals(10L, breaker.getFailedCallCount());
+        assertFalse(EndpointManager.allowConnect(endpoint));
+
+        // further calls are refused without connecting
+        assertEquals(ResponseStatus.STATUS_SERVICE_UNAVAILABLE, remote.call("/").getStatus().getCode());
+        assertEquals(1L, breaker.getRejectedCallCount());
+        assertEquals(10L, breaker.getFailedCallCount());
+
+        // a refused call resets the request state like any other call
+        String defaultContentType = remote.getRequestContentType();
+        remote.setRequestMethod(HttpMethod.PUT);
+        remote.setRequestContentType("application/json");
+        assertEquals(ResponseStatus.STATUS_SERVICE_UNAVAILABLE, remote.call("/", "{}").getStatus().getCode());
+        assertEquals(HttpMethod.GET, remote.getRequestMethod());
+        assertEquals(defaultContentType, remote.getRequestContentType());
+    }
+
+    public void testNotConfigured() throws Exception
+    {
+        // without a circuit breaker the endpoint is retried straight away, unless a reconnect timeout is set
+        String endpoint = "http://localhost:4";
+        EndpointManager.registerEndpoint(endpoint, getConnectorDescriptor("<connector><id>plain</id></connector>"));
+        assertNull(EndpointManager.getCircuitBreaker(endpoint));
+
+        RemoteClient remote = (RemoteClient)TestWebScriptServer.getTestServer().getApplicationContext().getBean("connector.remoteclient");
+        remote.setEndpoint(endpoint);
+        for (int i = 0; i < 12; i++)
+        {
+            assertEquals(ResponseStatus.STATUS_SERVICE_UNAVAILABLE, remote.call("/").getStatus().getCode());
+            assertFalse(EndpointManager.processResponseCode(endpoint, ResponseStatus.STATUS_SERVICE_UNAVAILABLE));
+            assertTrue(EndpointManager.allowConnect(endpoint));
+        }
+
+        endpoint = "http://localhost:5";
+        EndpointManager.registerEndpoint(endpoint, getConnectorDescriptor(
+                "<connector><id>reconnect</id><reconnect-timeout>60000</reconnect-timeout></connector>"));
+        assertNull(EndpointManager.getCircuitBreaker(endpoint));
+        assertTrue(EndpointManager.allowConnect(endpoint));
+        EndpointManager.processResponseCode(endpoint, ResponseStatus.STATUS_SERVICE_UNAVAILABLE);
+        assertFalse(EndpointManager.allowConnect(endpoint));
+    }
+
+    private static ConnectorDescriptor getConnectorDescriptor(String xml) throws Exception
+    {
+        RemoteConfigElement config = (RemoteConfigElement)new RemoteConfigElementReader().parse(
+                DocumentHelper.parseText("<remote>" + xml + "</remote>").getRootElement());
+        return config.getConnectorDescriptor(config.getConnectorIds()[0]);
+    }
+}
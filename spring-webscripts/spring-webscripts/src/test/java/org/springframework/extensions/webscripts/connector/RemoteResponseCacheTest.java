@@ -0,0 +1,138 @@
+/**
+ * Copyright (C) 2005-2009 Alfresco Software Limited.
+ *
+ * This file is part of the Spring Surf Extension project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.extensions.webscripts.connector;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.springframework.extensions.webscripts.TestWebScriptServer;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Test the remote response cache serves fresh responses and revalidates stale ones
+ */
+public class RemoteResponseCacheTest extends TestCase
+{
+    private HttpServer server;
+    private AtomicInteger requests = new AtomicInteger();
+    private AtomicInteger notModified = new AtomicInteger();
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", new HttpHandler()
+        {
+            public void handle(HttpExchange exchange) throws IOException
+            {
+                int count = requests.incrementAndGet();
+                String path = exchange.getRequestURI().getPath();
+                if (path.equals("/fresh"))
+                {
+                    exchange.getResponseHeaders().set("Cache-Control", "private, max-age=60");
+                }
+                else if (path.equals("/etag"))
+                {
+                    exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+                    exchange.getResponseHeaders().set("ETag", "\"v1\"");
+                    if ("\"v1\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match")))
+                    {
+                        notModified.incrementAndGet();
+                        exchange.sendResponseHeaders(304, -1);
+                        exchange.close();
+                        return;
+                    }
+                }
+                else
+                {
+                    exchange.getResponseHeaders().set("Cache-Control", "no-store");
+                }
+                byte[] body = (exchange.getRequestMethod() + " " + path + " " + count).getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "text/plain;charset=UTF-8");
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        server.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        server.stop(0);
+    }
+
+    public void testResponseCache() throws Exception
+    {
+        RemoteResponseCache cache = new RemoteResponseCache();
+        RemoteClient remote = (RemoteClient)TestWebScriptServer.getTestServer().getApplicationContext().getBean("connector.remoteclient");
+        remote.setEndpoint("http://localhost:" + server.getAddress().getPort());
+        remote.setResponseCache(cache);
+
+        // a fresh response is served without calling the endpoint
+        String body = remote.call("/fresh").getResponse();
+        assertEquals("GET /fresh 1", body);
+        Response response = remote.call("/fresh");
+        assertEquals(200, response.getStatus().getCode());
+        assertEquals(body, response.getResponse());
+        assertEquals("UTF-8", response.getEncoding());
+        assertEquals(1, requests.get());
+        assertEquals(1L, cache.getHitCount());
+
+        // a response that must be revalidated is served again once the endpoint reports it not modified
+        body = remote.call("/etag").getResponse();
+        response = remote.call("/etag");
+        assertEquals(200, response.getStatus().getCode());
+        assertEquals(body, response.getResponse());
+        assertEquals(3, requests.get());
+        assertEquals(1, notModified.get());
+        assertEquals(1L, cache.getRevalidationCount());
+
+        // responses are not shared between users
+        remote.setTicket("other");
+        assertEquals("GET /fresh 4", remote.call("/fresh").getResponse());
+        remote.setTicket(null);
+
+        // an unsafe method invalidates the cached response
+        remote.setRequestMethod(HttpMethod.DELETE);
+        remote.call("/fresh");
+        assertEquals("GET /fresh 6", remote.call("/fresh").getResponse());
+
+        // uncachable responses are not stored
+        remote.call("/none");
+        remote.call("/none");
+        assertEquals(8, requests.get());
+
+        assertEquals(1L, cache.getHitCount());
+        assertEquals(1L, cache.getRevalidationCount());
+        assertEquals(6L, cache.getMissCount());
+        assertEquals(0.25d, cache.getHitRatio(), 0.0001d);
+        assertEquals(3, cache.size());
+    }
+}
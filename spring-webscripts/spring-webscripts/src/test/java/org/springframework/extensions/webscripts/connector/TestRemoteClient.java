@@ -18,8 +18,27 @@
 
 package org.springframework.extensions.webscripts.connector;
 
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.URL;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
 import junit.framework.TestCase;
 
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpHost;
+import org.apache.http.client.HttpClient;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ConnectionRequest;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.springframework.context.ApplicationContext;
+import org.springframework.extensions.config.ConfigService;
+import org.springframework.extensions.webscripts.TestWebScriptServer;
+
 /**
  * JUnit test for Remote HTTP client.
  * 
@@ -41,4 +60,145 @@ public class TestRemoteClient extends TestCase
       //res = remote.call("/index", "");
       //assertEquals(200, res.getStatus().getCode());
    }
+   
+   public void testHttpClientReuse() throws Exception
+   {
+      // the configured bean - with the shared connection pools
+      ApplicationContext context = TestWebScriptServer.getTestServer().getApplicationContext();
+      RemoteClient remote = (RemoteClient)context.getBean("connector.remoteclient");
+      URL url = new URL("http://localhost:8080/alfresco/service/index");
+      HttpClient client = remote.createHttpClient(url);
+      assertSame(client, remote.createHttpClient(url));
+      assertSame(client, ((RemoteClient)remote.clone()).createHttpClient(url));
+      
+      // different settings need a different client
+      remote.setReadTimeout(5000);
+      HttpClient other = remote.createHttpClient(url);
+      assertNotSame(client, other);
+      assertSame(other, remote.createHttpClient(url));
+      
+      // a client is shared by all URLs of the same endpoint
+      assertSame(other, remote.createHttpClient(new URL("http://localhost:8080/alfresco/service/other")));
+      
+      // and by all the prototype beans - the clients are closed with the shared connection pools
+      RemoteClient fresh = (RemoteClient)context.getBean("connector.remoteclient");
+      assertNotSame(remote, fresh);
+      assertSame(client, fresh.createHttpClient(url));
+   }
+   
+   public void testCallAsync() throws Exception
+   {
+      RemoteClient remote = (RemoteClient)TestWebScriptServer.getTestServer().getApplicationContext().getBean("connector.remoteclient");
+      remote.setEndpoint("http://localhost:1");
+      
+      // the async call completes with the same response as the blocking call - here, connection refused
+      Response res = remote.callAsync("/").get(30, TimeUnit.SECONDS);
+      assertEquals(remote.call("/").getStatus().getCode(), res.getStatus().getCode());
+   }
+   
+   public void testCallAsyncCancel() throws Exception
+   {
+      // a server which accepts the call but never responds
+      ServerSocket server = new ServerSocket(0);
+      try
+      {
+         RemoteClient remote = (RemoteClient)TestWebScriptServer.getTestServer().getApplicationContext().getBean("connector.remoteclient");
+         remote.setEndpoint("http://localhost:" + server.getLocalPort());
+         CompletableFuture<Response> future = remote.callAsync("/");
+         server.setSoTimeout(10000);
+         Socket socket = server.accept();
+         try
+         {
+            // cancelling the call aborts the request - closing the connection rather than waiting for the response
+            assertTrue(future.cancel(false));
+            socket.setSoTimeout(5000);
+            InputStream in = socket.getInputStream();
+            byte[] buffer = new byte[1024];
+            try
+            {
+               while (in.read(buffer) != -1)
+               {
+               }
+            }
+            catch (SocketException err)
+            {
+               // connection reset by the client
+            }
+         }
+         finally
+         {
+            socket.close();
+         }
+      }
+      finally
+      {
+         server.close();
+      }
+   }
+   
+   public void testConnectionPools() throws Exception
+   {
+      ApplicationContext context = TestWebScriptServer.getTestServer().getApplicationContext();
+      ConnectionPools pools = (ConnectionPools)context.getBean("connector.remoteclient.connectionpools");
+      
+      // the pool of a configured endpoint takes its limits from the endpoint config
+      assertEquals(20, pools.getConnectionManager("http://localhost:8080/alfresco/s").getMaxTotal());
+      
+      // the urls without an endpoint config share the default pool
+      assertEquals(ConnectionPools.DEFAULT_POOL, pools.getPoolName("http://localhost:3"));
+      assertSame(pools.getConnectionManager("http://localhost:3"), pools.getConnectionManager("http://localhost:6"));
+      
+      // connections are leased from the pool of the endpoint - here, connection refused
+      RemoteClient remote = (RemoteClient)context.getBean("connector.remoteclient");
+      remote.setEndpoint("http://localhost:3");
+      ConnectionPools.Statistics stats = pools.getStatistics().get(ConnectionPools.DEFAULT_POOL);
+      long before = stats.getLeaseCount();
+      remote.call("/");
+      assertEquals(200, stats.getMax());
+      assertEquals(before + 1L, stats.getLeaseCount());
+      assertEquals(0, stats.getLeased());
+      long leases = 0L;
+      for (long count : stats.getLeaseWaitHistogram())
+      {
+         leases += count;
+      }
+      assertEquals(before + 1L, leases);
+      assertFalse(pools.getStatistics().containsKey("http://localhost:3"));
+   }
+   
+   public void testConnectionPoolsMaxTotal() throws Exception
+   {
+      ConnectionPools pools = new ConnectionPools();
+      pools.setConfigService((ConfigService)TestWebScriptServer.getTestServer().getApplicationContext().getBean("web.config"));
+      pools.setMaxTotal(1);
+      pools.init();
+      try
+      {
+         // the connections of all the pools count towards the total
+         PoolingHttpClientConnectionManager configured = pools.getConnectionManager("http://localhost:8080/alfresco/s");
+         PoolingHttpClientConnectionManager shared = pools.getConnectionManager("http://localhost:7");
+         assertNotSame(configured, shared);
+         HttpClientConnection connection = configured.requestConnection(new HttpRoute(new HttpHost("localhost", 8080)), null)
+               .get(1, TimeUnit.SECONDS);
+         ConnectionRequest request = shared.requestConnection(new HttpRoute(new HttpHost("localhost", 7)), null);
+         try
+         {
+            request.get(100, TimeUnit.MILLISECONDS);
+            fail("Leased more connections than the total");
+         }
+         catch (ConnectionPoolTimeoutException err)
+         {
+            // expected
+         }
+         
+         // a released connection may be leased from another pool
+         configured.releaseConnection(connection, null, 0L, TimeUnit.MILLISECONDS);
+         connection = shared.requestConnection(new HttpRoute(new HttpHost("localhost", 7)), null).get(1, TimeUnit.SECONDS);
+         shared.releaseConnection(connection, null, 0L, TimeUnit.MILLISECONDS);
+      }
+      finally
+      {
+         pools.destroy();
+      }
+   }
 }
@@ -0,0 +1,285 @@
+/**
+ * Copyright (C) 2005-2009 Alfresco Software Limited.
+ *
+ * This file is part of the Spring Surf Extension project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.extensions.webscripts.processor;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.mozilla.javascript.Context;
+import org.springframework.extensions.surf.core.processor.ProcessorExtension;
+import org.springframework.extensions.webscripts.TimestampedScriptContent;
+
+/**
+ * JSScriptProcessor compiled script cache tests
+ */
+public class JSScriptProcessorTest extends TestCase
+{
+    private JSScriptProcessor processor;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        processor = new JSScriptProcessor();
+        processor.initProcessor();
+    }
+
+    public void testCached()
+    {
+        TestScriptContent content = new TestScriptContent("test.js", "1 + 1;");
+        assertEquals(2, ((Number)processor.executeScript(content, null)).intValue());
+        content.source = "2 + 2;";
+        content.lastModified++;
+        assertEquals(2, ((Number)processor.executeScript(content, null)).intValue());
+        assertEquals(1, processor.getScriptCacheHitCount());
+        assertEquals(0, processor.getScriptCacheInvalidationCount());
+    }
+
+    public void testModified()
+    {
+        processor.setScriptCheckInterval(0L);
+        TestScriptContent content = new TestScriptContent("test.js", "1 + 1;");
+        assertEquals(2, ((Number)processor.executeScript(content, null)).intValue());
+        assertEquals(2, ((Number)processor.executeScript(content, null)).intValue());
+        content.source = "2 + 2;";
+        content.lastModified++;
+        assertEquals(4, ((Number)processor.executeScript(content, null)).intValue());
+        assertEquals(4, ((Number)processor.executeScript(content, null)).intValue());
+        assertEquals(1, processor.getScriptCacheInvalidationCount());
+        assertEquals(1, processor.getCachedScriptCount());
+    }
+
+    public void testBounded()
+    {
+        processor.setScriptCacheSize(10L);
+        for (int i = 0; i < 100; i++)
+        {
+            TestScriptContent content = new TestScriptContent("test" + i + ".js", i + ";");
+            assertEquals(i, ((Number)processor.executeScript(content, null)).intValue());
+            assertTrue(processor.getCachedScriptCount() <= 10);
+        }
+        assertEquals(100 - processor.getCachedScriptCount(), processor.getScriptCacheEvictionCount());
+    }
+
+    public void testSingleCompilation() throws Exception
+    {
+        final AtomicInteger reads = new AtomicInteger();
+        final TestScriptContent content = new TestScriptContent("slow.js", "6 * 7;")
+        {
+            @Override
+            public InputStream getInputStream()
+            {
+                reads.incrementAndGet();
+                try
+                {
+                    Thread.sleep(200L);
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+                return super.getInputStream();
+            }
+        };
+
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger results = new AtomicInteger();
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++)
+        {
+            threads[i] = new Thread()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        start.await();
+                        if (((Number)processor.executeScript(content, null)).intValue() == 42)
+                        {
+                            results.incrementAndGet();
+                        }
+                    }
+                    catch (InterruptedException e)
+                    {
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread : threads)
+        {
+            thread.join();
+        }
+
+        assertEquals(threads.length, results.get());
+        assertEquals(1, reads.get());
+        assertEquals(1, processor.getScriptCompileCount());
+        assertEquals(threads.length - 1, processor.getScriptCompileWaitCount() + processor.getScriptCacheHitCount());
+    }
+
+    public void testCompiledAfterCacheMiss() throws Exception
+    {
+        // another compilation of the script completes between the cache miss and the start of this one
+        final TestScriptContent other = new TestScriptContent("race.js", "6 * 7;");
+        TestScriptContent content = new TestScriptContent("race.js", "6 * 7;")
+        {
+            private int calls;
+
+            @Override
+            public String getPath()
+            {
+                if (++calls == 2)
+                {
+                    processor.executeScript(other, null);
+                }
+                return super.getPath();
+            }
+        };
+        assertEquals(42, ((Number)processor.executeScript(content, null)).intValue());
+        assertEquals(1, processor.getScriptCompileCount());
+    }
+
+    public void testPreparedScopes()
+    {
+        processor.setPrepareScopes(true);
+        processor.registerProcessorExtension(new TestExtension("ext"));
+        TestScriptContent content = new TestScriptContent("test.js", "var seen = typeof leaked; leaked = true; seen + ':' + ext.greet(name) + ':' + (typeof Math.max);");
+
+        Map<String, Object> model = new HashMap<String, Object>();
+        model.put("name", "world");
+        model.put("ext", "ignored");
+        assertEquals("undefined:ext world:function", processor.executeScript(content, model));
+        assertEquals("undefined:ext world:function", processor.executeScript(content, model));
+        assertEquals(2, model.size());
+
+        // extensions registered later are visible
+        processor.registerProcessorExtension(new TestExtension("other"));
+        assertEquals("other", processor.executeScript(new TestScriptContent("other.js", "String(other.greet('')).trim();"), null));
+    }
+
+    public void testPreparedScopesReuseContext()
+    {
+        TestExtension ext = new TestExtension("ext");
+        processor.registerProcessorExtension(ext);
+        TestScriptContent content = new TestScriptContent("context.js", "ext.record();");
+
+        // prepared scopes reuse the context of the thread
+        processor.setPrepareScopes(true);
+        processor.executeScript(content, null);
+        processor.executeScript(content, null);
+        assertSame(ext.contexts.get(0), ext.contexts.get(1));
+
+        // otherwise each execution enters a new context
+        processor.setPrepareScopes(false);
+        processor.executeScript(content, null);
+        processor.executeScript(content, null);
+        assertNotSame(ext.contexts.get(2), ext.contexts.get(3));
+    }
+
+    /**
+     * Processor extension used to populate the prepared scopes
+     */
+    public static class TestExtension implements ProcessorExtension
+    {
+        private final String name;
+        private final List<Context> contexts = new ArrayList<Context>();
+
+        TestExtension(String name)
+        {
+            this.name = name;
+        }
+
+        public String getExtensionName()
+        {
+            return name;
+        }
+
+        public String greet(String who)
+        {
+            return name + " " + who;
+        }
+
+        public void record()
+        {
+            contexts.add(Context.getCurrentContext());
+        }
+    }
+
+    /**
+     * Modifiable in-memory script content
+     */
+    private static class TestScriptContent implements TimestampedScriptContent
+    {
+        private final String path;
+        String source;
+        long lastModified = 1L;
+
+        TestScriptContent(String path, String source)
+        {
+            this.path = path;
+            this.source = source;
+        }
+
+        public InputStream getInputStream()
+        {
+            return new ByteArrayInputStream(source.getBytes(StandardCharsets.UTF_8));
+        }
+
+        public Reader getReader()
+        {
+            return new InputStreamReader(getInputStream(), StandardCharsets.UTF_8);
+        }
+
+        public String getPath()
+        {
+            return path;
+        }
+
+        public String getPathDescription()
+        {
+            return path;
+        }
+
+        public boolean isCachable()
+        {
+            return true;
+        }
+
+        public boolean isSecure()
+        {
+            return false;
+        }
+
+        public long getLastModified()
+        {
+            return lastModified;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/**
+ * Copyright (C) 2005-2009 Alfresco Software Limited.
+ *
+ * This file is part of the Spring Surf Extension project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.extensions.webscripts.processor;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.springframework.extensions.config.element.GenericConfigElement;
+import org.springframework.extensions.webscripts.ScriptableLinkedHashMap;
+import org.springframework.extensions.webscripts.TemplateConfigModel;
+import org.springframework.extensions.webscripts.json.JSONUtils;
+import org.springframework.extensions.webscripts.processor.FTLTemplateProcessor.NonBlockingObjectWrapper;
+
+import freemarker.template.Configuration;
+import freemarker.template.DefaultObjectWrapper;
+import freemarker.template.DefaultObjectWrapperBuilder;
+import freemarker.template.ObjectWrapper;
+import freemarker.template.TemplateHashModel;
+import freemarker.template.TemplateModel;
+import freemarker.template.TemplateScalarModel;
+
+/**
+ * NonBlockingObjectWrapper unit tests
+ */
+public class NonBlockingObjectWrapperTest extends TestCase
+{
+    private static final int THREADS = 32;
+    private static final int ITERATIONS = 500;
+
+    public void testSameModels() throws Exception
+    {
+        ObjectWrapper shared = new NonBlockingObjectWrapper();
+        DefaultObjectWrapper reference = new DefaultObjectWrapperBuilder(Configuration.VERSION_2_3_0).build();
+
+        GenericConfigElement element = new GenericConfigElement("flags");
+        element.setValue("value");
+        ScriptableLinkedHashMap<String, Object> map = new ScriptableLinkedHashMap<String, Object>();
+        map.put("element", element);
+        Object[] objects = { element, new JSONUtils(), new TemplateConfigModel(null, null), map, "text", 1, null };
+        for (Object obj : objects)
+        {
+            TemplateModel expected = reference.wrap(obj);
+            TemplateModel actual = shared.wrap(obj);
+            assertEquals(expected == null ? null : expected.getClass(), actual == null ? null : actual.getClass());
+        }
+
+        TemplateHashModel model = (TemplateHashModel)shared.wrap(map);
+        TemplateHashModel elementModel = (TemplateHashModel)model.get("element");
+        assertEquals("flags", ((TemplateScalarModel)elementModel.get("name")).getAsString());
+        assertEquals("value", ((TemplateScalarModel)elementModel.get("value")).getAsString());
+    }
+
+    public void testSharedAcrossThreads() throws Exception
+    {
+        final ObjectWrapper shared = new NonBlockingObjectWrapper();
+        final GenericConfigElement element = new GenericConfigElement("flags");
+        final AtomicInteger reads = new AtomicInteger();
+        final Exception[] failure = new Exception[1];
+
+        // wrap and read the common model types from fresh threads, as the request threads of a container
+        Thread[] threads = new Thread[THREADS];
+        for (int i = 0; i < THREADS; i++)
+        {
+            threads[i] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        for (int j = 0; j < ITERATIONS; j++)
+                        {
+                            TemplateScalarModel name = (TemplateScalarModel)((TemplateHashModel)shared.wrap(element)).get("name");
+                            TemplateModel method = ((TemplateHashModel)shared.wrap(new JSONUtils())).get("toJSONString");
+                            if ("flags".equals(name.getAsString()) && method != null)
+                            {
+                                reads.incrementAndGet();
+                            }
+                        }
+                    }
+                    catch (Exception e)
+                    {
+                        failure[0] = e;
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads)
+        {
+            thread.join();
+        }
+        if (failure[0] != null)
+        {
+            throw failure[0];
+        }
+        assertEquals(THREADS * ITERATIONS, reads.get());
+    }
+}
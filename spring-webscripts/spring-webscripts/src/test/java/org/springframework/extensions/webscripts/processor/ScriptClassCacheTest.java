@@ -0,0 +1,166 @@
+/**
+ * Copyright (C) 2005-2009 Alfresco Software Limited.
+ *
+ * This file is part of the Spring Surf Extension project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.extensions.webscripts.processor;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+
+import junit.framework.TestCase;
+
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.EvaluatorException;
+import org.mozilla.javascript.Script;
+import org.mozilla.javascript.Scriptable;
+
+/**
+ * ScriptClassCache unit tests
+ */
+public class ScriptClassCacheTest extends TestCase
+{
+    private static final String SOURCE = "function add(a, b) { return a + b; }\nadd(40, 2) + '/' + [1, 2, 3].length;";
+
+    private File directory;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        directory = File.createTempFile("scriptclasscache", "");
+        directory.delete();
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        File[] files = directory.listFiles();
+        for (int i = 0; files != null && i < files.length; i++)
+        {
+            files[i].delete();
+        }
+        directory.delete();
+    }
+
+    public void testCompileAndLoad() throws Exception
+    {
+        Context cx = Context.enter();
+        try
+        {
+            Script compiled = new ScriptClassCache(directory).getScript(cx, SOURCE, "test.js");
+            assertNotNull(compiled);
+            assertEquals("42/3", exec(cx, compiled));
+
+            File[] files = directory.listFiles();
+            assertEquals(1, files.length);
+            long lastModified = files[0].lastModified();
+
+            // a new cache over the same directory loads the stored classes
+            Script loaded = new ScriptClassCache(directory).getScript(cx, SOURCE, "test.js");
+            assertNotSame(compiled.getClass(), loaded.getClass());
+            assertEquals(compiled.getClass().getName(), loaded.getClass().getName());
+            assertEquals("42/3", exec(cx, loaded));
+            assertEquals(lastModified, files[0].lastModified());
+
+            // a different path or source is a different entry
+            new ScriptClassCache(directory).getScript(cx, SOURCE, "other.js");
+            new ScriptClassCache(directory).getScript(cx, SOURCE + " ", "test.js");
+            assertEquals(3, directory.listFiles().length);
+        }
+        finally
+        {
+            Context.exit();
+        }
+    }
+
+    public void testCorruptEntry() throws Exception
+    {
+        Context cx = Context.enter();
+        try
+        {
+            new ScriptClassCache(directory).getScript(cx, SOURCE, "test.js");
+            File file = directory.listFiles()[0];
+            FileOutputStream out = new FileOutputStream(file);
+            out.write(new byte[] { 1, 2, 3 });
+            out.close();
+
+            Script script = new ScriptClassCache(directory).getScript(cx, SOURCE, "test.js");
+            assertEquals("42/3", exec(cx, script));
+            assertTrue(file.length() > 3);
+
+            // readable entry holding invalid class files
+            DataOutputStream data = new DataOutputStream(new FileOutputStream(file));
+            data.writeInt(ScriptClassCache.MAGIC);
+            data.writeUTF("test.js");
+            data.writeInt(1);
+            data.writeUTF("org.springframework.extensions.webscripts.processor.compiled.Script_invalid");
+            data.writeInt(4);
+            data.write(new byte[] { (byte)0xCA, (byte)0xFE, (byte)0xBA, (byte)0xBE });
+            data.close();
+
+            script = new ScriptClassCache(directory).getScript(cx, SOURCE, "test.js");
+            assertEquals("42/3", exec(cx, script));
+            assertTrue(file.length() > 100);
+
+            // entries whose class count or length exceed the file
+            int[][] headers = new int[][] { { -1, 4 }, { Integer.MAX_VALUE, 4 }, { 1, -1 }, { 1, Integer.MAX_VALUE }, { 1, 1000 } };
+            for (int[] header : headers)
+            {
+                data = new DataOutputStream(new FileOutputStream(file));
+                data.writeInt(ScriptClassCache.MAGIC);
+                data.writeUTF("test.js");
+                data.writeInt(header[0]);
+                data.writeUTF("org.springframework.extensions.webscripts.processor.compiled.Script_invalid");
+                data.writeInt(header[1]);
+                data.write(new byte[] { (byte)0xCA, (byte)0xFE, (byte)0xBA, (byte)0xBE });
+                data.close();
+
+                script = new ScriptClassCache(directory).getScript(cx, SOURCE, "test.js");
+                assertEquals("42/3", exec(cx, script));
+                assertTrue(file.length() > 100);
+            }
+        }
+        finally
+        {
+            Context.exit();
+        }
+    }
+
+    public void testSyntaxError() throws Exception
+    {
+        Context cx = Context.enter();
+        try
+        {
+            new ScriptClassCache(directory).getScript(cx, "var a = ;", "broken.js");
+            fail("Failed to report syntax error");
+        }
+        catch (EvaluatorException e)
+        {
+            assertEquals("broken.js", e.sourceName());
+        }
+        finally
+        {
+            Context.exit();
+        }
+    }
+
+    private static String exec(Context cx, Script script)
+    {
+        Scriptable scope = cx.initStandardObjects();
+        return Context.toString(script.exec(cx, scope));
+    }
+}
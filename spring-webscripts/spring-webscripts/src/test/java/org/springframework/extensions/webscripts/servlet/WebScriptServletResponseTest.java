@@ -18,10 +18,18 @@
 
 package org.springframework.extensions.webscripts.servlet;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.zip.GZIPInputStream;
+
 import org.junit.Test;
 import org.springframework.mock.web.MockHttpServletResponse;
 
 import static junit.framework.TestCase.assertEquals;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertNull;
 
 /**
@@ -69,4 +77,97 @@ public class WebScriptServletResponseTest
         assertEquals("Header Access-Control-Origin should be not deleted", "abcd", mockedResponse.getHeader("Access-Control-Origin"));
         assertEquals("Header Access-Control- should be not deleted", "abcdef", mockedResponse.getHeader("Access-Control-"));
     }
+
+    @Test
+    public void testCompression() throws Exception
+    {
+        ResponseCompression compression = new ResponseCompression();
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < 1000; i++)
+        {
+            json.append("{\"item\":").append(i).append("},");
+        }
+        json.append("{}]");
+
+        // large allowed content is compressed while streamed
+        MockHttpServletResponse mockedResponse = new MockHttpServletResponse();
+        WebScriptServletResponse response = new WebScriptServletResponse(null, mockedResponse);
+        response.setCompression(compression, compression.negotiate("gzip, deflate"));
+        response.setContentType("application/json");
+        response.setContentEncoding("UTF-8");
+        response.setHeader("ETag", "\"abc\"");
+        response.setHeader("Content-Length", "12345");
+        Writer writer = response.getWriter();
+        writer.write(json.toString());
+        response.finish();
+        assertEquals("gzip", mockedResponse.getHeader("Content-Encoding"));
+        assertEquals("Accept-Encoding", mockedResponse.getHeader("Vary"));
+        assertEquals("W/\"abc\"", mockedResponse.getHeader("ETag"));
+        assertNull(mockedResponse.getHeader("Content-Length"));
+        assertArrayEquals(json.toString().getBytes("UTF-8"), gunzip(mockedResponse.getContentAsByteArray()));
+
+        // small content is not
+        mockedResponse = new MockHttpServletResponse();
+        response = new WebScriptServletResponse(null, mockedResponse);
+        response.setCompression(compression, "gzip");
+        response.setContentType("application/json");
+        response.setHeader("Content-Length", "2");
+        response.getOutputStream().write("[]".getBytes("UTF-8"));
+        response.finish();
+        assertNull(mockedResponse.getHeader("Content-Encoding"));
+        assertEquals("2", mockedResponse.getHeader("Content-Length"));
+        assertEquals("[]", mockedResponse.getContentAsString());
+
+        // nor is content that is not in the allowed list
+        mockedResponse = new MockHttpServletResponse();
+        response = new WebScriptServletResponse(null, mockedResponse);
+        response.setCompression(compression, "gzip");
+        response.setContentType("image/png");
+        byte[] bytes = json.toString().getBytes("UTF-8");
+        response.getOutputStream().write(bytes);
+        response.finish();
+        assertNull(mockedResponse.getHeader("Content-Encoding"));
+        assertArrayEquals(bytes, mockedResponse.getContentAsByteArray());
+
+        // content written a byte at a time past the minimum size is compressed
+        mockedResponse = new MockHttpServletResponse();
+        response = new WebScriptServletResponse(null, mockedResponse);
+        response.setCompression(compression, "gzip");
+        response.setContentType("application/json");
+        OutputStream out = response.getOutputStream();
+        for (int i = 0; i < bytes.length; i++)
+        {
+            out.write(bytes[i]);
+        }
+        response.finish();
+        assertEquals("gzip", mockedResponse.getHeader("Content-Encoding"));
+        assertArrayEquals(bytes, gunzip(mockedResponse.getContentAsByteArray()));
+    }
+
+    @Test
+    public void testNegotiateCompression()
+    {
+        ResponseCompression compression = new ResponseCompression();
+        assertNull(compression.negotiate(null));
+        assertNull(compression.negotiate("identity"));
+        assertEquals("gzip", compression.negotiate("gzip, deflate, br"));
+        assertEquals("deflate", compression.negotiate("gzip;q=0.5, deflate"));
+        assertEquals("deflate", compression.negotiate("gzip;q=0, *"));
+        assertNull(compression.negotiate("*;q=0"));
+        compression.setGzip(false);
+        assertEquals("deflate", compression.negotiate("gzip, deflate"));
+    }
+
+    private static byte[] gunzip(byte[] bytes) throws Exception
+    {
+        InputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) != -1)
+        {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
 }
@@ -0,0 +1,300 @@
+/**
+ * Copyright (C) 2005-2009 Alfresco Software Limited.
+ *
+ * This file is part of the Spring Surf Extension project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.extensions.webscripts.servlet.mvc;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.io.FileSystemResourceLoader;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.mock.web.MockServletContext;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.FileSystemUtils;
+import org.springframework.web.context.support.GenericWebApplicationContext;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test the Resource Controller serves cached resources
+ */
+public class ResourceControllerTest
+{
+    private static final String PATH = "test/resource.js";
+
+    private GenericWebApplicationContext context;
+    private ResourceController controller;
+    private byte[] content;
+    private File webappDir;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        context = new GenericWebApplicationContext(new MockServletContext());
+        context.refresh();
+        controller = new ResourceController();
+        controller.setApplicationContext(context);
+
+        InputStream in = ClassUtils.getDefaultClassLoader().getResourceAsStream("META-INF/" + PATH);
+        content = in.readAllBytes();
+        in.close();
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        if (webappDir != null)
+        {
+            FileSystemUtils.deleteRecursively(webappDir);
+        }
+    }
+
+    @Test
+    public void testCachedResource() throws Exception
+    {
+        // compressed variant
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/res/" + PATH);
+        request.addHeader("Accept-Encoding", "gzip, deflate");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        assertTrue(controller.dispatchResource(PATH, request, response));
+        assertEquals(200, response.getStatus());
+        assertEquals("gzip", response.getHeader("Content-Encoding"));
+        assertEquals("Accept-Encoding", response.getHeader("Vary"));
+        assertEquals(Integer.toString(response.getContentAsByteArray().length), response.getHeader("Content-Length"));
+        assertArrayEquals(content, gunzip(response.getContentAsByteArray()));
+        String gzipETag = response.getHeader("ETag");
+        assertNotNull(gzipETag);
+
+        // identity variant
+        request = new MockHttpServletRequest("GET", "/res/" + PATH);
+        response = new MockHttpServletResponse();
+        assertTrue(controller.dispatchResource(PATH, request, response));
+        assertNull(response.getHeader("Content-Encoding"));
+        assertArrayEquals(content, response.getContentAsByteArray());
+        String eTag = response.getHeader("ETag");
+        assertFalse(eTag.equals(gzipETag));
+
+        // conditional request
+        request = new MockHttpServletRequest("GET", "/res/" + PATH);
+        request.addHeader("If-None-Match", eTag);
+        response = new MockHttpServletResponse();
+        assertTrue(controller.dispatchResource(PATH, request, response));
+        assertEquals(304, response.getStatus());
+        assertEquals(0, response.getContentAsByteArray().length);
+    }
+
+    @Test
+    public void testRanges() throws Exception
+    {
+        // served from the cached content
+        assertRanges(controller);
+
+        // served from the file
+        ResourceController fileController = new ResourceController();
+        fileController.setCacheMaxWeight(0);
+        fileController.setApplicationContext(context);
+        assertRanges(fileController);
+
+        // handed to the container
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/res/" + PATH);
+        request.setAttribute("org.apache.tomcat.sendfile.support", Boolean.TRUE);
+        request.addHeader("Range", "bytes=100-199");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        assertTrue(fileController.dispatchResource(PATH, request, response));
+        assertEquals(206, response.getStatus());
+        assertEquals(0, response.getContentAsByteArray().length);
+        assertEquals(Long.valueOf(100), request.getAttribute("org.apache.tomcat.sendfile.start"));
+        assertEquals(Long.valueOf(200), request.getAttribute("org.apache.tomcat.sendfile.end"));
+    }
+
+    private void assertRanges(ResourceController controller) throws Exception
+    {
+        // single range
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/res/" + PATH);
+        request.addHeader("Accept-Encoding", "gzip");
+        request.addHeader("Range", "bytes=10-19");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        assertTrue(controller.dispatchResource(PATH, request, response));
+        assertEquals(206, response.getStatus());
+        assertEquals("bytes", response.getHeader("Accept-Ranges"));
+        assertEquals("bytes 10-19/" + content.length, response.getHeader("Content-Range"));
+        assertEquals("10", response.getHeader("Content-Length"));
+        assertNull(response.getHeader("Content-Encoding"));
+        assertArrayEquals(Arrays.copyOfRange(content, 10, 20), response.getContentAsByteArray());
+        String eTag = response.getHeader("ETag");
+
+        // multiple ranges
+        request = new MockHttpServletRequest("GET", "/res/" + PATH);
+        request.addHeader("Range", "bytes=0-4, -5");
+        response = new MockHttpServletResponse();
+        assertTrue(controller.dispatchResource(PATH, request, response));
+        assertEquals(206, response.getStatus());
+        assertTrue(response.getContentType().startsWith("multipart/byteranges; boundary="));
+        String body = response.getContentAsString();
+        assertEquals(Integer.toString(response.getContentAsByteArray().length), response.getHeader("Content-Length"));
+        assertTrue(body.contains("Content-Range: bytes 0-4/" + content.length + "\r\n\r\n" + new String(content, 0, 5, "UTF-8")));
+        int last = content.length - 5;
+        assertTrue(body.contains("Content-Range: bytes " + last + "-" + (content.length - 1) + "/" + content.length +
+                "\r\n\r\n" + new String(content, last, 5, "UTF-8")));
+
+        // unsatisfiable
+        request = new MockHttpServletRequest("GET", "/res/" + PATH);
+        request.addHeader("Range", "bytes=" + content.length + "-");
+        response = new MockHttpServletResponse();
+        assertTrue(controller.dispatchResource(PATH, request, response));
+        assertEquals(416, response.getStatus());
+        assertEquals("bytes */" + content.length, response.getHeader("Content-Range"));
+
+        // If-Range matches or the full content is sent
+        request = new MockHttpServletRequest("GET", "/res/" + PATH);
+        request.addHeader("Range", "bytes=10-19");
+        request.addHeader("If-Range", eTag);
+        response = new MockHttpServletResponse();
+        assertTrue(controller.dispatchResource(PATH, request, response));
+        assertEquals(206, response.getStatus());
+
+        request = new MockHttpServletRequest("GET", "/res/" + PATH);
+        request.addHeader("Range", "bytes=10-19");
+        request.addHeader("If-Range", "\"other\"");
+        response = new MockHttpServletResponse();
+        assertTrue(controller.dispatchResource(PATH, request, response));
+        assertEquals(200, response.getStatus());
+        assertArrayEquals(content, response.getContentAsByteArray());
+    }
+
+    @Test
+    public void testMissingResource() throws Exception
+    {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/res/test/missing.js");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        assertFalse(controller.dispatchResource("test/missing.js", request, response));
+        assertFalse(controller.dispatchResource("test/missing.js", request, response));
+    }
+
+    @Test
+    public void testChangedResource() throws Exception
+    {
+        ResourceController webappController = createWebappController();
+        webappController.setCheckInterval(0L);
+        File file = writeWebappResource("test/changed.js", "var a = 1;", 0L);
+        assertEquals("var a = 1;", dispatch(webappController, "test/changed.js"));
+        assertEquals("var a = 1;", dispatch(webappController, "test/changed.js"));
+
+        // the cached location and content are replaced once the resource has changed
+        writeWebappResource("test/changed.js", "var a = 2;", file.lastModified() + 10000L);
+        assertEquals("var a = 2;", dispatch(webappController, "test/changed.js"));
+
+        // a resource that was missing is found once it exists
+        assertNull(dispatch(webappController, "test/added.js"));
+        writeWebappResource("test/added.js", "var b = 1;", 0L);
+        assertEquals("var b = 1;", dispatch(webappController, "test/added.js"));
+    }
+
+    @Test
+    public void testUnreadableResource() throws Exception
+    {
+        // the web application resource is served if the JAR resource cannot be read
+        ResourceController webappController = new ResourceController()
+        {
+            @Override
+            public void commitResponse(String path, URL resourceUrl, HttpServletRequest request, HttpServletResponse response)
+                throws IOException
+            {
+                throw new IOException("Unable to read " + resourceUrl);
+            }
+        };
+        webappController.setCacheMaxWeight(0);
+        webappController.setApplicationContext(createWebappContext());
+        writeWebappResource(PATH, "var webapp = 1;", 0L);
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/res/" + PATH);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        assertTrue(webappController.dispatchResource(PATH, request, response));
+        assertEquals("/" + PATH, response.getIncludedUrl());
+    }
+
+    private GenericWebApplicationContext createWebappContext() throws Exception
+    {
+        webappDir = Files.createTempDirectory("webapp").toFile();
+        GenericWebApplicationContext webappContext = new GenericWebApplicationContext(
+                new MockServletContext("file:" + webappDir.getAbsolutePath(), new FileSystemResourceLoader()));
+        webappContext.refresh();
+        return webappContext;
+    }
+
+    private ResourceController createWebappController() throws Exception
+    {
+        ResourceController webappController = new ResourceController();
+        webappController.setApplicationContext(createWebappContext());
+        return webappController;
+    }
+
+    private File writeWebappResource(String path, String source, long lastModified) throws Exception
+    {
+        File file = new File(webappDir, path);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), source.getBytes(StandardCharsets.UTF_8));
+        if (lastModified != 0L)
+        {
+            file.setLastModified(lastModified);
+        }
+        return file;
+    }
+
+    private static String dispatch(ResourceController controller, String path) throws Exception
+    {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/res/" + path);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        if (!controller.dispatchResource(path, request, response))
+        {
+            return null;
+        }
+        return response.getContentAsString();
+    }
+
+    private static byte[] gunzip(byte[] bytes) throws Exception
+    {
+        InputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes));
+        try
+        {
+            return in.readAllBytes();
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,303 @@
+/**
+ * Test resource served by the ResourceController
+ */
+function test0(value)
+{
+    return "test 0: " + value;
+}
+
+function test1(value)
+{
+    return "test 1: " + value;
+}
+
+function test2(value)
+{
+    return "test 2: " + value;
+}
+
+function test3(value)
+{
+    return "test 3: " + value;
+}
+
+function test4(value)
+{
+    return "test 4: " + value;
+}
+
+function test5(value)
+{
+    return "test 5: " + value;
+}
+
+function test6(value)
+{
+    return "test 6: " + value;
+}
+
+function test7(value)
+{
+    return "test 7: " + value;
+}
+
+function test8(value)
+{
+    return "test 8: " + value;
+}
+
+function test9(value)
+{
+    return "test 9: " + value;
+}
+
+function test10(value)
+{
+    return "test 10: " + value;
+}
+
+function test11(value)
+{
+    return "test 11: " + value;
+}
+
+function test12(value)
+{
+    return "test 12: " + value;
+}
+
+function test13(value)
+{
+    return "test 13: " + value;
+}
+
+function test14(value)
+{
+    return "test 14: " + value;
+}
+
+function test15(value)
+{
+    return "test 15: " + value;
+}
+
+function test16(value)
+{
+    return "test 16: " + value;
+}
+
+function test17(value)
+{
+    return "test 17: " + value;
+}
+
+function test18(value)
+{
+    return "test 18: " + value;
+}
+
+function test19(value)
+{
+    return "test 19: " + value;
+}
+
+function test20(value)
+{
+    return "test 20: " + value;
+}
+
+function test21(value)
+{
+    return "test 21: " + value;
+}
+
+function test22(value)
+{
+    return "test 22: " + value;
+}
+
+function test23(value)
+{
+    return "test 23: " + value;
+}
+
+function test24(value)
+{
+    return "test 24: " + value;
+}
+
+function test25(value)
+{
+    return "test 25: " + value;
+}
+
+function test26(value)
+{
+    return "test 26: " + value;
+}
+
+function test27(value)
+{
+    return "test 27: " + value;
+}
+
+function test28(value)
+{
+    return "test 28: " + value;
+}
+
+function test29(value)
+{
+    return "test 29: " + value;
+}
+
+function test30(value)
+{
+    return "test 30: " + value;
+}
+
+function test31(value)
+{
+    return "test 31: " + value;
+}
+
+function test32(value)
+{
+    return "test 32: " + value;
+}
+
+function test33(value)
+{
+    return "test 33: " + value;
+}
+
+function test34(value)
+{
+    return "test 34: " + value;
+}
+
+function test35(value)
+{
+    return "test 35: " + value;
+}
+
+function test36(value)
+{
+    return "test 36: " + value;
+}
+
+function test37(value)
+{
+    return "test 37: " + value;
+}
+
+function test38(value)
+{
+    return "test 38: " + value;
+}
+
+function test39(value)
+{
+    return "test 39: " + value;
+}
+
+function test40(value)
+{
+    return "test 40: " + value;
+}
+
+function test41(value)
+{
+    return "test 41: " + value;
+}
+
+function test42(value)
+{
+    return "test 42: " + value;
+}
+
+function test43(value)
+{
+    return "test 43: " + value;
+}
+
+function test44(value)
+{
+    return "test 44: " + value;
+}
+
+function test45(value)
+{
+    return "test 45: " + value;
+}
+
+function test46(value)
+{
+    return "test 46: " + value;
+}
+
+function test47(value)
+{
+    return "test 47: " + value;
+}
+
+function test48(value)
+{
+    return "test 48: " + value;
+}
+
+function test49(value)
+{
+    return "test 49: " + value;
+}
+
+function test50(value)
+{
+    return "test 50: " + value;
+}
+
+function test51(value)
+{
+    return "test 51: " + value;
+}
+
+function test52(value)
+{
+    return "test 52: " + value;
+}
+
+function test53(value)
+{
+    return "test 53: " + value;
+}
+
+function test54(value)
+{
+    return "test 54: " + value;
+}
+
+function test55(value)
+{
+    return "test 55: " + value;
+}
+
+function test56(value)
+{
+    return "test 56: " + value;
+}
+
+function test57(value)
+{
+    return "test 57: " + value;
+}
+
+function test58(value)
+{
+    return "test 58: " + value;
+}
+
+function test59(value)
+{
+    return "test 59: " + value;
+}
+
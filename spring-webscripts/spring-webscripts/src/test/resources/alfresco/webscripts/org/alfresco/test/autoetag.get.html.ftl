@@ -0,0 +1 @@
+content ${args.v!""}
\ No newline at end of file
@@ -0,0 +1 @@
+${args.a!""} ${value}
\ No newline at end of file
@@ -0,0 +1,2 @@
+cache.maxAge = 60;
+model.value = "" + java.lang.System.nanoTime();
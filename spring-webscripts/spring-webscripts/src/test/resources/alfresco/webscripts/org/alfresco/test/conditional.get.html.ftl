@@ -0,0 +1 @@
+version ${v}
\ No newline at end of file
@@ -0,0 +1,5 @@
+if (args.fail == "true")
+{
+   throw "Web Script executed";
+}
+model.v = args.v;
@@ -0,0 +1,2 @@
+cache.ETag = "v" + args.v;
+cache.lastModified = new java.util.Date(1000000000000);